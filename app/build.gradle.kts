@@ -41,6 +41,10 @@ android {
         compose = true
         buildConfig = true
     }
+    testOptions {
+        // android.util.Log and friends are called on every path the fake backend drives
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -54,6 +58,7 @@ dependencies {
     implementation(libs.androidx.ui.tooling.preview)
     implementation(libs.androidx.material3)
     testImplementation(libs.junit)
+    testImplementation(libs.kotlinx.coroutines.test)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
     androidTestImplementation(platform(libs.androidx.compose.bom))
@@ -93,6 +98,8 @@ dependencies {
     implementation("com.amplifyframework:aws-api:2.30.1")
     implementation("com.amplifyframework:aws-storage-s3:2.30.1")
     implementation("com.amplifyframework:aws-auth-cognito:2.30.1")
+    // S3 client behind the storage plugin's escape hatch, for multipart uploads
+    implementation(libs.aws.sdk.kotlin.s3)
 
     // Gson
     implementation("com.google.code.gson:gson:2.10.1")
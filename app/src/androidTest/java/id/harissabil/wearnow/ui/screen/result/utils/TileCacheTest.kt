@@ -0,0 +1,87 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+import android.graphics.Bitmap
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Fills a [TileCache] with real tile-sized bitmaps, as a zoom and pan across an image does,
+ * and checks it stays within its byte budget and recycles every tile it lets go of.
+ * Bitmap and LruCache are framework classes, so this runs on a device.
+ */
+@RunWith(AndroidJUnit4::class)
+class TileCacheTest {
+
+    @Test
+    fun put_beyondBudget_evictsLeastRecentlyUsedAndRecyclesIt() {
+        val cache = TileCache(maxBytes = 3 * TILE_BYTES)
+        val tiles = (0 until 4).associate { column -> TileKey(1, column, 0) to newTile() }
+
+        tiles.entries.take(3).forEach { (key, tile) -> cache.put(key, tile) }
+        // Touched, so the second tile is now the least recently used
+        assertSame(tiles.getValue(TileKey(1, 0, 0)), cache[TileKey(1, 0, 0)])
+        val (lastKey, lastTile) = tiles.entries.last()
+        cache.put(lastKey, lastTile)
+
+        assertEquals(3 * TILE_BYTES, cache.sizeBytes)
+        assertFalse(TileKey(1, 1, 0) in cache)
+        assertTrue(tiles.getValue(TileKey(1, 1, 0)).isRecycled)
+        listOf(0, 2, 3).forEach { column ->
+            assertFalse(tiles.getValue(TileKey(1, column, 0)).isRecycled)
+        }
+    }
+
+    @Test
+    fun scriptedPan_staysWithinBudget() {
+        val cache = TileCache(maxBytes = 6 * TILE_BYTES)
+        val released = mutableListOf<Bitmap>()
+
+        // A 2x3 viewport panning right across a 12 column grid, then zooming out a level
+        for (sampleSize in listOf(1, 2)) {
+            for (firstColumn in 0 until 10) {
+                val visible = (firstColumn until firstColumn + 2).flatMap { column ->
+                    (0 until 3).map { row -> TileKey(sampleSize, column, row) }
+                }.toSet()
+                cache.retainOnly(visible)
+                visible.filterNot { it in cache }.forEach { key ->
+                    cache.put(key, newTile().also(released::add))
+                }
+                assertTrue("${cache.sizeBytes} bytes cached", cache.sizeBytes <= 6 * TILE_BYTES)
+                visible.forEach { assertTrue("$it is not cached", it in cache) }
+            }
+        }
+
+        cache.clear()
+        assertEquals(0, cache.sizeBytes)
+        assertTrue(released.all { it.isRecycled })
+    }
+
+    @Test
+    fun retainOnly_recyclesTilesThatLeftTheViewport() {
+        val cache = TileCache(maxBytes = 4 * TILE_BYTES)
+        val kept = TileKey(2, 0, 0)
+        val dropped = TileKey(2, 1, 0)
+        val keptTile = newTile().also { cache.put(kept, it) }
+        val droppedTile = newTile().also { cache.put(dropped, it) }
+
+        cache.retainOnly(setOf(kept))
+
+        assertSame(keptTile, cache[kept])
+        assertNull(cache[dropped])
+        assertTrue(droppedTile.isRecycled)
+        assertEquals(TILE_BYTES, cache.sizeBytes)
+    }
+
+    private fun newTile(): Bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888)
+
+    private companion object {
+        const val TILE_SIZE = 512
+        const val TILE_BYTES = TILE_SIZE * TILE_SIZE * 4
+    }
+}
@@ -6,19 +6,20 @@ import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.core.Amplify
-import com.amplifyframework.datastore.generated.model.UserPhoto
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
 import id.harissabil.wearnow.ui.navigation.Route
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 
-class MainViewModel : ViewModel() {
+class MainViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
     var splashCondition by mutableStateOf(true)
         private set
@@ -58,49 +59,15 @@ class MainViewModel : ViewModel() {
         }
     }
 
-    private suspend fun checkIfUserSignedIn(): Boolean =
-        suspendCancellableCoroutine { continuation ->
-            try {
-                Amplify.Auth.fetchAuthSession(
-                    { result -> continuation.resume(result.isSignedIn) },
-                    { error -> continuation.resumeWithException(error) }
-                )
-            } catch (e: Exception) {
-                continuation.resumeWithException(e)
-            }
-        }
+    private suspend fun checkIfUserSignedIn(): Boolean = auth.isSignedIn()
 
-    suspend fun checkIfUserHasPhoto(): Boolean = suspendCancellableCoroutine { continuation ->
+    suspend fun checkIfUserHasPhoto(): Boolean {
         try {
-            // Get current user ID
-            Amplify.Auth.getCurrentUser(
-                { user ->
-                    val userId = user.userId
-
-                    // Query UserPhoto for this user
-                    Amplify.API.query(
-                        ModelQuery.list(
-                            UserPhoto::class.java,
-                            UserPhoto.USER_ID.eq(userId)
-                        ),
-                        { response ->
-                            // Check if any photos exist
-                            val hasPhotos = response.data.items.iterator().hasNext()
-                            continuation.resume(hasPhotos)
-                        },
-                        { error ->
-                            Log.e(TAG, "Failed to query user photos: $error")
-                            continuation.resumeWithException(error)
-                        }
-                    )
-                },
-                { error ->
-                    Log.e(TAG, "Failed to get current user: $error")
-                    continuation.resumeWithException(error)
-                }
-            )
+            // Query UserPhoto for the current user
+            return api.listUserPhotos(auth.getUserId()).isNotEmpty()
         } catch (e: Exception) {
-            continuation.resumeWithException(e)
+            Log.e(TAG, "Failed to query user photos: $e")
+            throw e
         }
     }
 
@@ -8,11 +8,31 @@ import com.amplifyframework.auth.cognito.AWSCognitoAuthPlugin
 import com.amplifyframework.core.Amplify
 import com.amplifyframework.core.configuration.AmplifyOutputs
 import com.amplifyframework.storage.s3.AWSS3StoragePlugin
+import id.harissabil.wearnow.data.HistoryDeletionEngine
+import id.harissabil.wearnow.data.PendingPhotoUploads
+import id.harissabil.wearnow.data.S3MultipartStorage
+import id.harissabil.wearnow.data.UploadSessionStore
+import id.harissabil.wearnow.ui.screen.home.utils.CameraSessionManager
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.HistoryPlaceholders
+import id.harissabil.wearnow.utils.LogcatSink
+import id.harissabil.wearnow.utils.TempFileManager
+import id.harissabil.wearnow.utils.Tracer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 
 class MyAmplifyApp : Application() {
+
+    private val appScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
     override fun onCreate() {
         super.onCreate()
 
+        // Release builds only keep warnings and errors, debug and info calls become no-ops
+        AppLog.install(LogcatSink, if (BuildConfig.DEBUG) AppLog.DEBUG else AppLog.WARN)
+
         try {
             Amplify.addPlugin(AWSCognitoAuthPlugin())
             Amplify.addPlugin(AWSApiPlugin())
@@ -23,6 +43,9 @@ class MyAmplifyApp : Application() {
             )
             Log.i(TAG, "Amplify initialized successfully")
 
+            // Multipart uploads talk to the bucket directly
+            S3MultipartStorage.init(applicationContext)
+
             // Verify plugins are loaded
             Log.i(TAG, "Auth plugin: ${Amplify.Auth.plugins}")
             Log.i(TAG, "API plugin: ${Amplify.API.plugins}")
@@ -30,6 +53,40 @@ class MyAmplifyApp : Application() {
         } catch (error: AmplifyException) {
             Log.e("MyAmplifyApp", "Could not initialize Amplify", error)
         }
+
+        // Export try-on spans locally for the debug panel and offline analysis
+        Tracer.init(this)
+
+        // Multipart upload progress survives restarts so interrupted uploads can continue
+        UploadSessionStore.init(this)
+
+        // Blurhash placeholders history cards render before their images load
+        HistoryPlaceholders.init(this)
+
+        // Start CameraX initialization early so the Home camera preview doesn't wait on it
+        CameraSessionManager.warmUp(this)
+
+        // Remove temp images left behind by previous sessions off the main thread
+        appScope.launch {
+            val swept = TempFileManager.sweepOrphans(this@MyAmplifyApp)
+            val trimmed = TempFileManager.enforceQuota(this@MyAmplifyApp)
+            Log.i(TAG, "Temp cleanup reclaimed ${(swept + trimmed) / 1024}KB")
+        }
+
+        // Drop interrupted photo uploads nobody came back to
+        appScope.launch {
+            val dropped = PendingPhotoUploads(this@MyAmplifyApp).sweep()
+            if (dropped > 0) Log.i(TAG, "Dropped $dropped expired pending uploads")
+        }
+
+        // Finish S3 removals that failed after their try-on records were deleted
+        appScope.launch {
+            try {
+                HistoryDeletionEngine(this@MyAmplifyApp).drainPendingQueue()
+            } catch (e: Exception) {
+                Log.w(TAG, "Pending deletion retry failed", e)
+            }
+        }
     }
 
     companion object {
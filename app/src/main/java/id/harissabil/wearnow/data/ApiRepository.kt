@@ -0,0 +1,129 @@
+package id.harissabil.wearnow.data
+
+import android.util.Log
+import com.amplifyframework.api.aws.GsonVariablesSerializer
+import com.amplifyframework.api.graphql.GraphQLResponse
+import com.amplifyframework.api.graphql.SimpleGraphQLRequest
+import com.amplifyframework.api.graphql.model.ModelMutation
+import com.amplifyframework.api.graphql.model.ModelQuery
+import com.amplifyframework.core.Amplify
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.UserPhoto
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * GraphQL operations on the app's models
+ */
+interface ApiRepository {
+
+    suspend fun getTryOnHistory(historyId: String): TryOnHistory?
+
+    /**
+     * Try-ons of [identityId], newest first
+     */
+    suspend fun listTryOnHistories(identityId: String): List<TryOnHistory>
+
+    suspend fun createTryOnHistory(history: TryOnHistory): TryOnHistory
+
+    suspend fun listUserPhotos(userId: String): List<UserPhoto>
+
+    suspend fun createUserPhoto(photo: UserPhoto): UserPhoto
+
+    /**
+     * Send a hand-written mutation [document]. The response data is the raw JSON of the
+     * `data` object, errors are returned in the response rather than thrown.
+     */
+    suspend fun mutate(document: String, variables: Map<String, Any>): GraphQLResponse<String>
+}
+
+class AmplifyApiRepository : ApiRepository {
+
+    override suspend fun getTryOnHistory(historyId: String): TryOnHistory? =
+        suspendCancellableCoroutine { continuation ->
+            Amplify.API.query(
+                ModelQuery.get(TryOnHistory::class.java, historyId),
+                { response -> continuation.resume(response.data) },
+                { error ->
+                    Log.e(TAG, "Failed to get TryOnHistory", error)
+                    continuation.resumeWithException(error)
+                }
+            )
+        }
+
+    override suspend fun listTryOnHistories(identityId: String): List<TryOnHistory> =
+        suspendCancellableCoroutine { continuation ->
+            Amplify.API.query(
+                ModelQuery.list(TryOnHistory::class.java, TryOnHistory.USER_ID.eq(identityId)),
+                { response ->
+                    val histories = response.data?.items?.toList()?.sortedByDescending {
+                        it.createdAt.toDate()
+                    } ?: emptyList()
+                    continuation.resume(histories)
+                },
+                { error ->
+                    Log.e(TAG, "Failed to fetch TryOnHistory", error)
+                    continuation.resumeWithException(error)
+                }
+            )
+        }
+
+    override suspend fun createTryOnHistory(history: TryOnHistory): TryOnHistory =
+        suspendCancellableCoroutine { continuation ->
+            Amplify.API.mutate(
+                ModelMutation.create(history),
+                { response -> continuation.resume(response.data) },
+                { error ->
+                    Log.e(TAG, "Failed to create TryOnHistory", error)
+                    continuation.resumeWithException(error)
+                }
+            )
+        }
+
+    override suspend fun listUserPhotos(userId: String): List<UserPhoto> =
+        suspendCancellableCoroutine { continuation ->
+            Amplify.API.query(
+                ModelQuery.list(UserPhoto::class.java, UserPhoto.USER_ID.eq(userId)),
+                { response -> continuation.resume(response.data?.items?.toList() ?: emptyList()) },
+                { error ->
+                    Log.e(TAG, "Failed to query user photos", error)
+                    continuation.resumeWithException(error)
+                }
+            )
+        }
+
+    override suspend fun createUserPhoto(photo: UserPhoto): UserPhoto =
+        suspendCancellableCoroutine { continuation ->
+            Amplify.API.mutate(
+                ModelMutation.create(photo),
+                { response -> continuation.resume(response.data) },
+                { error ->
+                    Log.e(TAG, "Failed to create UserPhoto record", error)
+                    continuation.resumeWithException(error)
+                }
+            )
+        }
+
+    override suspend fun mutate(
+        document: String,
+        variables: Map<String, Any>,
+    ): GraphQLResponse<String> = suspendCancellableCoroutine { continuation ->
+        val request = SimpleGraphQLRequest<String>(
+            document,
+            variables,
+            String::class.java,
+            GsonVariablesSerializer()
+        )
+
+        Amplify.API.mutate(
+            request,
+            { response -> continuation.resume(response) },
+            { error -> continuation.resumeWithException(error) }
+        )
+    }
+
+    companion object {
+        private const val TAG = "AmplifyApiRepository"
+    }
+}
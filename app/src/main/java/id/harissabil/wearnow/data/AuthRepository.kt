@@ -0,0 +1,104 @@
+package id.harissabil.wearnow.data
+
+import android.util.Log
+import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
+import com.amplifyframework.auth.cognito.result.AWSCognitoAuthSignOutResult
+import com.amplifyframework.auth.options.AuthSignOutOptions
+import com.amplifyframework.core.Amplify
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Session information of the signed-in user
+ */
+interface AuthRepository {
+
+    suspend fun isSignedIn(): Boolean
+
+    /**
+     * Cognito user sub, the owner of UserPhoto records
+     */
+    suspend fun getUserId(): String
+
+    /**
+     * Identity pool ID, used in S3 paths and stored as TryOnHistory.userId
+     */
+    suspend fun getIdentityId(): String
+
+    /**
+     * Sign out on every device. Returns false when the user is still signed in afterwards.
+     */
+    suspend fun signOut(): Boolean
+}
+
+class AmplifyAuthRepository : AuthRepository {
+
+    override suspend fun isSignedIn(): Boolean = suspendCancellableCoroutine { continuation ->
+        Amplify.Auth.fetchAuthSession(
+            { result -> continuation.resume(result.isSignedIn) },
+            { error -> continuation.resumeWithException(error) }
+        )
+    }
+
+    override suspend fun getUserId(): String = suspendCancellableCoroutine { continuation ->
+        Amplify.Auth.fetchAuthSession(
+            { result ->
+                val cognitoAuthSession = result as AWSCognitoAuthSession
+                continuation.resume(cognitoAuthSession.userSubResult.value as String)
+            },
+            { error ->
+                Log.e(TAG, "Failed to get userId", error)
+                continuation.resumeWithException(error)
+            }
+        )
+    }
+
+    override suspend fun getIdentityId(): String = suspendCancellableCoroutine { continuation ->
+        Amplify.Auth.fetchAuthSession(
+            { result ->
+                val cognitoAuthSession = result as AWSCognitoAuthSession
+                continuation.resume(cognitoAuthSession.identityIdResult.value as String)
+            },
+            { error ->
+                Log.e(TAG, "Failed to get identityId", error)
+                continuation.resumeWithException(error)
+            }
+        )
+    }
+
+    override suspend fun signOut(): Boolean = suspendCancellableCoroutine { continuation ->
+        val options = AuthSignOutOptions.builder()
+            .globalSignOut(true)
+            .build()
+
+        Amplify.Auth.signOut(options) { result ->
+            when (result) {
+                is AWSCognitoAuthSignOutResult.CompleteSignOut -> {
+                    Log.i(TAG, "Signed out successfully")
+                    continuation.resume(true)
+                }
+
+                is AWSCognitoAuthSignOutResult.PartialSignOut -> {
+                    // Some remote steps failed, but the user is signed out of the device
+                    result.hostedUIError?.let { Log.e(TAG, "HostedUI Error", it.exception) }
+                    result.globalSignOutError?.let { Log.e(TAG, "GlobalSignOut Error", it.exception) }
+                    result.revokeTokenError?.let { Log.e(TAG, "RevokeToken Error", it.exception) }
+                    Log.w(TAG, "Partial sign out completed")
+                    continuation.resume(true)
+                }
+
+                is AWSCognitoAuthSignOutResult.FailedSignOut -> {
+                    Log.e(TAG, "Sign out failed", result.exception)
+                    continuation.resumeWithException(result.exception)
+                }
+
+                else -> continuation.resume(false)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "AmplifyAuthRepository"
+    }
+}
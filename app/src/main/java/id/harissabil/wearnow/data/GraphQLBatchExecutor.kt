@@ -0,0 +1,154 @@
+package id.harissabil.wearnow.data
+
+import android.os.SystemClock
+import android.util.Log
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * A single TryOnHistory mutation that can be sent as part of a batch
+ */
+sealed interface HistoryBatchOperation {
+    val historyId: String
+
+    data class Delete(override val historyId: String) : HistoryBatchOperation
+
+    /**
+     * Put a FAILED try-on back into PROCESSING before its job is triggered again
+     */
+    data class ResetForRetry(override val historyId: String) : HistoryBatchOperation
+}
+
+/**
+ * Sends many TryOnHistory mutations as few requests as possible.
+ *
+ * Operations of the same kind are chunked into multi-operation GraphQL documents where every
+ * mutation gets its own alias, so N items cost N / [batchSize] round trips. At most
+ * [maxConcurrentBatches] requests are in flight. Errors are mapped back to items through the
+ * alias in their path, so a batch can partially succeed and each item reports its own result.
+ */
+class GraphQLBatchExecutor(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+    private val maxConcurrentBatches: Int = DEFAULT_MAX_CONCURRENT_BATCHES,
+) {
+
+    suspend fun execute(operations: List<HistoryBatchOperation>): Map<String, Result<Unit>> =
+        coroutineScope {
+            if (operations.isEmpty()) return@coroutineScope emptyMap()
+            val startedAt = SystemClock.elapsedRealtime()
+            val permits = Semaphore(maxConcurrentBatches)
+
+            val batches = operations
+                .groupBy { it::class }
+                .values
+                .flatMap { it.chunked(batchSize) }
+
+            val results = batches.map { batch ->
+                async { permits.withPermit { executeBatch(batch) } }
+            }.awaitAll().fold(emptyMap<String, Result<Unit>>()) { acc, map -> acc + map }
+
+            Log.i(
+                TAG,
+                "Executed ${operations.size} operations in ${batches.size} batches, " +
+                        "${results.values.count { it.isFailure }} failed, " +
+                        "${SystemClock.elapsedRealtime() - startedAt}ms"
+            )
+            results
+        }
+
+    private suspend fun executeBatch(batch: List<HistoryBatchOperation>): Map<String, Result<Unit>> {
+        val aliases = batch.indices.map { "op$it" }
+        val spec = specFor(batch.first())
+
+        val declarations = batch.indices.joinToString(", ") { index ->
+            "\$input$index: ${spec.inputType}!" +
+                    (spec.conditionType?.let { ", \$condition$index: $it" } ?: "")
+        }
+        val selections = batch.indices.joinToString("\n") { index ->
+            val condition = if (spec.conditionType != null) ", condition: \$condition$index" else ""
+            "  ${aliases[index]}: ${spec.field}(input: \$input$index$condition) { id }"
+        }
+        val document = "mutation Batch${spec.field.replaceFirstChar { it.uppercase() }}($declarations) {\n$selections\n}"
+        val variables = buildMap<String, Any> {
+            batch.forEachIndexed { index, operation ->
+                put("input$index", inputFor(operation))
+                conditionFor(operation)?.let { put("condition$index", it) }
+            }
+        }
+
+        return try {
+            val (data, erroredAliases) = mutate(document, variables)
+            batch.withIndex().associate { (index, operation) ->
+                val alias = aliases[index]
+                val succeeded = data?.get(alias)?.isJsonNull == false && alias !in erroredAliases
+                operation.historyId to if (succeeded) {
+                    Result.success(Unit)
+                } else {
+                    Result.failure(
+                        IllegalStateException(erroredAliases[alias] ?: "No result for ${operation.historyId}")
+                    )
+                }
+            }
+        } catch (e: Exception) {
+            // The whole request failed (network, auth), every item in it failed
+            Log.e(TAG, "Batch of ${batch.size} ${spec.field} operations failed", e)
+            batch.associate { it.historyId to Result.failure(e) }
+        }
+    }
+
+    private suspend fun mutate(
+        document: String,
+        variables: Map<String, Any>,
+    ): Pair<JsonObject?, Map<String, String>> {
+        val response = api.mutate(document, variables)
+        val data = response.data?.let { JsonParser.parseString(it) }
+            ?.takeIf { it.isJsonObject }
+            ?.asJsonObject
+        val erroredAliases = response.errors.mapNotNull { error ->
+            val alias = error.path?.firstOrNull()?.takeIf { it.isString }?.asString
+            alias?.let { it to error.message }
+        }.toMap()
+        return data to erroredAliases
+    }
+
+    private class MutationSpec(val field: String, val inputType: String, val conditionType: String? = null)
+
+    private fun specFor(operation: HistoryBatchOperation): MutationSpec = when (operation) {
+        is HistoryBatchOperation.Delete -> MutationSpec("deleteTryOnHistory", "DeleteTryOnHistoryInput")
+        is HistoryBatchOperation.ResetForRetry -> MutationSpec(
+            "updateTryOnHistory",
+            "UpdateTryOnHistoryInput",
+            "ModelTryOnHistoryConditionInput"
+        )
+    }
+
+    // Only a FAILED record may be reset, so a job that is running or done is never restarted
+    private fun conditionFor(operation: HistoryBatchOperation): Map<String, Any>? = when (operation) {
+        is HistoryBatchOperation.Delete -> null
+        is HistoryBatchOperation.ResetForRetry -> mapOf(
+            "status" to mapOf("eq" to TryOnHistoryStatus.FAILED.name)
+        )
+    }
+
+    private fun inputFor(operation: HistoryBatchOperation): Map<String, Any?> = when (operation) {
+        is HistoryBatchOperation.Delete -> mapOf("id" to operation.historyId)
+        is HistoryBatchOperation.ResetForRetry -> mapOf(
+            "id" to operation.historyId,
+            "status" to TryOnHistoryStatus.PROCESSING.name,
+            "errorMessage" to null
+        )
+    }
+
+    companion object {
+        private const val TAG = "GraphQLBatchExecutor"
+        const val DEFAULT_BATCH_SIZE = 25
+        const val DEFAULT_MAX_CONCURRENT_BATCHES = 3
+    }
+}
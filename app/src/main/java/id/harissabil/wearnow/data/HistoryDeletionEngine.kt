@@ -0,0 +1,165 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import coil.annotation.ExperimentalCoilApi
+import coil.imageLoader
+import coil.memory.MemoryCache
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import id.harissabil.wearnow.ui.screen.result.utils.ResultShareExporter
+import id.harissabil.wearnow.utils.HistoryPlaceholders
+import id.harissabil.wearnow.utils.LocalImageCache
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Deletes try-ons together with everything they own.
+ *
+ * For each history the record is deleted first; only then are its garment and result
+ * objects removed from S3 (the user photo is shared between try-ons and is kept). Records
+ * go out as batched mutations through [GraphQLBatchExecutor] and object removals for a
+ * whole selection run as one bounded-concurrency batch. Removals that fail are persisted
+ * in [PendingDeletionQueue] and retried by [drainPendingQueue]. Local copies (handoff
+ * entry, signed URLs, image files, Coil caches, share exports) are purged as well.
+ * Deleting a try-on again is harmless: a record that is already gone counts as deleted.
+ */
+class HistoryDeletionEngine(
+    private val storage: StorageRepository,
+    private val batchExecutor: GraphQLBatchExecutor,
+    private val pendingQueue: PendingDeletionQueue,
+    // Copies kept on the device (files, image caches), tests without Android skip them
+    private val purgeDeviceCopies: (history: TryOnHistory, keys: List<String>) -> Unit,
+) {
+
+    constructor(
+        context: Context,
+        storage: StorageRepository = AmplifyStorageRepository(),
+        batchExecutor: GraphQLBatchExecutor = GraphQLBatchExecutor(),
+        pendingQueue: PendingDeletionQueue = SharedPreferencesPendingDeletionQueue(context),
+    ) : this(storage, batchExecutor, pendingQueue, { history, keys ->
+        purgeFromDevice(context.applicationContext, history, keys)
+    })
+
+    data class DeletionResult(
+        val deletedIds: List<String>,
+        val failures: Map<String, Throwable>,
+        val pendingObjectRemovals: Int,
+    )
+
+    suspend fun delete(history: TryOnHistory): DeletionResult = deleteAll(listOf(history))
+
+    suspend fun deleteAll(histories: List<TryOnHistory>): DeletionResult = coroutineScope {
+        val startedAt = SystemClock.elapsedRealtime()
+
+        val outcomes = batchExecutor.execute(histories.map { HistoryBatchOperation.Delete(it.id) })
+
+        // A record that is already gone was deleted by an earlier run, its objects still go
+        fun isDeleted(history: TryOnHistory): Boolean {
+            val outcome = outcomes[history.id] ?: return false
+            return outcome.isSuccess || outcome.exceptionOrNull()?.message
+                ?.contains("conditional request failed", ignoreCase = true) == true
+        }
+
+        val deleted = histories.filter(::isDeleted)
+        val failures = histories
+            .filterNot(::isDeleted)
+            .associate { history ->
+                history.id to (outcomes[history.id]?.exceptionOrNull()
+                    ?: IllegalStateException("No result for ${history.id}"))
+            }
+
+        // Records are gone, so queue their objects before touching S3 in case we die mid-way
+        val keys = deleted.flatMap { ownedObjectKeys(it) }.distinct()
+        pendingQueue.addAll(keys)
+
+        deleted.forEach { purgeLocalCaches(it, ownedObjectKeys(it)) }
+
+        // Include removals left over from earlier runs in the same batch
+        val remaining = removeObjects(pendingQueue.snapshot())
+
+        Log.i(
+            TAG,
+            "Deleted ${deleted.size}/${histories.size} try-ons and ${keys.size} objects " +
+                    "in ${SystemClock.elapsedRealtime() - startedAt}ms, $remaining removals pending"
+        )
+        DeletionResult(deleted.map { it.id }, failures, remaining)
+    }
+
+    /**
+     * Retry object removals that failed previously. Returns the number still pending.
+     */
+    suspend fun drainPendingQueue(): Int {
+        val pending = pendingQueue.snapshot()
+        if (pending.isEmpty()) return 0
+        Log.d(TAG, "Retrying ${pending.size} pending object removals")
+        return removeObjects(pending)
+    }
+
+    private suspend fun removeObjects(keys: Set<String>): Int = coroutineScope {
+        if (keys.isEmpty()) return@coroutineScope 0
+        val permits = Semaphore(MAX_CONCURRENT_REQUESTS)
+
+        val removed = keys.map { key ->
+            async {
+                permits.withPermit {
+                    try {
+                        storage.remove(key)
+                        key
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Object removal failed, will retry later: $key", e)
+                        null
+                    }
+                }
+            }
+        }.awaitAll().filterNotNull()
+
+        pendingQueue.removeAll(removed)
+        keys.size - removed.size
+    }
+
+    private fun purgeLocalCaches(history: TryOnHistory, keys: List<String>) {
+        TryOnHandoffCache.remove(history.id)
+        TryOnMetadataCache.remove(history.id)
+        // Needs the signed URLs, so before they are dropped
+        purgeDeviceCopies(history, keys)
+        PresignedUrlResolver.invalidate(keys)
+    }
+
+    companion object {
+        private const val TAG = "HistoryDeletionEngine"
+        private const val MAX_CONCURRENT_REQUESTS = 4
+
+        /**
+         * S3 objects that belong to a single try-on
+         */
+        fun ownedObjectKeys(history: TryOnHistory): List<String> =
+            listOfNotNull(
+                StorageKeys.fromStoredValue(history.garmentPhotoUrl),
+                StorageKeys.fromStoredValue(history.resultPhotoUrl)
+            )
+
+        @OptIn(ExperimentalCoilApi::class)
+        private fun purgeFromDevice(context: Context, history: TryOnHistory, keys: List<String>) {
+            ResultShareExporter.remove(context, history.id)
+            HistoryPlaceholders.remove(history.id)
+
+            val imageLoader = context.imageLoader
+            keys.forEach { key ->
+                PresignedUrlResolver.cachedUrl(key)?.let { url ->
+                    LocalImageCache.remove(context, url)
+                    imageLoader.memoryCache?.remove(MemoryCache.Key(url))
+                    imageLoader.diskCache?.remove(url)
+                }
+            }
+        }
+    }
+}
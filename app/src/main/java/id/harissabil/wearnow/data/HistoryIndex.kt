@@ -0,0 +1,215 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import java.util.TreeSet
+
+/**
+ * Local secondary index over the cached try-on history, so the history screen filters
+ * and sorts without a round trip.
+ *
+ * Records are indexed by status, garment class and merge style, the last two read from
+ * their metadata with the defaults a try-on runs with when the options are missing, and
+ * ordered by createdAt. The index is updated record by record as they sync: a record
+ * whose updatedAt didn't change is skipped. Calls are synchronized: the view model syncs
+ * a reload off the main thread while filters keep querying from it, so [sync] reads the
+ * records outside the monitor and only holds it to swap the changed entries in.
+ *
+ * Records are read through [Record]. Try-on records are indexed through the TryOnHistory
+ * overloads of [upsert] and [sync] in HistoryIndexRecords.kt.
+ */
+class HistoryIndex(
+    private val clockMs: () -> Long = System::currentTimeMillis,
+) {
+
+    /**
+     * Filter and order of a query, null fields match every record. The createdAt range is
+     * in epoch milliseconds, [createdFromMs] inclusive and [createdUntilMs] exclusive.
+     */
+    data class Query(
+        val status: TryOnHistoryStatus? = null,
+        val garmentClass: String? = null,
+        val mergeStyle: String? = null,
+        val createdFromMs: Long? = null,
+        val createdUntilMs: Long? = null,
+        val newestFirst: Boolean = true,
+    ) {
+        val isFiltered: Boolean
+            get() = status != null || garmentClass != null || mergeStyle != null ||
+                createdFromMs != null || createdUntilMs != null
+    }
+
+    /**
+     * The fields of a try-on the index reads. [garmentClass] and [mergeStyle] are only read
+     * when the record changed, [createdAtMs] is null for copies built locally.
+     */
+    interface Record {
+        val id: String
+        val createdAtMs: Long?
+        val updatedAt: String?
+        val status: TryOnHistoryStatus?
+        val garmentClass: String
+        val mergeStyle: String
+    }
+
+    private class Entry(
+        val id: String,
+        val createdAtMs: Long,
+        val updatedAt: String?,
+        val status: TryOnHistoryStatus?,
+        val garmentClass: String,
+        val mergeStyle: String,
+    )
+
+    private val entries = HashMap<String, Entry>()
+    private val byStatus = HashMap<TryOnHistoryStatus, MutableSet<String>>()
+    private val byGarmentClass = HashMap<String, MutableSet<String>>()
+    private val byMergeStyle = HashMap<String, MutableSet<String>>()
+    private val byCreatedAt = TreeSet(CREATED_AT_ORDER)
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    @Synchronized
+    operator fun contains(historyId: String): Boolean = historyId in entries
+
+    /**
+     * Index [record], replacing its previous version. Returns false when the stored
+     * version is the same and nothing changed.
+     */
+    @Synchronized
+    fun upsert(record: Record): Boolean {
+        val entry = entryFor(record, entries[record.id]) ?: return false
+        replace(entry)
+        return true
+    }
+
+    /**
+     * Make the index hold exactly [records], re-indexing only the records that changed.
+     * Returns the number of records added, updated or removed.
+     *
+     * Changed records are read against a copy of the entries, outside the monitor, since
+     * reading their options parses their metadata.
+     */
+    fun sync(records: Collection<Record>): Int {
+        val snapshot = synchronized(this) { HashMap(entries) }
+        val changed = records.mapNotNull { entryFor(it, snapshot[it.id]) }
+        val ids = records.mapTo(HashSet(records.size)) { it.id }
+
+        synchronized(this) {
+            val removed = entries.keys.filter { it !in ids }
+            removed.forEach(::remove)
+            changed.forEach(::replace)
+            return removed.size + changed.size
+        }
+    }
+
+    @Synchronized
+    fun remove(historyId: String) {
+        entries[historyId]?.let(::unlink)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        byStatus.clear()
+        byGarmentClass.clear()
+        byMergeStyle.clear()
+        byCreatedAt.clear()
+    }
+
+    /**
+     * IDs of the records matching [query], ordered by createdAt.
+     *
+     * A selective equality filter scans and sorts its posting set, so the cost follows the
+     * number of candidates rather than the size of the history. Otherwise the createdAt
+     * range is walked in order, which is cheaper than sorting a large share of it.
+     */
+    @Synchronized
+    fun query(query: Query = Query()): List<String> {
+        val fromMs = query.createdFromMs ?: Long.MIN_VALUE
+        val untilMs = query.createdUntilMs ?: Long.MAX_VALUE
+        if (fromMs >= untilMs) return emptyList()
+
+        val postings = listOf(
+            query.status?.let { byStatus[it] ?: return emptyList() },
+            query.garmentClass?.let { byGarmentClass[it] ?: return emptyList() },
+            query.mergeStyle?.let { byMergeStyle[it] ?: return emptyList() }
+        ).filterNotNull()
+
+        fun matches(entry: Entry): Boolean =
+            (query.status == null || entry.status == query.status) &&
+                (query.garmentClass == null || entry.garmentClass == query.garmentClass) &&
+                (query.mergeStyle == null || entry.mergeStyle == query.mergeStyle)
+
+        val candidates = postings.minByOrNull { it.size }
+        if (candidates == null || candidates.size * SORT_SELECTIVITY > entries.size) {
+            val range = byCreatedAt.subSet(bound(fromMs), true, bound(untilMs), false)
+            val ordered = if (query.newestFirst) range.descendingSet() else range
+            return ordered.mapNotNull { entry -> entry.id.takeIf { matches(entry) } }
+        }
+
+        val matching = candidates.mapNotNull { id ->
+            entries[id]?.takeIf { it.createdAtMs >= fromMs && it.createdAtMs < untilMs && matches(it) }
+        }
+        val order = if (query.newestFirst) CREATED_AT_ORDER.reversed() else CREATED_AT_ORDER
+        return matching.sortedWith(order).map { it.id }
+    }
+
+    /**
+     * Entry for [record], or null when [previous] is the same version
+     */
+    private fun entryFor(record: Record, previous: Entry?): Entry? {
+        val updatedAt = record.updatedAt
+        if (previous != null && updatedAt != null && previous.updatedAt == updatedAt) return null
+
+        // Copies built locally have no timestamps, they keep the position of the record
+        return Entry(
+            id = record.id,
+            createdAtMs = record.createdAtMs ?: previous?.createdAtMs ?: clockMs(),
+            updatedAt = updatedAt,
+            status = record.status,
+            garmentClass = record.garmentClass,
+            mergeStyle = record.mergeStyle
+        )
+    }
+
+    private fun replace(entry: Entry) {
+        entries[entry.id]?.let(::unlink)
+        link(entry)
+    }
+
+    private fun link(entry: Entry) {
+        entries[entry.id] = entry
+        entry.status?.let { byStatus.getOrPut(it) { HashSet() }.add(entry.id) }
+        byGarmentClass.getOrPut(entry.garmentClass) { HashSet() }.add(entry.id)
+        byMergeStyle.getOrPut(entry.mergeStyle) { HashSet() }.add(entry.id)
+        byCreatedAt.add(entry)
+    }
+
+    private fun unlink(entry: Entry) {
+        entries.remove(entry.id)
+        entry.status?.let { byStatus.removePosting(it, entry.id) }
+        byGarmentClass.removePosting(entry.garmentClass, entry.id)
+        byMergeStyle.removePosting(entry.mergeStyle, entry.id)
+        byCreatedAt.remove(entry)
+    }
+
+    private fun <K> HashMap<K, MutableSet<String>>.removePosting(key: K, historyId: String) {
+        val ids = get(key) ?: return
+        ids.remove(historyId)
+        if (ids.isEmpty()) remove(key)
+    }
+
+    // Sorts before every record created at [createdAtMs], IDs are never empty
+    private fun bound(createdAtMs: Long) = Entry("", createdAtMs, null, null, "", "")
+
+    companion object {
+        // A posting set is sorted when it holds at most 1/SORT_SELECTIVITY of the records
+        private const val SORT_SELECTIVITY = 8
+
+        private val CREATED_AT_ORDER = Comparator<Entry> { a, b ->
+            val byTime = a.createdAtMs.compareTo(b.createdAtMs)
+            if (byTime != 0) byTime else a.id.compareTo(b.id)
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+
+/**
+ * [HistoryIndex.Record] view of a try-on. Options missing from its metadata read as the
+ * defaults a try-on runs with, and the metadata is only parsed when the index asks.
+ */
+private class TryOnHistoryRecord(private val history: TryOnHistory) : HistoryIndex.Record {
+    override val id: String get() = history.id
+    override val createdAtMs: Long? get() = history.createdAt?.toDate()?.time
+    override val updatedAt: String? get() = history.updatedAt?.format()
+    override val status: TryOnHistoryStatus? get() = history.status
+    override val garmentClass: String
+        get() = history.typedMetadata.garmentClass ?: TryOnRetryService.DEFAULT_GARMENT_CLASS
+    override val mergeStyle: String
+        get() = history.typedMetadata.mergeStyle ?: TryOnRetryService.DEFAULT_MERGE_STYLE
+}
+
+/**
+ * Index [history], replacing its previous version, see [HistoryIndex.upsert]
+ */
+fun HistoryIndex.upsert(history: TryOnHistory): Boolean = upsert(TryOnHistoryRecord(history))
+
+/**
+ * Make the index hold exactly [histories], see [HistoryIndex.sync]
+ */
+fun HistoryIndex.sync(histories: Collection<TryOnHistory>): Int =
+    sync(histories.map(::TryOnHistoryRecord))
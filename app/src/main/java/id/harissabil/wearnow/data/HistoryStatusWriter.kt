@@ -0,0 +1,86 @@
+package id.harissabil.wearnow.data
+
+import android.util.Log
+import com.amplifyframework.api.graphql.GraphQLResponse
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+
+/**
+ * Marks a try-on FAILED from the client with a single conditional mutation, for jobs that
+ * timed out or failed on the device while the record still says PROCESSING.
+ *
+ * Only the changed fields are sent, and the update only applies while the record is still
+ * PROCESSING. If the Lambda already wrote its own result, the client write is rejected by
+ * DynamoDB and reported as [WriteOutcome.LostRace] instead of overwriting it.
+ */
+class HistoryStatusWriter(
+    private val api: ApiRepository = AmplifyApiRepository(),
+) {
+
+    sealed interface WriteOutcome {
+        data object Written : WriteOutcome
+
+        /**
+         * The record had already left PROCESSING, typically because the Lambda finished first
+         */
+        data object LostRace : WriteOutcome
+    }
+
+    suspend fun markFailed(historyId: String, errorMessage: String?): WriteOutcome =
+        write(
+            historyId,
+            mapOf(
+                "status" to TryOnHistoryStatus.FAILED.name,
+                "errorMessage" to errorMessage
+            )
+        )
+
+    private suspend fun write(historyId: String, fields: Map<String, Any?>): WriteOutcome {
+        val variables = mapOf(
+            "input" to mapOf("id" to historyId) + fields,
+            "condition" to mapOf("status" to mapOf("eq" to TryOnHistoryStatus.PROCESSING.name))
+        )
+
+        val response = try {
+            api.mutate(UPDATE_STATUS_DOCUMENT, variables)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to write status for $historyId", e)
+            throw e
+        }
+
+        return when {
+            !response.hasErrors() -> {
+                Log.d(TAG, "Status of $historyId set to ${fields["status"]}")
+                WriteOutcome.Written
+            }
+
+            response.errors.any { isConditionalCheckFailure(it) } -> {
+                Log.i(TAG, "Status write for $historyId skipped, record is no longer PROCESSING")
+                WriteOutcome.LostRace
+            }
+
+            else -> throw IllegalStateException(response.errors.first().message)
+        }
+    }
+
+    companion object {
+        private const val TAG = "HistoryStatusWriter"
+
+        private val UPDATE_STATUS_DOCUMENT = """
+            mutation UpdateTryOnHistoryStatus(
+                ${'$'}input: UpdateTryOnHistoryInput!,
+                ${'$'}condition: ModelTryOnHistoryConditionInput
+            ) {
+                updateTryOnHistory(input: ${'$'}input, condition: ${'$'}condition) {
+                    id
+                    status
+                }
+            }
+        """.trimIndent()
+
+        fun isConditionalCheckFailure(error: GraphQLResponse.Error): Boolean {
+            val errorType = error.extensions?.get("errorType")?.toString().orEmpty()
+            return "ConditionalCheckFailed" in errorType ||
+                    error.message.contains("conditional request failed", ignoreCase = true)
+        }
+    }
+}
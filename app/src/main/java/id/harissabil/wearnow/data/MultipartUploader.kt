@@ -0,0 +1,173 @@
+package id.harissabil.wearnow.data
+
+import id.harissabil.wearnow.utils.AppLog
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Multipart upload calls of an object store, with S3 semantics: parts are numbered from 1
+ * and every part but the last is at least 5 MiB. Network failures are thrown as
+ * [IOException]s, anything else means the store rejected the call.
+ */
+interface MultipartStorage {
+
+    /**
+     * Start an upload to [key] and return its upload ID
+     */
+    suspend fun createUpload(key: String): String
+
+    /**
+     * Upload part [partNumber] and return its ETag
+     */
+    suspend fun uploadPart(key: String, uploadId: String, partNumber: Int, bytes: ByteArray): String
+
+    /**
+     * Assemble the object from the parts whose ETags are in [eTags], in part order
+     */
+    suspend fun completeUpload(key: String, uploadId: String, eTags: List<String>)
+
+    suspend fun abortUpload(key: String, uploadId: String)
+}
+
+/**
+ * Uploads a file as a sequence of parts, continuing from the last acknowledged part after
+ * a network failure.
+ *
+ * Every acknowledged part is recorded in an [UploadSession] in [sessions]. Network
+ * failures are retried with exponential backoff from the last acknowledged part. When the
+ * retries run out, or the upload is cancelled, the session is kept: uploading the same
+ * unchanged file to the same key again, also after a process restart, continues it. Only
+ * a failure the store reports itself aborts the upload.
+ */
+class MultipartUploader(
+    private val storage: MultipartStorage,
+    private val sessions: UploadSessionStore = InMemoryUploadSessionStore(),
+    private val maxAttempts: Int = MAX_ATTEMPTS,
+    private val baseRetryDelayMs: Long = BASE_RETRY_DELAY_MS,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    suspend fun upload(
+        key: String,
+        file: File,
+        partSizeBytes: Long,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit = { _, _ -> },
+    ) {
+        val saved = sessions.get(key)
+        if (saved != null && saved.matches(file)) {
+            try {
+                AppLog.event(TAG, "resume_upload") {
+                    field("parts", saved.parts.size)
+                    field("acknowledged", saved.acknowledgedBytes)
+                    field("total", saved.fileLength)
+                }
+                return continueSession(saved, file, onProgress)
+            } catch (e: IOException) {
+                throw e
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                // The store no longer knows the upload, it may have expired
+                AppLog.w(TAG, e) { "Saved upload of $key was rejected, starting over" }
+                sessions.remove(key)
+            }
+        } else if (saved != null) {
+            // The file changed since, its parts are of no use
+            sessions.remove(key)
+            abortQuietly(saved)
+        }
+
+        val session = UploadSession(
+            key = key,
+            uploadId = withRetry { storage.createUpload(key) },
+            filePath = file.absolutePath,
+            fileLength = file.length(),
+            fileModifiedAt = file.lastModified(),
+            partSizeBytes = partSizeBytes,
+            parts = emptyList(),
+            createdAtMs = clock()
+        )
+        sessions.save(session)
+
+        try {
+            continueSession(session, file, onProgress)
+        } catch (e: IOException) {
+            throw e
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            sessions.remove(key)
+            abortQuietly(session)
+            throw e
+        }
+    }
+
+    private suspend fun continueSession(
+        start: UploadSession,
+        file: File,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit,
+    ) {
+        var session = start
+        val totalBytes = session.fileLength
+        if (session.acknowledgedBytes > 0) {
+            onProgress(session.acknowledgedBytes, totalBytes)
+        }
+
+        RandomAccessFile(file, "r").use { input ->
+            while (session.acknowledgedBytes < totalBytes) {
+                val offset = session.acknowledgedBytes
+                val bytes = withContext(Dispatchers.IO) {
+                    ByteArray(minOf(session.partSizeBytes, totalBytes - offset).toInt()).also {
+                        input.seek(offset)
+                        input.readFully(it)
+                    }
+                }
+                val partNumber = session.parts.size + 1
+                val eTag = withRetry { storage.uploadPart(session.key, session.uploadId, partNumber, bytes) }
+
+                session = session.copy(
+                    parts = session.parts + UploadedPart(partNumber, offset, bytes.size.toLong(), eTag)
+                )
+                sessions.save(session)
+                onProgress(session.acknowledgedBytes, totalBytes)
+            }
+        }
+
+        withRetry { storage.completeUpload(session.key, session.uploadId, session.parts.map { it.eTag }) }
+        sessions.remove(session.key)
+    }
+
+    private suspend fun <T> withRetry(block: suspend () -> T): T {
+        var attempt = 1
+        while (true) {
+            try {
+                return block()
+            } catch (e: IOException) {
+                if (attempt >= maxAttempts) throw e
+                val delayMs = baseRetryDelayMs shl (attempt - 1)
+                AppLog.w(TAG, e) { "Upload request failed, retry $attempt/${maxAttempts - 1} in ${delayMs}ms" }
+                delay(delayMs)
+                attempt++
+            }
+        }
+    }
+
+    // Parts of an abandoned upload are billed until aborted
+    private suspend fun abortQuietly(session: UploadSession) {
+        withContext(NonCancellable) {
+            runCatching { storage.abortUpload(session.key, session.uploadId) }
+        }
+    }
+
+    companion object {
+        private const val TAG = "MultipartUploader"
+        private const val MAX_ATTEMPTS = 6 // Gives up after ~30s without a connection
+        private const val BASE_RETRY_DELAY_MS = 1_000L
+    }
+}
@@ -0,0 +1,74 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+
+/**
+ * S3 keys whose objects still have to be removed after their record was deleted.
+ * Persisted so removals that failed (offline, process death) are retried on a later run.
+ */
+interface PendingDeletionQueue {
+
+    fun addAll(keys: Collection<String>)
+
+    fun removeAll(keys: Collection<String>)
+
+    fun snapshot(): Set<String>
+}
+
+class InMemoryPendingDeletionQueue : PendingDeletionQueue {
+
+    private val keys = mutableSetOf<String>()
+
+    @Synchronized
+    override fun addAll(keys: Collection<String>) {
+        this.keys.addAll(keys)
+    }
+
+    @Synchronized
+    override fun removeAll(keys: Collection<String>) {
+        this.keys.removeAll(keys.toSet())
+    }
+
+    @Synchronized
+    override fun snapshot(): Set<String> = keys.toSet()
+}
+
+/**
+ * The app, history and result screens each create one over the same preferences file, so
+ * the read-modify-write of the set is guarded by a lock shared by all instances
+ */
+class SharedPreferencesPendingDeletionQueue(context: Context) : PendingDeletionQueue {
+
+    private val preferences =
+        context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    override fun addAll(keys: Collection<String>) {
+        if (keys.isEmpty()) return
+        synchronized(LOCK) {
+            preferences.edit()
+                .putStringSet(KEY_PENDING, read() + keys)
+                .apply()
+        }
+    }
+
+    override fun removeAll(keys: Collection<String>) {
+        if (keys.isEmpty()) return
+        synchronized(LOCK) {
+            preferences.edit()
+                .putStringSet(KEY_PENDING, read() - keys.toSet())
+                .apply()
+        }
+    }
+
+    override fun snapshot(): Set<String> = synchronized(LOCK) { read() }
+
+    // SharedPreferences sets must not be modified in place, always copy. Callers hold LOCK.
+    private fun read(): Set<String> =
+        preferences.getStringSet(KEY_PENDING, emptySet())?.toSet() ?: emptySet()
+
+    companion object {
+        private const val PREFS_NAME = "pending_deletions"
+        private const val KEY_PENDING = "object_keys"
+        private val LOCK = Any()
+    }
+}
@@ -0,0 +1,150 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import id.harissabil.wearnow.ui.screen.home.utils.UploadPolicy
+import java.io.File
+import java.util.zip.CRC32
+
+/**
+ * Compressed photos whose upload has not finished yet, by the photo they came from.
+ *
+ * The compressed file and its S3 key outlive a failed upload, so uploading the same photo
+ * again, also after a process restart, skips compression and reuses the key. A compressed
+ * photo is a few hundred KB, far under the 5 MiB S3 minimum part size [UploadPolicy] goes
+ * multipart from, so it is sent again whole and key reuse is all it gains. Only larger
+ * files, such as the uncompressed fallback, continue from the last acknowledged part of
+ * their [MultipartUploader] session.
+ */
+class PendingPhotoUploads(
+    context: Context,
+    private val sessions: UploadSessionStore = UploadSessionStore.default,
+) {
+
+    private val preferences =
+        context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    private val directory = File(context.applicationContext.filesDir, DIRECTORY)
+    private val gson = Gson()
+
+    data class Entry(
+        val key: String,
+        val path: String,
+        val createdAtMs: Long,
+    ) {
+        val file: File get() = File(path)
+    }
+
+    /**
+     * Unfinished upload of [sourceId] whose key starts with [keyPrefix], or null. Entries
+     * of another identity or whose file is gone are dropped.
+     */
+    suspend fun find(sourceId: String, keyPrefix: String): Entry? {
+        val entry = synchronized(LOCK) { preferences.getString(sourceId, null)?.let(::parse) }
+        if (entry != null && entry.key.startsWith(keyPrefix) && entry.file.exists()) return entry
+        finish(sourceId)
+        return null
+    }
+
+    /**
+     * Keep [compressedFile], the photo of [sourceId] compressed for [key], until [finish].
+     * The file is moved out of the cache so temp file cleanup leaves it alone.
+     */
+    fun begin(sourceId: String, key: String, compressedFile: File): Entry = synchronized(LOCK) {
+        if (!directory.exists()) directory.mkdirs()
+        val target = File(directory, key.substringAfterLast('/'))
+        if (!compressedFile.renameTo(target)) {
+            compressedFile.copyTo(target, overwrite = true)
+            compressedFile.delete()
+        }
+
+        val entry = Entry(
+            key = key,
+            path = target.absolutePath,
+            createdAtMs = System.currentTimeMillis()
+        )
+        preferences.edit()
+            .putString(sourceId, gson.toJson(entry))
+            .apply()
+        entry
+    }
+
+    /**
+     * Forget the upload of [sourceId] and delete its file, once it finished or can't be
+     * continued
+     */
+    suspend fun finish(sourceId: String) {
+        val entry = synchronized(LOCK) { forget(sourceId) }
+        entry?.let { sessions.remove(it.key) }
+    }
+
+    /**
+     * Drop uploads older than [maxAgeMs] and files nothing refers to. Returns the number
+     * of uploads dropped.
+     */
+    suspend fun sweep(maxAgeMs: Long = MAX_AGE_MS): Int {
+        val expired = synchronized(LOCK) {
+            val now = System.currentTimeMillis()
+            val expired = preferences.all.filter { (_, value) ->
+                val entry = (value as? String)?.let(::parse)
+                entry == null || now - entry.createdAtMs > maxAgeMs
+            }.keys.map { sourceId -> forget(sourceId) }
+
+            val livePaths = preferences.all.values.mapNotNull { (it as? String)?.let(::parse)?.path }.toSet()
+            directory.listFiles()
+                ?.filter { it.absolutePath !in livePaths }
+                ?.forEach { it.delete() }
+            expired
+        }
+        expired.forEach { entry -> entry?.let { sessions.remove(it.key) } }
+
+        // Sessions of files that are gone can never be continued
+        sessions.all()
+            .filter { !File(it.filePath).exists() }
+            .forEach { sessions.remove(it.key) }
+
+        return expired.size
+    }
+
+    // Drops the entry of [sourceId] and its file, callers hold LOCK
+    private fun forget(sourceId: String): Entry? {
+        val entry = preferences.getString(sourceId, null)?.let(::parse)
+        preferences.edit()
+            .remove(sourceId)
+            .apply()
+        entry?.file?.delete()
+        return entry
+    }
+
+    private fun parse(json: String): Entry? = try {
+        gson.fromJson(json, Entry::class.java)
+    } catch (e: JsonParseException) {
+        null
+    }
+
+    companion object {
+        private const val PREFS_NAME = "pending_photo_uploads"
+        private const val DIRECTORY = "pending_uploads"
+        private const val FINGERPRINT_BYTES = 64 * 1024
+
+        // Instances are created per upload, sweeping must not race them
+        private val LOCK = Any()
+
+        // How long the user has to come back to the same photo
+        const val MAX_AGE_MS = 24L * 60 * 60 * 1000
+
+        /**
+         * Source ID of a photo file: its size and a checksum of its first bytes, so two
+         * copies of the same picked photo match
+         */
+        fun sourceIdOf(file: File): String {
+            val checksum = CRC32()
+            file.inputStream().use { input ->
+                val buffer = ByteArray(FINGERPRINT_BYTES)
+                val read = input.read(buffer)
+                if (read > 0) checksum.update(buffer, 0, read)
+            }
+            return "file:${file.length()}:${checksum.value}"
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+import android.util.Log
+import aws.sdk.kotlin.services.s3.S3Client
+import aws.sdk.kotlin.services.s3.model.CompletedMultipartUpload
+import aws.sdk.kotlin.services.s3.model.CompletedPart
+import aws.smithy.kotlin.runtime.content.ByteStream
+import aws.smithy.kotlin.runtime.http.HttpException
+import com.amplifyframework.core.Amplify
+import com.amplifyframework.storage.s3.AWSS3StoragePlugin
+import com.google.gson.JsonParser
+import id.harissabil.wearnow.R
+import java.io.IOException
+
+/**
+ * [MultipartStorage] on the S3 client of the Amplify storage plugin, so requests are
+ * signed with the same Cognito identity credentials as Amplify's own uploads
+ */
+class S3MultipartStorage(
+    private val s3: S3Client,
+    private val bucketName: String,
+) : MultipartStorage {
+
+    override suspend fun createUpload(key: String): String {
+        val response = request {
+            s3.createMultipartUpload {
+                bucket = bucketName
+                this.key = key
+                contentType = CONTENT_TYPE
+            }
+        }
+        return response.uploadId ?: throw IllegalStateException("No upload ID returned for $key")
+    }
+
+    override suspend fun uploadPart(key: String, uploadId: String, partNumber: Int, bytes: ByteArray): String {
+        val response = request {
+            s3.uploadPart {
+                bucket = bucketName
+                this.key = key
+                this.uploadId = uploadId
+                this.partNumber = partNumber
+                body = ByteStream.fromBytes(bytes)
+            }
+        }
+        return response.eTag ?: throw IllegalStateException("No ETag returned for part $partNumber of $key")
+    }
+
+    override suspend fun completeUpload(key: String, uploadId: String, eTags: List<String>) {
+        request {
+            s3.completeMultipartUpload {
+                bucket = bucketName
+                this.key = key
+                this.uploadId = uploadId
+                multipartUpload = CompletedMultipartUpload {
+                    parts = eTags.mapIndexed { index, tag ->
+                        CompletedPart {
+                            partNumber = index + 1
+                            eTag = tag
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    override suspend fun abortUpload(key: String, uploadId: String) {
+        request {
+            s3.abortMultipartUpload {
+                bucket = bucketName
+                this.key = key
+                this.uploadId = uploadId
+            }
+        }
+    }
+
+    // The SDK reports connection failures as HttpException, callers retry IOExceptions
+    private suspend fun <T> request(block: suspend () -> T): T = try {
+        block()
+    } catch (e: HttpException) {
+        throw IOException(e.message, e)
+    }
+
+    companion object {
+        private const val TAG = "S3MultipartStorage"
+        private const val CONTENT_TYPE = "image/jpeg"
+        private const val PLUGIN_KEY = "awsS3StoragePlugin"
+
+        @Volatile
+        private var defaultBucket: String? = null
+
+        /**
+         * Read the default bucket name from amplify_outputs.json
+         */
+        fun init(context: Context) {
+            defaultBucket = try {
+                context.resources.openRawResource(R.raw.amplify_outputs).bufferedReader().use { reader ->
+                    JsonParser.parseReader(reader).asJsonObject
+                        .getAsJsonObject("storage")
+                        ?.get("bucket_name")
+                        ?.asString
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "No storage bucket in Amplify outputs", e)
+                null
+            }
+        }
+
+        /**
+         * Storage on the configured Amplify plugin, or null before [init] found a bucket
+         */
+        fun fromAmplify(): S3MultipartStorage? {
+            val bucket = defaultBucket ?: return null
+            val plugin = Amplify.Storage.getPlugin(PLUGIN_KEY) as AWSS3StoragePlugin
+            return S3MultipartStorage(plugin.escapeHatch, bucket)
+        }
+    }
+}
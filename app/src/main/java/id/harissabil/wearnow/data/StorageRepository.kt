@@ -0,0 +1,146 @@
+package id.harissabil.wearnow.data
+
+import android.util.Log
+import androidx.core.net.toUri
+import com.amplifyframework.core.Amplify
+import com.amplifyframework.storage.StoragePath
+import com.amplifyframework.storage.options.StorageUploadFileOptions
+import id.harissabil.wearnow.ui.screen.home.utils.BandwidthEstimator
+import id.harissabil.wearnow.ui.screen.home.utils.UploadPolicy
+import id.harissabil.wearnow.ui.screen.home.utils.UploadThroughput
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.File
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Object storage operations on keys under the signed-in identity
+ */
+interface StorageRepository {
+
+    /**
+     * Upload [file] to [key]. [onProgress] receives the bytes transferred so far.
+     */
+    suspend fun uploadFile(
+        key: String,
+        file: File,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit = { _, _ -> },
+    )
+
+    /**
+     * Presigned URL of [key], valid for a limited time
+     */
+    suspend fun getUrl(key: String): String
+
+    suspend fun remove(key: String)
+}
+
+/**
+ * Uploads feed [estimator], and files [UploadPolicy] picks a part size for go through
+ * [S3MultipartStorage] instead of a single request. Multipart uploads are resumable: one
+ * with a saved session in [sessions] continues from its last acknowledged part.
+ */
+class AmplifyStorageRepository(
+    private val estimator: BandwidthEstimator = UploadThroughput.estimator,
+    private val sessions: UploadSessionStore = UploadSessionStore.default,
+) : StorageRepository {
+
+    override suspend fun uploadFile(
+        key: String,
+        file: File,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit,
+    ) {
+        val sample = estimator.newTransfer()
+        val progress = { currentBytes: Long, totalBytes: Long ->
+            sample(currentBytes, totalBytes)
+            onProgress(currentBytes, totalBytes)
+        }
+
+        // An interrupted upload keeps its part size even if the link changed since
+        val partSize = sessions.get(key)?.takeIf { it.matches(file) }?.partSizeBytes
+            ?: UploadPolicy.partSizeFor(file.length(), estimator.bytesPerSecond)
+        val multipartStorage = partSize?.let { S3MultipartStorage.fromAmplify() }
+        if (partSize != null && multipartStorage != null) {
+            Log.d(TAG, "Uploading $key in parts of ${partSize / 1024}KB")
+            MultipartUploader(multipartStorage, sessions).upload(key, file, partSize, progress)
+        } else {
+            uploadSingle(key, file, progress)
+        }
+    }
+
+    private suspend fun uploadSingle(
+        key: String,
+        file: File,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit,
+    ) = suspendCancellableCoroutine { continuation ->
+        Amplify.Storage.uploadFile(
+            StoragePath.fromIdentityId { identityId ->
+                key
+            },
+            file,
+            StorageUploadFileOptions.builder().build(),
+            { progress ->
+                onProgress(progress.currentBytes, progress.totalBytes)
+            },
+            { result ->
+                Log.d(TAG, "Uploaded ${result.path}")
+                continuation.resume(Unit)
+            },
+            { error ->
+                Log.e(TAG, "Failed to upload $key", error)
+                continuation.resumeWithException(error)
+            }
+        )
+    }
+
+    override suspend fun getUrl(key: String): String = suspendCancellableCoroutine { continuation ->
+        Amplify.Storage.getUrl(
+            StoragePath.fromIdentityId { identityId ->
+                key
+            },
+            { result ->
+                continuation.resume(result.url.toString())
+            },
+            { error ->
+                Log.e(TAG, "Failed to generate presigned URL for $key", error)
+                continuation.resumeWithException(error)
+            }
+        )
+    }
+
+    override suspend fun remove(key: String) = suspendCancellableCoroutine { continuation ->
+        Amplify.Storage.remove(
+            StoragePath.fromIdentityId { identityId ->
+                key
+            },
+            { result ->
+                Log.d(TAG, "Removed ${result.path}")
+                continuation.resume(Unit)
+            },
+            { error ->
+                Log.e(TAG, "Failed to remove $key", error)
+                continuation.resumeWithException(error)
+            }
+        )
+    }
+
+    companion object {
+        private const val TAG = "AmplifyStorageRepository"
+    }
+}
+
+/**
+ * Helpers for the S3 references stored on records
+ */
+object StorageKeys {
+
+    /**
+     * Normalize a stored reference to an S3 key. Older records may hold a presigned URL
+     * instead of a key; the key is the URL path.
+     */
+    fun fromStoredValue(value: String?): String? {
+        if (value.isNullOrBlank()) return null
+        if (!value.startsWith("http")) return value
+        return value.toUri().path?.removePrefix("/")?.takeIf { it.isNotEmpty() }
+    }
+}
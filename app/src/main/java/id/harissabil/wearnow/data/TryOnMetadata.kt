@@ -0,0 +1,184 @@
+package id.harissabil.wearnow.data
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import id.harissabil.wearnow.utils.AppLog
+import java.io.StringReader
+import java.io.StringWriter
+
+/**
+ * Typed view of the metadata AWSJSON of a try-on: the options it was started with and the
+ * stats the Lambda records once it ran.
+ *
+ * [processingTimeMs] is the time the Lambda spent on the job, [stats] holds its other
+ * numeric values by key. Parsed with Gson's streaming reader in one pass, without the
+ * intermediate tree; [withOptions] rewrites the JSON the same way. See
+ * [TryOnMetadataCache] for the memoized view of a record.
+ */
+data class TryOnMetadata(
+    val garmentClass: String? = null,
+    val mergeStyle: String? = null,
+    val processingTimeMs: Long? = null,
+    val stats: Map<String, Double> = emptyMap(),
+) {
+
+    companion object {
+        private const val TAG = "TryOnMetadata"
+        private const val KEY_GARMENT_CLASS = "garmentClass"
+        private const val KEY_MERGE_STYLE = "mergeStyle"
+        private const val KEY_PROCESSING_TIME = "processingTime"
+
+        val EMPTY = TryOnMetadata()
+
+        /**
+         * Parse [json], an empty view when it is null, unreadable or not an object
+         */
+        fun parse(json: String?): TryOnMetadata {
+            if (json.isNullOrBlank()) return EMPTY
+            return try {
+                JsonReader(StringReader(json)).use { reader ->
+                    when (reader.peek()) {
+                        JsonToken.BEGIN_OBJECT -> readObject(reader)
+                        // AWSJSON written by hand sometimes arrives encoded twice
+                        JsonToken.STRING -> parse(reader.nextString())
+                        else -> EMPTY
+                    }
+                }
+            } catch (e: Exception) {
+                AppLog.w(TAG, e) { "Ignoring unreadable try-on metadata" }
+                EMPTY
+            }
+        }
+
+        /**
+         * [json] with the given options set, null keeps the stored value. Every other key
+         * is copied through token by token, so values the Lambda wrote are kept. Metadata
+         * that is unreadable or not an object is replaced.
+         */
+        fun withOptions(json: String?, garmentClass: String?, mergeStyle: String?): String {
+            val updates = buildMap {
+                garmentClass?.let { put(KEY_GARMENT_CLASS, it) }
+                mergeStyle?.let { put(KEY_MERGE_STYLE, it) }
+            }
+            return try {
+                rewrite(json, updates)
+            } catch (e: Exception) {
+                AppLog.w(TAG, e) { "Replacing unreadable try-on metadata" }
+                rewrite(null, updates)
+            }
+        }
+
+        private fun readObject(reader: JsonReader): TryOnMetadata {
+            var garmentClass: String? = null
+            var mergeStyle: String? = null
+            var processingTimeMs: Long? = null
+            var stats: MutableMap<String, Double>? = null
+
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                val token = reader.peek()
+                when {
+                    name == KEY_GARMENT_CLASS && token.isScalar() -> garmentClass = reader.nextString()
+                    name == KEY_MERGE_STYLE && token.isScalar() -> mergeStyle = reader.nextString()
+                    name == KEY_PROCESSING_TIME && token.isScalar() ->
+                        processingTimeMs = reader.nextString().toDoubleOrNull()?.toLong()
+                    token == JsonToken.NUMBER -> {
+                        if (stats == null) stats = HashMap()
+                        stats[name] = reader.nextDouble()
+                    }
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+
+            return TryOnMetadata(garmentClass, mergeStyle, processingTimeMs, stats ?: emptyMap())
+        }
+
+        private fun rewrite(json: String?, updates: Map<String, String>): String {
+            val output = StringWriter()
+            JsonWriter(output).use { writer ->
+                val written = mutableSetOf<String>()
+                writer.beginObject()
+                if (!json.isNullOrBlank()) {
+                    JsonReader(StringReader(json)).use { reader -> copyMembers(reader, writer, updates, written) }
+                }
+                updates.filterKeys { it !in written }.forEach { (name, value) -> writer.name(name).value(value) }
+                writer.endObject()
+            }
+            return output.toString()
+        }
+
+        // Members of the object at the reader, with the keys in [updates] replaced in place
+        private fun copyMembers(
+            reader: JsonReader,
+            writer: JsonWriter,
+            updates: Map<String, String>,
+            written: MutableSet<String>,
+        ) {
+            when (reader.peek()) {
+                JsonToken.BEGIN_OBJECT -> Unit
+                JsonToken.STRING -> {
+                    val inner = reader.nextString()
+                    if (inner.isNotBlank()) {
+                        JsonReader(StringReader(inner)).use { copyMembers(it, writer, updates, written) }
+                    }
+                    return
+                }
+                else -> return
+            }
+
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                writer.name(name)
+                val update = updates[name]
+                if (update != null) {
+                    written.add(name)
+                    reader.skipValue()
+                    writer.value(update)
+                } else {
+                    copyValue(reader, writer)
+                }
+            }
+            reader.endObject()
+        }
+
+        private fun copyValue(reader: JsonReader, writer: JsonWriter) {
+            when (reader.peek()) {
+                JsonToken.BEGIN_OBJECT -> {
+                    reader.beginObject()
+                    writer.beginObject()
+                    while (reader.hasNext()) {
+                        writer.name(reader.nextName())
+                        copyValue(reader, writer)
+                    }
+                    reader.endObject()
+                    writer.endObject()
+                }
+
+                JsonToken.BEGIN_ARRAY -> {
+                    reader.beginArray()
+                    writer.beginArray()
+                    while (reader.hasNext()) copyValue(reader, writer)
+                    reader.endArray()
+                    writer.endArray()
+                }
+
+                JsonToken.STRING -> writer.value(reader.nextString())
+                // Written as read, so numbers keep their exact form
+                JsonToken.NUMBER -> writer.jsonValue(reader.nextString())
+                JsonToken.BOOLEAN -> writer.value(reader.nextBoolean())
+                JsonToken.NULL -> {
+                    reader.nextNull()
+                    writer.nullValue()
+                }
+
+                else -> throw IllegalStateException("Unexpected ${reader.peek()} in metadata")
+            }
+        }
+
+        private fun JsonToken.isScalar(): Boolean = this == JsonToken.STRING || this == JsonToken.NUMBER
+    }
+}
@@ -0,0 +1,59 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.core.model.temporal.Temporal
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+
+/**
+ * [TryOnMetadata] of history records, parsed the first time it is asked for and then kept
+ * per record version, so list items and recompositions don't parse the JSON again.
+ *
+ * Entries are keyed by history ID and hold the updatedAt and metadata string they were
+ * parsed from: a newer version of the record, or a local copy with other metadata,
+ * misses and is parsed again.
+ */
+object TryOnMetadataCache {
+
+    private const val MAX_ENTRIES = 2048
+
+    private class Entry(
+        val updatedAt: Temporal.DateTime?,
+        val metadata: String,
+        val parsed: TryOnMetadata,
+    )
+
+    // Access ordered, the least recently read record is dropped first
+    private val entries = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?): Boolean =
+            size > MAX_ENTRIES
+    }
+
+    fun get(history: TryOnHistory): TryOnMetadata {
+        val metadata = history.metadata ?: return TryOnMetadata.EMPTY
+        val updatedAt = history.updatedAt
+        synchronized(entries) {
+            entries[history.id]
+                ?.takeIf { it.updatedAt == updatedAt && it.metadata == metadata }
+                ?.let { return it.parsed }
+        }
+
+        val parsed = TryOnMetadata.parse(metadata)
+        synchronized(entries) {
+            entries[history.id] = Entry(updatedAt, metadata, parsed)
+        }
+        return parsed
+    }
+
+    fun remove(historyId: String) {
+        synchronized(entries) { entries.remove(historyId) }
+    }
+
+    fun clear() {
+        synchronized(entries) { entries.clear() }
+    }
+}
+
+/**
+ * Typed metadata of this record, parsed once per version, see [TryOnMetadataCache]
+ */
+val TryOnHistory.typedMetadata: TryOnMetadata
+    get() = TryOnMetadataCache.get(this)
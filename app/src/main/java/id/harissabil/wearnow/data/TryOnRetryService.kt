@@ -0,0 +1,234 @@
+package id.harissabil.wearnow.data
+
+import android.util.Log
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnOptions
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResponse
+import id.harissabil.wearnow.ui.screen.home.utils.VirtualTryOnService
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import id.harissabil.wearnow.utils.Tracer
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.random.Random
+
+/**
+ * Runs try-on jobs from what is already stored on a [TryOnHistory].
+ *
+ * The user photo and garment keys on the record are re-signed and the Lambda is triggered
+ * again with the options saved in the record's metadata, so a retry costs one status reset
+ * and one trigger instead of a new upload and record. Failures the Lambda reports as
+ * transient (throttling, timeouts, 5xx) are retried automatically with exponential backoff
+ * until [maxAutoRetries] is used up.
+ *
+ * A record is only put back into PROCESSING right before its job is triggered. If the caller
+ * is cancelled or fails in between, the record is marked FAILED again through
+ * [statusWriter], so it never waits for a job that was not started.
+ */
+class TryOnRetryService(
+    private val tryOnService: VirtualTryOnService = VirtualTryOnService(),
+    private val batchExecutor: GraphQLBatchExecutor = GraphQLBatchExecutor(),
+    private val statusWriter: HistoryStatusWriter = HistoryStatusWriter(),
+    private val urlResolver: PresignedUrlResolver = PresignedUrlResolver(),
+    private val maxAutoRetries: Int = DEFAULT_MAX_AUTO_RETRIES,
+) {
+
+    // Records reset to PROCESSING, or being reset, whose job was not triggered yet
+    private val untriggered = ConcurrentHashMap.newKeySet<String>()
+
+    /**
+     * Retry a FAILED try-on
+     */
+    suspend fun retry(history: TryOnHistory): VirtualTryOnResponse =
+        failIfNotTriggered(history.id) {
+            resetForRetry(history.id)
+            run(history)
+        }
+
+    /**
+     * Retry several FAILED try-ons with bounded concurrency; each item reports its own
+     * outcome. A record is reset once its job holds a permit, so jobs still waiting for one
+     * stay FAILED if the caller goes away.
+     */
+    suspend fun retryAll(histories: List<TryOnHistory>): Map<String, Result<VirtualTryOnResponse>> =
+        coroutineScope {
+            val permits = Semaphore(MAX_CONCURRENT_JOBS)
+
+            histories.map { history ->
+                async {
+                    history.id to permits.withPermit {
+                        try {
+                            Result.success(retry(history))
+                        } catch (e: CancellationException) {
+                            throw e
+                        } catch (e: Exception) {
+                            Result.failure(e)
+                        }
+                    }
+                }
+            }.awaitAll().toMap()
+        }
+
+    /**
+     * Trigger the job for a record that is already PROCESSING and wait for the outcome,
+     * retrying transient failures within the retry budget.
+     *
+     * [userPhotoUrl] and [garmentPhotoUrl] are URLs the caller signed moments ago, used by
+     * the first attempt only. Keys without one, and every automatic retry, are signed here.
+     */
+    suspend fun run(
+        history: TryOnHistory,
+        userPhotoUrl: String? = null,
+        garmentPhotoUrl: String? = null,
+    ): VirtualTryOnResponse = failIfNotTriggered(history.id) {
+        runAttempts(history, userPhotoUrl, garmentPhotoUrl)
+    }
+
+    private suspend fun runAttempts(
+        history: TryOnHistory,
+        userPhotoUrl: String?,
+        garmentPhotoUrl: String?,
+    ): VirtualTryOnResponse {
+        val metadata = history.typedMetadata
+        val options = VirtualTryOnOptions(garmentClass = metadata.garmentClass, mergeStyle = metadata.mergeStyle)
+        var attempt = 0
+
+        while (true) {
+            val response = Tracer.span("tryon.attempt", "attempt" to attempt + 1) {
+                if (attempt == 0) {
+                    trigger(history, options, userPhotoUrl, garmentPhotoUrl)
+                } else {
+                    trigger(history, options)
+                }
+            }
+            val errorMessage = response.virtualTryOn.errorMessage
+            if (response.virtualTryOn.success || !isTransient(errorMessage) || attempt >= maxAutoRetries) {
+                return response
+            }
+
+            attempt++
+            val backoffMs = backoffMs(attempt)
+            Log.w(TAG, "Transient failure for ${history.id} ($errorMessage), retry $attempt/$maxAutoRetries in ${backoffMs}ms")
+            Tracer.span("tryon.retry_backoff") { delay(backoffMs) }
+            resetForRetry(history.id)
+        }
+    }
+
+    private suspend fun trigger(
+        history: TryOnHistory,
+        options: VirtualTryOnOptions,
+        userPhotoUrl: String? = null,
+        garmentPhotoUrl: String? = null,
+    ): VirtualTryOnResponse {
+        // Stored URLs may have expired, the Lambda gets freshly signed ones
+        val unsigned = buildMap {
+            if (userPhotoUrl == null) {
+                put(USER_PHOTO, StorageKeys.fromStoredValue(history.userPhotoUrl)
+                    ?: throw IllegalStateException("Try-on has no user photo"))
+            }
+            if (garmentPhotoUrl == null) {
+                put(GARMENT_PHOTO, StorageKeys.fromStoredValue(history.garmentPhotoUrl)
+                    ?: throw IllegalStateException("Try-on has no garment photo"))
+            }
+        }
+        val signed = if (unsigned.isEmpty()) {
+            emptyMap<String, String>()
+        } else {
+            Tracer.span("tryon.sign_urls", "count" to unsigned.size) {
+                urlResolver.resolveAll(unsigned).mapValues { it.value.getOrThrow() }
+            }
+        }
+
+        untriggered.remove(history.id)
+        return tryOnService.performVirtualTryOn(
+            userPhotoId = history.userPhotoId,
+            userPhotoUrl = userPhotoUrl ?: signed.getValue(USER_PHOTO),
+            garmentPhotoUrl = garmentPhotoUrl ?: signed.getValue(GARMENT_PHOTO),
+            historyId = history.id,
+            garmentClass = options.garmentClass ?: DEFAULT_GARMENT_CLASS,
+            mergeStyle = options.mergeStyle ?: DEFAULT_MERGE_STYLE
+        )
+    }
+
+    private suspend fun resetForRetry(historyId: String) {
+        // Added before the request, a cancelled one may still have been applied
+        untriggered.add(historyId)
+        batchExecutor.execute(listOf(HistoryBatchOperation.ResetForRetry(historyId)))
+            .getValue(historyId)
+            .getOrThrow()
+    }
+
+    /**
+     * Run [block], and if it ends with [historyId] reset but not triggered, write FAILED back.
+     * The write is conditional on PROCESSING, so it is a no-op when the reset never applied.
+     */
+    private suspend fun <T> failIfNotTriggered(historyId: String, block: suspend () -> T): T =
+        try {
+            block()
+        } catch (e: Exception) {
+            if (untriggered.remove(historyId)) {
+                val errorMessage = if (e is CancellationException) "Retry was cancelled" else e.message
+                // Still written when the caller was cancelled, nothing else would end the record
+                withContext(NonCancellable) {
+                    try {
+                        statusWriter.markFailed(historyId, errorMessage)
+                    } catch (writeError: Exception) {
+                        Log.w(TAG, "Could not mark $historyId as failed after an untriggered reset", writeError)
+                    }
+                }
+            }
+            throw e
+        }
+
+    private fun backoffMs(attempt: Int): Long {
+        val exponential = BASE_BACKOFF_MS shl (attempt - 1)
+        return minOf(exponential, MAX_BACKOFF_MS) + Random.nextLong(JITTER_MS)
+    }
+
+    companion object {
+        private const val TAG = "TryOnRetryService"
+        const val DEFAULT_MAX_AUTO_RETRIES = 2
+        private const val MAX_CONCURRENT_JOBS = 3
+        private const val BASE_BACKOFF_MS = 2_000L
+        private const val MAX_BACKOFF_MS = 20_000L
+        private const val JITTER_MS = 1_000L
+
+        const val DEFAULT_GARMENT_CLASS = "UPPER_BODY"
+        const val DEFAULT_MERGE_STYLE = "BALANCED"
+
+        private const val USER_PHOTO = "user"
+        private const val GARMENT_PHOTO = "garment"
+
+        private val TRANSIENT_PHRASES = listOf(
+            "throttl", "rate exceeded", "too many requests", "timeout", "timed out",
+            "temporarily unavailable", "service unavailable", "internal server error"
+        )
+
+        // Status codes as whole tokens, so "Image exceeds 5000px" is not a 500
+        private val TRANSIENT_STATUS = Regex("""\b(429|500|502|503|504)\b""")
+
+        fun isTransient(errorMessage: String?): Boolean {
+            val message = errorMessage?.lowercase() ?: return false
+            return TRANSIENT_PHRASES.any { it in message } || TRANSIENT_STATUS.containsMatchIn(message)
+        }
+
+        /**
+         * Metadata JSON recording the options a try-on was started with, merged into
+         * [existing] metadata when there is any, see [TryOnMetadata.withOptions]
+         */
+        fun metadataWithOptions(options: VirtualTryOnOptions, existing: String? = null): String =
+            TryOnMetadata.withOptions(existing, options.garmentClass, options.mergeStyle)
+
+        fun optionsFromMetadata(metadata: String?): VirtualTryOnOptions {
+            val parsed = TryOnMetadata.parse(metadata)
+            return VirtualTryOnOptions(garmentClass = parsed.garmentClass, mergeStyle = parsed.mergeStyle)
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * Part of a multipart upload that the store acknowledged
+ */
+data class UploadedPart(
+    val number: Int,
+    val offset: Long,
+    val size: Long,
+    val eTag: String,
+)
+
+/**
+ * State of a multipart upload of [filePath] to [key], enough to continue it from the
+ * last acknowledged part
+ */
+data class UploadSession(
+    val key: String,
+    val uploadId: String,
+    val filePath: String,
+    val fileLength: Long,
+    val fileModifiedAt: Long,
+    val partSizeBytes: Long,
+    val parts: List<UploadedPart>,
+    val createdAtMs: Long,
+) {
+
+    val acknowledgedBytes: Long
+        get() = parts.lastOrNull()?.let { it.offset + it.size } ?: 0L
+
+    /**
+     * Whether this session uploads [file] as it is now on disk
+     */
+    fun matches(file: File): Boolean =
+        filePath == file.absolutePath && fileLength == file.length() && fileModifiedAt == file.lastModified()
+}
+
+/**
+ * Persistence of [UploadSession]s by object key. Writes suspend, they reach the disk
+ * before they return.
+ */
+interface UploadSessionStore {
+
+    fun get(key: String): UploadSession?
+
+    suspend fun save(session: UploadSession)
+
+    suspend fun remove(key: String)
+
+    fun all(): List<UploadSession>
+
+    companion object {
+
+        /**
+         * Store used by [AmplifyStorageRepository], in memory until [init] swaps in the
+         * persistent one
+         */
+        @Volatile
+        var default: UploadSessionStore = InMemoryUploadSessionStore()
+            private set
+
+        fun init(context: Context) {
+            default = SharedPreferencesUploadSessionStore(context)
+        }
+    }
+}
+
+class InMemoryUploadSessionStore : UploadSessionStore {
+
+    private val sessions = mutableMapOf<String, UploadSession>()
+
+    @Synchronized
+    override fun get(key: String): UploadSession? = sessions[key]
+
+    override suspend fun save(session: UploadSession) {
+        synchronized(this) { sessions[session.key] = session }
+    }
+
+    override suspend fun remove(key: String) {
+        synchronized(this) { sessions.remove(key) }
+    }
+
+    @Synchronized
+    override fun all(): List<UploadSession> = sessions.values.toList()
+}
+
+/**
+ * Sessions as JSON in shared preferences, one entry per key. The session is committed on
+ * the IO dispatcher after every acknowledged part, so a process restart loses at most the
+ * part in flight; apply() could still lose the last parts with the process.
+ */
+class SharedPreferencesUploadSessionStore(context: Context) : UploadSessionStore {
+
+    private val preferences =
+        context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    private val gson = Gson()
+
+    @Synchronized
+    override fun get(key: String): UploadSession? =
+        preferences.getString(key, null)?.let(::parse)
+
+    override suspend fun save(session: UploadSession) {
+        val json = gson.toJson(session)
+        withContext(Dispatchers.IO) {
+            preferences.edit()
+                .putString(session.key, json)
+                .commit()
+        }
+    }
+
+    override suspend fun remove(key: String) {
+        withContext(Dispatchers.IO) {
+            preferences.edit()
+                .remove(key)
+                .commit()
+        }
+    }
+
+    @Synchronized
+    override fun all(): List<UploadSession> =
+        preferences.all.values.mapNotNull { (it as? String)?.let(::parse) }
+
+    private fun parse(json: String): UploadSession? = try {
+        gson.fromJson(json, UploadSession::class.java)
+    } catch (e: JsonParseException) {
+        null
+    }
+
+    companion object {
+        private const val PREFS_NAME = "upload_sessions"
+    }
+}
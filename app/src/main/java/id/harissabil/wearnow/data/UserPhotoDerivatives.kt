@@ -0,0 +1,97 @@
+package id.harissabil.wearnow.data
+
+import android.content.Context
+import com.amplifyframework.datastore.generated.model.UserPhoto
+import id.harissabil.wearnow.ui.screen.home.utils.ImageCompressionUtils
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.TempFileManager
+import id.harissabil.wearnow.utils.Tracer
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * Size buckets a user photo is stored in, by shortest side in pixels. [MASTER] is the
+ * uploaded photo itself, the one the try-on Lambda reads, at whatever size the upload
+ * compression left it.
+ */
+enum class PhotoSize(val shortestSide: Int, internal val suffix: String) {
+    THUMBNAIL(128, "_w128"),
+    PREVIEW(512, "_w512"),
+    MASTER(Int.MAX_VALUE, "_master"),
+}
+
+/**
+ * Keys of the downscaled copies stored next to a user photo.
+ *
+ * A photo uploaded as `profile-<ts>_master.jpg` also has `profile-<ts>_w128.jpg` and
+ * `profile-<ts>_w512.jpg`; both are uploaded before the [UserPhoto] record is created, so a
+ * record with a master key always has them. Photos uploaded before derivatives existed
+ * only have their master, every size maps to it.
+ */
+object UserPhotoDerivatives {
+
+    private const val TAG = "UserPhotoDerivatives"
+    private const val EXTENSION = ".jpg"
+
+    fun newMasterKey(identityId: String, timestamp: Long): String =
+        "user-photos/$identityId/profile-$timestamp${PhotoSize.MASTER.suffix}$EXTENSION"
+
+    fun hasDerivatives(key: String): Boolean = key.endsWith(PhotoSize.MASTER.suffix + EXTENSION)
+
+    /**
+     * Key of the [size] copy of the photo stored as [storedValue], a key or a presigned URL
+     */
+    fun keyFor(storedValue: String?, size: PhotoSize): String? {
+        val key = StorageKeys.fromStoredValue(storedValue) ?: return null
+        if (size == PhotoSize.MASTER || !hasDerivatives(key)) return key
+        return key.removeSuffix(PhotoSize.MASTER.suffix + EXTENSION) + size.suffix + EXTENSION
+    }
+
+    /**
+     * Smallest size that fills a [widthPx]x[heightPx] box with ContentScale.Crop. Crop
+     * scales the photo until its shortest side covers the box, so that side must reach the
+     * shortest side of the box.
+     */
+    fun sizeFitting(widthPx: Int, heightPx: Int): PhotoSize =
+        PhotoSize.entries.first { it.shortestSide >= minOf(widthPx, heightPx) }
+
+    /**
+     * Downscale [masterFile] into every derivative of [masterKey] and upload them. A no-op
+     * for keys without derivatives, such as uploads started before they existed.
+     */
+    suspend fun upload(
+        context: Context,
+        storage: StorageRepository,
+        masterKey: String,
+        masterFile: File,
+    ) {
+        if (!hasDerivatives(masterKey)) return
+
+        Tracer.span("user_photo.derivatives") {
+            coroutineScope {
+                PhotoSize.entries
+                    .filter { it != PhotoSize.MASTER }
+                    .map { size ->
+                        async {
+                            val key = keyFor(masterKey, size)!!
+                            TempFileManager.create(context, "compressed_${size.name.lowercase()}_").use { handle ->
+                                withContext(Dispatchers.Default) {
+                                    ImageCompressionUtils.writeDerivative(masterFile, handle.file, size.shortestSide)
+                                }
+                                storage.uploadFile(key, handle.file)
+                                AppLog.event(TAG, "derivative_uploaded") {
+                                    field("size", size.shortestSide)
+                                    field("bytes", handle.file.length())
+                                }
+                            }
+                        }
+                    }
+                    .awaitAll()
+            }
+        }
+    }
+}
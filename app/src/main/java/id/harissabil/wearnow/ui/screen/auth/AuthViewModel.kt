@@ -2,50 +2,27 @@ package id.harissabil.wearnow.ui.screen.auth
 
 import android.util.Log
 import androidx.lifecycle.ViewModel
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.core.Amplify
-import com.amplifyframework.datastore.generated.model.UserPhoto
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
 
-class AuthViewModel : ViewModel() {
+class AuthViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
-    suspend fun checkIfUserHasPhoto(): Boolean = suspendCancellableCoroutine { continuation ->
+    suspend fun checkIfUserHasPhoto(): Boolean {
         try {
-            // Get current user ID
-            Amplify.Auth.getCurrentUser(
-                { user ->
-                    val userId = user.userId
-
-                    // Query UserPhoto for this user
-                    Amplify.API.query(
-                        ModelQuery.list(
-                            UserPhoto::class.java,
-                            UserPhoto.USER_ID.eq(userId)
-                        ),
-                        { response ->
-                            // Check if any photos exist
-                            val hasPhotos = response.data.items.iterator().hasNext()
-                            continuation.resume(hasPhotos)
-                        },
-                        { error ->
-                            Log.e(TAG, "Failed to query user photos: $error")
-                            continuation.resumeWithException(error)
-                        }
-                    )
-                },
-                { error ->
-                    Log.e(TAG, "Failed to get current user: $error")
-                    continuation.resumeWithException(error)
-                }
-            )
+            // Query UserPhoto for the current user
+            return api.listUserPhotos(auth.getUserId()).isNotEmpty()
         } catch (e: Exception) {
-            continuation.resumeWithException(e)
+            Log.e(TAG, "Failed to query user photos: $e")
+            throw e
         }
     }
 
     companion object {
         private const val TAG = "AuthViewModel"
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,10 @@
 package id.harissabil.wearnow.ui.screen.history
 
+import androidx.activity.compose.BackHandler
+import androidx.compose.foundation.BorderStroke
+import androidx.compose.foundation.Image
 import androidx.compose.foundation.background
-import androidx.compose.foundation.clickable
+import androidx.compose.foundation.combinedClickable
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Box
 import androidx.compose.foundation.layout.Column
@@ -16,13 +19,18 @@ import androidx.compose.foundation.layout.size
 import androidx.compose.foundation.layout.width
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.ArrowBack
+import androidx.compose.material.icons.filled.Check
 import androidx.compose.material.icons.filled.CheckCircle
+import androidx.compose.material.icons.filled.Close
+import androidx.compose.material.icons.filled.Delete
 import androidx.compose.material.icons.filled.Error
 import androidx.compose.material.icons.filled.FilterList
 import androidx.compose.material.icons.filled.Refresh
+import androidx.compose.material.icons.filled.SelectAll
 import androidx.compose.material3.Button
 import androidx.compose.material3.Card
 import androidx.compose.material3.CardDefaults
@@ -30,34 +38,53 @@ import androidx.compose.material3.CircularProgressIndicator
 import androidx.compose.material3.DropdownMenu
 import androidx.compose.material3.DropdownMenuItem
 import androidx.compose.material3.ExperimentalMaterial3Api
+import androidx.compose.material3.HorizontalDivider
 import androidx.compose.material3.Icon
 import androidx.compose.material3.IconButton
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Scaffold
+import androidx.compose.material3.SnackbarHost
+import androidx.compose.material3.SnackbarHostState
 import androidx.compose.material3.Surface
 import androidx.compose.material3.Text
+import androidx.compose.material3.TextButton
 import androidx.compose.material3.TopAppBar
 import androidx.compose.material3.TopAppBarDefaults
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
+import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.setValue
+import androidx.compose.runtime.snapshotFlow
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.platform.LocalContext
+import androidx.compose.ui.platform.LocalDensity
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import androidx.lifecycle.viewmodel.compose.viewModel
-import coil.compose.SubcomposeAsyncImage
+import coil.compose.AsyncImage
+import coil.request.ImageRequest
 import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.HistoryIndex
+import id.harissabil.wearnow.ui.screen.history.utils.PrefetchWindow
+import id.harissabil.wearnow.ui.screen.home.GarmentClass
+import id.harissabil.wearnow.ui.screen.home.MergeStyle
+import id.harissabil.wearnow.utils.HistoryPlaceholders
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.launch
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
+import java.util.concurrent.TimeUnit
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
@@ -67,69 +94,82 @@ fun HistoryScreen(
     onBack: () -> Unit,
     viewModel: HistoryViewModel = viewModel(),
 ) {
+    val context = LocalContext.current
     val uiState by viewModel.uiState.collectAsStateWithLifecycle()
     var showFilterMenu by remember { mutableStateOf(false) }
+    val snackbarHostState = remember { SnackbarHostState() }
+
+    val filteredItems = uiState.visibleItems
+
+    // Back leaves selection mode before leaving the screen
+    BackHandler(enabled = uiState.isSelectionMode) {
+        viewModel.clearSelection()
+    }
+
+    // Image work still queued when navigating to a result would compete with its image
+    DisposableEffect(viewModel) {
+        onDispose { viewModel.onScreenHidden() }
+    }
+
+    LaunchedEffect(uiState.bulkResultMessage) {
+        uiState.bulkResultMessage?.let { message ->
+            snackbarHostState.showSnackbar(message)
+            viewModel.clearBulkResultMessage()
+        }
+    }
 
     Scaffold(
+        snackbarHost = { SnackbarHost(hostState = snackbarHostState) },
         topBar = {
-            TopAppBar(
-                title = {
-                    Text(
-                        "Try-On History",
-                        style = MaterialTheme.typography.headlineSmall,
-                        fontWeight = FontWeight.Bold
-                    )
-                },
-                navigationIcon = {
-                    IconButton(onClick = onBack) {
-                        Icon(
-                            Icons.AutoMirrored.Filled.ArrowBack,
-                            contentDescription = "Back"
-                        )
-                    }
-                },
-                actions = {
-                    IconButton(onClick = { showFilterMenu = true }) {
-                        Icon(Icons.Default.FilterList, contentDescription = "Filter")
-                    }
-                    DropdownMenu(
-                        expanded = showFilterMenu,
-                        onDismissRequest = { showFilterMenu = false }
-                    ) {
-                        DropdownMenuItem(
-                            text = { Text("All") },
-                            onClick = {
-                                viewModel.filterByStatus(null)
-                                showFilterMenu = false
-                            }
-                        )
-                        DropdownMenuItem(
-                            text = { Text("Completed") },
-                            onClick = {
-                                viewModel.filterByStatus(TryOnHistoryStatus.COMPLETED)
-                                showFilterMenu = false
-                            }
-                        )
-                        DropdownMenuItem(
-                            text = { Text("Processing") },
-                            onClick = {
-                                viewModel.filterByStatus(TryOnHistoryStatus.PROCESSING)
-                                showFilterMenu = false
-                            }
+            if (uiState.isSelectionMode) {
+                SelectionTopBar(
+                    selectedCount = uiState.selectedIds.size,
+                    isBulkOperationRunning = uiState.isBulkOperationRunning,
+                    onClearSelection = { viewModel.clearSelection() },
+                    onSelectAll = { viewModel.selectAll(uiState.visibleIds) },
+                    onRetrySelected = { viewModel.retrySelected() },
+                    onDeleteSelected = { viewModel.deleteSelected(context) }
+                )
+            } else {
+                TopAppBar(
+                    title = {
+                        Text(
+                            "Try-On History",
+                            style = MaterialTheme.typography.headlineSmall,
+                            fontWeight = FontWeight.Bold
                         )
-                        DropdownMenuItem(
-                            text = { Text("Failed") },
-                            onClick = {
-                                viewModel.filterByStatus(TryOnHistoryStatus.FAILED)
-                                showFilterMenu = false
-                            }
+                    },
+                    navigationIcon = {
+                        IconButton(onClick = onBack) {
+                            Icon(
+                                Icons.AutoMirrored.Filled.ArrowBack,
+                                contentDescription = "Back"
+                            )
+                        }
+                    },
+                    actions = {
+                        IconButton(onClick = { showFilterMenu = true }) {
+                            Icon(Icons.Default.FilterList, contentDescription = "Filter")
+                        }
+                        HistoryFilterMenu(
+                            expanded = showFilterMenu,
+                            filter = uiState.filter,
+                            onDismiss = { showFilterMenu = false },
+                            onStatusSelected = viewModel::filterByStatus,
+                            onGarmentClassSelected = viewModel::filterByGarmentClass,
+                            onMergeStyleSelected = viewModel::filterByMergeStyle,
+                            onCreatedWithinSelected = { days ->
+                                val fromMs = days?.let { System.currentTimeMillis() - TimeUnit.DAYS.toMillis(it.toLong()) }
+                                viewModel.filterByCreatedAt(fromMs, untilMs = null)
+                            },
+                            onNewestFirstSelected = viewModel::sortNewestFirst
                         )
-                    }
-                },
-                colors = TopAppBarDefaults.topAppBarColors(
-                    containerColor = MaterialTheme.colorScheme.surface
+                    },
+                    colors = TopAppBarDefaults.topAppBarColors(
+                        containerColor = MaterialTheme.colorScheme.surface
+                    )
                 )
-            )
+            }
         }
     ) { paddingValues ->
         Box(
@@ -150,19 +190,26 @@ fun HistoryScreen(
                 }
 
                 else -> {
-                    val filteredItems = if (uiState.filterStatus != null) {
-                        uiState.historyItems.filter { it.history.status == uiState.filterStatus }
-                    } else {
-                        uiState.historyItems
-                    }
-
                     if (filteredItems.isEmpty()) {
-                        EmptyState(filterStatus = uiState.filterStatus)
+                        EmptyState(isFiltered = uiState.filter.isFiltered)
                     } else {
                         HistoryList(
                             items = filteredItems,
-                            onItemClick = { historyId ->
-                                onGoToResult(historyId)
+                            itemIds = uiState.visibleIds,
+                            selectedIds = uiState.selectedIds,
+                            onItemClick = { item ->
+                                if (uiState.isSelectionMode) {
+                                    viewModel.toggleSelection(item.history.id)
+                                } else if (item.history.status != TryOnHistoryStatus.PROCESSING) {
+                                    onGoToResult(item.history.id)
+                                }
+                            },
+                            onRetry = { item -> viewModel.retryTryOn(item.history.id) },
+                            onItemLongClick = { item ->
+                                viewModel.toggleSelection(item.history.id)
+                            },
+                            onViewportChanged = { itemIds, window, thumbnailPx ->
+                                viewModel.onViewportChanged(context, itemIds, window, thumbnailPx)
                             }
                         )
                     }
@@ -172,6 +219,158 @@ fun HistoryScreen(
     }
 }
 
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+private fun SelectionTopBar(
+    selectedCount: Int,
+    isBulkOperationRunning: Boolean,
+    onClearSelection: () -> Unit,
+    onSelectAll: () -> Unit,
+    onRetrySelected: () -> Unit,
+    onDeleteSelected: () -> Unit,
+) {
+    TopAppBar(
+        title = {
+            Text(
+                "$selectedCount selected",
+                style = MaterialTheme.typography.headlineSmall,
+                fontWeight = FontWeight.Bold
+            )
+        },
+        navigationIcon = {
+            IconButton(onClick = onClearSelection) {
+                Icon(Icons.Default.Close, contentDescription = "Clear selection")
+            }
+        },
+        actions = {
+            IconButton(
+                onClick = onSelectAll,
+                enabled = !isBulkOperationRunning
+            ) {
+                Icon(Icons.Default.SelectAll, contentDescription = "Select all")
+            }
+            IconButton(
+                onClick = onRetrySelected,
+                enabled = !isBulkOperationRunning
+            ) {
+                Icon(Icons.Default.Refresh, contentDescription = "Retry selected")
+            }
+            if (isBulkOperationRunning) {
+                CircularProgressIndicator(
+                    modifier = Modifier
+                        .padding(horizontal = 12.dp)
+                        .size(24.dp),
+                    strokeWidth = 2.dp
+                )
+            } else {
+                IconButton(onClick = onDeleteSelected) {
+                    Icon(
+                        Icons.Default.Delete,
+                        contentDescription = "Delete selected",
+                        tint = MaterialTheme.colorScheme.error
+                    )
+                }
+            }
+        },
+        colors = TopAppBarDefaults.topAppBarColors(
+            containerColor = MaterialTheme.colorScheme.secondaryContainer
+        )
+    )
+}
+
+/**
+ * Status, garment, style and date filters and the sort order, applied as they are picked.
+ * The date filter keeps try-ons created within the picked number of days.
+ */
+@Composable
+private fun HistoryFilterMenu(
+    expanded: Boolean,
+    filter: HistoryIndex.Query,
+    onDismiss: () -> Unit,
+    onStatusSelected: (TryOnHistoryStatus?) -> Unit,
+    onGarmentClassSelected: (String?) -> Unit,
+    onMergeStyleSelected: (String?) -> Unit,
+    onCreatedWithinSelected: (days: Int?) -> Unit,
+    onNewestFirstSelected: (Boolean) -> Unit,
+) {
+    var createdWithinDays by remember { mutableStateOf<Int?>(null) }
+
+    @Composable
+    fun Option(label: String, isSelected: Boolean, onClick: () -> Unit) {
+        DropdownMenuItem(
+            text = { Text(label) },
+            leadingIcon = {
+                if (isSelected) {
+                    Icon(Icons.Default.Check, contentDescription = null)
+                } else {
+                    Spacer(modifier = Modifier.size(24.dp))
+                }
+            },
+            onClick = {
+                onClick()
+                onDismiss()
+            }
+        )
+    }
+
+    @Composable
+    fun Section(title: String) {
+        Text(
+            title,
+            style = MaterialTheme.typography.labelMedium,
+            color = MaterialTheme.colorScheme.primary,
+            modifier = Modifier.padding(horizontal = 16.dp, vertical = 8.dp)
+        )
+    }
+
+    DropdownMenu(expanded = expanded, onDismissRequest = onDismiss) {
+        Section("Status")
+        Option("All", filter.status == null) { onStatusSelected(null) }
+        Option("Completed", filter.status == TryOnHistoryStatus.COMPLETED) {
+            onStatusSelected(TryOnHistoryStatus.COMPLETED)
+        }
+        Option("Processing", filter.status == TryOnHistoryStatus.PROCESSING) {
+            onStatusSelected(TryOnHistoryStatus.PROCESSING)
+        }
+        Option("Failed", filter.status == TryOnHistoryStatus.FAILED) {
+            onStatusSelected(TryOnHistoryStatus.FAILED)
+        }
+
+        HorizontalDivider()
+        Section("Garment")
+        Option("Any garment", filter.garmentClass == null) { onGarmentClassSelected(null) }
+        GarmentClass.entries.forEach { garmentClass ->
+            Option(garmentClass.displayName, filter.garmentClass == garmentClass.name) {
+                onGarmentClassSelected(garmentClass.name)
+            }
+        }
+
+        HorizontalDivider()
+        Section("Style")
+        Option("Any style", filter.mergeStyle == null) { onMergeStyleSelected(null) }
+        MergeStyle.entries.forEach { mergeStyle ->
+            Option(mergeStyle.displayName, filter.mergeStyle == mergeStyle.name) {
+                onMergeStyleSelected(mergeStyle.name)
+            }
+        }
+
+        HorizontalDivider()
+        Section("Created")
+        listOf(null to "Any time", 7 to "Past week", 30 to "Past month").forEach { (days, label) ->
+            val isSelected = if (filter.createdFromMs == null) days == null else days == createdWithinDays
+            Option(label, isSelected) {
+                createdWithinDays = days
+                onCreatedWithinSelected(days)
+            }
+        }
+
+        HorizontalDivider()
+        Section("Sort")
+        Option("Newest first", filter.newestFirst) { onNewestFirstSelected(true) }
+        Option("Oldest first", !filter.newestFirst) { onNewestFirstSelected(false) }
+    }
+}
+
 @Composable
 private fun LoadingState() {
     Box(
@@ -232,7 +431,7 @@ private fun ErrorState(
 }
 
 @Composable
-private fun EmptyState(filterStatus: TryOnHistoryStatus?) {
+private fun EmptyState(isFiltered: Boolean) {
     Box(
         modifier = Modifier.fillMaxSize(),
         contentAlignment = Alignment.Center
@@ -243,12 +442,12 @@ private fun EmptyState(filterStatus: TryOnHistoryStatus?) {
             modifier = Modifier.padding(32.dp)
         ) {
             Text(
-                if (filterStatus != null) "No ${filterStatus.name.lowercase()} items" else "No try-on history yet",
+                if (isFiltered) "No matching items" else "No try-on history yet",
                 style = MaterialTheme.typography.titleLarge,
                 fontWeight = FontWeight.Bold
             )
             Text(
-                if (filterStatus != null) {
+                if (isFiltered) {
                     "Try changing the filter to see other items"
                 } else {
                     "Start your virtual try-on journey!\nTry on some clothes and they'll appear here."
@@ -264,9 +463,39 @@ private fun EmptyState(filterStatus: TryOnHistoryStatus?) {
 @Composable
 private fun HistoryList(
     items: List<HistoryItemUiState>,
-    onItemClick: (String) -> Unit,
+    itemIds: List<String>,
+    selectedIds: Set<String>,
+    onItemClick: (HistoryItemUiState) -> Unit,
+    onItemLongClick: (HistoryItemUiState) -> Unit,
+    onRetry: (HistoryItemUiState) -> Unit,
+    onViewportChanged: (itemIds: List<String>, window: PrefetchWindow, thumbnailPx: Int) -> Unit,
 ) {
+    val listState = rememberLazyListState()
+    val thumbnailPx = with(LocalDensity.current) { THUMBNAIL_SIZE.roundToPx() }
+
+    // Images are signed as items come near the viewport and preloaded in the scroll
+    // direction. Keyed on the IDs, so resolved images don't restart it.
+    LaunchedEffect(listState, itemIds) {
+        var previousFirst = listState.firstVisibleItemIndex
+        snapshotFlow {
+            val visible = listState.layoutInfo.visibleItemsInfo
+            (visible.firstOrNull()?.index ?: 0) to (visible.lastOrNull()?.index ?: -1)
+        }
+            .distinctUntilChanged()
+            .collect { (first, last) ->
+                val window = PrefetchWindow.of(
+                    firstVisible = first,
+                    lastVisible = last,
+                    itemCount = itemIds.size,
+                    scrollingForward = first >= previousFirst
+                )
+                previousFirst = first
+                onViewportChanged(itemIds, window, thumbnailPx)
+            }
+    }
+
     LazyColumn(
+        state = listState,
         modifier = Modifier.fillMaxSize(),
         contentPadding = PaddingValues(16.dp),
         verticalArrangement = Arrangement.spacedBy(12.dp)
@@ -274,7 +503,10 @@ private fun HistoryList(
         items(items, key = { it.history.id }) { item ->
             HistoryCard(
                 item = item,
-                onClick = { onItemClick(item.history.id) }
+                isSelected = item.history.id in selectedIds,
+                onClick = { onItemClick(item) },
+                onLongClick = { onItemLongClick(item) },
+                onRetry = { onRetry(item) }
             )
         }
     }
@@ -283,16 +515,25 @@ private fun HistoryList(
 @Composable
 private fun HistoryCard(
     item: HistoryItemUiState,
+    isSelected: Boolean,
     onClick: () -> Unit,
+    onLongClick: () -> Unit,
+    onRetry: () -> Unit,
 ) {
     Card(
         modifier = Modifier
             .fillMaxWidth()
-            .clickable(
-                enabled = item.history.status == TryOnHistoryStatus.COMPLETED,
-                onClick = onClick
+            .combinedClickable(
+                onClick = onClick,
+                onLongClick = onLongClick
             ),
         shape = RoundedCornerShape(16.dp),
+        colors = if (isSelected) {
+            CardDefaults.cardColors(containerColor = MaterialTheme.colorScheme.secondaryContainer)
+        } else {
+            CardDefaults.cardColors()
+        },
+        border = if (isSelected) BorderStroke(2.dp, MaterialTheme.colorScheme.secondary) else null,
         elevation = CardDefaults.cardElevation(defaultElevation = 2.dp)
     ) {
         Row(
@@ -335,16 +576,23 @@ private fun HistoryCard(
                 )
 
                 // Additional info
-                if (item.history.status == TryOnHistoryStatus.FAILED &&
-                    !item.history.errorMessage.isNullOrEmpty()
-                ) {
-                    Text(
-                        item.history.errorMessage,
-                        style = MaterialTheme.typography.bodySmall,
-                        color = MaterialTheme.colorScheme.error,
-                        maxLines = 2,
-                        overflow = TextOverflow.Ellipsis
-                    )
+                if (item.history.status == TryOnHistoryStatus.FAILED) {
+                    Row(
+                        verticalAlignment = Alignment.CenterVertically,
+                        horizontalArrangement = Arrangement.spacedBy(8.dp)
+                    ) {
+                        Text(
+                            item.history.errorMessage ?: "Processing failed",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = MaterialTheme.colorScheme.error,
+                            maxLines = 2,
+                            overflow = TextOverflow.Ellipsis,
+                            modifier = Modifier.weight(1f)
+                        )
+                        TextButton(onClick = onRetry) {
+                            Text("Retry")
+                        }
+                    }
                 } else if (item.history.status == TryOnHistoryStatus.PROCESSING) {
                     Row(
                         verticalAlignment = Alignment.CenterVertically,
@@ -372,37 +620,67 @@ private fun HistoryCard(
     }
 }
 
+private val THUMBNAIL_SIZE = 100.dp
+
 @Composable
 private fun ThumbnailImage(item: HistoryItemUiState) {
+    val context = LocalContext.current
+    val scope = rememberCoroutineScope()
+    // Decoded once per hash and cached, cheap enough for items composed while scrolling
+    val placeholder = remember(item.history.id) { HistoryPlaceholders.bitmapFor(item.history.id) }
+
     Box(
         modifier = Modifier
-            .size(100.dp)
+            .size(THUMBNAIL_SIZE)
             .clip(RoundedCornerShape(12.dp))
             .background(MaterialTheme.colorScheme.surfaceVariant),
         contentAlignment = Alignment.Center
     ) {
         when {
-            item.isLoadingImage -> {
-                CircularProgressIndicator(modifier = Modifier.size(16.dp))
-            }
+            item.isLoadingImage || item.resultImageUrl != null -> {
+                var isLoaded by remember(item.resultImageUrl) { mutableStateOf(false) }
+                var isFailed by remember(item.resultImageUrl) { mutableStateOf(false) }
 
-            item.resultImageUri != null -> {
-                SubcomposeAsyncImage(
-                    model = item.resultImageUri,
-                    contentDescription = "Try-on result",
-                    modifier = Modifier.fillMaxSize(),
-                    contentScale = ContentScale.Crop,
-                    loading = {
-                        CircularProgressIndicator(modifier = Modifier.size(32.dp))
-                    },
-                    error = {
-                        Icon(
-                            Icons.Default.Error,
-                            contentDescription = "Failed to load",
-                            tint = MaterialTheme.colorScheme.error
-                        )
-                    }
-                )
+                if (placeholder != null) {
+                    Image(
+                        bitmap = placeholder,
+                        contentDescription = null,
+                        modifier = Modifier.fillMaxSize(),
+                        contentScale = ContentScale.Crop
+                    )
+                } else if (!isLoaded && !isFailed) {
+                    CircularProgressIndicator(
+                        modifier = Modifier.size(if (item.isLoadingImage) 16.dp else 32.dp)
+                    )
+                }
+
+                item.resultImageUrl?.let { url ->
+                    // Cross-fades in over the placeholder
+                    AsyncImage(
+                        model = ImageRequest.Builder(context)
+                            .data(url)
+                            .crossfade(true)
+                            .build(),
+                        contentDescription = "Try-on result",
+                        modifier = Modifier.fillMaxSize(),
+                        contentScale = ContentScale.Crop,
+                        onSuccess = {
+                            isLoaded = true
+                            scope.launch {
+                                HistoryPlaceholders.rememberResult(context.applicationContext, item.history.id, url)
+                            }
+                        },
+                        onError = { isFailed = true }
+                    )
+                }
+
+                if (isFailed) {
+                    Icon(
+                        Icons.Default.Error,
+                        contentDescription = "Failed to load",
+                        tint = MaterialTheme.colorScheme.error
+                    )
+                }
             }
 
             item.history.status == TryOnHistoryStatus.PROCESSING -> {
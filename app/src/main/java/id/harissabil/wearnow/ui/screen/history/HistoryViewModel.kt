@@ -1,42 +1,103 @@
 package id.harissabil.wearnow.ui.screen.history
 
-import android.net.Uri
+import android.content.Context
 import android.util.Log
-import androidx.core.net.toUri
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
-import com.amplifyframework.core.Amplify
+import coil.imageLoader
+import coil.request.ImageRequest
+import coil.request.SuccessResult
+import coil.size.Scale
 import com.amplifyframework.datastore.generated.model.TryOnHistory
 import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
-import com.amplifyframework.storage.StoragePath
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.AmplifyStorageRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
+import id.harissabil.wearnow.data.GraphQLBatchExecutor
+import id.harissabil.wearnow.data.HistoryStatusWriter
+import id.harissabil.wearnow.data.HistoryDeletionEngine
+import id.harissabil.wearnow.data.HistoryIndex
+import id.harissabil.wearnow.data.StorageRepository
+import id.harissabil.wearnow.data.TryOnRetryService
+import id.harissabil.wearnow.data.sync
+import id.harissabil.wearnow.data.upsert
+import id.harissabil.wearnow.ui.screen.history.utils.PrefetchWindow
+import id.harissabil.wearnow.ui.screen.home.utils.VirtualTryOnService
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import id.harissabil.wearnow.utils.PriorityScheduler
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.withContext
 
+/**
+ * [isLoadingImage] is set while the result image still has to be signed, which only
+ * happens once the item comes near the viewport
+ */
 data class HistoryItemUiState(
     val history: TryOnHistory,
-    val resultImageUri: Uri? = null,
+    val resultImageUrl: String? = null,
     val isLoadingImage: Boolean = false
 )
 
+/**
+ * [historyItems] are keyed by history ID in load order, so an item is looked up and
+ * replaced without scanning the list. [visibleIds] are the IDs that match [filter], in
+ * its order.
+ */
 data class HistoryUiState(
-    val historyItems: List<HistoryItemUiState> = emptyList(),
+    val historyItems: Map<String, HistoryItemUiState> = emptyMap(),
     val isLoading: Boolean = false,
     val errorMessage: String? = null,
-    val filterStatus: TryOnHistoryStatus? = null
-)
+    val filter: HistoryIndex.Query = HistoryIndex.Query(),
+    val visibleIds: List<String> = emptyList(),
+    val selectedIds: Set<String> = emptySet(),
+    val isBulkOperationRunning: Boolean = false,
+    val bulkResultMessage: String? = null
+) {
+    val isSelectionMode: Boolean get() = selectedIds.isNotEmpty()
+
+    // Once per state, the screen reads it on every recomposition
+    val visibleItems: List<HistoryItemUiState> by lazy {
+        visibleIds.mapNotNull(historyItems::get)
+    }
+}
 
-class HistoryViewModel : ViewModel() {
+class HistoryViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val storage: StorageRepository = AmplifyStorageRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
     private val _uiState = MutableStateFlow(HistoryUiState())
     val uiState: StateFlow<HistoryUiState> = _uiState.asStateFlow()
 
+    private val batchExecutor = GraphQLBatchExecutor(api)
+
+    // Filters and sorts the loaded records without a round trip, synced off the main thread
+    private val historyIndex = HistoryIndex()
+
+    // Image work by history ID, nearest the viewport first, and items whose image is in
+    // Coil's caches. A few at a time so the first screen isn't queued behind the rest.
+    private val imageScheduler = PriorityScheduler(viewModelScope, MAX_CONCURRENT_IMAGES)
+    private val preloadedIds = mutableSetOf<String>()
+    private var lastViewport: (() -> Unit)? = null
+    private val urlResolver = PresignedUrlResolver(storage)
+    private val tryOnRetryService = TryOnRetryService(
+        tryOnService = VirtualTryOnService(api, auth),
+        batchExecutor = batchExecutor,
+        statusWriter = HistoryStatusWriter(api),
+        urlResolver = urlResolver
+    )
+
     init {
         loadHistory()
     }
@@ -51,33 +112,39 @@ class HistoryViewModel : ViewModel() {
 
                 // Get identityId for querying (not userId!)
                 // TryOnHistory.userId field actually contains identityId
-                val identityId = getIdentityId()
+                val identityId = auth.getIdentityId()
 
                 Log.d(TAG, "Loading history for identityId: $identityId")
 
                 // Query all TryOnHistory records for this identity
-                val histories = fetchTryOnHistories(identityId)
+                val histories = api.listTryOnHistories(identityId)
 
                 Log.d(TAG, "Found ${histories.size} history records")
 
-                // Convert to UI state with image loading
-                val historyItems = histories.map { history ->
-                    HistoryItemUiState(
+                // Images are signed once their items come into view, see onViewportChanged
+                imageScheduler.cancelAll()
+                preloadedIds.clear()
+                val historyItems = histories.associate { history ->
+                    history.id to HistoryItemUiState(
                         history = history,
-                        isLoadingImage = true
+                        isLoadingImage = needsImage(history)
                     )
                 }
 
-                _uiState.value = _uiState.value.copy(
-                    historyItems = historyItems,
-                    isLoading = false
-                )
-
-                // Load images for each item
-                historyItems.forEach { item ->
-                    loadImageForHistoryItem(item, identityId)
+                // Parses the metadata of every changed record, too much for the main thread
+                val changed = withContext(Dispatchers.Default) { historyIndex.sync(histories) }
+                Log.d(TAG, "Indexed history, $changed records changed")
+                _uiState.update {
+                    it.copy(
+                        historyItems = historyItems,
+                        visibleIds = historyIndex.query(it.filter),
+                        isLoading = false
+                    )
                 }
 
+                // A reload with the same items doesn't move the list, sign what it shows
+                lastViewport?.invoke()
+
             } catch (e: Exception) {
                 Log.e(TAG, "Failed to load history", e)
                 _uiState.value = _uiState.value.copy(
@@ -89,128 +156,286 @@ class HistoryViewModel : ViewModel() {
     }
 
     fun filterByStatus(status: TryOnHistoryStatus?) {
-        _uiState.value = _uiState.value.copy(filterStatus = status)
+        updateFilter { it.copy(status = status) }
+    }
+
+    fun filterByGarmentClass(garmentClass: String?) {
+        updateFilter { it.copy(garmentClass = garmentClass) }
+    }
+
+    fun filterByMergeStyle(mergeStyle: String?) {
+        updateFilter { it.copy(mergeStyle = mergeStyle) }
+    }
+
+    /**
+     * Keep try-ons created within [fromMs] inclusive and [untilMs] exclusive, null for open ends
+     */
+    fun filterByCreatedAt(fromMs: Long?, untilMs: Long?) {
+        updateFilter { it.copy(createdFromMs = fromMs, createdUntilMs = untilMs) }
+    }
+
+    fun sortNewestFirst(newestFirst: Boolean) {
+        updateFilter { it.copy(newestFirst = newestFirst) }
+    }
+
+    private fun updateFilter(transform: (HistoryIndex.Query) -> HistoryIndex.Query) {
+        _uiState.update {
+            val filter = transform(it.filter)
+            it.copy(filter = filter, visibleIds = historyIndex.query(filter))
+        }
     }
 
     fun clearError() {
         _uiState.value = _uiState.value.copy(errorMessage = null)
     }
 
-    private suspend fun getUserId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val userId = cognitoAuthSession.userSubResult.value
-                continuation.resume(userId as String)
-            },
-            { error ->
-                Log.e(TAG, "Failed to get userId", error)
-                continuation.resumeWithException(error)
-            }
-        )
-    }
-
-    private suspend fun getIdentityId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val identityId = cognitoAuthSession.identityIdResult.value
-                continuation.resume(identityId as String)
-            },
-            { error ->
-                Log.e(TAG, "Failed to get identityId", error)
-                continuation.resumeWithException(error)
+    fun toggleSelection(historyId: String) {
+        _uiState.update {
+            val selected = if (historyId in it.selectedIds) {
+                it.selectedIds - historyId
+            } else {
+                it.selectedIds + historyId
             }
-        )
-    }
-
-    private suspend fun fetchTryOnHistories(identityId: String): List<TryOnHistory> =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.API.query(
-                ModelQuery.list(TryOnHistory::class.java, TryOnHistory.USER_ID.eq(identityId)),
-                { response ->
-                    val histories = response.data?.items?.toList()?.sortedByDescending {
-                        it.createdAt.toDate()
-                    } ?: emptyList()
-                    continuation.resume(histories)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to fetch TryOnHistory", error)
-                    continuation.resumeWithException(error)
-                }
-            )
+            it.copy(selectedIds = selected)
         }
+    }
+
+    fun selectAll(historyIds: List<String>) {
+        _uiState.update { it.copy(selectedIds = historyIds.toSet()) }
+    }
+
+    fun clearSelection() {
+        _uiState.update { it.copy(selectedIds = emptySet()) }
+    }
+
+    fun clearBulkResultMessage() {
+        _uiState.update { it.copy(bulkResultMessage = null) }
+    }
+
+    /**
+     * Delete every selected try-on in batched requests, keeping the ones that failed selected
+     */
+    fun deleteSelected(context: Context) {
+        val state = _uiState.value
+        if (state.isBulkOperationRunning || state.selectedIds.isEmpty()) return
+        val histories = state.selectedIds.mapNotNull { state.historyItems[it]?.history }
+        val appContext = context.applicationContext
 
-    private fun loadImageForHistoryItem(item: HistoryItemUiState, identityId: String) {
         viewModelScope.launch {
-            try {
-                // Only load image if status is COMPLETED and resultPhotoUrl exists
-                if (item.history.status == TryOnHistoryStatus.COMPLETED &&
-                    !item.history.resultPhotoUrl.isNullOrEmpty()) {
+            _uiState.update { it.copy(isBulkOperationRunning = true) }
+            val result = try {
+                HistoryDeletionEngine(appContext, storage, batchExecutor).deleteAll(histories)
+            } catch (e: Exception) {
+                Log.e(TAG, "Bulk delete failed", e)
+                _uiState.update {
+                    it.copy(
+                        isBulkOperationRunning = false,
+                        bulkResultMessage = "Failed to delete: ${e.message}"
+                    )
+                }
+                return@launch
+            }
 
-                    val imageUri = if (item.history.resultPhotoUrl.startsWith("http")) {
-                        item.history.resultPhotoUrl.toUri()
+            val deletedIds = result.deletedIds.toSet()
+            deletedIds.forEach(historyIndex::remove)
+            _uiState.update {
+                it.copy(
+                    historyItems = it.historyItems - deletedIds,
+                    visibleIds = it.visibleIds.filter { id -> id !in deletedIds },
+                    selectedIds = result.failures.keys,
+                    isBulkOperationRunning = false,
+                    bulkResultMessage = if (result.failures.isEmpty()) {
+                        "Deleted ${deletedIds.size} try-ons"
                     } else {
-                        generatePresignedUrl(item.history.resultPhotoUrl, identityId)
+                        "Deleted ${deletedIds.size} of ${histories.size}, ${result.failures.size} failed"
                     }
+                )
+            }
+        }
+    }
 
-                    // Update the specific item in the list
-                    val updatedItems = _uiState.value.historyItems.map {
-                        if (it.history.id == item.history.id) {
-                            it.copy(
-                                resultImageUri = imageUri,
-                                isLoadingImage = false
-                            )
-                        } else {
-                            it
-                        }
-                    }
+    fun retryTryOn(historyId: String) {
+        retry(setOf(historyId))
+    }
+
+    fun retrySelected() {
+        retry(_uiState.value.selectedIds)
+        clearSelection()
+    }
 
-                    _uiState.value = _uiState.value.copy(historyItems = updatedItems)
+    /**
+     * Re-run FAILED try-ons from their stored keys and options, without re-uploading
+     */
+    private fun retry(historyIds: Set<String>) {
+        val historyItems = _uiState.value.historyItems
+        val histories = historyIds.mapNotNull { historyItems[it]?.history }
+            .filter { it.status == TryOnHistoryStatus.FAILED }
+        if (histories.isEmpty()) {
+            _uiState.update { it.copy(bulkResultMessage = "Only failed try-ons can be retried") }
+            return
+        }
+
+        histories.forEach { history ->
+            replaceHistory(
+                history.copyOfBuilder()
+                    .status(TryOnHistoryStatus.PROCESSING)
+                    .errorMessage(null)
+                    .build()
+            )
+        }
+
+        viewModelScope.launch {
+            val results = try {
+                tryOnRetryService.retryAll(histories)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Retry failed", e)
+                histories.associate { it.id to Result.failure(e) }
+            }
+
+            var completed = 0
+            histories.forEach { history ->
+                val result = results[history.id]
+                val response = result?.getOrNull()?.virtualTryOn
+                if (response?.success == true) {
+                    completed++
+                    val updated = TryOnHandoffCache.get(history.id)?.history
+                        ?: history.copyOfBuilder()
+                            .status(TryOnHistoryStatus.COMPLETED)
+                            .resultPhotoUrl(response.resultUrl)
+                            .errorMessage(null)
+                            .build()
+                    replaceHistory(updated)
+                    updateItem(updated.id) { it.copy(isLoadingImage = needsImage(updated)) }
+                    loadImage(updated.id, preload = null, priority = 0)
                 } else {
-                    // Mark as not loading for non-completed items
-                    val updatedItems = _uiState.value.historyItems.map {
-                        if (it.history.id == item.history.id) {
-                            it.copy(isLoadingImage = false)
-                        } else {
-                            it
-                        }
-                    }
-                    _uiState.value = _uiState.value.copy(historyItems = updatedItems)
+                    replaceHistory(
+                        history.copyOfBuilder()
+                            .status(TryOnHistoryStatus.FAILED)
+                            .errorMessage(
+                                response?.errorMessage
+                                    ?: result?.exceptionOrNull()?.message
+                                    ?: "Retry failed"
+                            )
+                            .build()
+                    )
                 }
+            }
 
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to load image for ${item.history.id}", e)
-                // Mark as not loading even on error
-                val updatedItems = _uiState.value.historyItems.map {
-                    if (it.history.id == item.history.id) {
-                        it.copy(isLoadingImage = false)
-                    } else {
-                        it
+            _uiState.update {
+                it.copy(bulkResultMessage = "Retried ${histories.size}: $completed completed, ${histories.size - completed} failed")
+            }
+        }
+    }
+
+    private fun replaceHistory(history: TryOnHistory) {
+        val reindexed = historyIndex.upsert(history)
+        _uiState.update { state ->
+            val item = state.historyItems[history.id] ?: return@update state
+            state.copy(
+                historyItems = state.historyItems + (history.id to item.copy(history = history)),
+                // A status filter drops a retried try-on as soon as its status changes
+                visibleIds = if (reindexed) historyIndex.query(state.filter) else state.visibleIds
+            )
+        }
+    }
+
+    /**
+     * Sign the result images of the items in [window] of the list showing [itemIds], visible
+     * items first, and preload the images of the items ahead into Coil's caches at
+     * [thumbnailPx]. Queued work follows the viewport, work for items that scrolled out of
+     * [PrefetchWindow.retained] is cancelled.
+     */
+    fun onViewportChanged(context: Context, itemIds: List<String>, window: PrefetchWindow, thumbnailPx: Int) {
+        val appContext = context.applicationContext
+        lastViewport = { onViewportChanged(appContext, itemIds, window, thumbnailPx) }
+
+        val indexById = window.retained.associateBy { itemIds.getOrNull(it) }
+        imageScheduler.keys.forEach { historyId ->
+            val priority = indexById[historyId]?.let(window::priorityOf)
+            if (priority == null) {
+                imageScheduler.cancel(historyId)
+            } else {
+                imageScheduler.reprioritize(historyId, priority)
+            }
+        }
+
+        val preload = ImagePreload(appContext, thumbnailPx)
+        window.loadOrder.forEachIndexed { priority, index ->
+            val historyId = itemIds.getOrNull(index) ?: return@forEachIndexed
+            loadImage(historyId, preload.takeIf { index !in window.visible }, priority)
+        }
+
+        val metrics = imageScheduler.metrics
+        AppLog.event(TAG, "image_queue") {
+            field("queued", metrics.queued)
+            field("running", metrics.running)
+            field("failed", metrics.failed)
+            field("wait_p50_ms", metrics.waitP50Ms)
+            field("wait_p95_ms", metrics.waitP95Ms)
+        }
+    }
+
+    /**
+     * Drop queued and running image work, the screen left and nothing shows its results
+     */
+    fun onScreenHidden() {
+        imageScheduler.cancelAll()
+    }
+
+    private data class ImagePreload(val context: Context, val sizePx: Int)
+
+    /**
+     * Queue signing the result image of [historyId] at [priority] unless it is signed or
+     * queued. With [preload] the image is also fetched into Coil's caches, for items about
+     * to scroll in. Failures are left to the scheduler to log and count.
+     */
+    private fun loadImage(historyId: String, preload: ImagePreload?, priority: Int) {
+        val item = _uiState.value.historyItems[historyId] ?: return
+        val isSigned = !item.isLoadingImage
+        if (isSigned && (item.resultImageUrl == null || preload == null || historyId in preloadedIds)) return
+        val resultKey = item.history.resultPhotoUrl?.takeIf { needsImage(item.history) } ?: return
+
+        imageScheduler.submit(historyId, priority) {
+            try {
+                val imageUrl = item.resultImageUrl ?: urlResolver.resolve(resultKey).also { url ->
+                    updateItem(historyId) { it.copy(resultImageUrl = url, isLoadingImage = false) }
+                }
+
+                if (preload != null) {
+                    // Same size and scale as the thumbnail request so it hits the memory cache
+                    val request = ImageRequest.Builder(preload.context)
+                        .data(imageUrl)
+                        .size(preload.sizePx)
+                        .scale(Scale.FILL)
+                        .build()
+                    if (preload.context.imageLoader.execute(request) is SuccessResult) {
+                        preloadedIds.add(historyId)
                     }
                 }
-                _uiState.value = _uiState.value.copy(historyItems = updatedItems)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                // Mark as not loading even on error
+                updateItem(historyId) { it.copy(isLoadingImage = false) }
+                throw e
             }
         }
     }
 
-    private suspend fun generatePresignedUrl(s3Key: String, identityId: String): Uri =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.Storage.getUrl(
-                StoragePath.fromIdentityId { identityId ->
-                    s3Key
-                },
-                { result ->
-                    continuation.resume(result.url.toString().toUri())
-                },
-                { error ->
-                    Log.e(TAG, "Failed to generate presigned URL for $s3Key", error)
-                    continuation.resumeWithException(error)
-                }
-            )
+    private fun updateItem(historyId: String, transform: (HistoryItemUiState) -> HistoryItemUiState) {
+        _uiState.update { state ->
+            val item = state.historyItems[historyId] ?: return@update state
+            state.copy(historyItems = state.historyItems + (historyId to transform(item)))
         }
+    }
+
+    private fun needsImage(history: TryOnHistory): Boolean =
+        history.status == TryOnHistoryStatus.COMPLETED && !history.resultPhotoUrl.isNullOrEmpty()
 
     companion object {
         private const val TAG = "HistoryViewModel"
+        private const val MAX_CONCURRENT_IMAGES = 4
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package id.harissabil.wearnow.ui.screen.history.utils
+
+import kotlin.math.abs
+
+/**
+ * Item indices of the history list that need their images, derived from the visible range
+ * and the scroll direction.
+ *
+ * [visible] items are loaded first, then [ahead], the next items in the direction of the
+ * scroll, nearest first. Work for items outside [retained] is cancelled: they scrolled far
+ * enough out of view that the user is unlikely to come back to them soon.
+ */
+data class PrefetchWindow(
+    val visible: IntRange,
+    val ahead: List<Int>,
+    val retained: IntRange,
+) {
+
+    /**
+     * Indices to load, in the order they should be loaded
+     */
+    val loadOrder: List<Int> get() = visible.toList() + ahead
+
+    /**
+     * Scheduling priority of the item at [index], lower runs sooner: its position in
+     * [loadOrder], then its distance from the viewport for the rest of [retained]. Null
+     * outside [retained], where its work should be cancelled.
+     */
+    fun priorityOf(index: Int): Int? {
+        val order = loadOrder
+        val position = order.indexOf(index)
+        return when {
+            position >= 0 -> position
+            index in retained -> order.size + minOf(abs(index - visible.first), abs(index - visible.last))
+            else -> null
+        }
+    }
+
+    companion object {
+        const val PREFETCH_AHEAD = 6
+        const val RETAIN_MARGIN = 12
+
+        fun of(
+            firstVisible: Int,
+            lastVisible: Int,
+            itemCount: Int,
+            scrollingForward: Boolean,
+            prefetchAhead: Int = PREFETCH_AHEAD,
+            retainMargin: Int = maxOf(RETAIN_MARGIN, prefetchAhead),
+        ): PrefetchWindow {
+            if (itemCount == 0 || lastVisible < firstVisible) {
+                return PrefetchWindow(IntRange.EMPTY, emptyList(), IntRange.EMPTY)
+            }
+            val lastIndex = itemCount - 1
+            val visible = firstVisible.coerceIn(0, lastIndex)..lastVisible.coerceIn(0, lastIndex)
+            val ahead = if (scrollingForward) {
+                (visible.last + 1..minOf(visible.last + prefetchAhead, lastIndex)).toList()
+            } else {
+                (visible.first - 1 downTo maxOf(visible.first - prefetchAhead, 0)).toList()
+            }
+            val retained = maxOf(visible.first - retainMargin, 0)..minOf(visible.last + retainMargin, lastIndex)
+            return PrefetchWindow(visible, ahead, retained)
+        }
+    }
+}
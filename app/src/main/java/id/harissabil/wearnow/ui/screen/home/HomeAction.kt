@@ -0,0 +1,90 @@
+package id.harissabil.wearnow.ui.screen.home
+
+import android.net.Uri
+import com.amplifyframework.datastore.generated.model.UserPhoto
+
+/**
+ * Every change to [HomeUiState] is expressed as one of these actions and applied by
+ * [reduce]. HomeViewModel applies them with MutableStateFlow.update, so writes coming from
+ * the main thread, nested coroutines and Amplify callback threads can't overwrite each other.
+ */
+sealed interface HomeAction {
+    data class CameraReadyChanged(val ready: Boolean) : HomeAction
+    data class UserPhotoSelected(val userPhoto: UserPhoto) : HomeAction
+    data class UserPhotosLoaded(
+        val userPhotos: List<UserPhoto>,
+        val defaultPhoto: UserPhoto?,
+    ) : HomeAction
+
+    data class UserPhotoThumbnailSigned(
+        val photoId: String,
+        val thumbnail: UserPhotoThumbnail,
+    ) : HomeAction
+
+    data class GarmentCaptured(val uri: Uri) : HomeAction
+    data class GarmentSelected(val uri: Uri) : HomeAction
+    data object CapturedGarmentCleared : HomeAction
+    data object SelectedGarmentCleared : HomeAction
+    data class GarmentClassSelected(val garmentClass: GarmentClass) : HomeAction
+    data class MergeStyleSelected(val mergeStyle: MergeStyle) : HomeAction
+    data class OptionsDialogVisibilityChanged(val visible: Boolean) : HomeAction
+
+    data class ProcessingStarted(val message: String) : HomeAction
+    data class ProcessingStepChanged(val message: String) : HomeAction
+    data object ProcessingFinished : HomeAction
+    data class ProcessingFailed(val errorMessage: String) : HomeAction
+
+    data class ErrorOccurred(val errorMessage: String) : HomeAction
+    data object ErrorCleared : HomeAction
+}
+
+/**
+ * Pure reducer: returns the next state for [action] without side effects
+ */
+fun HomeUiState.reduce(action: HomeAction): HomeUiState = when (action) {
+    is HomeAction.CameraReadyChanged -> copy(isCameraReady = action.ready)
+    is HomeAction.UserPhotoSelected -> copy(selectedUserPhoto = action.userPhoto)
+    is HomeAction.UserPhotosLoaded -> copy(
+        userPhotos = action.userPhotos,
+        selectedUserPhoto = action.defaultPhoto
+    )
+
+    is HomeAction.UserPhotoThumbnailSigned -> copy(
+        userPhotoThumbnails = userPhotoThumbnails + (action.photoId to action.thumbnail)
+    )
+
+    is HomeAction.GarmentCaptured -> copy(
+        capturedGarmentUri = action.uri,
+        selectedGarmentUri = null,
+        errorMessage = null
+    )
+
+    is HomeAction.GarmentSelected -> copy(
+        selectedGarmentUri = action.uri,
+        capturedGarmentUri = null,
+        errorMessage = null
+    )
+
+    HomeAction.CapturedGarmentCleared -> copy(capturedGarmentUri = null, errorMessage = null)
+    HomeAction.SelectedGarmentCleared -> copy(selectedGarmentUri = null, errorMessage = null)
+    is HomeAction.GarmentClassSelected -> copy(selectedGarmentClass = action.garmentClass)
+    is HomeAction.MergeStyleSelected -> copy(selectedMergeStyle = action.mergeStyle)
+    is HomeAction.OptionsDialogVisibilityChanged -> copy(showOptionsDialog = action.visible)
+
+    is HomeAction.ProcessingStarted -> copy(
+        isProcessing = true,
+        processingProgress = action.message,
+        errorMessage = null
+    )
+
+    is HomeAction.ProcessingStepChanged -> copy(processingProgress = action.message)
+    HomeAction.ProcessingFinished -> copy(isProcessing = false, processingProgress = "")
+    is HomeAction.ProcessingFailed -> copy(
+        isProcessing = false,
+        processingProgress = "",
+        errorMessage = action.errorMessage
+    )
+
+    is HomeAction.ErrorOccurred -> copy(errorMessage = action.errorMessage)
+    HomeAction.ErrorCleared -> copy(errorMessage = null)
+}
@@ -18,6 +18,7 @@ import androidx.compose.foundation.verticalScroll
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.Logout
 import androidx.compose.material.icons.filled.History
+import androidx.compose.material.icons.filled.Timeline
 import androidx.compose.material3.Button
 import androidx.compose.material3.ButtonDefaults
 import androidx.compose.material3.Card
@@ -38,8 +39,10 @@ import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
+import androidx.compose.runtime.setValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Brush
@@ -51,11 +54,14 @@ import com.google.accompanist.permissions.ExperimentalPermissionsApi
 import com.google.accompanist.permissions.isGranted
 import com.google.accompanist.permissions.rememberPermissionState
 import com.google.accompanist.permissions.shouldShowRationale
+import id.harissabil.wearnow.BuildConfig
 import id.harissabil.wearnow.ui.screen.home.components.CameraPreview
 import id.harissabil.wearnow.ui.screen.home.components.ProcessingOverlay
+import id.harissabil.wearnow.ui.screen.home.components.TraceDebugPanel
 import id.harissabil.wearnow.ui.screen.home.components.TryOnOptionsDialog
 import id.harissabil.wearnow.ui.screen.home.components.UserPhotoSelector
 import id.harissabil.wearnow.ui.screen.onboarding.utils.toFile
+import id.harissabil.wearnow.utils.TempFileManager
 import kotlinx.coroutines.launch
 
 @OptIn(ExperimentalPermissionsApi::class, ExperimentalMaterial3Api::class)
@@ -71,6 +77,7 @@ fun HomeScreen(
     val scope = rememberCoroutineScope()
     val snackbarHostState = remember { SnackbarHostState() }
     val uiState by viewModel.uiState.collectAsState()
+    var showTracePanel by remember { mutableStateOf(false) }
 
     val cameraPermissionState = rememberPermissionState(Manifest.permission.CAMERA)
 
@@ -120,6 +127,15 @@ fun HomeScreen(
                     }
                 },
                 actions = {
+                    if (BuildConfig.DEBUG) {
+                        IconButton(onClick = { showTracePanel = true }) {
+                            Icon(
+                                imageVector = Icons.Default.Timeline,
+                                contentDescription = "Try-on traces"
+                            )
+                        }
+                    }
+
                     IconButton(onClick = onNavigateToHistory) {
                         Icon(
                             imageVector = Icons.Default.History,
@@ -176,9 +192,11 @@ fun HomeScreen(
             UserPhotoSelector(
                 userPhotos = uiState.userPhotos,
                 selectedUserPhoto = uiState.selectedUserPhoto,
+                thumbnails = uiState.userPhotoThumbnails,
                 onUserPhotoSelected = { userPhoto ->
                     viewModel.setSelectedUserPhoto(userPhoto)
                 },
+                onUserPhotoMeasured = viewModel::onUserPhotoMeasured,
                 onAddPhoto = { uri ->
                     scope.launch {
                         viewModel.uploadUserPhoto(context, uri) { success ->
@@ -213,6 +231,8 @@ fun HomeScreen(
                         viewModel.setCameraReady(ready)
                     },
                     onClearCapturedImage = {
+                        // The capture is discarded on retake, so drop its file right away
+                        TempFileManager.deleteIfManaged(context, uiState.capturedGarmentUri)
                         viewModel.clearCapturedGarment()
                     },
                     onClearSelectedImage = {
@@ -307,10 +327,15 @@ fun HomeScreen(
             )
         }
 
+        if (showTracePanel) {
+            TraceDebugPanel(onDismiss = { showTracePanel = false })
+        }
+
         // Processing overlay
         ProcessingOverlay(
             isProcessing = uiState.isProcessing,
-            processingMessage = uiState.processingProgress
+            processingMessage = uiState.processingProgress,
+            uploadProgress = viewModel.uploadProgress
         )
     }
 }
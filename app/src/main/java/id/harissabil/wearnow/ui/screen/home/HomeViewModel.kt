@@ -2,34 +2,51 @@ package id.harissabil.wearnow.ui.screen.home
 
 import android.content.Context
 import android.net.Uri
-import android.util.Log
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.amplifyframework.api.graphql.model.ModelMutation
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.auth.cognito.result.AWSCognitoAuthSignOutResult
-import com.amplifyframework.auth.options.AuthSignOutOptions
-import com.amplifyframework.core.Amplify
 import com.amplifyframework.core.model.temporal.Temporal
 import com.amplifyframework.datastore.generated.model.TryOnHistory
 import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
 import com.amplifyframework.datastore.generated.model.UserPhoto
-import com.amplifyframework.storage.StoragePath
-import com.amplifyframework.storage.options.StorageUploadFileOptions
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.AmplifyStorageRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
+import id.harissabil.wearnow.data.GraphQLBatchExecutor
+import id.harissabil.wearnow.data.HistoryStatusWriter
+import id.harissabil.wearnow.data.PendingPhotoUploads
+import id.harissabil.wearnow.data.PhotoSize
+import id.harissabil.wearnow.data.StorageRepository
+import id.harissabil.wearnow.data.TryOnRetryService
+import id.harissabil.wearnow.data.UserPhotoDerivatives
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnOptions
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResponse
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResult
 import id.harissabil.wearnow.ui.screen.home.utils.ImageCompressionUtils
+import id.harissabil.wearnow.ui.screen.home.utils.UploadProgressTracker
+import id.harissabil.wearnow.ui.screen.home.utils.UploadThroughput
 import id.harissabil.wearnow.ui.screen.home.utils.VirtualTryOnService
-import kotlinx.coroutines.Dispatchers
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.HistoryPlaceholders
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import id.harissabil.wearnow.utils.TempFileManager
+import id.harissabil.wearnow.utils.Tracer
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 
 enum class GarmentClass(val displayName: String, val description: String) {
     UPPER_BODY("Upper Body", "Shirts, t-shirts, jackets, sweaters"),
@@ -48,9 +65,16 @@ enum class TryOnStatus {
     PROCESSING, COMPLETED, FAILED
 }
 
+/**
+ * Signed URL of the stored copy of a user photo shown in the selector, with the key it was
+ * signed for so images can be cached by the key instead of the changing URL
+ */
+data class UserPhotoThumbnail(val key: String, val url: String)
+
 data class HomeUiState(
     val userPhotos: List<UserPhoto> = emptyList(),
     val selectedUserPhoto: UserPhoto? = null,
+    val userPhotoThumbnails: Map<String, UserPhotoThumbnail> = emptyMap(),
     val capturedGarmentUri: Uri? = null,
     val selectedGarmentUri: Uri? = null,
     val selectedGarmentClass: GarmentClass = GarmentClass.UPPER_BODY,
@@ -62,537 +86,388 @@ data class HomeUiState(
     val isCameraReady: Boolean = false,
 )
 
-class HomeViewModel : ViewModel() {
+class HomeViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val storage: StorageRepository = AmplifyStorageRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
     private val _uiState = MutableStateFlow(HomeUiState())
     val uiState: StateFlow<HomeUiState> = _uiState.asStateFlow()
 
+    // Upload percentage is kept out of HomeUiState so ticks only recompose the overlay
+    private val uploadProgressTracker = UploadProgressTracker()
+    private val historyStatusWriter = HistoryStatusWriter(api)
+    private val urlResolver = PresignedUrlResolver(storage)
+    private val tryOnRetryService = TryOnRetryService(
+        tryOnService = VirtualTryOnService(api, auth),
+        batchExecutor = GraphQLBatchExecutor(api),
+        statusWriter = historyStatusWriter,
+        urlResolver = urlResolver
+    )
+    val uploadProgress: StateFlow<Int?> = uploadProgressTracker.percent
+
+    // Stored size of the user photos that fills a selector item, once one was measured
+    private val thumbnailSize = MutableStateFlow<PhotoSize?>(null)
+
     init {
         loadUserPhotos()
     }
 
+    /**
+     * Single entry point for state changes. update() retries the reducer on contention,
+     * so concurrent dispatches from callbacks and coroutines are never lost.
+     */
+    private fun dispatch(action: HomeAction) {
+        _uiState.update { it.reduce(action) }
+    }
+
+    /**
+     * A user photo item of the selector was laid out at [widthPx]x[heightPx]
+     */
+    fun onUserPhotoMeasured(widthPx: Int, heightPx: Int) {
+        if (widthPx > 0 && heightPx > 0) {
+            thumbnailSize.value = UserPhotoDerivatives.sizeFitting(widthPx, heightPx)
+        }
+    }
+
     fun setCameraReady(ready: Boolean) {
-        _uiState.value = _uiState.value.copy(isCameraReady = ready)
+        dispatch(HomeAction.CameraReadyChanged(ready))
     }
 
     fun setSelectedUserPhoto(userPhoto: UserPhoto) {
-        _uiState.value = _uiState.value.copy(selectedUserPhoto = userPhoto)
+        dispatch(HomeAction.UserPhotoSelected(userPhoto))
     }
 
     fun setCapturedGarment(uri: Uri) {
-        _uiState.value = _uiState.value.copy(
-            capturedGarmentUri = uri,
-            selectedGarmentUri = null,
-            errorMessage = null
-        )
+        dispatch(HomeAction.GarmentCaptured(uri))
     }
 
     fun setSelectedGarment(uri: Uri) {
-        _uiState.value = _uiState.value.copy(
-            selectedGarmentUri = uri,
-            capturedGarmentUri = null,
-            errorMessage = null
-        )
+        dispatch(HomeAction.GarmentSelected(uri))
     }
 
     fun setGarmentClass(garmentClass: GarmentClass) {
-        _uiState.value = _uiState.value.copy(selectedGarmentClass = garmentClass)
+        dispatch(HomeAction.GarmentClassSelected(garmentClass))
     }
 
     fun setMergeStyle(mergeStyle: MergeStyle) {
-        _uiState.value = _uiState.value.copy(selectedMergeStyle = mergeStyle)
+        dispatch(HomeAction.MergeStyleSelected(mergeStyle))
     }
 
     fun showOptionsDialog() {
-        _uiState.value = _uiState.value.copy(showOptionsDialog = true)
+        dispatch(HomeAction.OptionsDialogVisibilityChanged(true))
     }
 
     fun hideOptionsDialog() {
-        _uiState.value = _uiState.value.copy(showOptionsDialog = false)
+        dispatch(HomeAction.OptionsDialogVisibilityChanged(false))
     }
 
     fun clearError() {
-        _uiState.value = _uiState.value.copy(errorMessage = null)
+        dispatch(HomeAction.ErrorCleared)
     }
 
     fun clearCapturedGarment() {
-        _uiState.value = _uiState.value.copy(
-            capturedGarmentUri = null,
-            errorMessage = null
-        )
+        dispatch(HomeAction.CapturedGarmentCleared)
     }
 
     fun clearSelectedGarment() {
-        _uiState.value = _uiState.value.copy(
-            selectedGarmentUri = null,
-            errorMessage = null
-        )
+        dispatch(HomeAction.SelectedGarmentCleared)
     }
 
     fun startVirtualTryOn(context: Context, garmentFile: File, onComplete: (String?) -> Unit) {
-        viewModelScope.launch {
+        // Root of the try-on trace, it stays open until the result screen shows the image
+        val trace = Tracer.startSpan("tryon", parent = null)
+
+        viewModelScope.launch(Tracer.contextOf(trace)) {
+            // The garment copy only lives as long as this try-on job
+            TempFileManager.adopt(garmentFile).bindTo(coroutineContext.job)
+
             try {
                 val currentState = _uiState.value
                 val selectedUserPhoto = currentState.selectedUserPhoto
 
                 if (selectedUserPhoto == null) {
-                    _uiState.value = currentState.copy(errorMessage = "Please select a user photo")
+                    dispatch(HomeAction.ErrorOccurred("Please select a user photo"))
+                    trace.end(IllegalStateException("No user photo selected"))
                     onComplete(null)
                     return@launch
                 }
 
-                _uiState.value = currentState.copy(
-                    isProcessing = true,
-                    processingProgress = "Compressing and uploading garment photo...",
-                    errorMessage = null
-                )
+                trace.setAttribute("garment_class", currentState.selectedGarmentClass.name)
+                trace.setAttribute("merge_style", currentState.selectedMergeStyle.name)
+                dispatch(HomeAction.ProcessingStarted("Compressing and uploading garment photo..."))
 
                 // Get identity ID for consistent storage paths
-                val identityId = VirtualTryOnService.getIdentityId()
+                val identityId = Tracer.span("auth.identity") { auth.getIdentityId() }
 
                 // 1. Upload garment photo (with compression)
-                _uiState.value =
-                    _uiState.value.copy(processingProgress = "Compressing and uploading garment photo...")
                 val garmentUploadResult = uploadGarmentPhoto(context, garmentFile, identityId)
 
                 // 2. Create history record
-                _uiState.value =
-                    _uiState.value.copy(processingProgress = "Creating processing record...")
+                dispatch(HomeAction.ProcessingStepChanged("Creating processing record..."))
+                val options = VirtualTryOnOptions(
+                    garmentClass = currentState.selectedGarmentClass.name,
+                    mergeStyle = currentState.selectedMergeStyle.name
+                )
                 val history =
-                    createTryOnHistory(identityId, selectedUserPhoto, garmentUploadResult.key)
+                    createTryOnHistory(identityId, selectedUserPhoto, garmentUploadResult.key, options)
+                trace.setAttribute("history_id", history.id)
+                garmentUploadResult.placeholder?.let { HistoryPlaceholders.putGarment(history.id, it) }
 
                 // 3. Start virtual try-on and poll for completion
-                _uiState.value =
-                    _uiState.value.copy(processingProgress = "Starting AI processing... This may take 1-2 minutes.")
+                dispatch(HomeAction.ProcessingStepChanged("Starting AI processing... This may take 1-2 minutes."))
 
-                Log.d(TAG, "Starting virtual try-on with database polling approach...")
+                AppLog.d(TAG) { "Starting virtual try-on with database polling approach..." }
 
-                // Trigger Lambda and poll database for completion
-                val tryOnResult = VirtualTryOnService.performVirtualTryOn(
-                    userPhotoId = selectedUserPhoto.id,
-                    userPhotoUrl = selectedUserPhoto.photoUrl,
-                    garmentPhotoUrl = garmentUploadResult.url,
-                    historyId = history.id,
-                    garmentClass = currentState.selectedGarmentClass.name,
-                    mergeStyle = currentState.selectedMergeStyle.name
-                )
+                // Trigger Lambda and poll database for completion, transient failures are retried.
+                // The garment URL was just signed, only retries sign it again.
+                val tryOnResult = try {
+                    Tracer.span("tryon.processing") {
+                        tryOnRetryService.run(history, garmentPhotoUrl = garmentUploadResult.url)
+                    }
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    // Timed out or failed on this device, the record can still be PROCESSING
+                    markFailedUnlessFinished(history, e)
+                }
 
-                // 4. Handle the result
+                // 4. Handle the result, a FAILED outcome was already written by the Lambda
                 if (tryOnResult.virtualTryOn.success) {
-                    _uiState.value =
-                        _uiState.value.copy(processingProgress = "Processing completed!")
+                    dispatch(HomeAction.ProcessingFinished)
 
-                    _uiState.value = _uiState.value.copy(
-                        isProcessing = false,
-                        processingProgress = ""
-                    )
+                    AppLog.i(TAG) { "✅ Virtual try-on completed successfully" }
+                    AppLog.i(TAG) { "Result URL: ${AppLog.redactUrl(tryOnResult.virtualTryOn.resultUrl)}" }
 
-                    Log.i(TAG, "✅ Virtual try-on completed successfully")
-                    Log.i(TAG, "Result URL: ${tryOnResult.virtualTryOn.resultUrl}")
+                    // Signed before navigating, the result screen restores the URL synchronously
+                    Tracer.span("tryon.handoff") { TryOnHandoffCache.resolveResult(history.id, urlResolver) }
 
+                    // Warm the result image while the result screen is being navigated to
+                    viewModelScope.launch {
+                        TryOnHandoffCache.prefetch(context.applicationContext, history.id, urlResolver)
+                    }
+
+                    // The result screen ends both once the result image is on screen
+                    Tracer.park(history.id, trace, Tracer.startSpan("tryon.navigate", trace))
                     onComplete(history.id)
                 } else {
-                    // Update history with error
-                    val errorMessage = tryOnResult.virtualTryOn.errorMessage ?: "Processing failed"
-                    updateHistoryWithError(history.id, errorMessage)
-                    throw Exception(errorMessage)
+                    throw Exception(tryOnResult.virtualTryOn.errorMessage ?: "Processing failed")
                 }
             } catch (e: Exception) {
-                Log.e(TAG, "❌ Virtual try-on failed", e)
-                _uiState.value = _uiState.value.copy(
-                    isProcessing = false,
-                    processingProgress = "",
-                    errorMessage = "Failed to process virtual try-on: ${e.message}"
-                )
+                AppLog.e(TAG, e) { "❌ Virtual try-on failed" }
+                trace.end(e)
+                dispatch(HomeAction.ProcessingFailed("Failed to process virtual try-on: ${e.message}"))
                 onComplete(null)
             }
         }
     }
 
-    // Helper method to get TryOnHistory record
-    private suspend fun getTryOnHistory(historyId: String): TryOnHistory? =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.API.query(
-                ModelQuery.get(TryOnHistory::class.java, historyId),
-                { response ->
-                    continuation.resume(response.data)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to get TryOnHistory", error)
-                    continuation.resume(null)
-                }
-            )
+    /**
+     * Mark [history] FAILED after [error] ended the try-on on this device. The write is
+     * conditional, so if the Lambda stored its outcome first that outcome is returned
+     * instead; otherwise [error] is rethrown.
+     */
+    private suspend fun markFailedUnlessFinished(history: TryOnHistory, error: Exception): VirtualTryOnResponse {
+        val outcome = try {
+            Tracer.span("history.mark_failed") { historyStatusWriter.markFailed(history.id, error.message) }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (writeError: Exception) {
+            AppLog.w(TAG, writeError) { "Could not mark try-on ${history.id} as failed" }
+            throw error
         }
+        if (outcome == HistoryStatusWriter.WriteOutcome.Written) throw error
+
+        AppLog.i(TAG) { "Try-on ${history.id} finished on the server before the failure was written" }
+        val finished = api.getTryOnHistory(history.id) ?: throw error
+        val succeeded = finished.status == TryOnHistoryStatus.COMPLETED
+        // The result screen takes the record from the handoff, as after a completed poll
+        if (succeeded) TryOnHandoffCache.put(finished)
+        return VirtualTryOnResponse(
+            VirtualTryOnResult(
+                success = succeeded,
+                historyId = history.id,
+                resultUrl = finished.resultPhotoUrl.takeIf { succeeded },
+                errorMessage = finished.errorMessage.takeUnless { succeeded }
+            )
+        )
+    }
 
     private fun loadUserPhotos() {
         viewModelScope.launch {
             try {
                 // Use userId for querying UserPhoto records (not identityId)
-                val userId = VirtualTryOnService.getUserId()
-                val identityId = VirtualTryOnService.getIdentityId()
-                Log.d(TAG, "Loading user photos for userId: $userId")
-                Log.d(TAG, "Using identityId for S3 operations: $identityId")
-
-                val userPhotos = suspendCancellableCoroutine { continuation ->
-                    Amplify.API.query(
-                        ModelQuery.list(UserPhoto::class.java, UserPhoto.USER_ID.eq(userId)),
-                        { response ->
-                            val photos = response.data?.items?.toList() ?: emptyList()
-                            Log.d(TAG, "Found ${photos.size} user photos")
-                            photos.forEach { photo ->
-                                Log.d(TAG, "Photo: id=${photo.id}, photoUrl=${photo.photoUrl}")
+                val userId = auth.getUserId()
+                val identityId = auth.getIdentityId()
+                AppLog.d(TAG) { "Loading user photos for userId: $userId" }
+                AppLog.d(TAG) { "Using identityId for S3 operations: $identityId" }
+
+                val userPhotos = try {
+                    api.listUserPhotos(userId).also { photos ->
+                        AppLog.d(TAG) { "Found ${photos.size} user photos" }
+                        photos.forEach { photo ->
+                            AppLog.event(TAG, "user_photo") {
+                                field("id", photo.id)
+                                field("url", AppLog.redactUrl(photo.photoUrl))
                             }
-                            continuation.resume(photos)
-                        },
-                        { error ->
-                            Log.e(TAG, "Failed to load user photos", error)
-                            continuation.resume(emptyList())
-                        }
-                    )
-                }
-
-                // Convert S3 keys to presigned URLs if needed
-                val photosWithUrls = userPhotos.map { photo ->
-                    if (photo.photoUrl.startsWith("http")) {
-                        // Already a full URL
-                        photo
-                    } else {
-                        // It's an S3 key, need to generate URL using identityId
-                        try {
-                            val presignedUrl = generatePresignedUrl(photo.photoUrl, identityId)
-                            // Create a new UserPhoto with the presigned URL
-                            photo.copyOfBuilder()
-                                .photoUrl(presignedUrl)
-                                .build()
-                        } catch (e: Exception) {
-                            Log.e(TAG, "Failed to generate presigned URL for ${photo.photoUrl}", e)
-                            photo // Return original if URL generation fails
                         }
                     }
+                } catch (e: Exception) {
+                    AppLog.e(TAG, e) { "Failed to load user photos" }
+                    emptyList()
                 }
 
-                // Set default photo as selected if available
-                val defaultPhoto = photosWithUrls.firstOrNull { it.isDefault == true }
-                    ?: photosWithUrls.firstOrNull()
+                // Records keep their stored key, try-ons store it for the Lambda to read
+                val defaultPhoto = userPhotos.firstOrNull { it.isDefault == true }
+                    ?: userPhotos.firstOrNull()
 
-                _uiState.value = _uiState.value.copy(
-                    userPhotos = photosWithUrls,
-                    selectedUserPhoto = defaultPhoto
-                )
+                dispatch(HomeAction.UserPhotosLoaded(userPhotos, defaultPhoto))
 
-                Log.d(TAG, "Successfully loaded ${photosWithUrls.size} user photos")
+                AppLog.d(TAG) { "Successfully loaded ${userPhotos.size} user photos" }
 
+                if (userPhotos.isNotEmpty()) {
+                    signUserPhotoThumbnails(userPhotos)
+                }
+
+            } catch (e: CancellationException) {
+                throw e
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to load user photos", e)
-                _uiState.value = _uiState.value.copy(
-                    errorMessage = "Failed to load user photos: ${e.message}"
-                )
+                AppLog.e(TAG, e) { "Failed to load user photos" }
+                dispatch(HomeAction.ErrorOccurred("Failed to load user photos: ${e.message}"))
             }
         }
     }
 
-    private suspend fun generatePresignedUrl(s3Key: String, identityId: String): String =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.Storage.getUrl(
-                StoragePath.fromIdentityId { identityId ->
-                    s3Key
-                },
-                { result ->
-                    val url = result.url.toString()
-                    Log.d(TAG, "Generated presigned URL for $s3Key: $url")
-                    continuation.resume(url)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to generate presigned URL for $s3Key", error)
-                    continuation.resumeWithException(error)
-                }
-            )
+    /**
+     * Sign the smallest stored copy of each photo that fills a selector item, once an item
+     * was measured. Photos without derivatives sign their master.
+     */
+    private suspend fun signUserPhotoThumbnails(userPhotos: List<UserPhoto>) {
+        val size = thumbnailSize.filterNotNull().first()
+        val keys = userPhotos.mapNotNull { photo ->
+            UserPhotoDerivatives.keyFor(photo.photoUrl, size)?.let { photo.id to it }
+        }.toMap()
+
+        urlResolver.resolveAll(keys) { photoId, url ->
+            dispatch(HomeAction.UserPhotoThumbnailSigned(photoId, UserPhotoThumbnail(keys.getValue(photoId), url)))
         }
+        AppLog.d(TAG) { "Signed ${size.name.lowercase()} copies of ${keys.size} user photos" }
+    }
 
     // Data class to hold upload result with both key and URL
     private data class UploadResult(
         val key: String,
         val url: String,
+        val placeholder: String? = null,
     )
 
     private suspend fun uploadGarmentPhoto(
         context: Context,
         file: File,
         identityId: String,
-    ): UploadResult =
-        suspendCancellableCoroutine { continuation ->
-            viewModelScope.launch {
-                try {
-                    val timestamp = System.currentTimeMillis()
-                    val key = "garment-photos/$identityId/garment-$timestamp.jpg"
-
-                    // Step 1: Compress the image before uploading
-                    Log.d(TAG, "Starting image compression...")
-                    _uiState.value =
-                        _uiState.value.copy(processingProgress = "Compressing image...")
-
-                    val compressedFile = File(file.parent, "compressed_${file.name}")
-
-                    try {
-                        ImageCompressionUtils.compressImageFile(
-                            context = context,
-                            sourceFile = file,
-                            targetFile = compressedFile
-                        )
-
-                        Log.d(TAG, "Image compression completed")
-                        Log.d(
-                            TAG,
-                            "Original size: ${ImageCompressionUtils.getFileSizeString(file)}"
-                        )
-                        Log.d(
-                            TAG,
-                            "Compressed size: ${
-                                ImageCompressionUtils.getFileSizeString(compressedFile)
-                            }"
-                        )
-
-                    } catch (compressionError: Exception) {
-                        Log.w(
-                            TAG,
-                            "Image compression failed, using original file",
-                            compressionError
-                        )
-                        // If compression fails, use the original file
-                        file.copyTo(compressedFile, overwrite = true)
-                    }
+    ): UploadResult {
+        // Deleted when the calling try-on job ends, even if the upload never calls back
+        val compressedHandle = TempFileManager.create(context, "compressed_garment_")
+            .bindTo(currentCoroutineContext().job)
+
+        val timestamp = System.currentTimeMillis()
+        val key = "garment-photos/$identityId/garment-$timestamp.jpg"
+
+        // Step 1: Compress the image before uploading
+        AppLog.d(TAG) { "Starting image compression..." }
+        dispatch(HomeAction.ProcessingStepChanged("Compressing image..."))
+
+        val compressedFile = compressedHandle.file
+
+        try {
+            // Smaller and lighter on slow links, measured from the previous uploads
+            val limits = UploadThroughput.compressionLimits(context)
+            Tracer.span("garment.compress", "max_px" to limits.maxDimension) {
+                ImageCompressionUtils.compressImageFile(
+                    context = context,
+                    sourceFile = file,
+                    targetFile = compressedFile,
+                    autoCrop = true,
+                    limits = limits
+                )
+            }
 
-                    // Step 2: Upload the compressed image
-                    _uiState.value =
-                        _uiState.value.copy(processingProgress = "Uploading compressed image...")
-
-                    val options = StorageUploadFileOptions.builder().build()
-
-                    Amplify.Storage.uploadFile(
-                        StoragePath.fromIdentityId { identityId ->
-                            key
-                        },
-                        compressedFile, // Upload the compressed file instead of original
-                        options,
-                        { progress ->
-                            // Update progress if needed
-                            val percent =
-                                ((progress.currentBytes.toFloat() / progress.totalBytes) * 100).toInt()
-                            _uiState.value = _uiState.value.copy(
-                                processingProgress = "Uploading compressed image... $percent%"
-                            )
-                        },
-                        { result ->
-                            Log.d(TAG, "Garment upload completed")
-
-                            // Clean up compressed file
-                            try {
-                                compressedFile.delete()
-                            } catch (e: Exception) {
-                                Log.w(TAG, "Failed to delete compressed file", e)
-                            }
+            AppLog.d(TAG) { "Image compression completed" }
+            AppLog.d(TAG) { "Original size: ${ImageCompressionUtils.getFileSizeString(file)}" }
+            AppLog.d(TAG) { "Compressed size: ${ImageCompressionUtils.getFileSizeString(compressedFile)}" }
 
-                            // Get the S3 URL for the uploaded file
-                            Amplify.Storage.getUrl(
-                                StoragePath.fromIdentityId { identityId ->
-                                    key
-                                },
-                                { urlResult ->
-                                    val s3Url = urlResult.url.toString()
-                                    Log.d(TAG, "Generated S3 URL: $s3Url")
-                                    continuation.resume(UploadResult(key, s3Url))
-                                },
-                                { urlError ->
-                                    Log.e(TAG, "Failed to get S3 URL", urlError)
-                                    continuation.resumeWithException(urlError)
-                                }
-                            )
-                        },
-                        { error ->
-                            // Clean up compressed file on error
-                            try {
-                                compressedFile.delete()
-                            } catch (e: Exception) {
-                                Log.w(TAG, "Failed to delete compressed file", e)
-                            }
+        } catch (compressionError: Exception) {
+            AppLog.w(TAG, compressionError) { "Image compression failed, using original file" }
+            // If compression fails, use the original file
+            file.copyTo(compressedFile, overwrite = true)
+        }
 
-                            Log.e(TAG, "Garment upload failed", error)
-                            continuation.resumeWithException(error)
-                        }
-                    )
+        // Shown by the history card until the result exists
+        val placeholder = Tracer.span("garment.placeholder") { HistoryPlaceholders.encodeFile(compressedFile) }
 
-                } catch (e: Exception) {
-                    Log.e(TAG, "Upload process failed", e)
-                    continuation.resumeWithException(e)
+        // Step 2: Upload the compressed image
+        dispatch(HomeAction.ProcessingStepChanged("Uploading compressed image..."))
+        uploadProgressTracker.reset()
+
+        try {
+            Tracer.span("garment.upload", "bytes" to compressedFile.length()) {
+                storage.uploadFile(key, compressedFile) { currentBytes, totalBytes ->
+                    uploadProgressTracker.report(currentBytes, totalBytes)
                 }
             }
+            AppLog.d(TAG) { "Garment upload completed" }
+        } catch (e: Exception) {
+            AppLog.e(TAG, e) { "Garment upload failed" }
+            throw e
+        } finally {
+            uploadProgressTracker.reset()
+            // Clean up compressed file
+            compressedHandle.close()
         }
 
+        // Get the S3 URL for the uploaded file
+        val s3Url = Tracer.span("garment.sign_url") { storage.getUrl(key) }
+        AppLog.d(TAG) { "Generated S3 URL for $key" }
+        return UploadResult(key, s3Url, placeholder)
+    }
+
     private suspend fun createTryOnHistory(
         identityId: String,
         userPhoto: UserPhoto,
         garmentKey: String,
-    ): TryOnHistory = suspendCancellableCoroutine { continuation ->
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault())
-        val currentDateString = dateFormat.format(Date())
-
+        options: VirtualTryOnOptions,
+    ): TryOnHistory {
         val history = TryOnHistory.builder()
             .userId(identityId)
             .userPhotoId(userPhoto.id)
             .userPhotoUrl(userPhoto.photoUrl)
             .garmentPhotoUrl(garmentKey)
             .status(TryOnHistoryStatus.PROCESSING)
+            // Options are kept on the record so the job can be retried without the Home state
+            .metadata(TryOnRetryService.metadataWithOptions(options))
             .build()
 
-        Amplify.API.mutate(
-            ModelMutation.create(history),
-            { response ->
-                Log.d(TAG, "TryOnHistory created: ${response.data}")
-                continuation.resume(response.data)
-            },
-            { error ->
-                Log.e(TAG, "Failed to create TryOnHistory", error)
-                continuation.resumeWithException(error)
-            }
-        )
-    }
-
-    private suspend fun updateHistoryWithResult(
-        historyId: String,
-        resultUrl: String?,
-    ) = suspendCancellableCoroutine { continuation ->
-        // First get the existing history record
-        Amplify.API.query(
-            ModelQuery.get(TryOnHistory::class.java, historyId),
-            { queryResponse ->
-                val existingHistory = queryResponse.data
-                if (existingHistory != null) {
-                    // Create updated history with result
-                    val updatedHistory = existingHistory.copyOfBuilder()
-                        .status(TryOnHistoryStatus.COMPLETED)
-                        .resultPhotoUrl(resultUrl)
-                        .build()
-
-                    Amplify.API.mutate(
-                        ModelMutation.update(updatedHistory),
-                        { updateResponse ->
-                            Log.d(TAG, "History updated with result: ${updateResponse.data}")
-                            continuation.resume(updateResponse.data)
-                        },
-                        { error ->
-                            Log.e(TAG, "Failed to update history with result", error)
-                            continuation.resumeWithException(error)
-                        }
-                    )
-                } else {
-                    continuation.resumeWithException(Exception("History record not found"))
-                }
-            },
-            { error ->
-                Log.e(TAG, "Failed to query history for update", error)
-                continuation.resumeWithException(error)
-            }
-        )
-    }
-
-    private suspend fun updateHistoryWithError(
-        historyId: String,
-        errorMessage: String?,
-    ) = suspendCancellableCoroutine { continuation ->
-        // First get the existing history record
-        Amplify.API.query(
-            ModelQuery.get(TryOnHistory::class.java, historyId),
-            { queryResponse ->
-                val existingHistory = queryResponse.data
-                if (existingHistory != null) {
-                    // Create updated history with error
-                    val updatedHistory = existingHistory.copyOfBuilder()
-                        .status(TryOnHistoryStatus.FAILED)
-                        .errorMessage(errorMessage)
-                        .build()
-
-                    Amplify.API.mutate(
-                        ModelMutation.update(updatedHistory),
-                        { updateResponse ->
-                            Log.d(TAG, "History updated with error: ${updateResponse.data}")
-                            continuation.resume(updateResponse.data)
-                        },
-                        { error ->
-                            Log.e(TAG, "Failed to update history with error", error)
-                            continuation.resumeWithException(error)
-                        }
-                    )
-                } else {
-                    continuation.resumeWithException(Exception("History record not found"))
-                }
-            },
-            { error ->
-                Log.e(TAG, "Failed to query history for error update", error)
-                continuation.resumeWithException(error)
-            }
-        )
+        return Tracer.span("history.create") { api.createTryOnHistory(history) }.also {
+            AppLog.d(TAG) { "TryOnHistory created: ${it.id}" }
+        }
     }
 
     fun signOut(onSignOutComplete: (Boolean) -> Unit) {
         viewModelScope.launch {
             try {
-                Log.d(TAG, "Starting sign out process...")
-
-                val options = AuthSignOutOptions.builder()
-                    .globalSignOut(true)
-                    .build()
-
-                val signOutResult = Amplify.Auth.signOut(options) { result ->
-                    // Dispatch the callback to the main thread using viewModelScope
-                    viewModelScope.launch(Dispatchers.Main) {
-                        when (result) {
-                            is AWSCognitoAuthSignOutResult.CompleteSignOut -> {
-                                // Sign Out completed fully and without errors
-                                Log.i(TAG, "Signed out successfully")
-                                onSignOutComplete(true)
-                            }
-
-                            is AWSCognitoAuthSignOutResult.PartialSignOut -> {
-                                // Sign Out completed with some errors. User is signed out of the device.
-                                Log.w(TAG, "Partial sign out completed")
-
-                                result.hostedUIError?.let {
-                                    Log.e(TAG, "HostedUI Error", it.exception)
-                                    // Optional: Re-launch it.url in a Custom tab to clear Cognito web session.
-                                }
-                                result.globalSignOutError?.let {
-                                    Log.e(TAG, "GlobalSignOut Error", it.exception)
-                                    // Optional: Use escape hatch to retry revocation of it.accessToken.
-                                }
-                                result.revokeTokenError?.let {
-                                    Log.e(TAG, "RevokeToken Error", it.exception)
-                                    // Optional: Use escape hatch to retry revocation of it.refreshToken.
-                                }
-
-                                // Even with partial errors, user is signed out of the device
-                                onSignOutComplete(true)
-                            }
+                AppLog.d(TAG) { "Starting sign out process..." }
 
-                            is AWSCognitoAuthSignOutResult.FailedSignOut -> {
-                                // Sign Out failed with an exception, leaving the user signed in.
-                                Log.e(TAG, "Sign out failed", result.exception)
-                                _uiState.value = _uiState.value.copy(
-                                    errorMessage = "Sign out failed: ${result.exception.message}"
-                                )
-                                onSignOutComplete(false)
-                            }
-                        }
-                    }
+                // Partial sign outs still leave the device signed out
+                val signedOut = auth.signOut()
+                if (!signedOut) {
+                    dispatch(HomeAction.ErrorOccurred("Sign out failed"))
                 }
+                onSignOutComplete(signedOut)
             } catch (e: Exception) {
-                Log.e(TAG, "Unexpected error during sign out", e)
-                // Ensure this is also on the main thread
-                viewModelScope.launch(Dispatchers.Main) {
-                    _uiState.value = _uiState.value.copy(
-                        errorMessage = "Sign out failed: ${e.message}"
-                    )
-                    onSignOutComplete(false)
-                }
+                AppLog.e(TAG, e) { "Sign out failed" }
+                dispatch(HomeAction.ErrorOccurred("Sign out failed: ${e.message}"))
+                onSignOutComplete(false)
             }
         }
     }
@@ -600,59 +475,65 @@ class HomeViewModel : ViewModel() {
     fun uploadUserPhoto(context: Context, imageUri: Uri, onComplete: (Boolean) -> Unit) {
         viewModelScope.launch {
             try {
-                Log.d(TAG, "Starting user photo upload...")
-
-                val identityId = VirtualTryOnService.getIdentityId()
-                val userId = VirtualTryOnService.getUserId()
+                AppLog.d(TAG) { "Starting user photo upload..." }
+
+                val identityId = auth.getIdentityId()
+                val userId = auth.getUserId()
+
+                // A photo whose upload failed before continues with its compressed file and key
+                val pendingUploads = PendingPhotoUploads(context)
+                val sourceId = imageUri.toString()
+                val pending = pendingUploads.find(sourceId, keyPrefix = "user-photos/$identityId/")
+                    ?: run {
+                        // Create unique filename
+                        val timestamp = System.currentTimeMillis()
+                        val key = UserPhotoDerivatives.newMasterKey(identityId, timestamp)
+
+                        // Create temporary file for compressed image, owned by this job
+                        val compressedHandle = TempFileManager.create(context, "compressed_profile_")
+                            .bindTo(coroutineContext.job)
+                        val compressedFile = compressedHandle.file
+
+                        // Compress the image from URI
+                        try {
+                            // Default limits whatever the link, every later try-on reuses this photo
+                            Tracer.span("user_photo.compress") {
+                                ImageCompressionUtils.compressImageFromUri(
+                                    context = context,
+                                    uri = imageUri,
+                                    targetFile = compressedFile
+                                )
+                            }
+                            AppLog.d(TAG) { "Image compression completed" }
+                        } catch (compressionError: Exception) {
+                            AppLog.e(TAG, compressionError) { "Image compression from URI failed" }
+                            throw compressionError
+                        }
 
-                // Create unique filename
-                val timestamp = System.currentTimeMillis()
-                val key = "user-photos/$identityId/profile-$timestamp.jpg"
+                        pendingUploads.begin(sourceId, key, compressedFile)
+                    }
 
-                // Create temporary file for compressed image
-                val tempDir = File(context.cacheDir, "temp_images")
-                if (!tempDir.exists()) {
-                    tempDir.mkdirs()
-                }
-                val compressedFile = File(tempDir, "compressed_profile_$timestamp.jpg")
-
-                // Compress the image from URI
-                try {
-                    ImageCompressionUtils.compressImageFromUri(
-                        context = context,
-                        uri = imageUri,
-                        targetFile = compressedFile
-                    )
-                    Log.d(TAG, "Image compression completed")
-                } catch (compressionError: Exception) {
-                    Log.e(TAG, "Image compression from URI failed", compressionError)
-                    throw compressionError
-                }
+                // Downscaled copies first, a record must never point at a photo without them
+                UserPhotoDerivatives.upload(context, storage, pending.key, pending.file)
 
                 // Upload to S3 using compressed file
-                val uploadedKey = uploadUserPhotoToS3(key, compressedFile)
-
-                // Clean up compressed file
-                try {
-                    compressedFile.delete()
-                } catch (e: Exception) {
-                    Log.w(TAG, "Failed to delete compressed file", e)
-                }
+                val uploadedKey = uploadUserPhotoToS3(pending.key, pending.file)
 
                 // Create database record
                 createUserPhotoRecord(userId, uploadedKey)
 
+                // Clean up compressed file, a failed record keeps it for the retry
+                pendingUploads.finish(sourceId)
+
                 // Reload user photos to refresh the list
                 loadUserPhotos()
 
-                Log.i(TAG, "User photo uploaded successfully")
+                AppLog.i(TAG) { "User photo uploaded successfully" }
                 onComplete(true)
 
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to upload user photo", e)
-                _uiState.value = _uiState.value.copy(
-                    errorMessage = "Failed to upload photo: ${e.message}"
-                )
+                AppLog.e(TAG, e) { "Failed to upload user photo" }
+                dispatch(HomeAction.ErrorOccurred("Failed to upload photo: ${e.message}"))
                 onComplete(false)
             }
         }
@@ -661,34 +542,29 @@ class HomeViewModel : ViewModel() {
     private suspend fun uploadUserPhotoToS3(
         key: String,
         file: File,
-    ): String = suspendCancellableCoroutine { continuation ->
-        val options = StorageUploadFileOptions.builder().build()
-
-        Amplify.Storage.uploadFile(
-            StoragePath.fromIdentityId { identityId ->
-                key
-            },
-            file,
-            options,
-            { progress ->
-                // Could add progress tracking here if needed
-                Log.d(TAG, "Upload progress: ${progress.fractionCompleted}")
-            },
-            { result ->
-                Log.d(TAG, "User photo upload completed successfully")
-                continuation.resume(key)
-            },
-            { error ->
-                Log.e(TAG, "User photo upload failed", error)
-                continuation.resumeWithException(error)
+    ): String {
+        try {
+            Tracer.span("user_photo.upload", "bytes" to file.length()) {
+                storage.uploadFile(key, file) { currentBytes, totalBytes ->
+                    // Could add progress tracking here if needed
+                    AppLog.event(TAG, "upload_progress") {
+                        field("bytes", currentBytes)
+                        field("total", totalBytes)
+                    }
+                }
             }
-        )
+            AppLog.d(TAG) { "User photo upload completed successfully" }
+            return key
+        } catch (e: Exception) {
+            AppLog.e(TAG, e) { "User photo upload failed" }
+            throw e
+        }
     }
 
     private suspend fun createUserPhotoRecord(
         userId: String,
         photoUrl: String,
-    ) = suspendCancellableCoroutine { continuation ->
+    ): UserPhoto {
         // Format date for Temporal.DateTime
         val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault())
         val currentDateString = dateFormat.format(Date())
@@ -699,17 +575,9 @@ class HomeViewModel : ViewModel() {
             .uploadedAt(Temporal.DateTime(currentDateString))
             .build()
 
-        Amplify.API.mutate(
-            ModelMutation.create(userPhoto),
-            { response ->
-                Log.d(TAG, "UserPhoto created: ${response.data}")
-                continuation.resume(response.data)
-            },
-            { error ->
-                Log.e(TAG, "Failed to create UserPhoto record", error)
-                continuation.resumeWithException(error)
-            }
-        )
+        return api.createUserPhoto(userPhoto).also {
+            AppLog.d(TAG) { "UserPhoto created: $it" }
+        }
     }
 
     companion object {
@@ -3,10 +3,8 @@ package id.harissabil.wearnow.ui.screen.home.components
 import android.net.Uri
 import androidx.activity.compose.rememberLauncherForActivityResult
 import androidx.activity.result.contract.ActivityResultContracts
-import androidx.camera.core.CameraSelector
 import androidx.camera.core.ImageCapture
 import androidx.camera.core.ImageCaptureException
-import androidx.camera.core.Preview
 import androidx.camera.lifecycle.ProcessCameraProvider
 import androidx.camera.view.PreviewView
 import androidx.compose.foundation.BorderStroke
@@ -37,6 +35,7 @@ import androidx.compose.material3.IconButton
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
 import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
@@ -54,6 +53,8 @@ import androidx.compose.ui.viewinterop.AndroidView
 import androidx.core.content.ContextCompat
 import coil.compose.AsyncImage
 import coil.request.ImageRequest
+import id.harissabil.wearnow.ui.screen.home.utils.CameraSessionManager
+import id.harissabil.wearnow.utils.TempFileManager
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.Date
@@ -73,8 +74,8 @@ fun CameraPreview(
     val context = LocalContext.current
     val lifecycleOwner = androidx.lifecycle.compose.LocalLifecycleOwner.current
 
-    var imageCapture: ImageCapture? by remember { mutableStateOf(null) }
-    var preview: Preview? by remember { mutableStateOf(null) }
+    val imageCapture = CameraSessionManager.imageCapture
+    val preview = CameraSessionManager.preview
     var cameraProvider: ProcessCameraProvider? by remember { mutableStateOf(null) }
     var isFrontCamera by remember { mutableStateOf(false) }
 
@@ -84,40 +85,32 @@ fun CameraPreview(
         uri?.let { onGalleryImageSelected(it) }
     }
 
-    // Init camera provider once
+    // Await the shared camera provider without blocking the main thread
     LaunchedEffect(Unit) {
-        val cameraProviderFuture = ProcessCameraProvider.getInstance(context)
-        cameraProvider = cameraProviderFuture.get()
+        cameraProvider = try {
+            CameraSessionManager.awaitProvider(context)
+        } catch (exc: Exception) {
+            onCameraReady(false)
+            null
+        }
     }
 
-    // Rebind camera when switching front/back
+    // Switch cameras by rebinding the same use cases with a different selector
     LaunchedEffect(isFrontCamera, cameraProvider) {
         val provider = cameraProvider ?: return@LaunchedEffect
 
-        preview = Preview.Builder().build()
-        val capture = ImageCapture.Builder().build()
-        imageCapture = capture
-
-        val cameraSelector = if (isFrontCamera) {
-            CameraSelector.DEFAULT_FRONT_CAMERA
-        } else {
-            CameraSelector.DEFAULT_BACK_CAMERA
-        }
-
         try {
-            provider.unbindAll()
-            provider.bindToLifecycle(
-                lifecycleOwner,
-                cameraSelector,
-                preview,
-                capture
-            )
+            CameraSessionManager.bind(provider, lifecycleOwner, isFrontCamera)
             onCameraReady(true)
         } catch (exc: Exception) {
             onCameraReady(false)
         }
     }
 
+    DisposableEffect(lifecycleOwner) {
+        onDispose { CameraSessionManager.release(lifecycleOwner) }
+    }
+
     Card(
         modifier = modifier
             .fillMaxWidth()
@@ -206,7 +199,7 @@ fun CameraPreview(
                             },
                             modifier = Modifier.fillMaxSize(),
                             update = { previewView ->
-                                preview?.setSurfaceProvider(previewView.surfaceProvider)
+                                preview.setSurfaceProvider(previewView.surfaceProvider)
                             }
                         )
                     }
@@ -256,34 +249,35 @@ fun CameraPreview(
                                 return@clickable
                             }
 
-                            imageCapture?.let { capture ->
-                                val photoFile = File(
-                                    context.cacheDir,
-                                    "garment_${
-                                        SimpleDateFormat(
-                                            "yyyyMMdd_HHmmss",
-                                            Locale.getDefault()
-                                        ).format(Date())
-                                    }.jpg"
-                                )
+                            // Nothing to capture into until the camera has been bound
+                            if (cameraProvider == null) return@clickable
 
-                                val outputFileOptions =
-                                    ImageCapture.OutputFileOptions.Builder(photoFile).build()
+                            val photoFile = File(
+                                TempFileManager.tempDir(context),
+                                "garment_${
+                                    SimpleDateFormat(
+                                        "yyyyMMdd_HHmmss",
+                                        Locale.getDefault()
+                                    ).format(Date())
+                                }.jpg"
+                            )
 
-                                capture.takePicture(
-                                    outputFileOptions,
-                                    ContextCompat.getMainExecutor(context),
-                                    object : ImageCapture.OnImageSavedCallback {
-                                        override fun onImageSaved(output: ImageCapture.OutputFileResults) {
-                                            onImageCaptured(Uri.fromFile(photoFile))
-                                        }
+                            val outputFileOptions =
+                                ImageCapture.OutputFileOptions.Builder(photoFile).build()
 
-                                        override fun onError(exception: ImageCaptureException) {
-                                            // Handle error
-                                        }
+                            imageCapture.takePicture(
+                                outputFileOptions,
+                                ContextCompat.getMainExecutor(context),
+                                object : ImageCapture.OnImageSavedCallback {
+                                    override fun onImageSaved(output: ImageCapture.OutputFileResults) {
+                                        onImageCaptured(Uri.fromFile(photoFile))
                                     }
-                                )
-                            }
+
+                                    override fun onError(exception: ImageCaptureException) {
+                                        // Handle error
+                                    }
+                                }
+                            )
                         },
                     shape = CircleShape,
                     colors = CardDefaults.cardColors(
@@ -24,6 +24,7 @@ import androidx.compose.material3.Icon
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
@@ -33,11 +34,13 @@ import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.window.Dialog
 import androidx.compose.ui.window.DialogProperties
+import kotlinx.coroutines.flow.StateFlow
 
 @Composable
 fun ProcessingOverlay(
     isProcessing: Boolean,
     processingMessage: String,
+    uploadProgress: StateFlow<Int?>,
     modifier: Modifier = Modifier
 ) {
     if (isProcessing) {
@@ -52,7 +55,10 @@ fun ProcessingOverlay(
                 modifier = modifier.fillMaxSize(),
                 contentAlignment = Alignment.Center
             ) {
-                ProcessingCard(processingMessage = processingMessage)
+                ProcessingCard(
+                    processingMessage = processingMessage,
+                    uploadProgress = uploadProgress
+                )
             }
         }
     }
@@ -61,8 +67,12 @@ fun ProcessingOverlay(
 @Composable
 private fun ProcessingCard(
     processingMessage: String,
+    uploadProgress: StateFlow<Int?>,
     modifier: Modifier = Modifier
 ) {
+    // Collected here so upload ticks don't recompose the rest of HomeScreen
+    val uploadPercent by uploadProgress.collectAsState()
+
     val infiniteTransition = rememberInfiniteTransition(label = "processing_animation")
 
     val rotationAngle by infiniteTransition.animateFloat(
@@ -122,7 +132,7 @@ private fun ProcessingCard(
             Spacer(modifier = Modifier.height(12.dp))
 
             Text(
-                text = processingMessage,
+                text = uploadPercent?.let { "$processingMessage $it%" } ?: processingMessage,
                 style = MaterialTheme.typography.bodyLarge,
                 color = MaterialTheme.colorScheme.onSurfaceVariant,
                 textAlign = TextAlign.Center,
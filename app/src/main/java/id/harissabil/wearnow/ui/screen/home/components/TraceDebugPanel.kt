@@ -0,0 +1,194 @@
+package id.harissabil.wearnow.ui.screen.home.components
+
+import androidx.compose.foundation.layout.Column
+import androidx.compose.foundation.layout.Row
+import androidx.compose.foundation.layout.Spacer
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.height
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.layout.width
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.shape.RoundedCornerShape
+import androidx.compose.foundation.verticalScroll
+import androidx.compose.material3.BasicAlertDialog
+import androidx.compose.material3.Card
+import androidx.compose.material3.CardDefaults
+import androidx.compose.material3.ExperimentalMaterial3Api
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.Text
+import androidx.compose.material3.TextButton
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.produceState
+import androidx.compose.runtime.remember
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.text.font.FontFamily
+import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.style.TextOverflow
+import androidx.compose.ui.unit.dp
+import androidx.compose.ui.window.DialogProperties
+import id.harissabil.wearnow.utils.FinishedSpan
+import id.harissabil.wearnow.utils.Tracer
+import kotlinx.coroutines.delay
+
+private const val REFRESH_INTERVAL_MS = 500L
+
+/**
+ * Debug build panel with per-stage try-on latency over recent sessions and the span tree
+ * of the latest one
+ */
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+fun TraceDebugPanel(
+    onDismiss: () -> Unit,
+    modifier: Modifier = Modifier
+) {
+    // Copied and summarized at most once per refresh while spans keep finishing
+    val spans by produceState(Tracer.recentSpans()) {
+        Tracer.revision.collect {
+            value = Tracer.recentSpans()
+            delay(REFRESH_INTERVAL_MS)
+        }
+    }
+    val stats = remember(spans) { Tracer.stageStats(spans) }
+    val latestSession = remember(spans) { latestTryOnSession(spans) }
+
+    BasicAlertDialog(
+        onDismissRequest = onDismiss,
+        modifier = modifier,
+        properties = DialogProperties(
+            dismissOnBackPress = true,
+            dismissOnClickOutside = true
+        ),
+        content = {
+            Card(
+                shape = RoundedCornerShape(24.dp),
+                colors = CardDefaults.cardColors(
+                    containerColor = MaterialTheme.colorScheme.surface
+                ),
+                elevation = CardDefaults.cardElevation(defaultElevation = 8.dp)
+            ) {
+                Column(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .padding(24.dp)
+                        .verticalScroll(state = rememberScrollState())
+                ) {
+                    Text(
+                        text = "Try-On Traces",
+                        style = MaterialTheme.typography.headlineSmall,
+                        fontWeight = FontWeight.Bold,
+                        color = MaterialTheme.colorScheme.onSurface
+                    )
+                    Text(
+                        text = "p50 / p95 over the last ${Tracer.STATS_SESSIONS} sessions",
+                        style = MaterialTheme.typography.bodyMedium,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+
+                    Spacer(modifier = Modifier.height(16.dp))
+
+                    if (stats.isEmpty()) {
+                        Text(
+                            text = "No completed spans yet",
+                            style = MaterialTheme.typography.bodyMedium
+                        )
+                    }
+                    stats.forEach { stage ->
+                        TraceRow(
+                            label = stage.name,
+                            value = "${formatMs(stage.p50Ms)} / ${formatMs(stage.p95Ms)}  n=${stage.count}"
+                        )
+                    }
+
+                    if (latestSession.isNotEmpty()) {
+                        Spacer(modifier = Modifier.height(24.dp))
+                        Text(
+                            text = "Latest Session",
+                            style = MaterialTheme.typography.titleMedium,
+                            fontWeight = FontWeight.SemiBold
+                        )
+                        Spacer(modifier = Modifier.height(8.dp))
+                        latestSession.forEach { (span, depth) ->
+                            TraceRow(
+                                label = "  ".repeat(depth) + span.name,
+                                value = if (span.status == FinishedSpan.STATUS_OK) {
+                                    formatMs(span.durationMs)
+                                } else {
+                                    "${formatMs(span.durationMs)} ${span.status}"
+                                }
+                            )
+                        }
+                    }
+
+                    Tracer.traceFile?.let { file ->
+                        Spacer(modifier = Modifier.height(16.dp))
+                        Text(
+                            text = file.absolutePath,
+                            style = MaterialTheme.typography.bodySmall,
+                            color = MaterialTheme.colorScheme.onSurfaceVariant
+                        )
+                    }
+
+                    Spacer(modifier = Modifier.height(8.dp))
+                    TextButton(
+                        onClick = onDismiss,
+                        modifier = Modifier.align(Alignment.End)
+                    ) {
+                        Text("Close")
+                    }
+                }
+            }
+        }
+    )
+}
+
+@Composable
+private fun TraceRow(label: String, value: String) {
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(vertical = 2.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        Text(
+            text = label,
+            style = MaterialTheme.typography.bodySmall,
+            fontFamily = FontFamily.Monospace,
+            maxLines = 1,
+            overflow = TextOverflow.Ellipsis,
+            modifier = Modifier.weight(1f)
+        )
+        Spacer(modifier = Modifier.width(8.dp))
+        Text(
+            text = value,
+            style = MaterialTheme.typography.bodySmall,
+            fontFamily = FontFamily.Monospace
+        )
+    }
+}
+
+/**
+ * Spans of the most recent try-on trace in start order, each with its depth in the tree
+ */
+private fun latestTryOnSession(spans: List<FinishedSpan>): List<Pair<FinishedSpan, Int>> {
+    val root = spans.lastOrNull { it.name == "tryon" && it.parentId == null } ?: return emptyList()
+    val session = spans.filter { it.traceId == root.traceId }
+    val parents = session.associate { it.spanId to it.parentId }
+
+    fun depth(span: FinishedSpan): Int {
+        var depth = 0
+        var parentId = span.parentId
+        while (parentId != null) {
+            depth++
+            parentId = parents[parentId]
+        }
+        return depth
+    }
+
+    return session.sortedBy { it.startEpochMs }.map { it to depth(it) }
+}
+
+private fun formatMs(durationMs: Double): String =
+    if (durationMs >= 1000) "%.2fs".format(durationMs / 1000) else "%.0fms".format(durationMs)
@@ -35,19 +35,23 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.layout.onSizeChanged
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import coil.compose.AsyncImage
 import coil.request.ImageRequest
 import com.amplifyframework.datastore.generated.model.UserPhoto
+import id.harissabil.wearnow.ui.screen.home.UserPhotoThumbnail
 import kotlinx.coroutines.launch
 
 @Composable
 fun UserPhotoSelector(
     userPhotos: List<UserPhoto>,
     selectedUserPhoto: UserPhoto?,
+    thumbnails: Map<String, UserPhotoThumbnail>,
     onUserPhotoSelected: (UserPhoto) -> Unit,
+    onUserPhotoMeasured: (widthPx: Int, heightPx: Int) -> Unit,
     onAddPhoto: (android.net.Uri) -> Unit = {},
     modifier: Modifier = Modifier
 ) {
@@ -110,9 +114,10 @@ fun UserPhotoSelector(
                 // Existing user photos
                 items(userPhotos) { userPhoto ->
                     UserPhotoItem(
-                        userPhoto = userPhoto,
+                        thumbnail = thumbnails[userPhoto.id],
                         isSelected = selectedUserPhoto?.id == userPhoto.id,
-                        onClick = { onUserPhotoSelected(userPhoto) }
+                        onClick = { onUserPhotoSelected(userPhoto) },
+                        onMeasured = onUserPhotoMeasured
                     )
                 }
             }
@@ -122,9 +127,10 @@ fun UserPhotoSelector(
 
 @Composable
 private fun UserPhotoItem(
-    userPhoto: UserPhoto,
+    thumbnail: UserPhotoThumbnail?,
     isSelected: Boolean,
     onClick: () -> Unit,
+    onMeasured: (widthPx: Int, heightPx: Int) -> Unit,
     modifier: Modifier = Modifier
 ) {
     val context = LocalContext.current
@@ -132,6 +138,8 @@ private fun UserPhotoItem(
     Box(
         modifier = modifier
             .size(80.dp)
+            // The stored copy is picked for the circle's size in pixels
+            .onSizeChanged { onMeasured(it.width, it.height) }
             .clip(CircleShape)
             .background(MaterialTheme.colorScheme.surfaceVariant)
             .border(
@@ -148,18 +156,24 @@ private fun UserPhotoItem(
             .clickable { onClick() },
         contentAlignment = Alignment.Center
     ) {
-        AsyncImage(
-            model = ImageRequest.Builder(context)
-                .data(userPhoto.photoUrl) // Use the photoUrl directly - it should already be a proper S3 URL
-                .crossfade(true)
-                .error(android.R.drawable.ic_menu_gallery) // Add fallback for failed loads
-                .build(),
-            contentDescription = "User photo",
-            modifier = Modifier
-                .size(if (isSelected) 74.dp else 76.dp)
-                .clip(CircleShape),
-            contentScale = ContentScale.Crop
-        )
+        // Nothing to draw until the key is signed, the background stands in
+        if (thumbnail != null) {
+            AsyncImage(
+                model = ImageRequest.Builder(context)
+                    .data(thumbnail.url)
+                    // Presigned URLs change on every signing, the key does not
+                    .memoryCacheKey(thumbnail.key)
+                    .diskCacheKey(thumbnail.key)
+                    .crossfade(true)
+                    .error(android.R.drawable.ic_menu_gallery) // Add fallback for failed loads
+                    .build(),
+                contentDescription = "User photo",
+                modifier = Modifier
+                    .size(if (isSelected) 74.dp else 76.dp)
+                    .clip(CircleShape),
+                contentScale = ContentScale.Crop
+            )
+        }
     }
 }
 
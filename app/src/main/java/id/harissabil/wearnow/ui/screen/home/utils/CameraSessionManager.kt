@@ -0,0 +1,141 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import android.content.Context
+import android.util.Log
+import androidx.camera.core.CameraSelector
+import androidx.camera.core.ImageCapture
+import androidx.camera.core.Preview
+import androidx.camera.lifecycle.ProcessCameraProvider
+import androidx.core.content.ContextCompat
+import androidx.lifecycle.DefaultLifecycleObserver
+import androidx.lifecycle.LifecycleOwner
+import com.google.common.util.concurrent.ListenableFuture
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Owns the CameraX provider and use cases outside of composition.
+ *
+ * The provider is initialized asynchronously (ideally from [warmUp] at app start) so the
+ * main thread never blocks on CameraX, and the [Preview] / [ImageCapture] use cases are
+ * created once and reused across recompositions. Flipping the camera only changes the
+ * [CameraSelector] the same use cases are bound with. The use cases are unbound when the
+ * lifecycle owner they were bound to is destroyed.
+ */
+object CameraSessionManager {
+
+    private const val TAG = "CameraSessionManager"
+
+    private var providerFuture: ListenableFuture<ProcessCameraProvider>? = null
+
+    val preview: Preview by lazy { Preview.Builder().build() }
+    val imageCapture: ImageCapture by lazy { ImageCapture.Builder().build() }
+
+    private var boundOwner: LifecycleOwner? = null
+    private var boundSelector: CameraSelector? = null
+
+    // Watches the owner the use cases were last bound to, until it is destroyed
+    private var observedOwner: LifecycleOwner? = null
+    private var destroyObserver: DefaultLifecycleObserver? = null
+
+    /**
+     * Start initializing the camera provider without waiting for it
+     */
+    fun warmUp(context: Context) {
+        providerFuture(context)
+    }
+
+    /**
+     * Suspend until the camera provider is ready, without blocking the calling thread
+     */
+    suspend fun awaitProvider(context: Context): ProcessCameraProvider {
+        val future = providerFuture(context)
+        if (future.isDone) return future.get()
+
+        return suspendCancellableCoroutine { continuation ->
+            future.addListener(
+                {
+                    try {
+                        continuation.resume(future.get())
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Camera provider initialization failed", e)
+                        continuation.resumeWithException(e)
+                    }
+                },
+                ContextCompat.getMainExecutor(context)
+            )
+        }
+    }
+
+    /**
+     * Bind the shared use cases to [lifecycleOwner] with the requested camera.
+     * Calling this again with the same owner and camera is a no-op.
+     */
+    fun bind(
+        provider: ProcessCameraProvider,
+        lifecycleOwner: LifecycleOwner,
+        isFrontCamera: Boolean,
+    ) {
+        val cameraSelector = if (isFrontCamera) {
+            CameraSelector.DEFAULT_FRONT_CAMERA
+        } else {
+            CameraSelector.DEFAULT_BACK_CAMERA
+        }
+
+        if (boundOwner === lifecycleOwner &&
+            boundSelector == cameraSelector &&
+            provider.isBound(preview) &&
+            provider.isBound(imageCapture)
+        ) {
+            return
+        }
+
+        // Only our own use cases are unbound, the instances themselves are kept
+        provider.unbind(preview, imageCapture)
+        provider.bindToLifecycle(lifecycleOwner, cameraSelector, preview, imageCapture)
+        unbindOnDestroy(provider, lifecycleOwner)
+
+        boundOwner = lifecycleOwner
+        boundSelector = cameraSelector
+        Log.d(TAG, "Camera bound (front=$isFrontCamera)")
+    }
+
+    /**
+     * Detach the preview surface and forget the lifecycle owner when the hosting screen goes
+     * away, so neither the PreviewView nor the owner is leaked
+     */
+    fun release(lifecycleOwner: LifecycleOwner) {
+        if (boundOwner === lifecycleOwner) {
+            preview.setSurfaceProvider(null)
+            boundOwner = null
+            boundSelector = null
+        }
+    }
+
+    private fun unbindOnDestroy(provider: ProcessCameraProvider, lifecycleOwner: LifecycleOwner) {
+        if (observedOwner === lifecycleOwner) return
+        destroyObserver?.let { observedOwner?.lifecycle?.removeObserver(it) }
+
+        val observer = object : DefaultLifecycleObserver {
+            override fun onDestroy(owner: LifecycleOwner) {
+                owner.lifecycle.removeObserver(this)
+                // The use cases outlive the owner, they must not stay attached to it
+                provider.unbind(preview, imageCapture)
+                release(owner)
+                observedOwner = null
+                destroyObserver = null
+                Log.d(TAG, "Camera unbound, its lifecycle owner was destroyed")
+            }
+        }
+        lifecycleOwner.lifecycle.addObserver(observer)
+        observedOwner = lifecycleOwner
+        destroyObserver = observer
+    }
+
+    @Synchronized
+    private fun providerFuture(context: Context): ListenableFuture<ProcessCameraProvider> =
+        providerFuture ?: ProcessCameraProvider.getInstance(context.applicationContext).also {
+            providerFuture = it
+        }
+}
@@ -0,0 +1,63 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+/**
+ * Size and quality rules of upload compression
+ */
+object CompressionPolicy {
+
+    const val MAX_WIDTH = 1024
+    const val MAX_HEIGHT = 1024
+    const val JPEG_QUALITY = 85 // 85% quality for good balance between size and quality
+    const val MAX_FILE_SIZE_KB = 500 // Target max file size in KB
+    const val MIN_QUALITY = 50
+    const val QUALITY_STEP = 10
+
+    class Encoded(val bytes: ByteArray, val quality: Int)
+
+    /**
+     * Bounds of one compression: longest side, starting JPEG quality and size budget.
+     * [UploadPolicy] picks tighter ones on slow links.
+     */
+    data class Limits(
+        val maxDimension: Int,
+        val quality: Int,
+        val maxFileSizeKb: Int,
+    ) {
+        companion object {
+            val DEFAULT = Limits(MAX_WIDTH, JPEG_QUALITY, MAX_FILE_SIZE_KB)
+        }
+    }
+
+    /**
+     * Size a [width]x[height] image is scaled to so it fits the bounds while keeping its
+     * aspect ratio, or null when it already fits (images are never upscaled)
+     */
+    fun scaledSize(
+        width: Int,
+        height: Int,
+        maxWidth: Int = MAX_WIDTH,
+        maxHeight: Int = MAX_HEIGHT,
+    ): Pair<Int, Int>? {
+        val scaleFactor = minOf(maxWidth.toFloat() / width, maxHeight.toFloat() / height, 1f)
+        if (scaleFactor >= 1f) return null
+        return (width * scaleFactor).toInt() to (height * scaleFactor).toInt()
+    }
+
+    /**
+     * Encode with decreasing quality, starting at the quality of [limits], until the output
+     * fits its size budget or the quality floor is reached
+     */
+    inline fun encodeWithinBudget(
+        limits: Limits = Limits.DEFAULT,
+        encode: (quality: Int) -> ByteArray,
+    ): Encoded {
+        var quality = limits.quality
+        while (true) {
+            val data = encode(quality)
+            if (data.size / 1024 <= limits.maxFileSizeKb || quality - QUALITY_STEP <= MIN_QUALITY) {
+                return Encoded(data, quality)
+            }
+            quality -= QUALITY_STEP
+        }
+    }
+}
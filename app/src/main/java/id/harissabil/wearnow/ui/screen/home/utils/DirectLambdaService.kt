@@ -1,12 +1,12 @@
 package id.harissabil.wearnow.ui.screen.home.utils
 
-import android.util.Log
 import com.amplifyframework.api.aws.GsonVariablesSerializer
 import com.amplifyframework.api.graphql.SimpleGraphQLRequest
 import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
 import com.amplifyframework.core.Amplify
 import com.google.gson.Gson
 import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResponse
+import id.harissabil.wearnow.utils.AppLog
 import kotlinx.coroutines.DelicateCoroutinesApi
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
@@ -27,11 +27,11 @@ object DirectLambdaService {
             { result ->
                 val cognitoAuthSession = result as AWSCognitoAuthSession
                 val identityId = cognitoAuthSession.identityIdResult.value
-                Log.d(TAG, "Retrieved identityId: $identityId")
+                AppLog.d(TAG) { "Retrieved identityId: $identityId" }
                 continuation.resume(identityId as String)
             },
             { error ->
-                Log.e(TAG, "Failed to get identityId", error)
+                AppLog.e(TAG, error) { "Failed to get identityId" }
                 continuation.resumeWithException(error)
             }
         )
@@ -43,11 +43,11 @@ object DirectLambdaService {
             { result ->
                 val cognitoAuthSession = result as AWSCognitoAuthSession
                 val userId = cognitoAuthSession.userSubResult.value
-                Log.d(TAG, "Retrieved userId: $userId")
+                AppLog.d(TAG) { "Retrieved userId: $userId" }
                 continuation.resume(userId as String)
             },
             { error ->
-                Log.e(TAG, "Failed to get userId", error)
+                AppLog.e(TAG, error) { "Failed to get userId" }
                 continuation.resumeWithException(error)
             }
         )
@@ -110,7 +110,13 @@ object DirectLambdaService {
                     "mergeStyle" to mergeStyle
                 )
 
-                Log.d(TAG, "Executing GraphQL mutation with variables: $variables")
+                // The photo URLs are presigned, only the identifiers are logged
+                AppLog.event(TAG, "virtual_try_on_mutation") {
+                    field("historyId", historyId)
+                    field("userPhotoId", userPhotoId)
+                    field("garmentClass", garmentClass)
+                    field("mergeStyle", mergeStyle)
+                }
 
                 // Create the GraphQL request
                 val virtualTryOnRequest = SimpleGraphQLRequest<String>(
@@ -125,10 +131,13 @@ object DirectLambdaService {
                     virtualTryOnRequest,
                     { response ->
                         try {
-                            Log.d(TAG, "GraphQL mutation response: ${response.data}")
+                            AppLog.event(TAG, "virtual_try_on_response") {
+                                field("chars", response.data?.length ?: 0)
+                                field("errors", response.errors.size)
+                            }
 
                             if (response.data == null) {
-                                Log.e(TAG, "GraphQL response data is null - mutation may not be defined in schema")
+                                AppLog.e(TAG) { "GraphQL response data is null - mutation may not be defined in schema" }
                                 continuation.resumeWithException(
                                     Exception("GraphQL mutation returned null - check if virtualTryOn mutation exists in schema")
                                 )
@@ -139,7 +148,7 @@ object DirectLambdaService {
                             val result = gson.fromJson(response.data, VirtualTryOnResponse::class.java)
 
                             if (result == null) {
-                                Log.e(TAG, "Failed to parse GraphQL response - response was null after JSON parsing")
+                                AppLog.e(TAG) { "Failed to parse GraphQL response - response was null after JSON parsing" }
                                 continuation.resumeWithException(
                                     Exception("Failed to parse GraphQL response - null result")
                                 )
@@ -147,29 +156,28 @@ object DirectLambdaService {
                             }
 
                             if (result.virtualTryOn.success) {
-                                Log.i(TAG, "GraphQL mutation try-on completed: ${result.virtualTryOn.resultUrl}")
-                                Log.i(TAG, "Processing time: ${result.virtualTryOn.processingTime}ms")
+                                AppLog.i(TAG) { "GraphQL mutation try-on completed: ${AppLog.redactUrl(result.virtualTryOn.resultUrl)}" }
+                                AppLog.i(TAG) { "Processing time: ${result.virtualTryOn.processingTime}ms" }
                             } else {
-                                Log.e(TAG, "GraphQL mutation try-on failed: ${result.virtualTryOn.errorMessage}")
+                                AppLog.e(TAG) { "GraphQL mutation try-on failed: ${result.virtualTryOn.errorMessage}" }
                             }
 
                             continuation.resume(result)
                         } catch (e: Exception) {
-                            Log.e(TAG, "Failed to parse GraphQL mutation response", e)
-                            Log.e(TAG, "Response data was: ${response.data}")
+                            AppLog.e(TAG, e) { "Failed to parse GraphQL mutation response" }
                             continuation.resumeWithException(e)
                         }
                     },
                     { error ->
-                        Log.e(TAG, "GraphQL mutation failed", error)
-                        Log.e(TAG, "Error details: ${error.localizedMessage}")
-                        Log.e(TAG, "This likely means the 'virtualTryOn' mutation is not defined in your GraphQL schema")
+                        AppLog.e(TAG, error) { "GraphQL mutation failed" }
+                        AppLog.e(TAG) { "Error details: ${error.localizedMessage}" }
+                        AppLog.e(TAG) { "This likely means the 'virtualTryOn' mutation is not defined in your GraphQL schema" }
                         continuation.resumeWithException(error)
                     }
                 )
 
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to prepare GraphQL mutation", e)
+                AppLog.e(TAG, e) { "Failed to prepare GraphQL mutation" }
                 continuation.resumeWithException(e)
             }
         }
@@ -0,0 +1,156 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * CPU-only heuristic that finds the region of a photo occupied by the garment.
+ *
+ * Works on plain ARGB pixel arrays (no Android types) so it can run on a small
+ * thumbnail on-device and be benchmarked on the JVM with synthetic test images.
+ * A pixel is considered salient when it differs from the estimated background color
+ * (sampled from the image border) or sits on a strong luminance edge.
+ */
+object GarmentCropDetector {
+
+    // Size of the thumbnail the detector is meant to run on
+    const val ANALYSIS_SIZE = 160
+
+    private const val BORDER_FRACTION = 0.04f
+    private const val MIN_LINE_FRACTION = 0.03f
+    private const val MIN_AREA_FRACTION = 0.10f
+    private const val MAX_AREA_FRACTION = 0.90f
+    private const val PADDING_FRACTION = 0.08f
+    private const val MIN_SALIENCY = 48
+
+    data class CropBounds(
+        val left: Int,
+        val top: Int,
+        val right: Int,
+        val bottom: Int,
+    ) {
+        val width: Int get() = right - left
+        val height: Int get() = bottom - top
+
+        /**
+         * Map bounds computed on a [fromWidth]x[fromHeight] thumbnail back to the full image
+         */
+        fun scaleTo(fromWidth: Int, fromHeight: Int, toWidth: Int, toHeight: Int): CropBounds {
+            val sx = toWidth.toFloat() / fromWidth
+            val sy = toHeight.toFloat() / fromHeight
+            return CropBounds(
+                left = (left * sx).toInt().coerceIn(0, toWidth - 1),
+                top = (top * sy).toInt().coerceIn(0, toHeight - 1),
+                right = (right * sx).roundToInt().coerceIn(1, toWidth),
+                bottom = (bottom * sy).roundToInt().coerceIn(1, toHeight)
+            )
+        }
+    }
+
+    /**
+     * Detect the garment bounds in [pixels] (row-major ARGB, [width]x[height]).
+     * Returns null when no meaningful crop was found, i.e. the frame should be kept as is.
+     */
+    fun detect(pixels: IntArray, width: Int, height: Int): CropBounds? {
+        require(pixels.size >= width * height) { "Pixel buffer smaller than $width x $height" }
+        if (width < 8 || height < 8) return null
+
+        val luma = IntArray(width * height)
+        for (i in luma.indices) {
+            val c = pixels[i]
+            luma[i] = ((c shr 16 and 0xFF) * 299 + (c shr 8 and 0xFF) * 587 + (c and 0xFF) * 114) / 1000
+        }
+
+        val background = estimateBackground(pixels, width, height)
+        val bgR = background shr 16 and 0xFF
+        val bgG = background shr 8 and 0xFF
+        val bgB = background and 0xFF
+
+        // Saliency = color distance from background + local edge strength
+        val saliency = IntArray(width * height)
+        var total = 0L
+        for (y in 0 until height) {
+            val row = y * width
+            for (x in 0 until width) {
+                val i = row + x
+                val c = pixels[i]
+                val colorDistance = abs((c shr 16 and 0xFF) - bgR) +
+                        abs((c shr 8 and 0xFF) - bgG) +
+                        abs((c and 0xFF) - bgB)
+                val dx = if (x + 1 < width) abs(luma[i + 1] - luma[i]) else 0
+                val dy = if (y + 1 < height) abs(luma[i + width] - luma[i]) else 0
+                val value = colorDistance + 2 * (dx + dy)
+                saliency[i] = value
+                total += value
+            }
+        }
+
+        val threshold = max(MIN_SALIENCY, ((total / saliency.size) * 3 / 2).toInt())
+
+        val rowCounts = IntArray(height)
+        val columnCounts = IntArray(width)
+        for (y in 0 until height) {
+            val row = y * width
+            for (x in 0 until width) {
+                if (saliency[row + x] > threshold) {
+                    rowCounts[y]++
+                    columnCounts[x]++
+                }
+            }
+        }
+
+        val minPerRow = max(1, (width * MIN_LINE_FRACTION).toInt())
+        val minPerColumn = max(1, (height * MIN_LINE_FRACTION).toInt())
+
+        val top = rowCounts.indexOfFirst { it >= minPerRow }
+        val bottom = rowCounts.indexOfLast { it >= minPerRow }
+        val left = columnCounts.indexOfFirst { it >= minPerColumn }
+        val right = columnCounts.indexOfLast { it >= minPerColumn }
+        if (top < 0 || left < 0 || bottom <= top || right <= left) return null
+
+        val padX = (width * PADDING_FRACTION).toInt()
+        val padY = (height * PADDING_FRACTION).toInt()
+        val bounds = CropBounds(
+            left = max(0, left - padX),
+            top = max(0, top - padY),
+            right = min(width, right + 1 + padX),
+            bottom = min(height, bottom + 1 + padY)
+        )
+
+        // Too small means noise, too large means cropping wouldn't save anything
+        val areaFraction = (bounds.width * bounds.height).toFloat() / (width * height)
+        if (areaFraction < MIN_AREA_FRACTION || areaFraction > MAX_AREA_FRACTION) return null
+
+        return bounds
+    }
+
+    /**
+     * Average color of the outer border ring, used as the background estimate
+     */
+    private fun estimateBackground(pixels: IntArray, width: Int, height: Int): Int {
+        val ringX = max(1, (width * BORDER_FRACTION).toInt())
+        val ringY = max(1, (height * BORDER_FRACTION).toInt())
+        var r = 0L
+        var g = 0L
+        var b = 0L
+        var count = 0L
+
+        for (y in 0 until height) {
+            val inVerticalRing = y < ringY || y >= height - ringY
+            val row = y * width
+            for (x in 0 until width) {
+                if (inVerticalRing || x < ringX || x >= width - ringX) {
+                    val c = pixels[row + x]
+                    r += c shr 16 and 0xFF
+                    g += c shr 8 and 0xFF
+                    b += c and 0xFF
+                    count++
+                }
+            }
+        }
+
+        return ((r / count).toInt() shl 16) or ((g / count).toInt() shl 8) or (b / count).toInt()
+    }
+}
@@ -5,75 +5,72 @@ import android.graphics.Bitmap
 import android.graphics.BitmapFactory
 import android.graphics.Matrix
 import android.net.Uri
-import android.util.Log
 import androidx.core.graphics.scale
 import androidx.exifinterface.media.ExifInterface
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.Tracer
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.InputStream
+import kotlin.math.roundToInt
 
 object ImageCompressionUtils {
 
     private const val TAG = "ImageCompression"
-
-    // Compression settings
-    private const val MAX_WIDTH = 1024
-    private const val MAX_HEIGHT = 1024
-    private const val JPEG_QUALITY = 85 // 85% quality for good balance between size and quality
-    private const val MAX_FILE_SIZE_KB = 500 // Target max file size in KB
+    private const val DERIVATIVE_QUALITY = 80
 
     /**
-     * Compress an image file and save it to a new location
+     * Compress an image file and save it to a new location.
+     * With [autoCrop] the frame is first cropped to the detected garment region.
+     * [limits] bound the output size and quality, see [UploadPolicy].
+     * Each step is traced as a `compress.*` span under the caller's current span.
      */
     fun compressImageFile(
         context: Context,
         sourceFile: File,
         targetFile: File = sourceFile,
+        autoCrop: Boolean = false,
+        limits: CompressionPolicy.Limits = CompressionPolicy.Limits.DEFAULT,
     ): File {
         try {
-            Log.d(TAG, "Starting compression for: ${sourceFile.name}")
-            Log.d(TAG, "Original file size: ${sourceFile.length() / 1024}KB")
+            AppLog.d(TAG) { "Starting compression for: ${sourceFile.name}" }
+            AppLog.d(TAG) { "Original file size: ${sourceFile.length() / 1024}KB" }
 
             // Read the original bitmap
-            val originalBitmap = BitmapFactory.decodeFile(sourceFile.absolutePath)
-                ?: throw IllegalArgumentException("Failed to decode image file")
-
-            Log.d(TAG, "Original dimensions: ${originalBitmap.width}x${originalBitmap.height}")
+            val originalBitmap = Tracer.trace("compress.decode") { span ->
+                span.setAttribute("bytes", sourceFile.length())
+                BitmapFactory.decodeFile(sourceFile.absolutePath)
+                    ?: throw IllegalArgumentException("Failed to decode image file")
+            }
 
-            // Get image orientation from EXIF data
-            val exif = ExifInterface(sourceFile.absolutePath)
-            val orientation = exif.getAttributeInt(
-                ExifInterface.TAG_ORIENTATION,
-                ExifInterface.ORIENTATION_NORMAL
-            )
+            AppLog.d(TAG) { "Original dimensions: ${originalBitmap.width}x${originalBitmap.height}" }
+
+            // Get image orientation from EXIF data and rotate the bitmap if needed
+            val rotatedBitmap = Tracer.trace("compress.orient") { span ->
+                val exif = ExifInterface(sourceFile.absolutePath)
+                val orientation = exif.getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL
+                )
+                span.setAttribute("orientation", orientation)
+                rotateImageIfRequired(originalBitmap, orientation)
+            }
 
-            // Rotate bitmap if needed
-            val rotatedBitmap = rotateImageIfRequired(originalBitmap, orientation)
+            // Crop to the garment so more of the resize budget is spent on it
+            val croppedBitmap = if (autoCrop) {
+                Tracer.trace("compress.crop") { cropToGarment(rotatedBitmap) }
+            } else {
+                rotatedBitmap
+            }
 
             // Resize the bitmap
-            val resizedBitmap = resizeBitmap(rotatedBitmap, MAX_WIDTH, MAX_HEIGHT)
+            val resizedBitmap = Tracer.trace("compress.resize") { resizeBitmap(croppedBitmap, limits) }
 
-            Log.d(TAG, "Resized dimensions: ${resizedBitmap.width}x${resizedBitmap.height}")
+            AppLog.d(TAG) { "Resized dimensions: ${resizedBitmap.width}x${resizedBitmap.height}" }
 
             // Compress and save
-            var quality = JPEG_QUALITY
-            var compressedData: ByteArray
-
-            do {
-                val outputStream = ByteArrayOutputStream()
-                resizedBitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)
-                compressedData = outputStream.toByteArray()
-
-                val fileSizeKB = compressedData.size / 1024
-                Log.d(TAG, "Compressed size at quality $quality: ${fileSizeKB}KB")
-
-                if (fileSizeKB <= MAX_FILE_SIZE_KB) {
-                    break
-                }
-
-                quality -= 10 // Reduce quality by 10% each iteration
-            } while (quality > 50)
+            val compressedData = Tracer.trace("compress.encode") { encodeJpeg(resizedBitmap, limits) }
 
             // Save the compressed image
             FileOutputStream(targetFile).use { fileOutput ->
@@ -81,46 +78,54 @@ object ImageCompressionUtils {
             }
 
             // Clean up bitmaps
+            if (croppedBitmap != rotatedBitmap) {
+                croppedBitmap.recycle()
+            }
             if (rotatedBitmap != originalBitmap) {
                 rotatedBitmap.recycle()
             }
             originalBitmap.recycle()
             resizedBitmap.recycle()
 
-            Log.d(TAG, "Compression completed")
-            Log.d(TAG, "Final file size: ${targetFile.length() / 1024}KB")
-            Log.d(TAG, "Compression ratio: ${String.format("%.1f", (sourceFile.length().toFloat() / targetFile.length()) * 100)}%")
+            AppLog.event(TAG, "compressed") {
+                field("sourceKb", sourceFile.length() / 1024)
+                field("targetKb", targetFile.length() / 1024)
+                field("ratioPct", sourceFile.length() * 100 / targetFile.length().coerceAtLeast(1))
+            }
 
             return targetFile
 
         } catch (e: Exception) {
-            Log.e(TAG, "Image compression failed", e)
+            AppLog.e(TAG, e) { "Image compression failed" }
             throw e
         }
     }
 
     /**
-     * Compress an image from URI and save to file
+     * Compress an image from URI and save to file, within [limits]
      */
     fun compressImageFromUri(
         context: Context,
         uri: Uri,
         targetFile: File,
+        limits: CompressionPolicy.Limits = CompressionPolicy.Limits.DEFAULT,
     ): File {
         try {
-            Log.d(TAG, "Starting compression from URI: $uri")
+            AppLog.d(TAG) { "Starting compression from URI: ${AppLog.redactUrl(uri.toString())}" }
 
             // Open input stream from URI
             val inputStream: InputStream = context.contentResolver.openInputStream(uri)
                 ?: throw IllegalArgumentException("Failed to open input stream from URI")
 
             // Decode bitmap from input stream
-            val originalBitmap = BitmapFactory.decodeStream(inputStream)
-                ?: throw IllegalArgumentException("Failed to decode image from URI")
+            val originalBitmap = Tracer.trace("compress.decode") {
+                BitmapFactory.decodeStream(inputStream)
+                    ?: throw IllegalArgumentException("Failed to decode image from URI")
+            }
 
             inputStream.close()
 
-            Log.d(TAG, "Original dimensions: ${originalBitmap.width}x${originalBitmap.height}")
+            AppLog.d(TAG) { "Original dimensions: ${originalBitmap.width}x${originalBitmap.height}" }
 
             // Try to get orientation from URI if it's a content URI
             val orientation = try {
@@ -132,36 +137,23 @@ object ImageCompressionUtils {
                     )
                 } ?: ExifInterface.ORIENTATION_NORMAL
             } catch (e: Exception) {
-                Log.w(TAG, "Could not read EXIF data from URI", e)
+                AppLog.w(TAG, e) { "Could not read EXIF data from URI" }
                 ExifInterface.ORIENTATION_NORMAL
             }
 
             // Rotate bitmap if needed
-            val rotatedBitmap = rotateImageIfRequired(originalBitmap, orientation)
+            val rotatedBitmap = Tracer.trace("compress.orient") { span ->
+                span.setAttribute("orientation", orientation)
+                rotateImageIfRequired(originalBitmap, orientation)
+            }
 
             // Resize the bitmap
-            val resizedBitmap = resizeBitmap(rotatedBitmap, MAX_WIDTH, MAX_HEIGHT)
+            val resizedBitmap = Tracer.trace("compress.resize") { resizeBitmap(rotatedBitmap, limits) }
 
-            Log.d(TAG, "Resized dimensions: ${resizedBitmap.width}x${resizedBitmap.height}")
+            AppLog.d(TAG) { "Resized dimensions: ${resizedBitmap.width}x${resizedBitmap.height}" }
 
             // Compress and save
-            var quality = JPEG_QUALITY
-            var compressedData: ByteArray
-
-            do {
-                val outputStream = ByteArrayOutputStream()
-                resizedBitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)
-                compressedData = outputStream.toByteArray()
-
-                val fileSizeKB = compressedData.size / 1024
-                Log.d(TAG, "Compressed size at quality $quality: ${fileSizeKB}KB")
-
-                if (fileSizeKB <= MAX_FILE_SIZE_KB) {
-                    break
-                }
-
-                quality -= 10
-            } while (quality > 50)
+            val compressedData = Tracer.trace("compress.encode") { encodeJpeg(resizedBitmap, limits) }
 
             // Save the compressed image
             FileOutputStream(targetFile).use { fileOutput ->
@@ -175,40 +167,137 @@ object ImageCompressionUtils {
             originalBitmap.recycle()
             resizedBitmap.recycle()
 
-            Log.d(TAG, "Compression completed")
-            Log.d(TAG, "Final file size: ${targetFile.length() / 1024}KB")
+            AppLog.event(TAG, "compressed") {
+                field("targetKb", targetFile.length() / 1024)
+            }
 
             return targetFile
 
         } catch (e: Exception) {
-            Log.e(TAG, "Image compression from URI failed", e)
+            AppLog.e(TAG, e) { "Image compression from URI failed" }
             throw e
         }
     }
 
     /**
-     * Resize bitmap while maintaining aspect ratio
+     * Write a copy of [sourceFile] scaled down to [shortestSide] pixels on its shortest side
+     * and encoded at [quality], for display where the full photo would be wasted bytes.
+     * Cropped display fills its bounds with the shortest side, so that is the side sized.
+     * The source is subsampled while decoding so only about twice the target size is ever
+     * held in memory.
      */
-    private fun resizeBitmap(bitmap: Bitmap, maxWidth: Int, maxHeight: Int): Bitmap {
-        val width = bitmap.width
-        val height = bitmap.height
+    fun writeDerivative(
+        sourceFile: File,
+        targetFile: File,
+        shortestSide: Int,
+        quality: Int = DERIVATIVE_QUALITY,
+    ): File {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(sourceFile.absolutePath, bounds)
+        require(bounds.outWidth > 0 && bounds.outHeight > 0) { "Failed to read image bounds" }
 
-        // Calculate the scaling factor
-        val scaleWidth = maxWidth.toFloat() / width
-        val scaleHeight = maxHeight.toFloat() / height
-        val scaleFactor = minOf(scaleWidth, scaleHeight, 1f) // Don't upscale
+        var sampleSize = 1
+        while (minOf(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= shortestSide) {
+            sampleSize *= 2
+        }
+        val sampled = BitmapFactory.decodeFile(
+            sourceFile.absolutePath,
+            BitmapFactory.Options().apply { inSampleSize = sampleSize }
+        ) ?: throw IllegalArgumentException("Failed to decode image file")
+
+        // Compressed uploads carry no EXIF, an uncompressed fallback still may
+        val orientation = ExifInterface(sourceFile.absolutePath).getAttributeInt(
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.ORIENTATION_NORMAL
+        )
+        val rotated = rotateImageIfRequired(sampled, orientation)
+        val scale = shortestSide.toFloat() / minOf(rotated.width, rotated.height)
+        val resized = if (scale < 1f) {
+            rotated.scale(
+                maxOf(1, (rotated.width * scale).roundToInt()),
+                maxOf(1, (rotated.height * scale).roundToInt())
+            )
+        } else {
+            rotated
+        }
 
-        // If no scaling needed, return original
-        if (scaleFactor >= 1f) {
-            return bitmap
+        FileOutputStream(targetFile).use { output ->
+            resized.compress(Bitmap.CompressFormat.JPEG, quality, output)
         }
 
-        val newWidth = (width * scaleFactor).toInt()
-        val newHeight = (height * scaleFactor).toInt()
+        if (resized != rotated) {
+            resized.recycle()
+        }
+        if (rotated != sampled) {
+            rotated.recycle()
+        }
+        sampled.recycle()
+
+        AppLog.d(TAG) { "Derivative ${shortestSide}px: ${targetFile.length() / 1024}KB" }
+        return targetFile
+    }
+
+    /**
+     * Resize bitmap while maintaining aspect ratio
+     */
+    private fun resizeBitmap(bitmap: Bitmap, limits: CompressionPolicy.Limits): Bitmap {
+        // If no scaling needed, return original
+        val (newWidth, newHeight) = CompressionPolicy.scaledSize(
+            bitmap.width,
+            bitmap.height,
+            maxWidth = limits.maxDimension,
+            maxHeight = limits.maxDimension
+        ) ?: return bitmap
 
         return bitmap.scale(newWidth, newHeight)
     }
 
+    /**
+     * JPEG-encode [bitmap], lowering the quality until it fits the upload size budget
+     */
+    private fun encodeJpeg(bitmap: Bitmap, limits: CompressionPolicy.Limits): ByteArray {
+        val encoded = CompressionPolicy.encodeWithinBudget(limits) { quality ->
+            val outputStream = ByteArrayOutputStream()
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)
+            outputStream.toByteArray().also {
+                AppLog.d(TAG) { "Compressed size at quality $quality: ${it.size / 1024}KB" }
+            }
+        }
+        Tracer.currentSpan()?.apply {
+            setAttribute("quality", encoded.quality)
+            setAttribute("bytes", encoded.bytes.size)
+        }
+        return encoded.bytes
+    }
+
+    /**
+     * Crop the bitmap to the garment region found by [GarmentCropDetector].
+     * Detection runs on a small thumbnail; returns the input bitmap when nothing is found.
+     */
+    private fun cropToGarment(bitmap: Bitmap): Bitmap {
+        val scaleFactor = minOf(
+            GarmentCropDetector.ANALYSIS_SIZE.toFloat() / bitmap.width,
+            GarmentCropDetector.ANALYSIS_SIZE.toFloat() / bitmap.height,
+            1f
+        )
+        val thumbWidth = maxOf(1, (bitmap.width * scaleFactor).toInt())
+        val thumbHeight = maxOf(1, (bitmap.height * scaleFactor).toInt())
+        val thumbnail = bitmap.scale(thumbWidth, thumbHeight)
+
+        val pixels = IntArray(thumbWidth * thumbHeight)
+        thumbnail.getPixels(pixels, 0, thumbWidth, 0, 0, thumbWidth, thumbHeight)
+        if (thumbnail != bitmap) {
+            thumbnail.recycle()
+        }
+
+        val bounds = GarmentCropDetector.detect(pixels, thumbWidth, thumbHeight)
+            ?.scaleTo(thumbWidth, thumbHeight, bitmap.width, bitmap.height)
+            ?: return bitmap
+
+        AppLog.d(TAG) { "Auto-crop bounds: $bounds (from ${bitmap.width}x${bitmap.height})" }
+        return Bitmap.createBitmap(bitmap, bounds.left, bounds.top, bounds.width, bounds.height)
+    }
+
     /**
      * Rotate image based on EXIF orientation
      */
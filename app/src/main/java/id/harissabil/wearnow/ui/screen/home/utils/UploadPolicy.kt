@@ -0,0 +1,120 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+/**
+ * Upload throughput measured from the progress callbacks of recent uploads.
+ *
+ * Each transfer is sampled over intervals of at least [MIN_SAMPLE_BYTES] and
+ * [MIN_SAMPLE_MS], so the bursts of a socket buffer filling up do not count as
+ * bandwidth, and samples are folded into an exponentially weighted average. An estimate
+ * older than [STALE_AFTER_MS] is dropped, since the user has likely changed networks.
+ */
+class BandwidthEstimator(
+    private val clockMs: () -> Long = { System.nanoTime() / 1_000_000 },
+) {
+
+    private var estimate: Double? = null
+    private var updatedAtMs = 0L
+
+    /**
+     * Bytes per second of recent uploads, or null when nothing recent was measured
+     */
+    val bytesPerSecond: Double?
+        @Synchronized get() = estimate?.takeIf { clockMs() - updatedAtMs <= STALE_AFTER_MS }
+
+    /**
+     * Start sampling one transfer. Feed every progress callback to the returned function.
+     */
+    fun newTransfer(): (currentBytes: Long, totalBytes: Long) -> Unit {
+        var sampledBytes = 0L
+        var sampledAtMs = clockMs()
+        return { currentBytes, totalBytes ->
+            val now = clockMs()
+            val bytes = currentBytes - sampledBytes
+            val elapsedMs = now - sampledAtMs
+            // The tail of a transfer counts even when short, or uploads on a fast link
+            // would finish before ever replacing an estimate taken on a slow one
+            val isLast = currentBytes >= totalBytes && elapsedMs > 0
+            if (bytes >= MIN_SAMPLE_BYTES && (elapsedMs >= MIN_SAMPLE_MS || isLast)) {
+                record(bytes, elapsedMs)
+                sampledBytes = currentBytes
+                sampledAtMs = now
+            }
+        }
+    }
+
+    @Synchronized
+    fun record(bytes: Long, elapsedMs: Long) {
+        val sample = bytes * 1000.0 / elapsedMs
+        val previous = estimate?.takeIf { clockMs() - updatedAtMs <= STALE_AFTER_MS }
+        estimate = if (previous == null) sample else previous + SMOOTHING * (sample - previous)
+        updatedAtMs = clockMs()
+    }
+
+    companion object {
+        const val MIN_SAMPLE_BYTES = 32L * 1024
+        const val MIN_SAMPLE_MS = 250L
+        const val STALE_AFTER_MS = 5L * 60 * 1000
+        private const val SMOOTHING = 0.3
+    }
+}
+
+/**
+ * Compression limits and transfer mode of an upload for the measured throughput.
+ *
+ * The tiers apply to garment photos, which serve one try-on. User photos are the input of
+ * every try-on after them and are always compressed with [CompressionPolicy.Limits.DEFAULT].
+ * Fast or unmeasured links keep [CompressionPolicy.Limits.DEFAULT]. Slower tiers trade
+ * resolution and JPEG quality for upload time, but never below [MIN_DIMENSION] and
+ * [MIN_START_QUALITY]: the try-on model works on ~768px inputs and garment texture
+ * visibly degrades under that. The codec stays JPEG because the `.jpg` keys and the
+ * try-on Lambda expect it.
+ */
+object UploadPolicy {
+
+    const val MIN_DIMENSION = 768
+    const val MIN_START_QUALITY = 70
+
+    // S3 rejects multipart parts under 5 MiB, except the last one
+    const val MIN_PART_SIZE = 5L * 1024 * 1024
+    const val MAX_PART_SIZE = 16L * 1024 * 1024
+
+    // A single request up to this long is cheaper than the extra multipart round trips
+    const val SINGLE_SHOT_MAX_SECONDS = 10.0
+
+    // Parts sized for about this long on the measured link
+    private const val PART_TARGET_SECONDS = 8.0
+
+    enum class LinkTier(val minBytesPerSecond: Double, val limits: CompressionPolicy.Limits) {
+        FAST(500_000.0, CompressionPolicy.Limits.DEFAULT),
+        GOOD(150_000.0, CompressionPolicy.Limits(1024, 80, 350)),
+        SLOW(50_000.0, CompressionPolicy.Limits(896, 75, 250)),
+        VERY_SLOW(0.0, CompressionPolicy.Limits(MIN_DIMENSION, MIN_START_QUALITY, 160)),
+    }
+
+    /**
+     * Tier of a link at [bytesPerSecond]; unmeasured links are treated as fast so the
+     * first upload keeps full quality
+     */
+    fun tierFor(bytesPerSecond: Double?): LinkTier {
+        if (bytesPerSecond == null) return LinkTier.FAST
+        return LinkTier.entries.first { bytesPerSecond >= it.minBytesPerSecond }
+    }
+
+    fun limitsFor(bytesPerSecond: Double?): CompressionPolicy.Limits = tierFor(bytesPerSecond).limits
+
+    /**
+     * Part size to upload [fileBytes] with, or null for a single request. Multipart only
+     * pays off for files over one minimum part that would take long on this link, where a
+     * dropped connection otherwise costs the whole file.
+     */
+    fun partSizeFor(fileBytes: Long, bytesPerSecond: Double?): Long? {
+        if (fileBytes <= MIN_PART_SIZE) return null
+        if (bytesPerSecond == null) return MIN_PART_SIZE
+        if (fileBytes / bytesPerSecond <= SINGLE_SHOT_MAX_SECONDS) return null
+
+        val partSize = (bytesPerSecond * PART_TARGET_SECONDS).toLong()
+            .coerceIn(MIN_PART_SIZE, MAX_PART_SIZE)
+        // Whole MiB parts
+        return partSize / (1024 * 1024) * (1024 * 1024)
+    }
+}
@@ -0,0 +1,54 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * Conflates raw upload progress events into a percentage [StateFlow].
+ *
+ * Amplify reports progress for every chunk written, which is far more often than the
+ * UI can draw. A new value is published only when the whole percentage changes, so an
+ * upload publishes at most 101 values and the last one is never dropped. The UI samples
+ * [percent] once per frame by collecting it as state, outside of any screen UI state, so
+ * a tick only recomposes the progress it shows.
+ */
+class UploadProgressTracker {
+
+    private val _percent = MutableStateFlow<Int?>(null)
+    val percent: StateFlow<Int?> = _percent.asStateFlow()
+
+    private var lastPercent = -1
+
+    /**
+     * Report progress in bytes. Returns true when a new percentage was published.
+     */
+    fun report(currentBytes: Long, totalBytes: Long): Boolean {
+        if (totalBytes <= 0L) return false
+        return publish(((currentBytes * 100) / totalBytes).toInt())
+    }
+
+    /**
+     * Report progress as a 0..1 fraction. Returns true when a new percentage was published.
+     */
+    fun report(fraction: Double): Boolean = publish((fraction * 100).toInt())
+
+    @Synchronized
+    private fun publish(rawPercent: Int): Boolean {
+        val percent = rawPercent.coerceIn(0, 100)
+        if (percent == lastPercent) return false
+
+        lastPercent = percent
+        _percent.value = percent
+        return true
+    }
+
+    /**
+     * Clear the published value once an upload finishes or fails
+     */
+    @Synchronized
+    fun reset() {
+        lastPercent = -1
+        _percent.value = null
+    }
+}
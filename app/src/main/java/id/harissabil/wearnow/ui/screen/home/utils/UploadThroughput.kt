@@ -0,0 +1,39 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import android.content.Context
+import android.net.ConnectivityManager
+
+/**
+ * App-wide upload throughput for [UploadPolicy]
+ */
+object UploadThroughput {
+
+    // Link estimates are theoretical maximums; uploads reach a fraction of them
+    private const val LINK_ESTIMATE_DISCOUNT = 0.5
+
+    /**
+     * Fed by every upload through the storage repository
+     */
+    val estimator = BandwidthEstimator()
+
+    /**
+     * Measured throughput in bytes per second, falling back to the active network's
+     * discounted upstream estimate before anything was uploaded. Null when neither is known.
+     */
+    fun bytesPerSecond(context: Context): Double? =
+        estimator.bytesPerSecond ?: linkBytesPerSecond(context)
+
+    /**
+     * Compression limits for the next upload
+     */
+    fun compressionLimits(context: Context): CompressionPolicy.Limits =
+        UploadPolicy.limitsFor(bytesPerSecond(context))
+
+    private fun linkBytesPerSecond(context: Context): Double? {
+        val connectivityManager = context.getSystemService(ConnectivityManager::class.java) ?: return null
+        val capabilities = connectivityManager.getNetworkCapabilities(connectivityManager.activeNetwork)
+            ?: return null
+        val kbps = capabilities.linkUpstreamBandwidthKbps.takeIf { it > 0 } ?: return null
+        return kbps * 1000 / 8.0 * LINK_ESTIMATE_DISCOUNT
+    }
+}
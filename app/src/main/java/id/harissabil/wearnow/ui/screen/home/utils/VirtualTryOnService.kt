@@ -1,59 +1,28 @@
 package id.harissabil.wearnow.ui.screen.home.utils
 
 import android.util.Log
-import com.amplifyframework.api.aws.GsonVariablesSerializer
-import com.amplifyframework.api.graphql.SimpleGraphQLRequest
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
-import com.amplifyframework.core.Amplify
 import com.amplifyframework.datastore.generated.model.TryOnHistory
 import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
 import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResponse
 import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnResult
-import kotlinx.coroutines.DelicateCoroutinesApi
+import id.harissabil.wearnow.utils.Tracer
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
-
-object VirtualTryOnService {
-
-    private const val TAG = "VirtualTryOnService"
-    private const val POLLING_INTERVAL_MS = 5000L // Poll every 5 seconds
-    private const val MAX_POLLING_ATTEMPTS = 30 // Poll for up to 2.5 minutes (30 * 5 seconds)
-
-    // Helper function to get identityId
-    suspend fun getIdentityId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val identityId = cognitoAuthSession.identityIdResult.value
-                Log.d(TAG, "Retrieved identityId: $identityId")
-                continuation.resume(identityId as String)
-            },
-            { error ->
-                Log.e(TAG, "Failed to get identityId", error)
-                continuation.resumeWithException(error)
-            }
-        )
-    }
 
-    // Helper function to get userId
-    suspend fun getUserId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val userId = cognitoAuthSession.userSubResult.value
-                Log.d(TAG, "Retrieved userId: $userId")
-                continuation.resume(userId as String)
-            },
-            { error ->
-                Log.e(TAG, "Failed to get userId", error)
-                continuation.resumeWithException(error)
-            }
-        )
-    }
+/**
+ * Triggers the try-on Lambda and polls the TryOnHistory record for its outcome
+ */
+class VirtualTryOnService(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) {
 
     /**
      * Start virtual try-on and poll for completion
@@ -68,23 +37,35 @@ object VirtualTryOnService {
         historyId: String,
         garmentClass: String = "UPPER_BODY",
         mergeStyle: String = "BALANCED"
-    ): VirtualTryOnResponse {
-        // Step 1: Trigger the Lambda (will timeout but Lambda keeps running)
+    ): VirtualTryOnResponse = coroutineScope {
+        // Step 1: Trigger the Lambda (will timeout but Lambda keeps running). The request is
+        // abandoned once polling has an outcome, the Lambda itself is not affected.
         Log.d(TAG, "Triggering Lambda function (this will timeout but Lambda continues)...")
-        triggerVirtualTryOnLambda(
-            userPhotoId, userPhotoUrl, garmentPhotoUrl,
-            historyId, garmentClass, mergeStyle
-        )
-
-        // Step 2: Poll the database for completion
-        Log.d(TAG, "Starting database polling to check for completion...")
-        return pollDatabaseForCompletion(historyId)
+        val trigger = launch {
+            // Ends cancelled when polling finishes before AppSync answers
+            Tracer.span("tryon.lambda_trigger") {
+                triggerVirtualTryOnLambda(
+                    userPhotoId, userPhotoUrl, garmentPhotoUrl,
+                    historyId, garmentClass, mergeStyle
+                )
+            }
+        }
+
+        try {
+            // Give Lambda a moment to start
+            Tracer.span("tryon.start_delay") { delay(LAMBDA_START_DELAY_MS) }
+
+            // Step 2: Poll the database for completion
+            Log.d(TAG, "Starting database polling to check for completion...")
+            pollDatabaseForCompletion(historyId)
+        } finally {
+            trigger.cancel()
+        }
     }
 
     /**
      * Trigger the Lambda function (will timeout but Lambda keeps running)
      */
-    @OptIn(DelicateCoroutinesApi::class)
     private suspend fun triggerVirtualTryOnLambda(
         userPhotoId: String,
         userPhotoUrl: String,
@@ -94,90 +75,79 @@ object VirtualTryOnService {
         mergeStyle: String
     ) {
         try {
-            kotlinx.coroutines.GlobalScope.launch {
-                try {
-                    val userId = getIdentityId()
-
-                    val document = """
-                        mutation VirtualTryOn(
-                            ${'$'}userId: String!,
-                            ${'$'}userPhotoId: String!,
-                            ${'$'}userPhotoUrl: String!,
-                            ${'$'}garmentPhotoUrl: String!,
-                            ${'$'}historyId: String!,
-                            ${'$'}garmentClass: String,
-                            ${'$'}maskType: String,
-                            ${'$'}mergeStyle: String
-                        ) {
-                            virtualTryOn(
-                                userId: ${'$'}userId,
-                                userPhotoId: ${'$'}userPhotoId,
-                                userPhotoUrl: ${'$'}userPhotoUrl,
-                                garmentPhotoUrl: ${'$'}garmentPhotoUrl,
-                                historyId: ${'$'}historyId,
-                                garmentClass: ${'$'}garmentClass,
-                                maskType: ${'$'}maskType,
-                                mergeStyle: ${'$'}mergeStyle
-                            )
-                        }
-                    """.trimIndent()
-
-                    val variables = mapOf(
-                        "userId" to userId,
-                        "userPhotoId" to userPhotoId,
-                        "userPhotoUrl" to userPhotoUrl,
-                        "garmentPhotoUrl" to garmentPhotoUrl,
-                        "historyId" to historyId,
-                        "garmentClass" to garmentClass,
-                        "maskType" to "GARMENT",
-                        "mergeStyle" to mergeStyle
-                    )
-
-                    val request = SimpleGraphQLRequest<String>(
-                        document,
-                        variables,
-                        String::class.java,
-                        GsonVariablesSerializer()
-                    )
-
-                    Amplify.API.mutate(
-                        request,
-                        { response ->
-                            Log.d(TAG, "Lambda triggered successfully (or completed within 30s)")
-                        },
-                        { error ->
-                            // This timeout is EXPECTED - Lambda will keep running
-                            Log.w(TAG, "AppSync timeout (expected) - Lambda is still processing in background")
-                        }
+            val userId = auth.getIdentityId()
+
+            val document = """
+                mutation VirtualTryOn(
+                    ${'$'}userId: String!,
+                    ${'$'}userPhotoId: String!,
+                    ${'$'}userPhotoUrl: String!,
+                    ${'$'}garmentPhotoUrl: String!,
+                    ${'$'}historyId: String!,
+                    ${'$'}garmentClass: String,
+                    ${'$'}maskType: String,
+                    ${'$'}mergeStyle: String
+                ) {
+                    virtualTryOn(
+                        userId: ${'$'}userId,
+                        userPhotoId: ${'$'}userPhotoId,
+                        userPhotoUrl: ${'$'}userPhotoUrl,
+                        garmentPhotoUrl: ${'$'}garmentPhotoUrl,
+                        historyId: ${'$'}historyId,
+                        garmentClass: ${'$'}garmentClass,
+                        maskType: ${'$'}maskType,
+                        mergeStyle: ${'$'}mergeStyle
                     )
-                } catch (e: Exception) {
-                    Log.w(TAG, "Error triggering Lambda (expected timeout)", e)
                 }
-            }
-
-            // Give Lambda a moment to start
-            delay(3000)
+            """.trimIndent()
+
+            val variables = mapOf(
+                "userId" to userId,
+                "userPhotoId" to userPhotoId,
+                "userPhotoUrl" to userPhotoUrl,
+                "garmentPhotoUrl" to garmentPhotoUrl,
+                "historyId" to historyId,
+                "garmentClass" to garmentClass,
+                "maskType" to "GARMENT",
+                "mergeStyle" to mergeStyle
+            )
 
+            api.mutate(document, variables)
+            Log.d(TAG, "Lambda triggered successfully (or completed within 30s)")
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
-            Log.w(TAG, "Failed to trigger Lambda", e)
+            // This timeout is EXPECTED - Lambda will keep running
+            Log.w(TAG, "AppSync timeout (expected) - Lambda is still processing in background", e)
         }
     }
 
     /**
      * Poll the database for completion by checking TryOnHistory status
      */
-    private suspend fun pollDatabaseForCompletion(historyId: String): VirtualTryOnResponse {
+    private suspend fun pollDatabaseForCompletion(historyId: String): VirtualTryOnResponse =
+        Tracer.span("tryon.poll") { span ->
+            pollUntilFinished(historyId).also { response ->
+                span.setAttribute("success", response.virtualTryOn.success)
+            }
+        }
+
+    private suspend fun pollUntilFinished(historyId: String): VirtualTryOnResponse {
         var attempts = 0
 
         while (attempts < MAX_POLLING_ATTEMPTS) {
             try {
                 Log.d(TAG, "Polling attempt ${attempts + 1}/$MAX_POLLING_ATTEMPTS")
 
-                val history = getTryOnHistory(historyId)
+                val history = Tracer.span("tryon.poll_request", "attempt" to attempts + 1) { span ->
+                    getTryOnHistory(historyId).also { span.setAttribute("status", it?.status) }
+                }
 
                 when (history?.status) {
                     TryOnHistoryStatus.COMPLETED -> {
                         Log.i(TAG, "✅ Try-on completed successfully!")
+                        // Hand the record to the result screen so it isn't fetched again
+                        TryOnHandoffCache.put(history)
                         val result = VirtualTryOnResult(
                             success = true,
                             historyId = historyId,
@@ -209,14 +179,14 @@ object VirtualTryOnService {
 
                 attempts++
                 if (attempts < MAX_POLLING_ATTEMPTS) {
-                    delay(POLLING_INTERVAL_MS)
+                    Tracer.span("tryon.poll_wait") { delay(POLLING_INTERVAL_MS) }
                 }
 
             } catch (e: Exception) {
                 Log.e(TAG, "Error polling database", e)
                 attempts++
                 if (attempts < MAX_POLLING_ATTEMPTS) {
-                    delay(POLLING_INTERVAL_MS)
+                    Tracer.span("tryon.poll_wait") { delay(POLLING_INTERVAL_MS) }
                 }
             }
         }
@@ -228,17 +198,19 @@ object VirtualTryOnService {
     /**
      * Get TryOnHistory record from database
      */
-    private suspend fun getTryOnHistory(historyId: String): TryOnHistory? =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.API.query(
-                ModelQuery.get(TryOnHistory::class.java, historyId),
-                { response ->
-                    continuation.resume(response.data)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to get TryOnHistory", error)
-                    continuation.resume(null)
-                }
-            )
-        }
+    private suspend fun getTryOnHistory(historyId: String): TryOnHistory? = try {
+        api.getTryOnHistory(historyId)
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        Log.e(TAG, "Failed to get TryOnHistory", e)
+        null
+    }
+
+    companion object {
+        private const val TAG = "VirtualTryOnService"
+        private const val LAMBDA_START_DELAY_MS = 3000L
+        private const val POLLING_INTERVAL_MS = 5000L // Poll every 5 seconds
+        private const val MAX_POLLING_ATTEMPTS = 30 // Poll for up to 2.5 minutes (30 * 5 seconds)
+    }
 }
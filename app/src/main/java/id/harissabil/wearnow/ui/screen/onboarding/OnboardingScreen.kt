@@ -144,7 +144,7 @@ fun OnboardingScreen(
 
                         2 -> UploadProgressStep(
                             isLoading = uiState.isLoading,
-                            uploadProgress = uiState.uploadProgress,
+                            uploadProgress = viewModel.uploadProgress,
                             isUploadComplete = uiState.isUploadComplete,
                             errorMessage = uiState.errorMessage
                         )
@@ -2,34 +2,46 @@ package id.harissabil.wearnow.ui.screen.onboarding
 
 import android.content.Context
 import android.net.Uri
-import android.util.Log
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.amplifyframework.api.graphql.model.ModelMutation
-import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
-import com.amplifyframework.core.Amplify
 import com.amplifyframework.core.model.temporal.Temporal
 import com.amplifyframework.datastore.generated.model.UserPhoto
-import com.amplifyframework.storage.StoragePath
-import com.amplifyframework.storage.options.StorageUploadFileOptions
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.AmplifyStorageRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
+import id.harissabil.wearnow.data.PendingPhotoUploads
+import id.harissabil.wearnow.data.StorageRepository
+import id.harissabil.wearnow.data.UserPhotoDerivatives
 import id.harissabil.wearnow.ui.screen.home.utils.ImageCompressionUtils
+import id.harissabil.wearnow.ui.screen.home.utils.UploadProgressTracker
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.TempFileManager
+import id.harissabil.wearnow.utils.Tracer
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 
-class OnboardingViewModel : ViewModel() {
+class OnboardingViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val storage: StorageRepository = AmplifyStorageRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
     private val _uiState = MutableStateFlow(OnboardingUiState())
     val uiState: StateFlow<OnboardingUiState> = _uiState.asStateFlow()
 
+    // Upload progress is kept out of OnboardingUiState so ticks only recompose the progress step
+    private val _uploadProgress = MutableStateFlow(0f)
+    val uploadProgress: StateFlow<Float> = _uploadProgress.asStateFlow()
+
     fun nextStep() {
         if (_uiState.value.currentStep < 2) {
             _uiState.value = _uiState.value.copy(currentStep = _uiState.value.currentStep + 1)
@@ -56,80 +68,88 @@ class OnboardingViewModel : ViewModel() {
     fun uploadUserPhoto(context: Context, imageFile: File) {
         viewModelScope.launch {
             try {
+                _uploadProgress.value = 0f
                 _uiState.value = _uiState.value.copy(
                     isLoading = true,
-                    uploadProgress = 0f,
                     errorMessage = null
                 )
 
-                val identityId = getIdentityId()
-
-                // Create unique filename
-                val timestamp = System.currentTimeMillis()
-                val key = "user-photos/$identityId/profile-$timestamp.jpg"
-
-                // Compress the image before uploading
-                Log.d(TAG, "Starting image compression...")
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.1f)
-
-                val compressedFile = File(imageFile.parent, "compressed_${imageFile.name}")
-
-                try {
-                    ImageCompressionUtils.compressImageFile(
-                        context = context,
-                        sourceFile = imageFile,
-                        targetFile = compressedFile
-                    )
-
-                    Log.d(TAG, "Image compression completed")
-                    Log.d(
-                        TAG,
-                        "Original size: ${ImageCompressionUtils.getFileSizeString(imageFile)}"
-                    )
-                    Log.d(
-                        TAG,
-                        "Compressed size: ${ImageCompressionUtils.getFileSizeString(compressedFile)}"
-                    )
-
-                } catch (compressionError: Exception) {
-                    Log.w(TAG, "Image compression failed, using original file", compressionError)
-                    // If compression fails, use the original file
-                    imageFile.copyTo(compressedFile, overwrite = true)
-                }
+                val identityId = auth.getIdentityId()
+
+                // Both the picked copy and its compressed version only live as long as this job
+                TempFileManager.adopt(imageFile).bindTo(coroutineContext.job)
+
+                // The same photo picked again after a failed upload continues that upload
+                val pendingUploads = PendingPhotoUploads(context)
+                val sourceId = PendingPhotoUploads.sourceIdOf(imageFile)
+                val pending = pendingUploads.find(sourceId, keyPrefix = "user-photos/$identityId/")
+                    ?: run {
+                        // Create unique filename
+                        val timestamp = System.currentTimeMillis()
+                        val key = UserPhotoDerivatives.newMasterKey(identityId, timestamp)
+
+                        // Compress the image before uploading
+                        AppLog.d(TAG) { "Starting image compression..." }
+                        _uploadProgress.value = 0.1f
+
+                        val compressedHandle = TempFileManager.create(context, "compressed_profile_")
+                            .bindTo(coroutineContext.job)
+                        val compressedFile = compressedHandle.file
+
+                        try {
+                            // Reused by every try-on, so user photos keep full quality on any link
+                            Tracer.span("user_photo.compress") {
+                                ImageCompressionUtils.compressImageFile(
+                                    context = context,
+                                    sourceFile = imageFile,
+                                    targetFile = compressedFile
+                                )
+                            }
+
+                            AppLog.d(TAG) { "Image compression completed" }
+                            AppLog.d(TAG) { "Original size: ${ImageCompressionUtils.getFileSizeString(imageFile)}" }
+                            AppLog.d(TAG) { "Compressed size: ${ImageCompressionUtils.getFileSizeString(compressedFile)}" }
+
+                        } catch (compressionError: Exception) {
+                            AppLog.w(TAG, compressionError) { "Image compression failed, using original file" }
+                            // If compression fails, use the original file
+                            imageFile.copyTo(compressedFile, overwrite = true)
+                        }
+
+                        pendingUploads.begin(sourceId, key, compressedFile)
+                    }
 
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.2f)
+                _uploadProgress.value = 0.2f
+
+                // Downscaled copies first, a record must never point at a photo without them
+                UserPhotoDerivatives.upload(context, storage, pending.key, pending.file)
 
                 // Upload to S3 using compressed file
-                val uploadedKey = uploadToS3(key, compressedFile) { progress ->
+                val uploadedKey = uploadToS3(pending.key, pending.file) { percent ->
                     // Map upload progress to 0.2 - 0.9 range
-                    val mappedProgress = 0.2f + (progress * 0.7f)
-                    _uiState.value = _uiState.value.copy(uploadProgress = mappedProgress)
-                }
-
-                // Clean up compressed file
-                try {
-                    compressedFile.delete()
-                } catch (e: Exception) {
-                    Log.w(TAG, "Failed to delete compressed file", e)
+                    val mappedProgress = 0.2f + (percent / 100f * 0.7f)
+                    _uploadProgress.value = mappedProgress
                 }
 
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.95f)
+                _uploadProgress.value = 0.95f
 
                 // Create database record
-                val currentUser = getCurrentUser()
-                createUserPhotoRecord(currentUser.userId, uploadedKey)
+                createUserPhotoRecord(auth.getUserId(), uploadedKey)
 
+                // Clean up compressed file, a failed record keeps it for the retry
+                pendingUploads.finish(sourceId)
+
+                _uploadProgress.value = 1f
                 _uiState.value = _uiState.value.copy(
                     isLoading = false,
-                    uploadProgress = 1f,
                     isUploadComplete = true
                 )
 
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to upload user photo", e)
+                AppLog.e(TAG, e) { "Failed to upload user photo" }
+                _uploadProgress.value = 0f
                 _uiState.value = _uiState.value.copy(
                     isLoading = false,
-                    uploadProgress = 0f,
                     errorMessage = "Failed to upload photo: ${e.message}"
                 )
             }
@@ -139,137 +159,121 @@ class OnboardingViewModel : ViewModel() {
     fun uploadUserPhotoFromUri(context: Context, imageUri: Uri) {
         viewModelScope.launch {
             try {
+                _uploadProgress.value = 0f
                 _uiState.value = _uiState.value.copy(
                     isLoading = true,
-                    uploadProgress = 0f,
                     errorMessage = null
                 )
 
-                val identityId = getIdentityId()
+                val identityId = auth.getIdentityId()
 
-                // Create unique filename
-                val timestamp = System.currentTimeMillis()
-                val key = "user-photos/$identityId/profile-$timestamp.jpg"
+                // The same photo picked again after a failed upload continues that upload
+                val pendingUploads = PendingPhotoUploads(context)
+                val sourceId = imageUri.toString()
+                val pending = pendingUploads.find(sourceId, keyPrefix = "user-photos/$identityId/")
+                    ?: run {
+                        // Create unique filename
+                        val timestamp = System.currentTimeMillis()
+                        val key = UserPhotoDerivatives.newMasterKey(identityId, timestamp)
 
-                // Create temporary file for compressed image
-                val tempDir = File(context.cacheDir, "temp_images")
-                if (!tempDir.exists()) {
-                    tempDir.mkdirs()
-                }
-                val compressedFile = File(tempDir, "compressed_profile_$timestamp.jpg")
-
-                // Compress the image from URI
-                Log.d(TAG, "Starting image compression from URI...")
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.1f)
-
-                try {
-                    ImageCompressionUtils.compressImageFromUri(
-                        context = context,
-                        uri = imageUri,
-                        targetFile = compressedFile
-                    )
-
-                    Log.d(TAG, "Image compression completed")
-                    Log.d(
-                        TAG,
-                        "Compressed size: ${ImageCompressionUtils.getFileSizeString(compressedFile)}"
-                    )
-
-                } catch (compressionError: Exception) {
-                    Log.e(TAG, "Image compression from URI failed", compressionError)
-                    throw compressionError
-                }
+                        // Create temporary file for compressed image, owned by this job
+                        val compressedHandle = TempFileManager.create(context, "compressed_profile_")
+                            .bindTo(coroutineContext.job)
+                        val compressedFile = compressedHandle.file
+
+                        // Compress the image from URI
+                        AppLog.d(TAG) { "Starting image compression from URI..." }
+                        _uploadProgress.value = 0.1f
+
+                        try {
+                            Tracer.span("user_photo.compress") {
+                                ImageCompressionUtils.compressImageFromUri(
+                                    context = context,
+                                    uri = imageUri,
+                                    targetFile = compressedFile
+                                )
+                            }
+
+                            AppLog.d(TAG) { "Image compression completed" }
+                            AppLog.d(TAG) { "Compressed size: ${ImageCompressionUtils.getFileSizeString(compressedFile)}" }
+
+                        } catch (compressionError: Exception) {
+                            AppLog.e(TAG, compressionError) { "Image compression from URI failed" }
+                            throw compressionError
+                        }
 
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.2f)
+                        pendingUploads.begin(sourceId, key, compressedFile)
+                    }
+
+                _uploadProgress.value = 0.2f
+
+                // Downscaled copies first, a record must never point at a photo without them
+                UserPhotoDerivatives.upload(context, storage, pending.key, pending.file)
 
                 // Upload to S3 using compressed file
-                val uploadedKey = uploadToS3(key, compressedFile) { progress ->
+                val uploadedKey = uploadToS3(pending.key, pending.file) { percent ->
                     // Map upload progress to 0.2 - 0.9 range
-                    val mappedProgress = 0.2f + (progress * 0.7f)
-                    _uiState.value = _uiState.value.copy(uploadProgress = mappedProgress)
+                    val mappedProgress = 0.2f + (percent / 100f * 0.7f)
+                    _uploadProgress.value = mappedProgress
                 }
 
-                // Clean up compressed file
-                try {
-                    compressedFile.delete()
-                } catch (e: Exception) {
-                    Log.w(TAG, "Failed to delete compressed file", e)
-                }
-
-                _uiState.value = _uiState.value.copy(uploadProgress = 0.95f)
+                _uploadProgress.value = 0.95f
 
                 // Create database record
-                val currentUser = getCurrentUser()
-                createUserPhotoRecord(currentUser.userId, uploadedKey)
+                createUserPhotoRecord(auth.getUserId(), uploadedKey)
+
+                // Clean up compressed file, a failed record keeps it for the retry
+                pendingUploads.finish(sourceId)
 
+                _uploadProgress.value = 1f
                 _uiState.value = _uiState.value.copy(
                     isLoading = false,
-                    uploadProgress = 1f,
                     isUploadComplete = true
                 )
 
             } catch (e: Exception) {
-                Log.e(TAG, "Failed to upload user photo from URI", e)
+                AppLog.e(TAG, e) { "Failed to upload user photo from URI" }
+                _uploadProgress.value = 0f
                 _uiState.value = _uiState.value.copy(
                     isLoading = false,
-                    uploadProgress = 0f,
                     errorMessage = "Failed to upload photo: ${e.message}"
                 )
             }
         }
     }
 
-    private suspend fun getIdentityId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val identityId = cognitoAuthSession.identityIdResult.value
-                continuation.resume(identityId as String)
-            },
-            { error -> continuation.resumeWithException(error) }
-        )
-    }
-
-    private suspend fun getCurrentUser() = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.getCurrentUser(
-            { user -> continuation.resume(user) },
-            { error -> continuation.resumeWithException(error) }
-        )
-    }
-
+    /**
+     * Upload [file] to S3. [onProgress] receives each new whole percentage, conflated by
+     * [UploadProgressTracker] from Amplify's per-chunk events.
+     */
     private suspend fun uploadToS3(
         key: String,
         file: File,
-        onProgress: (Float) -> Unit,
-    ): String = suspendCancellableCoroutine { continuation ->
-        val options = StorageUploadFileOptions.builder()
-            .build()
-
-        Amplify.Storage.uploadFile(
-            StoragePath.fromIdentityId { identityId ->
-                key // Path will be: user-photos/{identityId}/profile-xxx.jpg
-            },
-            file,
-            options,
-            { progress ->
-                val progressPercentage = progress.fractionCompleted.toFloat()
-                onProgress(progressPercentage)
-            },
-            { result ->
-                Log.d(TAG, "Upload completed successfully")
-                continuation.resume(key) // Use the original key instead of result.key
-            },
-            { error ->
-                Log.e(TAG, "Upload failed", error)
-                continuation.resumeWithException(error)
+        onProgress: (Int) -> Unit,
+    ): String {
+        val progressTracker = UploadProgressTracker()
+
+        try {
+            // Path will be: user-photos/{identityId}/profile-xxx_master.jpg
+            Tracer.span("user_photo.upload", "bytes" to file.length()) {
+                storage.uploadFile(key, file) { currentBytes, totalBytes ->
+                    if (progressTracker.report(currentBytes, totalBytes)) {
+                        progressTracker.percent.value?.let(onProgress)
+                    }
+                }
             }
-        )
+            AppLog.d(TAG) { "Upload completed successfully" }
+            return key
+        } catch (e: Exception) {
+            AppLog.e(TAG, e) { "Upload failed" }
+            throw e
+        }
     }
 
     private suspend fun createUserPhotoRecord(
         userId: String,
         photoUrl: String,
-    ) = suspendCancellableCoroutine { continuation ->
+    ): UserPhoto {
         // Format date for Temporal.DateTime
         val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault())
         val currentDateString = dateFormat.format(Date())
@@ -280,17 +284,9 @@ class OnboardingViewModel : ViewModel() {
             .uploadedAt(Temporal.DateTime(currentDateString))
             .build()
 
-        Amplify.API.mutate(
-            ModelMutation.create(userPhoto),
-            { response ->
-                Log.d(TAG, "UserPhoto created: ${response.data}")
-                continuation.resume(response.data)
-            },
-            { error ->
-                Log.e(TAG, "Failed to create UserPhoto record", error)
-                continuation.resumeWithException(error)
-            }
-        )
+        return api.createUserPhoto(userPhoto).also {
+            AppLog.d(TAG) { "UserPhoto created: $it" }
+        }
     }
 
     companion object {
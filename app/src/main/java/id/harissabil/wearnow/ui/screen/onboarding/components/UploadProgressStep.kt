@@ -18,6 +18,7 @@ import androidx.compose.material3.LinearProgressIndicator
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
@@ -25,17 +26,20 @@ import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
+import kotlinx.coroutines.flow.StateFlow
 
 @Composable
 fun UploadProgressStep(
     isLoading: Boolean,
-    uploadProgress: Float,
+    uploadProgress: StateFlow<Float>,
     isUploadComplete: Boolean,
     errorMessage: String?,
     modifier: Modifier = Modifier
 ) {
+    // Collected here so upload ticks don't recompose the rest of OnboardingScreen
+    val progress by uploadProgress.collectAsState()
     val animatedProgress by animateFloatAsState(
-        targetValue = uploadProgress,
+        targetValue = progress,
         animationSpec = tween(durationMillis = 300),
         label = "upload_progress"
     )
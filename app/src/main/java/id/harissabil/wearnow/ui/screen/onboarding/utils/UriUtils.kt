@@ -2,6 +2,7 @@ package id.harissabil.wearnow.ui.screen.onboarding.utils
 
 import android.content.Context
 import android.net.Uri
+import id.harissabil.wearnow.utils.TempFileManager
 import java.io.File
 import java.io.FileOutputStream
 import java.io.InputStream
@@ -9,7 +10,7 @@ import java.io.InputStream
 fun Uri.toFile(context: Context): File? {
     return try {
         val inputStream: InputStream? = context.contentResolver.openInputStream(this)
-        val tempFile = File.createTempFile("upload_image", ".jpg", context.cacheDir)
+        val tempFile = File.createTempFile("upload_image", ".jpg", TempFileManager.tempDir(context))
 
         inputStream?.use { input ->
             FileOutputStream(tempFile).use { output ->
@@ -1,5 +1,7 @@
 package id.harissabil.wearnow.ui.screen.result
 
+import android.content.ClipData
+import android.content.Intent
 import androidx.compose.foundation.background
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Box
@@ -39,6 +41,7 @@ import androidx.compose.runtime.remember
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Brush
+import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
@@ -57,14 +60,35 @@ fun ResultScreen(
     modifier: Modifier = Modifier,
     viewModel: ResultViewModel = viewModel()
 ) {
+    val context = LocalContext.current
     val snackbarHostState = remember { SnackbarHostState() }
+
     val uiState by viewModel.uiState.collectAsState()
 
-    // Load result on first composition
+    // Load result on first composition, a handed-off result is restored synchronously
     LaunchedEffect(historyId) {
         viewModel.loadResult(historyId)
     }
 
+    // Launch the share sheet once the result has been exported
+    LaunchedEffect(uiState.pendingShare) {
+        uiState.pendingShare?.let { sharedImage ->
+            val shareIntent = Intent(Intent.ACTION_SEND).apply {
+                type = sharedImage.mimeType
+                putExtra(Intent.EXTRA_STREAM, sharedImage.uri)
+                putExtra(
+                    Intent.EXTRA_TEXT,
+                    "Check out my virtual try-on result from WearNOW! 👗✨"
+                )
+                // ClipData carries the read grant through the chooser to the target app
+                clipData = ClipData.newRawUri(null, sharedImage.uri)
+                addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+            }
+            context.startActivity(Intent.createChooser(shareIntent, "Share via"))
+            viewModel.onShareLaunched()
+        }
+    }
+
     // Show error messages
     LaunchedEffect(uiState.errorMessage) {
         uiState.errorMessage?.let { error ->
@@ -128,8 +152,11 @@ fun ResultScreen(
                 ResultContent(
                     uiState = uiState,
                     onRetryDownload = { viewModel.retryDownload() },
+                    onRetryTryOn = { viewModel.retryTryOn() },
                     onShare = { viewModel.showShareDialog() },
                     onDelete = { viewModel.showDeleteDialog() },
+                    onResultImageShown = { viewModel.onResultImageShown() },
+                    onUserPhotoMeasured = viewModel::onComparisonImageMeasured,
                     modifier = Modifier
                         .fillMaxSize()
                         .padding(innerPadding)
@@ -140,7 +167,8 @@ fun ResultScreen(
         // Share dialog
         if (uiState.showShareDialog) {
             ShareDialog(
-                resultPhotoUri = uiState.resultPhotoUri,
+                isPreparing = uiState.isPreparingShare,
+                onShare = { size -> viewModel.shareResult(context, size) },
                 onDismiss = { viewModel.hideShareDialog() }
             )
         }
@@ -149,7 +177,7 @@ fun ResultScreen(
         if (uiState.showDeleteDialog) {
             DeleteConfirmationDialog(
                 onConfirm = {
-                    viewModel.deleteResult { onNavigateBack() }
+                    viewModel.deleteResult(context) { onNavigateBack() }
                 },
                 onDismiss = { viewModel.hideDeleteDialog() }
             )
@@ -308,8 +336,11 @@ private fun ErrorState(
 private fun ResultContent(
     uiState: ResultUiState,
     onRetryDownload: () -> Unit,
+    onRetryTryOn: () -> Unit,
     onShare: () -> Unit,
     onDelete: () -> Unit,
+    onResultImageShown: () -> Unit,
+    onUserPhotoMeasured: (widthPx: Int, heightPx: Int) -> Unit,
     modifier: Modifier = Modifier
 ) {
     Column(
@@ -329,10 +360,12 @@ private fun ResultContent(
 
         // Image comparison view
         ImageComparisonView(
-            userPhotoUri = uiState.userPhotoUri,
-            garmentPhotoUri = uiState.garmentPhotoUri,
-            resultPhotoUri = uiState.resultPhotoUri,
+            userPhotoUrl = uiState.userPhotoUrl,
+            garmentPhotoUrl = uiState.garmentPhotoUrl,
+            resultPhotoUrl = uiState.resultPhotoUrl,
             isLoading = uiState.isDownloading,
+            onResultImageShown = onResultImageShown,
+            onUserPhotoMeasured = onUserPhotoMeasured,
             modifier = Modifier.padding(horizontal = 16.dp)
         )
 
@@ -346,9 +379,12 @@ private fun ResultContent(
 
         // Action buttons
         ResultActionsCard(
-            resultPhotoUri = uiState.resultPhotoUri,
+            resultPhotoUrl = uiState.resultPhotoUrl,
             isDownloading = uiState.isDownloading,
+            tryOnStatus = uiState.tryOnHistory?.status,
+            isRetryingTryOn = uiState.isRetryingTryOn,
             onRetryDownload = onRetryDownload,
+            onRetryTryOn = onRetryTryOn,
             onShare = onShare,
             onDelete = onDelete,
             modifier = Modifier.padding(horizontal = 16.dp)
@@ -1,17 +1,20 @@
 package id.harissabil.wearnow.ui.screen.result
 
-import android.net.Uri
 import com.amplifyframework.datastore.generated.model.TryOnHistory
+import id.harissabil.wearnow.ui.screen.result.utils.SharedImage
 
 data class ResultUiState(
     val isLoading: Boolean = true,
     val tryOnHistory: TryOnHistory? = null,
-    val userPhotoUri: Uri? = null,
-    val garmentPhotoUri: Uri? = null,
-    val resultPhotoUri: Uri? = null,
+    val userPhotoUrl: String? = null,
+    val garmentPhotoUrl: String? = null,
+    val resultPhotoUrl: String? = null,
     val errorMessage: String? = null,
     val isDownloading: Boolean = false,
+    val isRetryingTryOn: Boolean = false,
     val downloadProgress: String = "",
     val showShareDialog: Boolean = false,
+    val isPreparingShare: Boolean = false,
+    val pendingShare: SharedImage? = null,
     val showDeleteDialog: Boolean = false,
 )
\ No newline at end of file
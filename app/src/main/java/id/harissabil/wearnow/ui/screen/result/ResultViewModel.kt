@@ -1,29 +1,107 @@
 package id.harissabil.wearnow.ui.screen.result
 
-import android.net.Uri
+import android.content.Context
+import android.os.SystemClock
 import android.util.Log
-import androidx.core.net.toUri
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.amplifyframework.api.graphql.model.ModelQuery
-import com.amplifyframework.auth.cognito.AWSCognitoAuthSession
-import com.amplifyframework.core.Amplify
 import com.amplifyframework.datastore.generated.model.TryOnHistory
-import com.amplifyframework.storage.StoragePath
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.AmplifyApiRepository
+import id.harissabil.wearnow.data.AmplifyAuthRepository
+import id.harissabil.wearnow.data.AmplifyStorageRepository
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
+import id.harissabil.wearnow.data.GraphQLBatchExecutor
+import id.harissabil.wearnow.data.HistoryDeletionEngine
+import id.harissabil.wearnow.data.HistoryStatusWriter
+import id.harissabil.wearnow.data.PhotoSize
+import id.harissabil.wearnow.data.StorageRepository
+import id.harissabil.wearnow.data.TryOnRetryService
+import id.harissabil.wearnow.data.UserPhotoDerivatives
+import id.harissabil.wearnow.ui.screen.home.utils.VirtualTryOnService
+import id.harissabil.wearnow.ui.screen.result.utils.ResultShareExporter
+import id.harissabil.wearnow.ui.screen.result.utils.ShareSize
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import id.harissabil.wearnow.utils.Tracer
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 
-class ResultViewModel : ViewModel() {
+class ResultViewModel(
+    private val api: ApiRepository = AmplifyApiRepository(),
+    private val storage: StorageRepository = AmplifyStorageRepository(),
+    private val auth: AuthRepository = AmplifyAuthRepository(),
+) : ViewModel() {
 
     private val _uiState = MutableStateFlow(ResultUiState())
     val uiState: StateFlow<ResultUiState> = _uiState.asStateFlow()
 
+    // Stored size of the user photo that fills the comparison card, once it was measured
+    private val comparisonPhotoSize = MutableStateFlow<PhotoSize?>(null)
+
+    private val batchExecutor = GraphQLBatchExecutor(api)
+    private val urlResolver = PresignedUrlResolver(storage)
+    private val tryOnRetryService = TryOnRetryService(
+        tryOnService = VirtualTryOnService(api, auth),
+        batchExecutor = batchExecutor,
+        statusWriter = HistoryStatusWriter(api),
+        urlResolver = urlResolver
+    )
+
+    /**
+     * Populate the state synchronously from a try-on that just completed, if one was handed
+     * off for [historyId]. Returns true when the screen can render without fetching.
+     */
+    fun restoreFromHandoff(historyId: String): Boolean {
+        if (_uiState.value.tryOnHistory?.id == historyId) return true
+        val handoff = TryOnHandoffCache.get(historyId) ?: return false
+
+        _uiState.update {
+            it.copy(
+                isLoading = false,
+                tryOnHistory = handoff.history,
+                resultPhotoUrl = handoff.resultPhotoUrl,
+                errorMessage = null
+            )
+        }
+        return true
+    }
+
+    fun onResultImageShown() {
+        _uiState.value.tryOnHistory?.let {
+            TryOnHandoffCache.markResultVisible(it.id)
+            // Closes the try-on trace and its navigation span started on Home
+            Tracer.endParked(it.id)
+        }
+    }
+
+    /**
+     * The comparison card showing the user photo was laid out at [widthPx]x[heightPx]
+     */
+    fun onComparisonImageMeasured(widthPx: Int, heightPx: Int) {
+        if (widthPx > 0 && heightPx > 0) {
+            comparisonPhotoSize.value = UserPhotoDerivatives.sizeFitting(widthPx, heightPx)
+        }
+    }
+
     fun loadResult(historyId: String) {
+        if (restoreFromHandoff(historyId)) {
+            _uiState.value.tryOnHistory?.let { history ->
+                // The record came from the handoff, only the remaining images need URLs
+                if (_uiState.value.userPhotoUrl == null || _uiState.value.resultPhotoUrl == null) {
+                    generatePresignedUrls(history)
+                }
+            }
+            return
+        }
+
         viewModelScope.launch {
             try {
                 _uiState.value = _uiState.value.copy(
@@ -32,7 +110,7 @@ class ResultViewModel : ViewModel() {
                 )
 
                 // Fetch try-on history
-                val history = fetchTryOnHistory(historyId)
+                val history = Tracer.span("result.fetch_history") { fetchTryOnHistory(historyId) }
 
                 if (history == null) {
                     _uiState.value = _uiState.value.copy(
@@ -67,6 +145,56 @@ class ResultViewModel : ViewModel() {
         }
     }
 
+    /**
+     * Re-run a FAILED try-on from its stored keys and options
+     */
+    fun retryTryOn() {
+        val history = _uiState.value.tryOnHistory ?: return
+        if (history.status != TryOnHistoryStatus.FAILED || _uiState.value.isRetryingTryOn) return
+
+        viewModelScope.launch {
+            _uiState.update {
+                it.copy(
+                    isRetryingTryOn = true,
+                    tryOnHistory = history.copyOfBuilder()
+                        .status(TryOnHistoryStatus.PROCESSING)
+                        .errorMessage(null)
+                        .build()
+                )
+            }
+
+            try {
+                val response = Tracer.span("tryon.retry") { tryOnRetryService.retry(history) }.virtualTryOn
+                val updated = TryOnHandoffCache.get(history.id)?.history
+                    ?: fetchTryOnHistory(history.id)
+                    ?: throw IllegalStateException("Try-on result not found")
+
+                _uiState.update {
+                    it.copy(
+                        isRetryingTryOn = false,
+                        tryOnHistory = updated,
+                        resultPhotoUrl = null,
+                        errorMessage = if (response.success) null else "Retry failed: ${response.errorMessage}"
+                    )
+                }
+                if (response.success) {
+                    generatePresignedUrls(updated)
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to retry try-on", e)
+                _uiState.update {
+                    it.copy(
+                        isRetryingTryOn = false,
+                        tryOnHistory = history,
+                        errorMessage = "Failed to retry try-on: ${e.message}"
+                    )
+                }
+            }
+        }
+    }
+
     fun showShareDialog() {
         _uiState.value = _uiState.value.copy(showShareDialog = true)
     }
@@ -75,6 +203,42 @@ class ResultViewModel : ViewModel() {
         _uiState.value = _uiState.value.copy(showShareDialog = false)
     }
 
+    /**
+     * Export the result to a shareable local file; the screen launches the share sheet
+     * once [ResultUiState.pendingShare] is set
+     */
+    fun shareResult(context: Context, size: ShareSize) {
+        val history = _uiState.value.tryOnHistory ?: return
+        val resultPhotoUrl = _uiState.value.resultPhotoUrl ?: return
+        val appContext = context.applicationContext
+
+        viewModelScope.launch {
+            _uiState.update { it.copy(isPreparingShare = true) }
+            try {
+                val sharedImage = ResultShareExporter.export(appContext, resultPhotoUrl, history.id, size)
+                _uiState.update {
+                    it.copy(
+                        isPreparingShare = false,
+                        showShareDialog = false,
+                        pendingShare = sharedImage
+                    )
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to prepare result for sharing", e)
+                _uiState.update {
+                    it.copy(
+                        isPreparingShare = false,
+                        errorMessage = "Failed to prepare image for sharing: ${e.message}"
+                    )
+                }
+            }
+        }
+    }
+
+    fun onShareLaunched() {
+        _uiState.update { it.copy(pendingShare = null) }
+    }
+
     fun showDeleteDialog() {
         _uiState.value = _uiState.value.copy(showDeleteDialog = true)
     }
@@ -83,7 +247,7 @@ class ResultViewModel : ViewModel() {
         _uiState.value = _uiState.value.copy(showDeleteDialog = false)
     }
 
-    fun deleteResult(onDeleted: () -> Unit) {
+    fun deleteResult(context: Context, onDeleted: () -> Unit) {
         viewModelScope.launch {
             try {
                 val history = _uiState.value.tryOnHistory
@@ -101,8 +265,9 @@ class ResultViewModel : ViewModel() {
 
                 Log.d(TAG, "Deleting TryOnHistory record: ${history.id}")
 
-                // Delete the TryOnHistory record from database
-                deleteTryOnHistory(history)
+                // Delete the record, its S3 objects and local copies
+                val result = HistoryDeletionEngine(context, storage, batchExecutor).delete(history)
+                result.failures[history.id]?.let { throw it }
 
                 Log.i(TAG, "✅ TryOnHistory deleted successfully: ${history.id}")
 
@@ -130,132 +295,90 @@ class ResultViewModel : ViewModel() {
     }
 
     private suspend fun fetchTryOnHistory(historyId: String): TryOnHistory? =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.API.query(
-                ModelQuery.get(TryOnHistory::class.java, historyId),
-                { response ->
-                    Log.d(TAG, "TryOnHistory fetched: ${response.data}")
-                    continuation.resume(response.data)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to fetch TryOnHistory", error)
-                    continuation.resumeWithException(error)
-                }
-            )
+        api.getTryOnHistory(historyId).also {
+            Log.d(TAG, "TryOnHistory fetched: $it")
         }
 
     private fun generatePresignedUrls(history: TryOnHistory) {
-        viewModelScope.launch {
-            try {
-                _uiState.value = _uiState.value.copy(
-                    isDownloading = true,
-                    downloadProgress = "Loading images..."
-                )
+        resolveUserPhoto(history)
 
-                // Get identity ID for S3 operations
-                val identityId = getIdentityId()
-
-                // User photo URL - check if it's already a presigned URL or S3 key
-                _uiState.value = _uiState.value.copy(downloadProgress = "Loading your photo...")
-                val userPhotoUri = if (history.userPhotoUrl.startsWith("http")) {
-                    // Already a presigned URL, use it directly
-                    Log.d(TAG, "User photo is already a presigned URL")
-                    history.userPhotoUrl.toUri()
-                } else {
-                    // It's an S3 key, generate presigned URL
-                    Log.d(TAG, "Generating presigned URL for user photo: ${history.userPhotoUrl}")
-                    generatePresignedUrl(history.userPhotoUrl, identityId)
+        // Part of the try-on trace when the result was just handed off from Home
+        viewModelScope.launch(Tracer.contextOf(Tracer.parkedSpan(history.id))) {
+            Tracer.span("result.resolve_urls") { span ->
+                val startedAt = SystemClock.elapsedRealtime()
+
+                // The hero result image is resolved first and published on its own
+                val keys = buildMap<ResultImage, String> {
+                    history.resultPhotoUrl?.takeIf { it.isNotEmpty() }?.let { put(ResultImage.RESULT, it) }
+                    put(ResultImage.GARMENT, history.garmentPhotoUrl)
                 }
+                // A handed-off result URI is already on screen, don't cover it with a loader
+                val hasResultImage = ResultImage.RESULT in keys && _uiState.value.resultPhotoUrl == null
 
-                // Garment photo - should be an S3 key
-                _uiState.value = _uiState.value.copy(downloadProgress = "Loading garment photo...")
-                val garmentPhotoUri = if (history.garmentPhotoUrl.startsWith("http")) {
-                    history.garmentPhotoUrl.toUri()
-                } else {
-                    Log.d(TAG, "Generating presigned URL for garment: ${history.garmentPhotoUrl}")
-                    generatePresignedUrl(history.garmentPhotoUrl, identityId)
+                _uiState.update {
+                    it.copy(
+                        isDownloading = hasResultImage,
+                        downloadProgress = if (hasResultImage) "Loading result..." else ""
+                    )
                 }
 
-                // Result photo - should be an S3 key
-                var resultPhotoUri: Uri? = null
-                if (!history.resultPhotoUrl.isNullOrEmpty()) {
-                    _uiState.value = _uiState.value.copy(downloadProgress = "Loading result...")
-                    resultPhotoUri = if (history.resultPhotoUrl.startsWith("http")) {
-                        history.resultPhotoUrl.toUri()
-                    } else {
-                        Log.d(TAG, "Generating presigned URL for result: ${history.resultPhotoUrl}")
-                        generatePresignedUrl(history.resultPhotoUrl, identityId)
+                val results = urlResolver.resolveAll(keys) { image, url ->
+                    val elapsed = SystemClock.elapsedRealtime() - startedAt
+                    Log.d(TAG, "Phase ${image.name.lowercase()} ready after ${elapsed}ms")
+                    span.setAttribute("${image.name.lowercase()}_ms", elapsed)
+
+                    _uiState.update { state ->
+                        when (image) {
+                            ResultImage.RESULT -> state.copy(
+                                resultPhotoUrl = url,
+                                isDownloading = false,
+                                downloadProgress = ""
+                            )
+
+                            ResultImage.GARMENT -> state.copy(garmentPhotoUrl = url)
+                        }
                     }
                 }
 
-                _uiState.value = _uiState.value.copy(
-                    userPhotoUri = userPhotoUri,
-                    garmentPhotoUri = garmentPhotoUri,
-                    resultPhotoUri = resultPhotoUri,
-                    isDownloading = false,
-                    downloadProgress = ""
-                )
-
-                Log.i(TAG, "✅ All images loaded successfully")
+                val failure = results.values.firstNotNullOfOrNull { it.exceptionOrNull() }
+                _uiState.update {
+                    it.copy(
+                        isDownloading = false,
+                        downloadProgress = "",
+                        errorMessage = failure?.let { error -> "Failed to load images: ${error.message}" }
+                            ?: it.errorMessage
+                    )
+                }
 
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to generate presigned URLs", e)
-                _uiState.value = _uiState.value.copy(
-                    isDownloading = false,
-                    downloadProgress = "",
-                    errorMessage = "Failed to load images: ${e.message}"
-                )
+                Log.i(TAG, "Resolved ${keys.size} image URLs in ${SystemClock.elapsedRealtime() - startedAt}ms")
             }
         }
     }
 
-    private suspend fun getIdentityId(): String = suspendCancellableCoroutine { continuation ->
-        Amplify.Auth.fetchAuthSession(
-            { result ->
-                val cognitoAuthSession = result as AWSCognitoAuthSession
-                val identityId = cognitoAuthSession.identityIdResult.value
-                Log.d(TAG, "Retrieved identityId: $identityId")
-                continuation.resume(identityId as String)
-            },
-            { error ->
-                Log.e(TAG, "Failed to get identityId", error)
-                continuation.resumeWithException(error)
+    /**
+     * Sign the stored copy of the user photo that fills the comparison card. The card is
+     * laid out once the result is on screen, so this waits for its size instead of
+     * holding up the result.
+     */
+    private fun resolveUserPhoto(history: TryOnHistory) {
+        viewModelScope.launch {
+            val size = comparisonPhotoSize.filterNotNull().first()
+            val key = UserPhotoDerivatives.keyFor(history.userPhotoUrl, size) ?: return@launch
+            try {
+                val url = urlResolver.resolve(key)
+                _uiState.update { it.copy(userPhotoUrl = url) }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to resolve the user photo URL", e)
+                _uiState.update { it.copy(errorMessage = "Failed to load images: ${e.message}") }
             }
-        )
-    }
-
-    private suspend fun generatePresignedUrl(s3Key: String, identityId: String): Uri =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.Storage.getUrl(
-                StoragePath.fromIdentityId { identityId ->
-                    s3Key
-                },
-                { result ->
-                    val url = result.url.toString()
-                    Log.d(TAG, "Generated presigned URL for $s3Key")
-                    continuation.resume(url.toUri())
-                },
-                { error ->
-                    Log.e(TAG, "Failed to generate presigned URL for $s3Key", error)
-                    continuation.resumeWithException(error)
-                }
-            )
         }
+    }
 
-    private suspend fun deleteTryOnHistory(history: TryOnHistory) =
-        suspendCancellableCoroutine { continuation ->
-            Amplify.API.mutate(
-                com.amplifyframework.api.graphql.model.ModelMutation.delete(history),
-                { response ->
-                    Log.d(TAG, "TryOnHistory deletion response: ${response.data}")
-                    continuation.resume(Unit)
-                },
-                { error ->
-                    Log.e(TAG, "Failed to delete TryOnHistory", error)
-                    continuation.resumeWithException(error)
-                }
-            )
-        }
+    private enum class ResultImage {
+        RESULT, GARMENT
+    }
 
     companion object {
         private const val TAG = "ResultViewModel"
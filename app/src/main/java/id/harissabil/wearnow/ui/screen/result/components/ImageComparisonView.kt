@@ -1,6 +1,6 @@
 package id.harissabil.wearnow.ui.screen.result.components
 
-import android.net.Uri
+import android.util.Log
 import androidx.compose.foundation.background
 import androidx.compose.foundation.gestures.detectTransformGestures
 import androidx.compose.foundation.layout.Arrangement
@@ -27,28 +27,36 @@ import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableFloatStateOf
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.setValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
+import androidx.compose.ui.geometry.Offset
 import androidx.compose.ui.graphics.graphicsLayer
 import androidx.compose.ui.input.pointer.pointerInput
 import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.layout.onSizeChanged
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
 import coil.compose.AsyncImage
 import coil.request.ImageRequest
+import id.harissabil.wearnow.utils.LocalImageCache
+import java.io.File
 
 @Composable
 fun ImageComparisonView(
-    userPhotoUri: Uri?,
-    garmentPhotoUri: Uri?,
-    resultPhotoUri: Uri?,
+    userPhotoUrl: String?,
+    garmentPhotoUrl: String?,
+    resultPhotoUrl: String?,
     isLoading: Boolean,
     modifier: Modifier = Modifier,
+    onResultImageShown: () -> Unit = {},
+    onUserPhotoMeasured: (widthPx: Int, heightPx: Int) -> Unit = { _, _ -> },
 ) {
     Card(
         modifier = modifier.fillMaxWidth(),
@@ -67,10 +75,11 @@ fun ImageComparisonView(
                 LoadingImageState()
             } else {
                 // Main result image (larger)
-                if (resultPhotoUri != null) {
+                if (resultPhotoUrl != null) {
                     ZoomableImage(
-                        imageUri = resultPhotoUri,
+                        imageUrl = resultPhotoUrl,
                         title = "Your Virtual Try-On",
+                        onImageShown = onResultImageShown,
                         modifier = Modifier
                             .fillMaxWidth()
                             .aspectRatio(3f / 4f)
@@ -96,14 +105,15 @@ fun ImageComparisonView(
                     horizontalArrangement = Arrangement.spacedBy(12.dp)
                 ) {
                     ComparisonImageCard(
-                        imageUri = userPhotoUri,
+                        imageUrl = userPhotoUrl,
                         title = "Original",
                         subtitle = "Your Photo",
+                        onImageMeasured = onUserPhotoMeasured,
                         modifier = Modifier.weight(1f)
                     )
 
                     ComparisonImageCard(
-                        imageUri = garmentPhotoUri,
+                        imageUrl = garmentPhotoUrl,
                         title = "Garment",
                         subtitle = "Item Added",
                         modifier = Modifier.weight(1f)
@@ -116,14 +126,32 @@ fun ImageComparisonView(
 
 @Composable
 private fun ZoomableImage(
-    imageUri: Uri,
+    imageUrl: String,
     title: String,
     modifier: Modifier = Modifier,
+    onImageShown: () -> Unit = {},
 ) {
     val context = LocalContext.current
     var scale by remember { mutableFloatStateOf(1f) }
     var offsetX by remember { mutableFloatStateOf(0f) }
     var offsetY by remember { mutableFloatStateOf(0f) }
+    var maxScale by remember { mutableFloatStateOf(3f) }
+
+    // Deep zoom is only set up once the user zooms in, by then Coil has finished loading
+    // the image and the full-resolution copy is taken from its disk cache, not downloaded
+    var zoomRequested by remember { mutableStateOf(false) }
+
+    // Full-resolution copy for region decoding
+    val zoomFile by produceState<File?>(null, imageUrl, zoomRequested) {
+        if (!zoomRequested) return@produceState
+        value = try {
+            LocalImageCache.fetch(context, imageUrl)
+        } catch (e: Exception) {
+            Log.w("ZoomableImage", "Deep zoom unavailable, falling back to scaled bitmap", e)
+            null
+        }
+    }
+    var tilesReady by remember(zoomFile) { mutableStateOf(false) }
 
     Column(
         modifier = modifier,
@@ -152,8 +180,9 @@ private fun ZoomableImage(
                     .aspectRatio(3f / 4f)
                     .pointerInput(Unit) {
                         detectTransformGestures { _, pan, zoom, _ ->
-                            scale = (scale * zoom).coerceIn(1f, 3f)
+                            scale = (scale * zoom).coerceIn(1f, maxScale)
                             if (scale > 1f) {
+                                zoomRequested = true
                                 offsetX += pan.x
                                 offsetY += pan.y
                             } else {
@@ -163,22 +192,41 @@ private fun ZoomableImage(
                         }
                     }
             ) {
-                AsyncImage(
-                    model = ImageRequest.Builder(context)
-                        .data(imageUri)
-                        .crossfade(true)
-                        .build(),
-                    contentDescription = title,
-                    modifier = Modifier
-                        .fillMaxSize()
-                        .graphicsLayer(
-                            scaleX = scale,
-                            scaleY = scale,
-                            translationX = offsetX,
-                            translationY = offsetY
-                        ),
-                    contentScale = ContentScale.Crop
-                )
+                // Until the tiled renderer is ready, scale the downsampled bitmap as before
+                if (!tilesReady) {
+                    AsyncImage(
+                        model = ImageRequest.Builder(context)
+                            .data(imageUrl)
+                            .crossfade(true)
+                            .build(),
+                        contentDescription = title,
+                        onSuccess = { onImageShown() },
+                        modifier = Modifier
+                            .fillMaxSize()
+                            .graphicsLayer(
+                                scaleX = scale,
+                                scaleY = scale,
+                                translationX = offsetX,
+                                translationY = offsetY
+                            ),
+                        contentScale = ContentScale.Crop
+                    )
+                }
+
+                zoomFile?.let { file ->
+                    SubsamplingImage(
+                        file = file,
+                        scale = scale,
+                        offset = Offset(offsetX, offsetY),
+                        contentDescription = title,
+                        onReady = { fullResolutionScale ->
+                            // Allow zooming in until image pixels are shown 1:1
+                            maxScale = maxOf(3f, fullResolutionScale)
+                            tilesReady = true
+                            onImageShown()
+                        }
+                    )
+                }
 
                 // Zoom hint overlay
                 if (scale == 1f) {
@@ -217,10 +265,11 @@ private fun ZoomableImage(
 
 @Composable
 private fun ComparisonImageCard(
-    imageUri: Uri?,
+    imageUrl: String?,
     title: String,
     subtitle: String,
     modifier: Modifier = Modifier,
+    onImageMeasured: (widthPx: Int, heightPx: Int) -> Unit = { _, _ -> },
 ) {
     val context = LocalContext.current
 
@@ -255,13 +304,15 @@ private fun ComparisonImageCard(
                 modifier = Modifier
                     .fillMaxWidth()
                     .aspectRatio(3f / 4f)
+                    // Measured before the image loads, it picks the stored size to load
+                    .onSizeChanged { onImageMeasured(it.width, it.height) }
                     .clip(RoundedCornerShape(8.dp))
                     .background(MaterialTheme.colorScheme.surface)
             ) {
-                if (imageUri != null) {
+                if (imageUrl != null) {
                     AsyncImage(
                         model = ImageRequest.Builder(context)
-                            .data(imageUri)
+                            .data(imageUrl)
                             .crossfade(true)
                             .build(),
                         contentDescription = title,
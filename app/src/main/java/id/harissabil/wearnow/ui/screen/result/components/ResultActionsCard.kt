@@ -1,7 +1,6 @@
 package id.harissabil.wearnow.ui.screen.result.components
 
-import android.content.Intent
-import android.net.Uri
+import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
@@ -21,25 +20,35 @@ import androidx.compose.material3.Button
 import androidx.compose.material3.ButtonDefaults
 import androidx.compose.material3.Card
 import androidx.compose.material3.CardDefaults
+import androidx.compose.material3.CircularProgressIndicator
 import androidx.compose.material3.ExperimentalMaterial3Api
 import androidx.compose.material3.Icon
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.OutlinedButton
+import androidx.compose.material3.RadioButton
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
-import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.window.DialogProperties
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.ui.screen.result.utils.ShareSize
 
 @Composable
 fun ResultActionsCard(
-    resultPhotoUri: Uri?,
+    resultPhotoUrl: String?,
     isDownloading: Boolean,
+    tryOnStatus: TryOnHistoryStatus?,
+    isRetryingTryOn: Boolean,
     onRetryDownload: () -> Unit,
+    onRetryTryOn: () -> Unit,
     onShare: () -> Unit,
     onDelete: () -> Unit,
     modifier: Modifier = Modifier,
@@ -71,26 +80,58 @@ fun ResultActionsCard(
                 modifier = Modifier.fillMaxWidth(),
                 horizontalArrangement = Arrangement.spacedBy(12.dp)
             ) {
-                Button(
-                    onClick = onShare,
-                    modifier = Modifier.weight(1f),
-                    enabled = resultPhotoUri != null && !isDownloading,
-                    shape = RoundedCornerShape(12.dp),
-                    colors = ButtonDefaults.buttonColors(
-                        containerColor = MaterialTheme.colorScheme.primary
-                    )
-                ) {
-                    Icon(
-                        imageVector = Icons.Default.Share,
-                        contentDescription = null,
-                        modifier = Modifier.size(18.dp)
-                    )
-                    Spacer(modifier = Modifier.width(8.dp))
-                    Text(
-                        text = "Share",
-                        style = MaterialTheme.typography.titleSmall,
-                        fontWeight = FontWeight.SemiBold
-                    )
+                if (tryOnStatus == TryOnHistoryStatus.FAILED || isRetryingTryOn) {
+                    // Failed jobs can be re-run from the stored photos, no re-upload needed
+                    Button(
+                        onClick = onRetryTryOn,
+                        modifier = Modifier.weight(1f),
+                        enabled = !isRetryingTryOn,
+                        shape = RoundedCornerShape(12.dp),
+                        colors = ButtonDefaults.buttonColors(
+                            containerColor = MaterialTheme.colorScheme.primary
+                        )
+                    ) {
+                        if (isRetryingTryOn) {
+                            CircularProgressIndicator(
+                                modifier = Modifier.size(18.dp),
+                                strokeWidth = 2.dp
+                            )
+                        } else {
+                            Icon(
+                                imageVector = Icons.Default.Refresh,
+                                contentDescription = null,
+                                modifier = Modifier.size(18.dp)
+                            )
+                        }
+                        Spacer(modifier = Modifier.width(8.dp))
+                        Text(
+                            text = if (isRetryingTryOn) "Processing..." else "Retry Try-On",
+                            style = MaterialTheme.typography.titleSmall,
+                            fontWeight = FontWeight.SemiBold
+                        )
+                    }
+                } else {
+                    Button(
+                        onClick = onShare,
+                        modifier = Modifier.weight(1f),
+                        enabled = resultPhotoUrl != null && !isDownloading,
+                        shape = RoundedCornerShape(12.dp),
+                        colors = ButtonDefaults.buttonColors(
+                            containerColor = MaterialTheme.colorScheme.primary
+                        )
+                    ) {
+                        Icon(
+                            imageVector = Icons.Default.Share,
+                            contentDescription = null,
+                            modifier = Modifier.size(18.dp)
+                        )
+                        Spacer(modifier = Modifier.width(8.dp))
+                        Text(
+                            text = "Share",
+                            style = MaterialTheme.typography.titleSmall,
+                            fontWeight = FontWeight.SemiBold
+                        )
+                    }
                 }
             }
 
@@ -101,7 +142,8 @@ fun ResultActionsCard(
                 modifier = Modifier.fillMaxWidth(),
                 horizontalArrangement = Arrangement.spacedBy(12.dp)
             ) {
-                if (isDownloading || resultPhotoUri == null) {
+                val canRetryDownload = tryOnStatus == TryOnHistoryStatus.COMPLETED && !isRetryingTryOn
+                if (canRetryDownload && (isDownloading || resultPhotoUrl == null)) {
                     OutlinedButton(
                         onClick = onRetryDownload,
                         modifier = Modifier.weight(1f),
@@ -151,11 +193,12 @@ fun ResultActionsCard(
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun ShareDialog(
-    resultPhotoUri: Uri?,
+    isPreparing: Boolean,
+    onShare: (ShareSize) -> Unit,
     onDismiss: () -> Unit,
     modifier: Modifier = Modifier,
 ) {
-    val context = LocalContext.current
+    var selectedSize by remember { mutableStateOf(ShareSize.SOCIAL) }
 
     BasicAlertDialog(
         onDismissRequest = onDismiss,
@@ -204,6 +247,17 @@ fun ShareDialog(
                         textAlign = TextAlign.Center
                     )
 
+                    Spacer(modifier = Modifier.height(16.dp))
+
+                    ShareSize.entries.forEach { size ->
+                        ShareSizeOption(
+                            shareSize = size,
+                            isSelected = selectedSize == size,
+                            enabled = !isPreparing,
+                            onSelected = { selectedSize = size }
+                        )
+                    }
+
                     Spacer(modifier = Modifier.height(24.dp))
 
                     Row(
@@ -223,38 +277,27 @@ fun ShareDialog(
                         }
 
                         Button(
-                            onClick = {
-                                resultPhotoUri?.let { uri ->
-                                    val shareIntent = Intent().apply {
-                                        action = Intent.ACTION_SEND
-                                        type = "image/*"
-                                        putExtra(Intent.EXTRA_STREAM, uri)
-                                        putExtra(
-                                            Intent.EXTRA_TEXT,
-                                            "Check out my virtual try-on result from WearNOW! 👗✨"
-                                        )
-                                    }
-                                    context.startActivity(
-                                        Intent.createChooser(
-                                            shareIntent,
-                                            "Share via"
-                                        )
-                                    )
-                                }
-                                onDismiss()
-                            },
+                            onClick = { onShare(selectedSize) },
                             modifier = Modifier.weight(1f),
+                            enabled = !isPreparing,
                             shape = RoundedCornerShape(12.dp),
                             colors = ButtonDefaults.buttonColors(
                                 containerColor = MaterialTheme.colorScheme.primary
                             )
                         ) {
-                            Text(
-                                text = "Share",
-                                style = MaterialTheme.typography.titleSmall,
-                                fontWeight = FontWeight.SemiBold,
-                                modifier = Modifier.padding(vertical = 4.dp)
-                            )
+                            if (isPreparing) {
+                                CircularProgressIndicator(
+                                    modifier = Modifier.size(18.dp),
+                                    strokeWidth = 2.dp
+                                )
+                            } else {
+                                Text(
+                                    text = "Share",
+                                    style = MaterialTheme.typography.titleSmall,
+                                    fontWeight = FontWeight.SemiBold,
+                                    modifier = Modifier.padding(vertical = 4.dp)
+                                )
+                            }
                         }
                     }
                 }
@@ -262,6 +305,46 @@ fun ShareDialog(
         })
 }
 
+@Composable
+private fun ShareSizeOption(
+    shareSize: ShareSize,
+    isSelected: Boolean,
+    enabled: Boolean,
+    onSelected: () -> Unit,
+    modifier: Modifier = Modifier,
+) {
+    Row(
+        modifier = modifier
+            .fillMaxWidth()
+            .clickable(enabled = enabled) { onSelected() }
+            .padding(vertical = 4.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        RadioButton(
+            selected = isSelected,
+            onClick = onSelected,
+            enabled = enabled
+        )
+
+        Spacer(modifier = Modifier.width(8.dp))
+
+        Column {
+            Text(
+                text = shareSize.displayName,
+                style = MaterialTheme.typography.titleSmall,
+                fontWeight = FontWeight.Medium,
+                color = MaterialTheme.colorScheme.onSurface
+            )
+
+            Text(
+                text = shareSize.description,
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant.copy(alpha = 0.7f)
+            )
+        }
+    }
+}
+
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun DeleteConfirmationDialog(
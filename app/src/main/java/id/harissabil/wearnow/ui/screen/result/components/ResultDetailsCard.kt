@@ -22,12 +22,17 @@ import androidx.compose.material3.Icon
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.remember
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import com.amplifyframework.datastore.generated.model.TryOnHistory
+import id.harissabil.wearnow.data.TryOnRetryService
+import id.harissabil.wearnow.data.typedMetadata
+import id.harissabil.wearnow.ui.screen.home.GarmentClass
+import id.harissabil.wearnow.ui.screen.home.MergeStyle
 import java.text.SimpleDateFormat
 import java.util.Locale
 
@@ -65,13 +70,16 @@ fun ResultDetailsCard(
 
             Spacer(modifier = Modifier.height(16.dp))
 
-            // Metadata if available
-            tryOnHistory.metadata?.let { metadata ->
-                // Parse metadata JSON to extract garment class and merge style
-                // For now, we'll show placeholder values
+            // Metadata if available, the options a try-on ran with when none were saved
+            val metadata = remember(tryOnHistory) { tryOnHistory.typedMetadata }
+            if (tryOnHistory.metadata != null) {
+                val garmentClass = metadata.garmentClass ?: TryOnRetryService.DEFAULT_GARMENT_CLASS
+                val mergeStyle = metadata.mergeStyle ?: TryOnRetryService.DEFAULT_MERGE_STYLE
                 MetadataRow(
-                    garmentClass = "Upper Body", // Extract from metadata
-                    mergeStyle = "Balanced"      // Extract from metadata
+                    garmentClass = GarmentClass.entries.firstOrNull { it.name == garmentClass }?.displayName
+                        ?: garmentClass,
+                    mergeStyle = MergeStyle.entries.firstOrNull { it.name == mergeStyle }?.displayName
+                        ?: mergeStyle
                 )
 
                 Spacer(modifier = Modifier.height(16.dp))
@@ -80,7 +88,8 @@ fun ResultDetailsCard(
             // Processing time
             ProcessingTimeRow(
                 createdAt = tryOnHistory.createdAt,
-                completedAt = tryOnHistory.completedAt
+                completedAt = tryOnHistory.completedAt,
+                processingTimeMs = metadata.processingTimeMs
             )
 
             // Error message if failed
@@ -213,6 +222,7 @@ private fun MetadataRow(
 private fun ProcessingTimeRow(
     createdAt: com.amplifyframework.core.model.temporal.Temporal.DateTime?,
     completedAt: com.amplifyframework.core.model.temporal.Temporal.DateTime?,
+    processingTimeMs: Long?,
     modifier: Modifier = Modifier
 ) {
     Row(
@@ -235,19 +245,17 @@ private fun ProcessingTimeRow(
                 color = MaterialTheme.colorScheme.onSurfaceVariant
             )
 
-            val timeText = if (createdAt != null && completedAt != null) {
+            // The time the Lambda measured, when it recorded one, over the record timestamps
+            val timeText = if (processingTimeMs != null) {
+                formatDuration(processingTimeMs / 1000)
+            } else if (createdAt != null && completedAt != null) {
                 try {
                     val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault())
                     val startTime = dateFormat.parse(createdAt.format())
                     val endTime = dateFormat.parse(completedAt.format())
 
                     if (startTime != null && endTime != null) {
-                        val durationSeconds = (endTime.time - startTime.time) / 1000
-                        when {
-                            durationSeconds < 60 -> "${durationSeconds}s"
-                            durationSeconds < 3600 -> "${durationSeconds / 60}m ${durationSeconds % 60}s"
-                            else -> "${durationSeconds / 3600}h ${(durationSeconds % 3600) / 60}m"
-                        }
+                        formatDuration((endTime.time - startTime.time) / 1000)
                     } else {
                         "Processing duration unknown"
                     }
@@ -281,6 +289,12 @@ private fun ProcessingTimeRow(
     }
 }
 
+private fun formatDuration(durationSeconds: Long): String = when {
+    durationSeconds < 60 -> "${durationSeconds}s"
+    durationSeconds < 3600 -> "${durationSeconds / 60}m ${durationSeconds % 60}s"
+    else -> "${durationSeconds / 3600}h ${(durationSeconds % 3600) / 60}m"
+}
+
 @Composable
 private fun ErrorMessageCard(
     errorMessage: String,
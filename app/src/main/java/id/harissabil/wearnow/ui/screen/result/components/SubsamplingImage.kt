@@ -0,0 +1,352 @@
+package id.harissabil.wearnow.ui.screen.result.components
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Rect
+import android.os.Build
+import android.util.Log
+import androidx.compose.foundation.Canvas
+import androidx.compose.foundation.layout.fillMaxSize
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableIntStateOf
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.draw.clipToBounds
+import androidx.compose.ui.geometry.Offset
+import androidx.compose.ui.graphics.asImageBitmap
+import androidx.compose.ui.graphics.drawscope.DrawScope
+import androidx.compose.ui.layout.onSizeChanged
+import androidx.compose.ui.semantics.contentDescription
+import androidx.compose.ui.semantics.semantics
+import androidx.compose.ui.unit.IntOffset
+import androidx.compose.ui.unit.IntSize
+import id.harissabil.wearnow.ui.screen.result.utils.TileCache
+import id.harissabil.wearnow.ui.screen.result.utils.TileKey
+import id.harissabil.wearnow.ui.screen.result.utils.ZoomRenderMetrics
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.concurrent.Executors
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * Renders [file] at [scale] and [offset] (same semantics as graphicsLayer on a
+ * ContentScale.Crop image) by decoding only the visible tiles at the resolution the
+ * current zoom needs. A downsampled base image covers the view while tiles load.
+ *
+ * [onReady] is called once the base image can be drawn, with the zoom at which one image
+ * pixel maps to one screen pixel.
+ */
+@Composable
+fun SubsamplingImage(
+    file: File,
+    scale: Float,
+    offset: Offset,
+    contentDescription: String?,
+    modifier: Modifier = Modifier,
+    onReady: (fullResolutionScale: Float) -> Unit = {},
+) {
+    val state = remember(file) { SubsamplingState(file) }
+    var viewSize by remember { mutableStateOf(IntSize.Zero) }
+
+    DisposableEffect(state) {
+        onDispose { state.close() }
+    }
+
+    LaunchedEffect(state, viewSize) {
+        if (viewSize != IntSize.Zero && state.open(viewSize)) {
+            onReady(state.fullResolutionScale(viewSize))
+        }
+    }
+
+    LaunchedEffect(state, viewSize, scale, offset) {
+        state.updateViewport(viewSize, scale, offset)
+    }
+
+    Canvas(
+        modifier = modifier
+            .fillMaxSize()
+            .clipToBounds()
+            .onSizeChanged { viewSize = it }
+            .semantics { contentDescription?.let { this.contentDescription = it } }
+    ) {
+        state.draw(this, scale, offset)
+    }
+}
+
+private class SubsamplingState(private val file: File) {
+
+    private val tileCache = TileCache(TileCache.defaultMaxBytes())
+    private val metrics = ZoomRenderMetrics()
+
+    // BitmapRegionDecoder serializes decodes internally, one thread avoids queuing on its lock
+    private val decodeExecutor = Executors.newSingleThreadExecutor()
+    private val decodeDispatcher = decodeExecutor.asCoroutineDispatcher()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main.immediate)
+
+    private var decoder: BitmapRegionDecoder? = null
+    private var imageWidth = 0
+    private var imageHeight = 0
+    private var baseSampleSize = 1
+    private var base by mutableStateOf<Bitmap?>(null)
+
+    // Bumped when a tile lands so the Canvas redraws
+    private var tileVersion by mutableIntStateOf(0)
+
+    private val inFlight = mutableSetOf<TileKey>()
+
+    // Tiles decoded but not yet taken by the main thread. close() recycles those left on the
+    // decode thread, a cancelled coroutine never receives them.
+    private val undelivered = mutableSetOf<Bitmap>()
+
+    @Volatile
+    private var closed = false
+
+    private var visibleTiles = emptySet<TileKey>()
+    private var lastViewport: Triple<IntSize, Float, Offset>? = null
+
+    /**
+     * Open the decoder and decode the base image. Returns true once the image can be drawn.
+     */
+    suspend fun open(viewSize: IntSize): Boolean {
+        if (base != null) return true
+
+        val opened = withContext(decodeDispatcher) {
+            try {
+                val regionDecoder = newDecoder(file.absolutePath)
+                val width = regionDecoder.width
+                val height = regionDecoder.height
+                val sampleSize = sampleSizeFor(baseScale(viewSize, width, height))
+                val startedAt = System.nanoTime()
+                val bitmap = BitmapFactory.decodeFile(
+                    file.absolutePath,
+                    BitmapFactory.Options().apply { inSampleSize = sampleSize }
+                )
+                metrics.recordTileDecode(System.nanoTime() - startedAt)
+                if (bitmap == null) {
+                    regionDecoder.recycle()
+                    null
+                } else {
+                    Opened(regionDecoder, width, height, sampleSize, bitmap)
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to open ${file.name} for region decoding", e)
+                null
+            }
+        } ?: return false
+
+        decoder = opened.decoder
+        imageWidth = opened.width
+        imageHeight = opened.height
+        baseSampleSize = opened.sampleSize
+        base = opened.base
+        Log.d(TAG, "Opened ${imageWidth}x$imageHeight image, base sample size $baseSampleSize")
+
+        lastViewport?.let { (size, scale, offset) -> updateViewport(size, scale, offset) }
+        return true
+    }
+
+    /**
+     * Work out which tiles the viewport needs, drop the rest and decode what is missing
+     */
+    fun updateViewport(viewSize: IntSize, scale: Float, offset: Offset) {
+        lastViewport = Triple(viewSize, scale, offset)
+        val regionDecoder = decoder ?: return
+        if (viewSize == IntSize.Zero) return
+
+        val displayScale = baseScale(viewSize, imageWidth, imageHeight) * scale
+        val sampleSize = sampleSizeFor(displayScale)
+
+        visibleTiles = if (sampleSize < baseSampleSize) {
+            visibleTileKeys(viewSize, displayScale, offset, sampleSize)
+        } else {
+            emptySet()
+        }
+        tileCache.retainOnly(visibleTiles)
+
+        for (key in visibleTiles) {
+            if (key in tileCache || !inFlight.add(key)) continue
+            scope.launch {
+                val bitmap = withContext(decodeDispatcher) {
+                    if (closed) return@withContext null
+                    decodeTile(regionDecoder, key)?.also { synchronized(undelivered) { undelivered.add(it) } }
+                }
+                bitmap?.let { synchronized(undelivered) { undelivered.remove(it) } }
+                inFlight.remove(key)
+                when {
+                    bitmap == null -> Unit
+                    key in visibleTiles -> {
+                        tileCache.put(key, bitmap)
+                        metrics.recordMemory(tileCache.sizeBytes.toLong() + baseBytes())
+                        tileVersion++
+                    }
+
+                    else -> bitmap.recycle()
+                }
+            }
+        }
+    }
+
+    fun fullResolutionScale(viewSize: IntSize): Float =
+        1f / baseScale(viewSize, imageWidth, imageHeight)
+
+    fun draw(drawScope: DrawScope, scale: Float, offset: Offset) = with(drawScope) {
+        val baseBitmap = base ?: return@with
+        // Read so tile arrivals invalidate this draw
+        tileVersion
+
+        val startedAt = System.nanoTime()
+        val viewSize = IntSize(size.width.roundToInt(), size.height.roundToInt())
+        val displayScale = baseScale(viewSize, imageWidth, imageHeight) * scale
+        val left = size.width / 2f + offset.x - imageWidth * displayScale / 2f
+        val top = size.height / 2f + offset.y - imageHeight * displayScale / 2f
+
+        drawImage(
+            image = baseBitmap.asImageBitmap(),
+            dstOffset = IntOffset(left.roundToInt(), top.roundToInt()),
+            dstSize = IntSize(
+                (left + imageWidth * displayScale).roundToInt() - left.roundToInt(),
+                (top + imageHeight * displayScale).roundToInt() - top.roundToInt()
+            )
+        )
+
+        for (key in visibleTiles) {
+            val tile = tileCache[key] ?: continue
+            val rect = key.sourceRect(TILE_SIZE, imageWidth, imageHeight)
+            // Round both edges so neighbouring tiles meet without seams
+            val dstLeft = (left + rect.left * displayScale).roundToInt()
+            val dstTop = (top + rect.top * displayScale).roundToInt()
+            val dstRight = (left + rect.right * displayScale).roundToInt()
+            val dstBottom = (top + rect.bottom * displayScale).roundToInt()
+            drawImage(
+                image = tile.asImageBitmap(),
+                dstOffset = IntOffset(dstLeft, dstTop),
+                dstSize = IntSize(dstRight - dstLeft, dstBottom - dstTop)
+            )
+        }
+
+        metrics.recordFrame(System.nanoTime() - startedAt)
+    }
+
+    fun close() {
+        Log.i(TAG, "Zoom session for ${file.name}: ${metrics.summary()}")
+        closed = true
+        scope.cancel()
+        tileCache.clear()
+        visibleTiles = emptySet()
+        base?.recycle()
+        base = null
+        // Let queued decodes finish before releasing their tiles and the native decoder
+        val regionDecoder = decoder
+        decoder = null
+        decodeExecutor.execute {
+            synchronized(undelivered) {
+                undelivered.forEach { it.recycle() }
+                undelivered.clear()
+            }
+            regionDecoder?.recycle()
+        }
+        decodeExecutor.shutdown()
+    }
+
+    private fun visibleTileKeys(
+        viewSize: IntSize,
+        displayScale: Float,
+        offset: Offset,
+        sampleSize: Int,
+    ): Set<TileKey> {
+        val left = viewSize.width / 2f + offset.x - imageWidth * displayScale / 2f
+        val top = viewSize.height / 2f + offset.y - imageHeight * displayScale / 2f
+
+        // Visible region in source image coordinates
+        val sourceLeft = ((0f - left) / displayScale).coerceIn(0f, imageWidth.toFloat())
+        val sourceTop = ((0f - top) / displayScale).coerceIn(0f, imageHeight.toFloat())
+        val sourceRight = ((viewSize.width - left) / displayScale).coerceIn(0f, imageWidth.toFloat())
+        val sourceBottom = ((viewSize.height - top) / displayScale).coerceIn(0f, imageHeight.toFloat())
+        if (sourceRight <= sourceLeft || sourceBottom <= sourceTop) return emptySet()
+
+        val span = (TILE_SIZE * sampleSize).toFloat()
+        val firstColumn = floor(sourceLeft / span).toInt()
+        val lastColumn = floor((sourceRight - 1f) / span).toInt()
+        val firstRow = floor(sourceTop / span).toInt()
+        val lastRow = floor((sourceBottom - 1f) / span).toInt()
+
+        val keys = mutableSetOf<TileKey>()
+        for (row in firstRow..lastRow) {
+            for (column in firstColumn..lastColumn) {
+                keys.add(TileKey(sampleSize, column, row))
+            }
+        }
+        return keys
+    }
+
+    private fun decodeTile(regionDecoder: BitmapRegionDecoder, key: TileKey): Bitmap? {
+        return try {
+            val startedAt = System.nanoTime()
+            val rect: Rect = key.sourceRect(TILE_SIZE, imageWidth, imageHeight)
+            val bitmap = regionDecoder.decodeRegion(
+                rect,
+                BitmapFactory.Options().apply { inSampleSize = key.sampleSize }
+            )
+            metrics.recordTileDecode(System.nanoTime() - startedAt)
+            bitmap
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to decode tile $key", e)
+            null
+        }
+    }
+
+    private fun baseBytes(): Long = base?.byteCount?.toLong() ?: 0L
+
+    private class Opened(
+        val decoder: BitmapRegionDecoder,
+        val width: Int,
+        val height: Int,
+        val sampleSize: Int,
+        val base: Bitmap,
+    )
+
+    companion object {
+        private const val TAG = "SubsamplingImage"
+        private const val TILE_SIZE = 512
+
+        private fun newDecoder(path: String): BitmapRegionDecoder =
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                BitmapRegionDecoder.newInstance(path)
+            } else {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(path, false)
+            } ?: throw IllegalStateException("Unsupported image format")
+
+        /**
+         * Scale at which the image fills the view (ContentScale.Crop)
+         */
+        private fun baseScale(viewSize: IntSize, width: Int, height: Int): Float =
+            max(viewSize.width.toFloat() / width, viewSize.height.toFloat() / height)
+
+        /**
+         * Largest power of two sample size that still has at least one source pixel per
+         * screen pixel at [displayScale]
+         */
+        private fun sampleSizeFor(displayScale: Float): Int {
+            var sampleSize = 1
+            while (sampleSize * 2 <= 1f / displayScale) {
+                sampleSize *= 2
+            }
+            return sampleSize
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import androidx.core.content.FileProvider
+import androidx.core.graphics.scale
+import id.harissabil.wearnow.utils.LocalImageCache
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+enum class ShareSize(val displayName: String, val description: String, val maxDimension: Int?) {
+    ORIGINAL("Original", "Full resolution image", null),
+    SOCIAL("Social", "Smaller file, 1080px for social apps", 1080)
+}
+
+data class SharedImage(
+    val uri: Uri,
+    val mimeType: String,
+)
+
+/**
+ * Turns a remote try-on result into a content:// URI other apps can read.
+ *
+ * The image comes from [LocalImageCache] (downloaded at most once) and is written to
+ * cacheDir/shared, which FileProvider exposes. Exports are reused while they are newer than
+ * the cached source, so sharing an image that was already viewed needs no network or work.
+ */
+object ResultShareExporter {
+
+    private const val TAG = "ResultShareExporter"
+    private const val SHARE_DIR = "shared"
+    private const val SOCIAL_JPEG_QUALITY = 85
+    private const val MAX_EXPORT_AGE_MS = 24L * 60 * 60 * 1000
+
+    suspend fun export(
+        context: Context,
+        remoteUrl: String,
+        historyId: String,
+        size: ShareSize,
+    ): SharedImage = withContext(Dispatchers.IO) {
+        val startedAt = SystemClock.elapsedRealtime()
+        val (target, mimeType) = prepare(context, remoteUrl, historyId, size)
+        Log.d(TAG, "Prepared ${size.name} share in ${SystemClock.elapsedRealtime() - startedAt}ms")
+
+        SharedImage(
+            uri = FileProvider.getUriForFile(context, "${context.packageName}.provider", target),
+            mimeType = mimeType
+        )
+    }
+
+    /**
+     * Write the [size] export of [remoteUrl], or reuse the one already written from the same
+     * cached source, and return it with its MIME type
+     */
+    @VisibleForTesting
+    internal suspend fun prepare(
+        context: Context,
+        remoteUrl: String,
+        historyId: String,
+        size: ShareSize,
+    ): Pair<File, String> {
+        val source = LocalImageCache.fetch(context, remoteUrl)
+        val sourceMimeType = BitmapFactory.Options()
+            .apply { inJustDecodeBounds = true }
+            .also { BitmapFactory.decodeFile(source.absolutePath, it) }
+            .outMimeType ?: "image/jpeg"
+
+        val mimeType = if (size == ShareSize.ORIGINAL) sourceMimeType else "image/jpeg"
+        val extension = if (mimeType == "image/png") "png" else "jpg"
+        val target = File(shareDir(context), "wearnow_${historyId}_${size.name.lowercase()}.$extension")
+
+        if (!target.exists() || target.length() == 0L || target.lastModified() < source.lastModified()) {
+            when (size.maxDimension) {
+                null -> source.copyTo(target, overwrite = true)
+                else -> writeResized(source, target, size.maxDimension)
+            }
+        }
+
+        trimExports(context, keep = target)
+        return target to mimeType
+    }
+
+    /**
+     * Delete every export made for [historyId]
+     */
+    fun remove(context: Context, historyId: String) {
+        shareDir(context).listFiles()
+            ?.filter { it.name.startsWith("wearnow_${historyId}_") }
+            ?.forEach { it.delete() }
+    }
+
+    private fun writeResized(source: File, target: File, maxDimension: Int) {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(source.absolutePath, bounds)
+
+        // Subsample while decoding, then scale the remainder exactly
+        var sampleSize = 1
+        while (max(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2
+        }
+        val decoded = BitmapFactory.decodeFile(
+            source.absolutePath,
+            BitmapFactory.Options().apply { inSampleSize = sampleSize }
+        ) ?: throw IllegalStateException("Failed to decode result image")
+
+        val ratio = maxDimension.toFloat() / max(decoded.width, decoded.height)
+        val resized = if (ratio < 1f) {
+            decoded.scale((decoded.width * ratio).roundToInt(), (decoded.height * ratio).roundToInt())
+        } else {
+            decoded
+        }
+
+        val partial = File(target.parentFile, "${target.name}.part")
+        partial.outputStream().use { output ->
+            resized.compress(Bitmap.CompressFormat.JPEG, SOCIAL_JPEG_QUALITY, output)
+        }
+        if (resized !== decoded) resized.recycle()
+        decoded.recycle()
+
+        if (!partial.renameTo(target)) {
+            partial.delete()
+            throw IllegalStateException("Failed to write shared image")
+        }
+    }
+
+    private fun shareDir(context: Context): File =
+        File(context.cacheDir, SHARE_DIR).apply { if (!exists()) mkdirs() }
+
+    private fun trimExports(context: Context, keep: File) {
+        val cutoff = System.currentTimeMillis() - MAX_EXPORT_AGE_MS
+        shareDir(context).listFiles()
+            ?.filter { it != keep && it.lastModified() < cutoff }
+            ?.forEach { it.delete() }
+    }
+}
@@ -0,0 +1,78 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.util.LruCache
+
+/**
+ * Identifies a decoded tile: the sample size it was decoded at and its grid position
+ */
+data class TileKey(
+    val sampleSize: Int,
+    val column: Int,
+    val row: Int,
+) {
+    /**
+     * Region of the source image covered by this tile, clipped to the image bounds
+     */
+    fun sourceRect(tileSize: Int, imageWidth: Int, imageHeight: Int): Rect {
+        val span = tileSize * sampleSize
+        return Rect(
+            column * span,
+            row * span,
+            minOf((column + 1) * span, imageWidth),
+            minOf((row + 1) * span, imageHeight)
+        )
+    }
+}
+
+/**
+ * LRU of decoded tiles bounded by bitmap bytes. Bitmaps are recycled as soon as they
+ * leave the cache, whether evicted for space or dropped because they went off-screen.
+ */
+class TileCache(maxBytes: Int) {
+
+    private val cache = object : LruCache<TileKey, Bitmap>(maxBytes) {
+        override fun sizeOf(key: TileKey, value: Bitmap): Int = value.byteCount
+
+        override fun entryRemoved(
+            evicted: Boolean,
+            key: TileKey,
+            oldValue: Bitmap,
+            newValue: Bitmap?,
+        ) {
+            if (oldValue !== newValue) oldValue.recycle()
+        }
+    }
+
+    val sizeBytes: Int get() = cache.size()
+
+    operator fun get(key: TileKey): Bitmap? = cache.get(key)?.takeUnless { it.isRecycled }
+
+    fun put(key: TileKey, bitmap: Bitmap) {
+        cache.put(key, bitmap)
+    }
+
+    operator fun contains(key: TileKey): Boolean = cache.get(key) != null
+
+    /**
+     * Drop (and recycle) every tile not in [keys]
+     */
+    fun retainOnly(keys: Set<TileKey>) {
+        cache.snapshot().keys
+            .filter { it !in keys }
+            .forEach { cache.remove(it) }
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    companion object {
+        /**
+         * Default budget: an eighth of the heap, capped at 48MB
+         */
+        fun defaultMaxBytes(): Int =
+            minOf(Runtime.getRuntime().maxMemory() / 8, 48L * 1024 * 1024).toInt()
+    }
+}
@@ -0,0 +1,55 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+/**
+ * Frame-time and memory harness for the deep zoom viewer.
+ *
+ * Records how long each draw pass takes, how long tiles take to decode and how many bytes
+ * of bitmaps the viewer holds, so zoom changes can be compared with a logged [summary].
+ */
+class ZoomRenderMetrics(private val capacity: Int = 512) {
+
+    private val frameNanos = LongArray(capacity)
+    private var frameCount = 0
+    private var decodeNanosTotal = 0L
+    private var decodedTiles = 0
+    private var peakBytes = 0L
+
+    @Synchronized
+    fun recordFrame(durationNanos: Long) {
+        frameNanos[frameCount % capacity] = durationNanos
+        frameCount++
+    }
+
+    @Synchronized
+    fun recordTileDecode(durationNanos: Long) {
+        decodeNanosTotal += durationNanos
+        decodedTiles++
+    }
+
+    @Synchronized
+    fun recordMemory(bytes: Long) {
+        if (bytes > peakBytes) peakBytes = bytes
+    }
+
+    /**
+     * Draw time at [percentile] (0..100) over the recorded window, in milliseconds
+     */
+    @Synchronized
+    fun frameTimeMs(percentile: Int): Double {
+        val count = minOf(frameCount, capacity)
+        if (count == 0) return 0.0
+        val sorted = frameNanos.copyOf(count).apply { sort() }
+        val index = ((percentile / 100.0) * (count - 1)).toInt()
+        return sorted[index] / 1_000_000.0
+    }
+
+    @Synchronized
+    fun summary(): String {
+        val averageDecodeMs = if (decodedTiles == 0) 0.0 else decodeNanosTotal / decodedTiles / 1_000_000.0
+        return "frames=$frameCount " +
+                "draw_p50=${"%.2f".format(frameTimeMs(50))}ms " +
+                "draw_p95=${"%.2f".format(frameTimeMs(95))}ms " +
+                "tiles=$decodedTiles avg_decode=${"%.1f".format(averageDecodeMs)}ms " +
+                "peak_bitmaps=${peakBytes / 1024}KB"
+    }
+}
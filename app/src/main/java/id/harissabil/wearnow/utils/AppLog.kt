@@ -0,0 +1,113 @@
+package id.harissabil.wearnow.utils
+
+/**
+ * Destination of [AppLog] output
+ */
+fun interface LogSink {
+    fun write(level: Int, tag: String, message: String, error: Throwable?)
+
+    companion object {
+        val NONE = LogSink { _, _, _, _ -> }
+    }
+}
+
+/**
+ * Key/value event for [AppLog.event], rendered as `name key=value key=value`.
+ *
+ * One instance per thread is reused, so an event allocates only its rendered string.
+ */
+class LogEvent private constructor() {
+
+    private val builder = StringBuilder(64)
+
+    fun field(key: String, value: Long): LogEvent = apply {
+        builder.append(' ').append(key).append('=').append(value)
+    }
+
+    fun field(key: String, value: Int): LogEvent = field(key, value.toLong())
+
+    fun field(key: String, value: Boolean): LogEvent = apply {
+        builder.append(' ').append(key).append('=').append(value)
+    }
+
+    fun field(key: String, value: String?): LogEvent = apply {
+        builder.append(' ').append(key).append('=').append(value)
+    }
+
+    override fun toString(): String = builder.toString()
+
+    companion object {
+        private val current = ThreadLocal.withInitial { LogEvent() }
+
+        @PublishedApi
+        internal fun start(name: String): LogEvent = current.get()!!.apply {
+            builder.setLength(0)
+            builder.append(name)
+        }
+    }
+}
+
+/**
+ * Logger for hot paths.
+ *
+ * Every call is inline: the level check is one int comparison at the call site and the
+ * message lambda is inlined behind it, so a disabled call builds no string and allocates
+ * nothing. Release builds install the sink at [WARN], which leaves debug and info calls as
+ * dead branches.
+ */
+object AppLog {
+
+    // Same values as android.util.Log
+    const val DEBUG = 3
+    const val INFO = 4
+    const val WARN = 5
+    const val ERROR = 6
+
+    @PublishedApi
+    @JvmField
+    internal var minLevel: Int = WARN
+
+    @PublishedApi
+    @JvmField
+    internal var sink: LogSink = LogSink.NONE
+
+    fun install(sink: LogSink, minLevel: Int) {
+        this.sink = sink
+        this.minLevel = minLevel
+    }
+
+    fun isLoggable(level: Int): Boolean = level >= minLevel
+
+    inline fun d(tag: String, message: () -> String) {
+        if (DEBUG >= minLevel) sink.write(DEBUG, tag, message(), null)
+    }
+
+    inline fun i(tag: String, message: () -> String) {
+        if (INFO >= minLevel) sink.write(INFO, tag, message(), null)
+    }
+
+    inline fun w(tag: String, error: Throwable? = null, message: () -> String) {
+        if (WARN >= minLevel) sink.write(WARN, tag, message(), error)
+    }
+
+    inline fun e(tag: String, error: Throwable? = null, message: () -> String) {
+        if (ERROR >= minLevel) sink.write(ERROR, tag, message(), error)
+    }
+
+    /**
+     * Log a structured event named [name] with the fields added by [fields]
+     */
+    inline fun event(tag: String, name: String, level: Int = DEBUG, fields: LogEvent.() -> Unit) {
+        if (level >= minLevel) sink.write(level, tag, LogEvent.start(name).apply(fields).toString(), null)
+    }
+
+    /**
+     * [url] without its query and fragment. Presigned URLs carry their credentials in the
+     * query, so they are never logged whole.
+     */
+    fun redactUrl(url: String?): String? {
+        if (url == null) return null
+        val end = url.indexOfAny(charArrayOf('?', '#'))
+        return if (end < 0) url else url.substring(0, end) + "?<redacted>"
+    }
+}
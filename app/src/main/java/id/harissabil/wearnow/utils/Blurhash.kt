@@ -0,0 +1,200 @@
+package id.harissabil.wearnow.utils
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.pow
+import kotlin.math.roundToInt
+import kotlin.math.sign
+import kotlin.math.withSign
+
+/**
+ * [BlurHash](https://blurha.sh) encoding of small images into ~30 character placeholders.
+ *
+ * Pixels are packed ARGB ints, as returned by `Bitmap.getPixels`, alpha is ignored.
+ */
+object Blurhash {
+
+    const val DEFAULT_COMPONENTS_X = 4
+    const val DEFAULT_COMPONENTS_Y = 3
+
+    private const val CHARACTERS =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~"
+
+    // sRGB to linear lookup, decoding runs it once per channel per component
+    private val SRGB_TO_LINEAR = DoubleArray(256) { srgbToLinear(it) }
+
+    // Linear to sRGB for decoding, a pow() per channel per pixel would dominate its cost.
+    // The quantisation error stays under one 8-bit step.
+    private const val LINEAR_STEPS = 4096
+    private val LINEAR_TO_SRGB = IntArray(LINEAR_STEPS + 1) { linearToSrgb(it.toDouble() / LINEAR_STEPS) }
+
+    /**
+     * Encode a [width]x[height] image with [componentsX]x[componentsY] cosine components.
+     * Encoding reads every pixel once per component, so pass a downscaled image (~32px).
+     */
+    fun encode(
+        pixels: IntArray,
+        width: Int,
+        height: Int,
+        componentsX: Int = DEFAULT_COMPONENTS_X,
+        componentsY: Int = DEFAULT_COMPONENTS_Y,
+    ): String {
+        require(componentsX in 1..9 && componentsY in 1..9) { "Components must be within 1..9" }
+        require(pixels.size >= width * height) { "Expected ${width * height} pixels" }
+
+        val factors = Array(componentsX * componentsY) { DoubleArray(3) }
+        for (j in 0 until componentsY) {
+            for (i in 0 until componentsX) {
+                val normalisation = if (i == 0 && j == 0) 1.0 else 2.0
+                val factor = factors[j * componentsX + i]
+                for (y in 0 until height) {
+                    val basisY = cos(PI * j * y / height)
+                    for (x in 0 until width) {
+                        val basis = normalisation * cos(PI * i * x / width) * basisY
+                        val pixel = pixels[y * width + x]
+                        factor[0] += basis * SRGB_TO_LINEAR[(pixel shr 16) and 0xFF]
+                        factor[1] += basis * SRGB_TO_LINEAR[(pixel shr 8) and 0xFF]
+                        factor[2] += basis * SRGB_TO_LINEAR[pixel and 0xFF]
+                    }
+                }
+                val scale = 1.0 / (width * height)
+                for (c in 0..2) factor[c] *= scale
+            }
+        }
+
+        val hash = StringBuilder()
+        hash.appendBase83((componentsX - 1) + (componentsY - 1) * 9, 1)
+
+        val maximumValue: Double
+        if (factors.size > 1) {
+            val actualMaximum = (1 until factors.size).maxOf { index -> factors[index].maxOf { abs(it) } }
+            val quantised = (actualMaximum * 166 - 0.5).toInt().coerceIn(0, 82)
+            maximumValue = (quantised + 1) / 166.0
+            hash.appendBase83(quantised, 1)
+        } else {
+            maximumValue = 1.0
+            hash.appendBase83(0, 1)
+        }
+
+        hash.appendBase83(encodeDc(factors[0]), 4)
+        for (index in 1 until factors.size) {
+            hash.appendBase83(encodeAc(factors[index], maximumValue), 2)
+        }
+        return hash.toString()
+    }
+
+    /**
+     * Decode [hash] into [width]x[height] opaque ARGB pixels. [punch] scales the contrast.
+     * Cost grows with width x height x components, decode small and let the view scale.
+     */
+    fun decode(hash: String, width: Int, height: Int, punch: Double = 1.0): IntArray {
+        require(isValid(hash)) { "Invalid blurhash" }
+
+        val sizeFlag = decodeBase83(hash, 0, 1)
+        val componentsX = sizeFlag % 9 + 1
+        val componentsY = sizeFlag / 9 + 1
+        val maximumValue = (decodeBase83(hash, 1, 2) + 1) / 166.0 * punch
+
+        val colors = Array(componentsX * componentsY) { index ->
+            if (index == 0) {
+                decodeDc(decodeBase83(hash, 2, 6))
+            } else {
+                decodeAc(decodeBase83(hash, 4 + index * 2, 6 + index * 2), maximumValue)
+            }
+        }
+
+        // Basis values depend on one coordinate only, computed once per row and column
+        val basisX = Array(componentsX) { i -> DoubleArray(width) { x -> cos(PI * x * i / width) } }
+        val basisY = Array(componentsY) { j -> DoubleArray(height) { y -> cos(PI * y * j / height) } }
+
+        val pixels = IntArray(width * height)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                var r = 0.0
+                var g = 0.0
+                var b = 0.0
+                for (j in 0 until componentsY) {
+                    val by = basisY[j][y]
+                    for (i in 0 until componentsX) {
+                        val basis = basisX[i][x] * by
+                        val color = colors[j * componentsX + i]
+                        r += color[0] * basis
+                        g += color[1] * basis
+                        b += color[2] * basis
+                    }
+                }
+                pixels[y * width + x] = (0xFF shl 24) or
+                    (linearToSrgbFast(r) shl 16) or
+                    (linearToSrgbFast(g) shl 8) or
+                    linearToSrgbFast(b)
+            }
+        }
+        return pixels
+    }
+
+    fun isValid(hash: String?): Boolean {
+        if (hash == null || hash.length < 6) return false
+        if (hash.any { CHARACTERS.indexOf(it) < 0 }) return false
+        val sizeFlag = decodeBase83(hash, 0, 1)
+        val componentsX = sizeFlag % 9 + 1
+        val componentsY = sizeFlag / 9 + 1
+        return hash.length == 4 + 2 * componentsX * componentsY
+    }
+
+    private fun encodeDc(color: DoubleArray): Int =
+        (linearToSrgb(color[0]) shl 16) + (linearToSrgb(color[1]) shl 8) + linearToSrgb(color[2])
+
+    private fun encodeAc(color: DoubleArray, maximumValue: Double): Int {
+        fun quantise(value: Double): Int =
+            (signPow(value / maximumValue, 0.5) * 9 + 9.5).toInt().coerceIn(0, 18)
+        return quantise(color[0]) * 19 * 19 + quantise(color[1]) * 19 + quantise(color[2])
+    }
+
+    private fun decodeDc(value: Int): DoubleArray = doubleArrayOf(
+        SRGB_TO_LINEAR[(value shr 16) and 0xFF],
+        SRGB_TO_LINEAR[(value shr 8) and 0xFF],
+        SRGB_TO_LINEAR[value and 0xFF]
+    )
+
+    private fun decodeAc(value: Int, maximumValue: Double): DoubleArray = doubleArrayOf(
+        signPow(((value / (19 * 19)) - 9) / 9.0, 2.0) * maximumValue,
+        signPow(((value / 19) % 19 - 9) / 9.0, 2.0) * maximumValue,
+        signPow((value % 19 - 9) / 9.0, 2.0) * maximumValue
+    )
+
+    private fun srgbToLinear(value: Int): Double {
+        val v = value / 255.0
+        return if (v <= 0.04045) v / 12.92 else ((v + 0.055) / 1.055).pow(2.4)
+    }
+
+    private fun linearToSrgb(value: Double): Int {
+        val v = value.coerceIn(0.0, 1.0)
+        return if (v <= 0.0031308) {
+            (v * 12.92 * 255 + 0.5).toInt()
+        } else {
+            ((1.055 * v.pow(1 / 2.4) - 0.055) * 255 + 0.5).toInt()
+        }
+    }
+
+    private fun linearToSrgbFast(value: Double): Int =
+        LINEAR_TO_SRGB[(value.coerceIn(0.0, 1.0) * LINEAR_STEPS + 0.5).toInt()]
+
+    private fun signPow(value: Double, exponent: Double): Double =
+        abs(value).pow(exponent).withSign(sign(value))
+
+    private fun StringBuilder.appendBase83(value: Int, length: Int) {
+        for (position in 1..length) {
+            val digit = (value / 83.0.pow(length - position).roundToInt()) % 83
+            append(CHARACTERS[digit])
+        }
+    }
+
+    private fun decodeBase83(hash: String, start: Int, end: Int): Int {
+        var value = 0
+        for (index in start until end) {
+            value = value * 83 + CHARACTERS.indexOf(hash[index])
+        }
+        return value
+    }
+}
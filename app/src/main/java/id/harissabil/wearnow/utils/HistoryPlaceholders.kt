@@ -0,0 +1,154 @@
+package id.harissabil.wearnow.utils
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import android.util.LruCache
+import androidx.compose.ui.graphics.ImageBitmap
+import androidx.compose.ui.graphics.asImageBitmap
+import androidx.core.graphics.scale
+import coil.annotation.ExperimentalCoilApi
+import coil.imageLoader
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * Blurhash placeholders of try-on images by history ID, so history cards have something to
+ * show on their first frame while the real image is signed and downloaded.
+ *
+ * A try-on first gets the placeholder of its garment, computed when the garment is
+ * uploaded, which is replaced by the placeholder of the result once that is fetched.
+ * Hashes are kept in shared preferences, decoded bitmaps in a small memory cache.
+ */
+object HistoryPlaceholders {
+
+    private const val TAG = "HistoryPlaceholders"
+    private const val PREFS_NAME = "history_placeholders"
+    private const val GARMENT_PREFIX = "g."
+    private const val RESULT_PREFIX = "r."
+
+    // Longest side of the image the hash is computed from
+    private const val ENCODE_SIZE = 32
+
+    // Size placeholders are decoded at, the view scales them up with filtering
+    const val DECODE_SIZE = 16
+
+    // 16x16 ARGB is 1KB per bitmap
+    private val decoded = LruCache<String, ImageBitmap>(256)
+
+    @Volatile
+    private var preferences: SharedPreferences? = null
+
+    fun init(context: Context) {
+        preferences = context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    }
+
+    fun hashFor(historyId: String): String? {
+        val preferences = preferences ?: return null
+        return preferences.getString(RESULT_PREFIX + historyId, null)
+            ?: preferences.getString(GARMENT_PREFIX + historyId, null)
+    }
+
+    fun hasResultPlaceholder(historyId: String): Boolean =
+        preferences?.contains(RESULT_PREFIX + historyId) == true
+
+    /**
+     * Decoded placeholder of [historyId], or null when none was stored. Decoding a 16x16
+     * placeholder takes tens of microseconds, results are cached all the same since list
+     * items recompose on every scroll.
+     */
+    fun bitmapFor(historyId: String): ImageBitmap? {
+        val hash = hashFor(historyId)?.takeIf(Blurhash::isValid) ?: return null
+        decoded.get(hash)?.let { return it }
+
+        val pixels = Blurhash.decode(hash, DECODE_SIZE, DECODE_SIZE)
+        val bitmap = Bitmap.createBitmap(pixels, DECODE_SIZE, DECODE_SIZE, Bitmap.Config.ARGB_8888)
+            .asImageBitmap()
+        decoded.put(hash, bitmap)
+        return bitmap
+    }
+
+    /**
+     * Store the placeholder of an uploaded garment, unless the result's is already known
+     */
+    fun putGarment(historyId: String, hash: String) {
+        if (hasResultPlaceholder(historyId)) return
+        preferences?.edit()?.putString(GARMENT_PREFIX + historyId, hash)?.apply()
+    }
+
+    fun putResult(historyId: String, hash: String) {
+        preferences?.edit()
+            ?.putString(RESULT_PREFIX + historyId, hash)
+            ?.remove(GARMENT_PREFIX + historyId)
+            ?.apply()
+    }
+
+    fun remove(historyId: String) {
+        preferences?.edit()
+            ?.remove(RESULT_PREFIX + historyId)
+            ?.remove(GARMENT_PREFIX + historyId)
+            ?.apply()
+    }
+
+    /**
+     * Blurhash of the image in [file], read subsampled so a full photo is never decoded.
+     * Returns null when the file can't be decoded.
+     */
+    suspend fun encodeFile(file: File): String? = withContext(Dispatchers.Default) {
+        try {
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            BitmapFactory.decodeFile(file.absolutePath, bounds)
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return@withContext null
+
+            var sampleSize = 1
+            while (maxOf(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= ENCODE_SIZE) {
+                sampleSize *= 2
+            }
+            val sampled = BitmapFactory.decodeFile(
+                file.absolutePath,
+                BitmapFactory.Options().apply { inSampleSize = sampleSize }
+            ) ?: return@withContext null
+
+            val scale = ENCODE_SIZE.toFloat() / maxOf(sampled.width, sampled.height)
+            val small = if (scale < 1f) {
+                sampled.scale(
+                    maxOf(1, (sampled.width * scale).toInt()),
+                    maxOf(1, (sampled.height * scale).toInt())
+                )
+            } else {
+                sampled
+            }
+
+            val pixels = IntArray(small.width * small.height)
+            small.getPixels(pixels, 0, small.width, 0, 0, small.width, small.height)
+            val hash = Blurhash.encode(pixels, small.width, small.height)
+
+            if (small != sampled) small.recycle()
+            sampled.recycle()
+            hash
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to compute placeholder", e)
+            null
+        }
+    }
+
+    /**
+     * Compute the placeholder of the result image of [historyId] from Coil's disk cache,
+     * once [url] was loaded through it. Does nothing if it is known or not cached.
+     */
+    @OptIn(ExperimentalCoilApi::class)
+    suspend fun rememberResult(context: Context, historyId: String, url: String) {
+        if (hasResultPlaceholder(historyId)) return
+        val diskCache = context.imageLoader.diskCache ?: return
+
+        val hash = withContext(Dispatchers.IO) {
+            diskCache.openSnapshot(url)?.use { snapshot ->
+                encodeFile(snapshot.data.toFile())
+            }
+        } ?: return
+        putResult(historyId, hash)
+    }
+}
@@ -0,0 +1,145 @@
+package id.harissabil.wearnow.utils
+
+import android.content.Context
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import coil.annotation.ExperimentalCoilApi
+import coil.imageLoader
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.net.HttpURLConnection
+import java.net.URL
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps full-resolution copies of remote images as plain files.
+ *
+ * Some consumers need a real file rather than a decoded bitmap (region decoding for deep
+ * zoom, sharing through FileProvider). Files are keyed by the URL without its query so a
+ * re-signed presigned URL maps to the same entry. Coil's disk cache is checked before
+ * downloading, so an image that was already displayed is never fetched twice.
+ *
+ * A file's mtime is when it was written, so copies made from it can tell whether it changed.
+ * Reads are tracked separately for trimming least recently used files first.
+ */
+object LocalImageCache {
+
+    private const val TAG = "LocalImageCache"
+    private const val CACHE_DIR = "image_files"
+    private const val MAX_CACHE_BYTES = 100L * 1024 * 1024
+    private const val TIMEOUT_MS = 30_000
+    private const val PARTIAL_SUFFIX = ".part"
+
+    // Partial files this old were left by a process that died while writing them
+    private const val STALE_PARTIAL_MS = 60L * 60 * 1000
+
+    // Last read of each file in this process, files not read since start fall back to mtime
+    private val lastAccess = ConcurrentHashMap<String, Long>()
+
+    /**
+     * Return a local file for [url], copying it from Coil's disk cache or downloading it once
+     */
+    suspend fun fetch(context: Context, url: String): File = withContext(Dispatchers.IO) {
+        val target = fileFor(context, url)
+        if (target.exists() && target.length() > 0) {
+            lastAccess[target.name] = System.currentTimeMillis()
+            return@withContext target
+        }
+
+        // Unique per call, concurrent fetches of one URL each write their own copy and the
+        // last rename wins with a complete file
+        val partial = File.createTempFile("${target.name}.", PARTIAL_SUFFIX, target.parentFile)
+        try {
+            if (!copyFromDiskCache(context, url, partial)) {
+                download(url, partial)
+            }
+            if (!partial.renameTo(target)) {
+                throw IllegalStateException("Failed to move downloaded image into cache")
+            }
+        } finally {
+            partial.delete()
+        }
+
+        lastAccess[target.name] = System.currentTimeMillis()
+        trim(context)
+        target
+    }
+
+    /**
+     * Local file for [url] if it is already cached
+     */
+    fun cachedFile(context: Context, url: String): File? =
+        fileFor(context, url).takeIf { it.exists() && it.length() > 0 }
+
+    /**
+     * Remove the cached file for [url], e.g. after the remote object was deleted
+     */
+    fun remove(context: Context, url: String) {
+        val file = fileFor(context, url)
+        file.delete()
+        lastAccess.remove(file.name)
+    }
+
+    /**
+     * Cache key for [url]: the URL without query (signature) or fragment
+     */
+    fun cacheKey(url: String): String =
+        url.substringBefore('#').substringBefore('?')
+
+    @VisibleForTesting
+    internal fun fileFor(context: Context, url: String): File {
+        val dir = File(context.cacheDir, CACHE_DIR).apply { if (!exists()) mkdirs() }
+        val digest = MessageDigest.getInstance("SHA-1").digest(cacheKey(url).toByteArray())
+        return File(dir, digest.joinToString("") { "%02x".format(it) } + ".img")
+    }
+
+    @OptIn(ExperimentalCoilApi::class)
+    private fun copyFromDiskCache(context: Context, url: String, target: File): Boolean {
+        val diskCache = context.imageLoader.diskCache ?: return false
+        return try {
+            diskCache.openSnapshot(url)?.use { snapshot ->
+                snapshot.data.toFile().copyTo(target, overwrite = true)
+                true
+            } ?: false
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to read image from Coil disk cache", e)
+            false
+        }
+    }
+
+    private fun download(url: String, target: File) {
+        val connection = URL(url).openConnection() as HttpURLConnection
+        connection.connectTimeout = TIMEOUT_MS
+        connection.readTimeout = TIMEOUT_MS
+        try {
+            if (connection.responseCode !in 200..299) {
+                throw IllegalStateException("Image download failed with HTTP ${connection.responseCode}")
+            }
+            connection.inputStream.use { input ->
+                target.outputStream().use { output -> input.copyTo(output) }
+            }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    private fun trim(context: Context) {
+        val entries = File(context.cacheDir, CACHE_DIR).listFiles() ?: return
+        val staleBefore = System.currentTimeMillis() - STALE_PARTIAL_MS
+        entries.filter { it.name.endsWith(PARTIAL_SUFFIX) && it.lastModified() < staleBefore }
+            .forEach { it.delete() }
+
+        val files = entries
+            .filter { it.isFile && it.name.endsWith(".img") }
+            .sortedBy { lastAccess[it.name] ?: it.lastModified() }
+        var total = files.sumOf { it.length() }
+        for (file in files) {
+            if (total <= MAX_CACHE_BYTES) break
+            total -= file.length()
+            file.delete()
+            lastAccess.remove(file.name)
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package id.harissabil.wearnow.utils
+
+import android.util.Log
+
+/**
+ * [LogSink] writing to logcat
+ */
+object LogcatSink : LogSink {
+
+    override fun write(level: Int, tag: String, message: String, error: Throwable?) {
+        when (level) {
+            AppLog.DEBUG -> Log.d(tag, message, error)
+            AppLog.INFO -> Log.i(tag, message, error)
+            AppLog.WARN -> Log.w(tag, message, error)
+            else -> Log.e(tag, message, error)
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package id.harissabil.wearnow.utils
+
+import android.os.SystemClock
+import android.util.Log
+import id.harissabil.wearnow.data.AmplifyStorageRepository
+import id.harissabil.wearnow.data.StorageRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Turns S3 keys stored on records into displayable URLs.
+ *
+ * Keys are signed concurrently and each URL is handed back as soon as it is ready, so a
+ * screen can show its most important image without waiting on the others. Keys are signed
+ * through [storage], while signed URLs are cached for a while in one cache shared by every
+ * resolver, since the same keys are requested again across screens.
+ */
+class PresignedUrlResolver(
+    private val storage: StorageRepository = AmplifyStorageRepository(),
+) {
+
+    /**
+     * Resolve a single key. Values that are already URLs are returned unchanged.
+     */
+    suspend fun resolve(keyOrUrl: String): String {
+        if (keyOrUrl.startsWith("http")) return keyOrUrl
+
+        val now = SystemClock.elapsedRealtime()
+        cache[keyOrUrl]?.let { cached ->
+            if (now - cached.signedAtMs < CACHE_TTL_MS) return cached.url
+        }
+
+        val url = sign(keyOrUrl)
+        cache[keyOrUrl] = CachedUrl(url, now)
+        return url
+    }
+
+    /**
+     * Resolve all [keys] concurrently. [onResolved] is called for each entry as soon as
+     * its URL is available; the returned map holds the outcome (and timing) of every entry.
+     */
+    suspend fun <K> resolveAll(
+        keys: Map<K, String>,
+        onResolved: (K, String) -> Unit = { _, _ -> },
+    ): Map<K, Result<String>> = coroutineScope {
+        keys.map { (id, keyOrUrl) ->
+            async {
+                val startedAt = SystemClock.elapsedRealtime()
+                val result = try {
+                    Result.success(resolve(keyOrUrl))
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to resolve URL for $id", e)
+                    Result.failure(e)
+                }
+                Log.d(TAG, "Resolved $id in ${SystemClock.elapsedRealtime() - startedAt}ms")
+                result.getOrNull()?.let { onResolved(id, it) }
+                id to result
+            }
+        }.awaitAll().toMap()
+    }
+
+    private suspend fun sign(s3Key: String): String = storage.getUrl(s3Key)
+
+    companion object {
+        private const val TAG = "PresignedUrlResolver"
+
+        // Well below the presigned URL expiry so cached URLs are still valid when loaded
+        private const val CACHE_TTL_MS = 10L * 60 * 1000
+
+        private data class CachedUrl(val url: String, val signedAtMs: Long)
+
+        private val cache = ConcurrentHashMap<String, CachedUrl>()
+
+        /**
+         * Last signed URL for [key], even if expired, so callers can find cache entries keyed by it
+         */
+        fun cachedUrl(key: String): String? = cache[key]?.url
+
+        /**
+         * Drop cached URLs for keys whose objects no longer exist
+         */
+        fun invalidate(keys: Collection<String>) {
+            keys.forEach { cache.remove(it) }
+        }
+    }
+}
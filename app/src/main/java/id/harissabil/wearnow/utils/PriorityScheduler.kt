@@ -0,0 +1,185 @@
+package id.harissabil.wearnow.utils
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.util.PriorityQueue
+
+/**
+ * Runs keyed suspending tasks in [scope], at most [maxConcurrency] at a time, lowest
+ * priority value first and in submission order within a priority.
+ *
+ * A key is queued or running at most once: submitting it again only changes the priority
+ * of a queued task. Tasks are cancelled by key, or all at once when their consumer goes
+ * away. Failures are logged and counted, a task that needs to react to them catches and
+ * rethrows them.
+ */
+class PriorityScheduler(
+    private val scope: CoroutineScope,
+    private val maxConcurrency: Int,
+    private val clockMs: () -> Long = { System.nanoTime() / 1_000_000 },
+) {
+
+    /**
+     * Queue state and the time tasks waited for a slot, over the last [WAIT_SAMPLES] starts
+     */
+    data class Metrics(
+        val queued: Int,
+        val running: Int,
+        val started: Long,
+        val cancelled: Long,
+        val failed: Long,
+        val waitP50Ms: Long,
+        val waitP95Ms: Long,
+        val waitMaxMs: Long,
+    )
+
+    private class Task(
+        val key: String,
+        var priority: Int,
+        val sequence: Long,
+        val enqueuedAtMs: Long,
+        val block: suspend () -> Unit,
+    )
+
+    private val lock = Any()
+    private val queue = PriorityQueue(compareBy<Task>({ it.priority }, { it.sequence }))
+    private val queued = HashMap<String, Task>()
+    private val running = HashMap<String, Job>()
+    private var sequence = 0L
+
+    private var started = 0L
+    private var cancelled = 0L
+    private var failed = 0L
+    private val waits = LongArray(WAIT_SAMPLES)
+
+    init {
+        require(maxConcurrency > 0) { "maxConcurrency must be positive" }
+    }
+
+    /**
+     * Keys of the queued and running tasks
+     */
+    val keys: Set<String>
+        get() = synchronized(lock) { queued.keys + running.keys }
+
+    val metrics: Metrics
+        get() = synchronized(lock) {
+            val samples = waits.copyOf(minOf(started, WAIT_SAMPLES.toLong()).toInt()).apply { sort() }
+            fun percentile(p: Double): Long =
+                if (samples.isEmpty()) 0 else samples[((samples.size - 1) * p).toInt()]
+            Metrics(
+                queued = queue.size,
+                running = running.size,
+                started = started,
+                cancelled = cancelled,
+                failed = failed,
+                waitP50Ms = percentile(0.5),
+                waitP95Ms = percentile(0.95),
+                waitMaxMs = samples.lastOrNull() ?: 0
+            )
+        }
+
+    /**
+     * Queue [block] under [key]. Returns false, after moving a queued task to [priority],
+     * when the key is already queued or running.
+     */
+    fun submit(key: String, priority: Int, block: suspend () -> Unit): Boolean {
+        synchronized(lock) {
+            if (key in running) return false
+            val existing = queued[key]
+            if (existing != null) {
+                if (existing.priority != priority) {
+                    queue.remove(existing)
+                    existing.priority = priority
+                    queue.add(existing)
+                }
+                return false
+            }
+            val task = Task(key, priority, sequence++, clockMs(), block)
+            queued[key] = task
+            queue.add(task)
+        }
+        dispatch()
+        return true
+    }
+
+    /**
+     * Move the queued task of [key] to [priority], a no-op once it runs
+     */
+    fun reprioritize(key: String, priority: Int) {
+        synchronized(lock) {
+            val task = queued[key] ?: return
+            if (task.priority == priority) return
+            queue.remove(task)
+            task.priority = priority
+            queue.add(task)
+        }
+    }
+
+    fun cancel(key: String) {
+        val job = synchronized(lock) {
+            queued.remove(key)?.let {
+                queue.remove(it)
+                cancelled++
+            }
+            running.remove(key)?.also { cancelled++ }
+        }
+        job?.cancel()
+        dispatch()
+    }
+
+    fun cancelAll() {
+        val jobs = synchronized(lock) {
+            cancelled += queue.size + running.size
+            queue.clear()
+            queued.clear()
+            running.values.toList().also { running.clear() }
+        }
+        jobs.forEach { it.cancel() }
+    }
+
+    private fun dispatch() {
+        while (true) {
+            val job = synchronized(lock) {
+                if (!scope.isActive || running.size >= maxConcurrency) return
+                val task = queue.poll() ?: return
+                queued.remove(task.key)
+                waits[(started % WAIT_SAMPLES).toInt()] = clockMs() - task.enqueuedAtMs
+                started++
+                launch(task).also { running[task.key] = it }
+            }
+            job.start()
+        }
+    }
+
+    private fun launch(task: Task): Job {
+        // Lazy so the job is registered before it runs, a task may finish without suspending
+        val job = scope.launch(start = CoroutineStart.LAZY) {
+            try {
+                task.block()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                synchronized(lock) { failed++ }
+                AppLog.w(TAG, e) { "Task ${task.key} failed" }
+            }
+        }
+        // Also runs for jobs of a cancelled scope that never started
+        job.invokeOnCompletion {
+            synchronized(lock) {
+                if (running[task.key] === job) running.remove(task.key)
+            }
+            dispatch()
+        }
+        return job
+    }
+
+    companion object {
+        private const val TAG = "PriorityScheduler"
+        const val WAIT_SAMPLES = 256
+    }
+}
@@ -0,0 +1,183 @@
+package id.harissabil.wearnow.utils
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import kotlinx.coroutines.Job
+import java.io.Closeable
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Owns the lifecycle of temporary images the app writes to its cache directories
+ * (gallery copies, camera captures, compressed upload files).
+ *
+ * Files are handed out as [TempFile] handles that are deleted when released or when the
+ * job they are bound to completes. [sweepOrphans] and [enforceQuota] clean up whatever
+ * was left behind by crashes or process death, oldest first.
+ */
+object TempFileManager {
+
+    private const val TAG = "TempFileManager"
+
+    private const val TEMP_DIR = "temp_images"
+    const val DEFAULT_QUOTA_BYTES = 50L * 1024 * 1024 // 50MB across all managed files
+    const val ORPHAN_MIN_AGE_MS = 10L * 60 * 1000 // Never sweep files younger than 10 minutes
+
+    // Prefixes of files written directly into cacheDir/externalCacheDir by older code paths
+    private val MANAGED_PREFIXES = listOf("upload_image", "garment_", "compressed_", "JPEG_")
+
+    private val activePaths = ConcurrentHashMap.newKeySet<String>()
+    private val reclaimedBytes = AtomicLong()
+    private val reclaimedFiles = AtomicLong()
+
+    data class Stats(
+        val bytesReclaimed: Long,
+        val filesReclaimed: Long,
+        val activeFiles: Int,
+    )
+
+    val stats: Stats
+        get() = Stats(reclaimedBytes.get(), reclaimedFiles.get(), activePaths.size)
+
+    /**
+     * Handle to a temporary file. Closing it deletes the file.
+     */
+    class TempFile internal constructor(val file: File) : Closeable {
+
+        val uri: Uri get() = Uri.fromFile(file)
+
+        /**
+         * Delete the file when [job] completes, whether it succeeded, failed or was cancelled
+         */
+        fun bindTo(job: Job): TempFile {
+            job.invokeOnCompletion { close() }
+            return this
+        }
+
+        override fun close() {
+            if (activePaths.remove(file.absolutePath)) {
+                deleteAndCount(file)
+            }
+        }
+    }
+
+    /**
+     * Directory used for new temporary images
+     */
+    fun tempDir(context: Context): File =
+        File(context.cacheDir, TEMP_DIR).apply { if (!exists()) mkdirs() }
+
+    /**
+     * Create a new managed temporary file
+     */
+    fun create(
+        context: Context,
+        prefix: String,
+        suffix: String = ".jpg",
+        directory: File = tempDir(context),
+    ): TempFile = adopt(File.createTempFile(prefix, suffix, directory))
+
+    /**
+     * Take ownership of an existing file so it is cleaned up like any other handle
+     */
+    fun adopt(file: File): TempFile {
+        activePaths.add(file.absolutePath)
+        return TempFile(file)
+    }
+
+    /**
+     * Delete a file:// [uri] if it points at one of our temporary files
+     */
+    fun deleteIfManaged(context: Context, uri: Uri?) {
+        val path = uri?.takeIf { it.scheme == "file" }?.path ?: return
+        val file = File(path)
+        if (isManaged(context, file)) {
+            activePaths.remove(file.absolutePath)
+            deleteAndCount(file)
+        }
+    }
+
+    /**
+     * Remove files left over from previous sessions. Files in use or younger than
+     * [minAgeMs] are kept. Returns the number of bytes reclaimed.
+     */
+    fun sweepOrphans(context: Context, minAgeMs: Long = ORPHAN_MIN_AGE_MS): Long {
+        val cutoff = System.currentTimeMillis() - minAgeMs
+        var bytes = 0L
+        var files = 0
+
+        managedFiles(context)
+            .filter { it.lastModified() < cutoff && it.absolutePath !in activePaths }
+            .forEach { file ->
+                val size = file.length()
+                if (deleteAndCount(file)) {
+                    bytes += size
+                    files++
+                }
+            }
+
+        Log.i(TAG, "Orphan sweep reclaimed ${bytes / 1024}KB in $files files")
+        return bytes
+    }
+
+    /**
+     * Delete least recently modified files until managed files fit in [maxBytes].
+     * Returns the number of bytes reclaimed.
+     */
+    fun enforceQuota(context: Context, maxBytes: Long = DEFAULT_QUOTA_BYTES): Long {
+        val candidates = managedFiles(context).sortedBy { it.lastModified() }
+        var total = candidates.sumOf { it.length() }
+        var bytes = 0L
+
+        for (file in candidates) {
+            if (total <= maxBytes) break
+            if (file.absolutePath in activePaths) continue
+
+            val size = file.length()
+            if (deleteAndCount(file)) {
+                total -= size
+                bytes += size
+            }
+        }
+
+        if (bytes > 0) {
+            Log.i(TAG, "Quota enforcement reclaimed ${bytes / 1024}KB, ${total / 1024}KB remaining")
+        }
+        return bytes
+    }
+
+    private fun managedFiles(context: Context): List<File> {
+        val files = mutableListOf<File>()
+        tempDir(context).listFiles()?.filterTo(files) { it.isFile }
+        listOfNotNull(context.cacheDir, context.externalCacheDir).forEach { dir ->
+            dir.listFiles()?.filterTo(files) { file ->
+                file.isFile && MANAGED_PREFIXES.any { file.name.startsWith(it) }
+            }
+        }
+        return files
+    }
+
+    private fun isManaged(context: Context, file: File): Boolean {
+        val parent = file.parentFile ?: return false
+        return parent == tempDir(context) ||
+                ((parent == context.cacheDir || parent == context.externalCacheDir) &&
+                        MANAGED_PREFIXES.any { file.name.startsWith(it) })
+    }
+
+    private fun deleteAndCount(file: File): Boolean {
+        val size = file.length()
+        val deleted = try {
+            file.delete()
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to delete ${file.name}", e)
+            false
+        }
+        if (deleted) {
+            reclaimedBytes.addAndGet(size)
+            reclaimedFiles.incrementAndGet()
+        }
+        return deleted
+    }
+}
@@ -0,0 +1,77 @@
+package id.harissabil.wearnow.utils
+
+import android.util.Log
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executors
+
+/**
+ * Appends finished spans to a JSON lines file, one span per line.
+ *
+ * Writes happen on a single background thread in arrival order. The file is rotated to
+ * [ROTATED_FILE] once it passes [MAX_FILE_BYTES], so at most two files are kept; pull them
+ * with `adb shell run-as id.harissabil.wearnow cat files/traces/spans.jsonl`.
+ */
+class TraceExporter(private val directory: File) {
+
+    private val gson = Gson()
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "trace-exporter").apply { isDaemon = true }
+    }
+
+    val file: File = File(directory, FILE)
+    private val rotatedFile = File(directory, ROTATED_FILE)
+
+    fun append(span: FinishedSpan) {
+        val line = gson.toJson(span)
+        executor.execute {
+            try {
+                directory.mkdirs()
+                if (file.length() > MAX_FILE_BYTES) {
+                    file.renameTo(rotatedFile)
+                }
+                file.appendText(line + "\n")
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to export span ${span.name}", e)
+            }
+        }
+    }
+
+    /**
+     * Read back up to [limit] of the most recent spans, delivered on the export thread
+     */
+    fun loadRecent(limit: Int, onLoaded: (List<FinishedSpan>) -> Unit) {
+        executor.execute {
+            val spans = listOf(rotatedFile, file)
+                .filter { it.exists() }
+                .flatMap { readLines(it) }
+                .takeLast(limit)
+                .mapNotNull { line ->
+                    try {
+                        gson.fromJson(line, FinishedSpan::class.java)
+                    } catch (e: JsonParseException) {
+                        // A line cut short by the process being killed mid write
+                        null
+                    }
+                }
+            onLoaded(spans)
+        }
+    }
+
+    private fun readLines(file: File): List<String> = try {
+        file.readLines().filter { it.isNotBlank() }
+    } catch (e: IOException) {
+        Log.w(TAG, "Failed to read ${file.name}", e)
+        emptyList()
+    }
+
+    companion object {
+        private const val TAG = "TraceExporter"
+        const val DIRECTORY = "traces"
+        private const val FILE = "spans.jsonl"
+        private const val ROTATED_FILE = "spans.1.jsonl"
+        private const val MAX_FILE_BYTES = 512 * 1024L
+    }
+}
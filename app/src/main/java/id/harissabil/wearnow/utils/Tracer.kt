@@ -0,0 +1,265 @@
+package id.harissabil.wearnow.utils
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.asContextElement
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * A timed operation in a trace. Spans are created by [Tracer] and exported once [end]ed.
+ */
+class Span internal constructor(
+    val traceId: String,
+    val spanId: String,
+    val parentId: String?,
+    val name: String,
+) {
+    private val startEpochMs = System.currentTimeMillis()
+    private val startNanos = System.nanoTime()
+    private val attributes = ConcurrentHashMap<String, String>()
+    private val ended = AtomicBoolean(false)
+
+    fun setAttribute(key: String, value: Any?) {
+        if (value != null) attributes[key] = value.toString()
+    }
+
+    /**
+     * Finish the span, marking it failed with [error]. Only the first call counts.
+     */
+    fun end(error: Throwable? = null) {
+        if (!ended.compareAndSet(false, true)) return
+        Tracer.record(
+            FinishedSpan(
+                traceId = traceId,
+                spanId = spanId,
+                parentId = parentId,
+                name = name,
+                startEpochMs = startEpochMs,
+                durationMs = (System.nanoTime() - startNanos) / 1_000_000.0,
+                status = when (error) {
+                    null -> FinishedSpan.STATUS_OK
+                    is CancellationException -> FinishedSpan.STATUS_CANCELLED
+                    else -> FinishedSpan.STATUS_ERROR
+                },
+                error = error?.takeUnless { it is CancellationException }?.let { it::class.java.simpleName },
+                attributes = HashMap(attributes)
+            )
+        )
+    }
+}
+
+/**
+ * Exported form of a [Span], one JSON line per span in the trace file
+ */
+data class FinishedSpan(
+    val traceId: String,
+    val spanId: String,
+    val parentId: String?,
+    val name: String,
+    val startEpochMs: Long,
+    val durationMs: Double,
+    val status: String,
+    val error: String?,
+    val attributes: Map<String, String>,
+) {
+    companion object {
+        const val STATUS_OK = "ok"
+        const val STATUS_ERROR = "error"
+        const val STATUS_CANCELLED = "cancelled"
+    }
+}
+
+data class StageStats(
+    val name: String,
+    val count: Int,
+    val p50Ms: Double,
+    val p95Ms: Double,
+)
+
+/**
+ * In-app tracing for the try-on flow.
+ *
+ * The current span travels with the coroutine through a ThreadLocal context element, so
+ * nested [span] calls become children without passing spans around, and plain blocking
+ * code (like ImageCompressionUtils) joins the trace through [trace]. Finished spans are
+ * appended to a JSON lines file by [TraceExporter] and kept in memory for the debug panel,
+ * which copies them through [recentSpans] only when [revision] tells it they changed.
+ */
+object Tracer {
+
+    private const val TAG = "Tracer"
+    private const val RECENT_CAPACITY = 2000
+    private const val MAX_PARKED = 8
+
+    // Sessions the debug panel percentiles are computed over
+    const val STATS_SESSIONS = 20
+
+    private val current = ThreadLocal<Span?>()
+    private val recent = ArrayDeque<FinishedSpan>()
+    private val parked = LinkedHashMap<String, List<Span>>()
+
+    private val _revision = MutableStateFlow(0L)
+
+    /**
+     * Bumped whenever the spans kept in memory change, recording a span doesn't copy them
+     */
+    val revision: StateFlow<Long> = _revision.asStateFlow()
+
+    @Volatile
+    private var exporter: TraceExporter? = null
+
+    /**
+     * Start exporting to the app's files directory and load the spans of earlier sessions
+     */
+    fun init(context: Context) {
+        val traceExporter = TraceExporter(File(context.filesDir, TraceExporter.DIRECTORY))
+        exporter = traceExporter
+        traceExporter.loadRecent(RECENT_CAPACITY) { previous ->
+            synchronized(recent) {
+                val merged = previous + recent
+                recent.clear()
+                recent.addAll(merged.takeLast(RECENT_CAPACITY))
+            }
+            _revision.update { it + 1 }
+            Log.d(TAG, "Loaded ${previous.size} spans from earlier sessions")
+        }
+    }
+
+    val traceFile: File?
+        get() = exporter?.file
+
+    fun currentSpan(): Span? = current.get()
+
+    /**
+     * Start a span that has to be ended by the caller. Without a [parent] it starts a new trace.
+     */
+    fun startSpan(name: String, parent: Span? = current.get()): Span = Span(
+        traceId = parent?.traceId ?: newId(),
+        spanId = newId(),
+        parentId = parent?.spanId,
+        name = name
+    )
+
+    /**
+     * Coroutine context that makes [span] the current span, for coroutines that outlive a
+     * single [span] block, like a job whose root span is ended by another screen
+     */
+    fun contextOf(span: Span?): CoroutineContext = current.asContextElement(span)
+
+    /**
+     * Run [block] in a child span of the current one, ending it when the block returns or throws
+     */
+    suspend fun <T> span(
+        name: String,
+        vararg attributes: Pair<String, Any?>,
+        block: suspend (Span) -> T,
+    ): T {
+        val span = startSpan(name)
+        attributes.forEach { (key, value) -> span.setAttribute(key, value) }
+        return try {
+            withContext(current.asContextElement(span)) { block(span) }.also { span.end() }
+        } catch (e: Throwable) {
+            span.end(e)
+            throw e
+        }
+    }
+
+    /**
+     * Blocking counterpart of [span] for code that doesn't suspend
+     */
+    fun <T> trace(name: String, block: (Span) -> T): T {
+        val previous = current.get()
+        val span = startSpan(name, previous)
+        current.set(span)
+        return try {
+            block(span).also { span.end() }
+        } catch (e: Throwable) {
+            span.end(e)
+            throw e
+        } finally {
+            current.set(previous)
+        }
+    }
+
+    /**
+     * Keep open [spans] under [key] so another screen can end them, e.g. the try-on root
+     * span that lasts until the result is shown. The oldest entry is abandoned past
+     * [MAX_PARKED].
+     */
+    fun park(key: String, vararg spans: Span) {
+        val evicted = synchronized(parked) {
+            parked[key] = spans.toList()
+            if (parked.size > MAX_PARKED) {
+                parked.keys.first().let { parked.remove(it) }
+            } else {
+                null
+            }
+        }
+        evicted?.forEach { it.end(CancellationException("Abandoned")) }
+    }
+
+    /**
+     * The first span parked under [key], to parent follow-up work on the same trace
+     */
+    fun parkedSpan(key: String): Span? = synchronized(parked) { parked[key]?.firstOrNull() }
+
+    fun endParked(key: String, error: Throwable? = null) {
+        val spans = synchronized(parked) { parked.remove(key) } ?: return
+        // Children first so the file reads bottom up like the other spans
+        spans.asReversed().forEach { it.end(error) }
+    }
+
+    internal fun record(span: FinishedSpan) {
+        synchronized(recent) {
+            recent.addLast(span)
+            while (recent.size > RECENT_CAPACITY) recent.removeFirst()
+        }
+        _revision.update { it + 1 }
+        exporter?.append(span)
+    }
+
+    /**
+     * Copy of the spans kept in memory, oldest first
+     */
+    fun recentSpans(): List<FinishedSpan> = synchronized(recent) { recent.toList() }
+
+    /**
+     * p50/p95 per span name over the last [sessions] traces, slowest median first
+     */
+    fun stageStats(
+        spans: List<FinishedSpan> = recentSpans(),
+        sessions: Int = STATS_SESSIONS,
+    ): List<StageStats> {
+        val traceIds = spans.asReversed().asSequence()
+            .map { it.traceId }
+            .distinct()
+            .take(sessions)
+            .toSet()
+
+        return spans.filter { it.traceId in traceIds && it.status == FinishedSpan.STATUS_OK }
+            .groupBy { it.name }
+            .map { (name, stage) ->
+                val sorted = stage.map { it.durationMs }.sorted()
+                StageStats(name, sorted.size, percentile(sorted, 50), percentile(sorted, 95))
+            }
+            .sortedByDescending { it.p50Ms }
+    }
+
+    private fun percentile(sorted: List<Double>, percentile: Int): Double {
+        if (sorted.isEmpty()) return 0.0
+        val index = ((percentile / 100.0) * (sorted.size - 1)).toInt()
+        return sorted[index]
+    }
+
+    private fun newId(): String = UUID.randomUUID().toString().replace("-", "").take(16)
+}
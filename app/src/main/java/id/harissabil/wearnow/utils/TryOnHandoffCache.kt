@@ -0,0 +1,119 @@
+package id.harissabil.wearnow.utils
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import coil.imageLoader
+import coil.request.CachePolicy
+import coil.request.ImageRequest
+import coil.request.SuccessResult
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import kotlinx.coroutines.CancellationException
+
+/**
+ * Hands a just-completed try-on from the Home flow to the Result screen.
+ *
+ * The polling loop already holds the completed [TryOnHistory], so it is stored here instead
+ * of being fetched again. Its result URL is signed before navigating and the image is warmed
+ * into Coil's memory and disk caches while navigation runs, so ResultScreen renders from the
+ * cache on its first frame.
+ */
+object TryOnHandoffCache {
+
+    private const val TAG = "TryOnHandoffCache"
+    private const val MAX_ENTRIES = 8
+
+    data class Entry(
+        val history: TryOnHistory,
+        val completedAtMs: Long,
+        val resultPhotoUrl: String? = null,
+    )
+
+    private val entries = LinkedHashMap<String, Entry>()
+    private val pendingVisibility = mutableSetOf<String>()
+
+    @Synchronized
+    fun put(history: TryOnHistory) {
+        entries[history.id] = Entry(history, SystemClock.elapsedRealtime())
+        pendingVisibility.add(history.id)
+
+        // Drop the oldest entries, handoffs are only useful right after completion
+        while (entries.size > MAX_ENTRIES) {
+            val oldest = entries.keys.first()
+            entries.remove(oldest)
+            pendingVisibility.remove(oldest)
+        }
+    }
+
+    @Synchronized
+    fun get(historyId: String): Entry? = entries[historyId]
+
+    @Synchronized
+    fun remove(historyId: String) {
+        entries.remove(historyId)
+        pendingVisibility.remove(historyId)
+    }
+
+    /**
+     * Sign the result URL of [historyId] and store it on its entry. Home awaits this before
+     * navigating, so the result screen restores the URL on its first frame instead of
+     * racing the prefetch. Returns null when there is no handoff or no result.
+     */
+    suspend fun resolveResult(historyId: String, urlResolver: PresignedUrlResolver): String? {
+        val entry = get(historyId) ?: return null
+        entry.resultPhotoUrl?.let { return it }
+        val resultKey = entry.history.resultPhotoUrl?.takeIf { it.isNotEmpty() } ?: return null
+
+        return try {
+            urlResolver.resolve(resultKey).also { url ->
+                synchronized(this) {
+                    entries[historyId]?.let { entries[historyId] = it.copy(resultPhotoUrl = url) }
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to resolve result URL for $historyId", e)
+            null
+        }
+    }
+
+    /**
+     * Warm the image caches with the result of [historyId], resolving its URL if
+     * [resolveResult] didn't already
+     */
+    suspend fun prefetch(context: Context, historyId: String, urlResolver: PresignedUrlResolver) {
+        val url = resolveResult(historyId, urlResolver) ?: return
+
+        try {
+            // Same data type as ResultScreen's request so the memory cache key matches
+            val request = ImageRequest.Builder(context)
+                .data(url)
+                .memoryCachePolicy(CachePolicy.ENABLED)
+                .diskCachePolicy(CachePolicy.ENABLED)
+                .build()
+            val result = context.imageLoader.execute(request)
+
+            // The history card of this try-on shows it until its thumbnail loads
+            if (result is SuccessResult) {
+                HistoryPlaceholders.rememberResult(context, historyId, url)
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to prefetch result for $historyId", e)
+        }
+    }
+
+    /**
+     * Record the time from completion to the result image being on screen (logged once)
+     */
+    fun markResultVisible(historyId: String) {
+        val completedAt = synchronized(this) {
+            if (!pendingVisibility.remove(historyId)) return
+            entries[historyId]?.completedAtMs
+        } ?: return
+
+        Log.i(TAG, "Result for $historyId visible ${SystemClock.elapsedRealtime() - completedAt}ms after completion")
+    }
+}
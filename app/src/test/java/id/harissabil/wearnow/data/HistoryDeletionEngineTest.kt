@@ -0,0 +1,137 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.fake.FakeBackend
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Deletes try-ons from [FakeBackend] through [HistoryDeletionEngine], with object removals
+ * failing, the process dying between the record and object deletes, and the same try-on
+ * deleted twice
+ */
+class HistoryDeletionEngineTest {
+
+    @Test
+    fun partialFailure_queuesOnlyTheFailedRemovals() = runTest {
+        val backend = newBackend()
+        val histories = backend.histories()
+        val queue = InMemoryPendingDeletionQueue()
+        val failing = histories.take(3).map { backend.resultKeyFor(it.id) }.toSet()
+        backend.failingRemovals = failing
+
+        val result = engine(backend, queue).deleteAll(histories)
+
+        assertEquals(histories.map { it.id }.toSet(), result.deletedIds.toSet())
+        assertEquals(emptyMap<String, Throwable>(), result.failures)
+        assertEquals(failing.size, result.pendingObjectRemovals)
+        assertEquals(failing, queue.snapshot())
+        assertEquals(emptyList<TryOnHistory>(), backend.histories())
+        // The user photo is shared with other try-ons and stays
+        assertEquals(failing + USER_PHOTO_KEY, backend.objectKeys())
+
+        backend.failingRemovals = emptySet()
+        assertEquals(0, engine(backend, queue).drainPendingQueue())
+        assertEquals(emptySet<String>(), queue.snapshot())
+        assertEquals(setOf(USER_PHOTO_KEY), backend.objectKeys())
+    }
+
+    @Test
+    fun processDeath_afterRecordsAreDeleted_resumesFromTheQueue() = runTest {
+        val backend = newBackend()
+        val histories = backend.histories()
+        val ownedKeys = histories.flatMap { HistoryDeletionEngine.ownedObjectKeys(it) }.toSet()
+        // Persisted, it outlives the process like the shared preferences do
+        val queue = InMemoryPendingDeletionQueue()
+
+        val firstRun = launch { engine(backend, queue).deleteAll(histories) }
+        var waitedMs = 0L
+        while (backend.histories().isNotEmpty() || queue.snapshot().isEmpty()) {
+            advanceTimeBy(STEP_MS)
+            waitedMs += STEP_MS
+            assertTrue("Records still there after ${waitedMs}ms", waitedMs < 10_000)
+        }
+        firstRun.cancel()
+
+        val leftBehind = backend.objectKeys() intersect ownedKeys
+        assertTrue("The first run removed every object before it was killed", leftBehind.isNotEmpty())
+        assertEquals(ownedKeys, queue.snapshot())
+
+        // The next start drains the queue, removals that went through already are harmless
+        val pending = engine(backend, queue).drainPendingQueue()
+
+        assertEquals(0, pending)
+        assertEquals(emptySet<String>(), queue.snapshot())
+        assertEquals(setOf(USER_PHOTO_KEY), backend.objectKeys())
+    }
+
+    @Test
+    fun redelete_isIdempotent() = runTest {
+        val backend = newBackend()
+        val history = backend.histories().first()
+        val resultKey = backend.resultKeyFor(history.id)
+        val queue = InMemoryPendingDeletionQueue()
+        backend.failingRemovals = setOf(resultKey)
+
+        val first = engine(backend, queue).delete(history)
+        val second = engine(backend, queue).delete(history)
+
+        // The record is gone, the second run counts it as deleted and retries its objects
+        listOf(first, second).forEach { result ->
+            assertEquals(listOf(history.id), result.deletedIds)
+            assertEquals(emptyMap<String, Throwable>(), result.failures)
+            assertEquals(1, result.pendingObjectRemovals)
+        }
+        assertEquals(setOf(resultKey), queue.snapshot())
+
+        backend.failingRemovals = emptySet()
+        val third = engine(backend, queue).delete(history)
+
+        assertEquals(listOf(history.id), third.deletedIds)
+        assertEquals(0, third.pendingObjectRemovals)
+        assertEquals(emptySet<String>(), queue.snapshot())
+        assertEquals(HISTORY_COUNT - 1, backend.histories().size)
+        assertTrue(HistoryDeletionEngine.ownedObjectKeys(history).none { it in backend.objectKeys() })
+    }
+
+    private fun engine(backend: FakeBackend, queue: PendingDeletionQueue) = HistoryDeletionEngine(
+        storage = backend.storage,
+        batchExecutor = GraphQLBatchExecutor(backend.api),
+        pendingQueue = queue,
+        purgeDeviceCopies = { _, _ -> }
+    )
+
+    private fun TestScope.newBackend(): FakeBackend {
+        val backend = FakeBackend(lambdaScope = backgroundScope, clock = { testScheduler.currentTime })
+        backend.putObject(USER_PHOTO_KEY, OBJECT_BYTES)
+        repeat(HISTORY_COUNT) { i ->
+            val garmentKey = "garment-photos/${backend.identityId}/garment-$i.jpg"
+            backend.putObject(garmentKey, OBJECT_BYTES)
+            backend.putHistory(
+                TryOnHistory.builder()
+                    .userId(backend.identityId)
+                    .userPhotoId("photo-1")
+                    .userPhotoUrl(USER_PHOTO_KEY)
+                    .garmentPhotoUrl(garmentKey)
+                    .id("history-$i")
+                    .status(TryOnHistoryStatus.PROCESSING)
+                    .build()
+            )
+            backend.completeTryOn("history-$i")
+        }
+        return backend
+    }
+
+    private companion object {
+        const val HISTORY_COUNT = 12
+        const val OBJECT_BYTES = 200L * 1024
+        const val STEP_MS = 10L
+        const val USER_PHOTO_KEY = "user-photos/us-east-1:identity-1/profile-1_master.jpg"
+    }
+}
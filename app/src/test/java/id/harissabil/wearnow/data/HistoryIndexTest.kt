@@ -0,0 +1,193 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.ui.screen.home.data.VirtualTryOnOptions
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/**
+ * Queries [HistoryIndex] over 10k records synced from [FakeBackend], checking every result
+ * against a linear scan. Their timing is measured by HistoryIndexBenchmark.
+ */
+class HistoryIndexTest {
+
+    private var now = START_MS
+
+    @Test
+    fun queries_matchLinearScan_at10kRecords() = runTest {
+        val histories = newBackend().histories()
+        val index = HistoryIndex()
+
+        assertEquals(RECORD_COUNT, index.sync(histories))
+        assertEquals(RECORD_COUNT, index.size)
+
+        val queries = listOf(
+            HistoryIndex.Query(),
+            HistoryIndex.Query(newestFirst = false),
+            HistoryIndex.Query(status = TryOnHistoryStatus.FAILED),
+            HistoryIndex.Query(garmentClass = "LOWER_BODY", mergeStyle = "DETAILED"),
+            HistoryIndex.Query(status = TryOnHistoryStatus.COMPLETED, garmentClass = "UPPER_BODY"),
+            HistoryIndex.Query(createdFromMs = START_MS + 2_000 * MINUTE_MS, createdUntilMs = START_MS + 2_500 * MINUTE_MS),
+            HistoryIndex.Query(
+                status = TryOnHistoryStatus.COMPLETED,
+                mergeStyle = "SEAMLESS",
+                createdFromMs = START_MS + 7 * DAY_MS,
+                newestFirst = false
+            ),
+            HistoryIndex.Query(garmentClass = "NOT_A_CLASS"),
+        )
+
+        queries.forEach { query ->
+            assertEquals(query.toString(), linearScan(histories, query), index.query(query))
+        }
+    }
+
+    @Test
+    fun sync_reindexesOnlyChangedRecords() = runTest {
+        val backend = newBackend()
+        val index = HistoryIndex()
+        assertEquals(RECORD_COUNT, index.sync(backend.histories()))
+        assertEquals(0, index.sync(backend.histories()))
+
+        now += MINUTE_MS
+        val processing = backend.histories()
+            .filter { it.status == TryOnHistoryStatus.PROCESSING }
+            .take(50)
+        processing.forEach { backend.completeTryOn(it.id) }
+        val removed = backend.histories()
+            .filter { it.status == TryOnHistoryStatus.FAILED }
+            .take(10)
+            .map { it.id }
+            .toSet()
+        val synced = backend.histories().filter { it.id !in removed }
+
+        assertEquals(processing.size + removed.size, index.sync(synced))
+        assertEquals(RECORD_COUNT - removed.size, index.size)
+        assertTrue(removed.none { it in index })
+        val completed = index.query(HistoryIndex.Query(status = TryOnHistoryStatus.COMPLETED)).toSet()
+        assertTrue(processing.all { it.id in completed })
+        assertEquals(linearScan(synced, HistoryIndex.Query()), index.query())
+    }
+
+    @Test
+    fun localCopy_keepsItsPositionAndMovesBetweenStatuses() = runTest {
+        val histories = newBackend().histories()
+        val index = HistoryIndex()
+        index.sync(histories)
+        val failed = histories.first { it.status == TryOnHistoryStatus.FAILED }
+        val order = index.query()
+
+        // Retrying builds a copy without timestamps
+        val retried = failed.copyOfBuilder().status(TryOnHistoryStatus.PROCESSING).errorMessage(null).build()
+        assertTrue(index.upsert(retried))
+
+        assertEquals(order, index.query())
+        assertFalse(failed.id in index.query(HistoryIndex.Query(status = TryOnHistoryStatus.FAILED)))
+        assertTrue(failed.id in index.query(HistoryIndex.Query(status = TryOnHistoryStatus.PROCESSING)))
+    }
+
+    @Test
+    fun sync_readsRecordsWithoutBlockingQueries() {
+        val index = HistoryIndex()
+        val reading = CountDownLatch(1)
+        val queried = CountDownLatch(1)
+        var queryReturnedFirst = false
+        // Stands in for a record whose metadata is slow to parse
+        val record = object : HistoryIndex.Record {
+            override val id = "history-slow"
+            override val createdAtMs: Long? = START_MS
+            override val updatedAt: String? = null
+            override val status: TryOnHistoryStatus? = TryOnHistoryStatus.COMPLETED
+            override val garmentClass: String
+                get() {
+                    reading.countDown()
+                    queryReturnedFirst = queried.await(5, TimeUnit.SECONDS)
+                    return "UPPER_BODY"
+                }
+            override val mergeStyle = "BALANCED"
+        }
+
+        val sync = thread { index.sync(listOf(record)) }
+        assertTrue(reading.await(5, TimeUnit.SECONDS))
+        assertEquals(emptyList<String>(), index.query())
+        queried.countDown()
+        sync.join()
+
+        assertTrue("A query waited for the records to be read", queryReturnedFirst)
+        assertEquals(listOf(record.id), index.query())
+    }
+
+    private fun TestScope.newBackend(): FakeBackend {
+        val backend = FakeBackend(lambdaScope = backgroundScope, clock = { now })
+        val random = Random(SEED)
+        repeat(RECORD_COUNT) { i ->
+            now = START_MS + i * MINUTE_MS
+            val roll = random.nextDouble()
+            val status = when {
+                roll < 0.7 -> TryOnHistoryStatus.COMPLETED
+                roll < 0.8 -> TryOnHistoryStatus.FAILED
+                else -> TryOnHistoryStatus.PROCESSING
+            }
+            // Older records were created before the options were saved
+            val metadata = if (random.nextDouble() < 0.1) {
+                null
+            } else {
+                TryOnRetryService.metadataWithOptions(
+                    VirtualTryOnOptions(
+                        garmentClass = GARMENT_CLASSES.random(random),
+                        mergeStyle = MERGE_STYLES.random(random)
+                    )
+                )
+            }
+            backend.putHistory(
+                TryOnHistory.builder()
+                    .userId(backend.identityId)
+                    .userPhotoId("photo-1")
+                    .userPhotoUrl("user-photos/${backend.identityId}/profile-1_master.jpg")
+                    .garmentPhotoUrl("garments/${backend.identityId}/garment-$i.jpg")
+                    .id("history-$i")
+                    .status(status)
+                    .metadata(metadata)
+                    .build()
+            )
+        }
+        return backend
+    }
+
+    private fun linearScan(histories: List<TryOnHistory>, query: HistoryIndex.Query): List<String> {
+        val matches = histories.filter { history ->
+            val options = TryOnRetryService.optionsFromMetadata(history.metadata)
+            val garmentClass = options.garmentClass ?: TryOnRetryService.DEFAULT_GARMENT_CLASS
+            val mergeStyle = options.mergeStyle ?: TryOnRetryService.DEFAULT_MERGE_STYLE
+            val createdAtMs = history.createdAt.toDate().time
+            (query.status == null || history.status == query.status) &&
+                (query.garmentClass == null || garmentClass == query.garmentClass) &&
+                (query.mergeStyle == null || mergeStyle == query.mergeStyle) &&
+                (query.createdFromMs == null || createdAtMs >= query.createdFromMs) &&
+                (query.createdUntilMs == null || createdAtMs < query.createdUntilMs)
+        }
+        val ordered = matches.sortedWith(compareBy({ it.createdAt.toDate().time }, { it.id }))
+        return (if (query.newestFirst) ordered.reversed() else ordered).map { it.id }
+    }
+
+    companion object {
+        private const val RECORD_COUNT = 10_000
+        private const val SEED = 49L
+        private const val START_MS = 1_700_000_000_000L
+        private const val MINUTE_MS = 60_000L
+        private const val DAY_MS = 24 * 60 * MINUTE_MS
+
+        private val GARMENT_CLASSES = listOf("UPPER_BODY", "LOWER_BODY", "FULL_BODY", "FOOTWEAR")
+        private val MERGE_STYLES = listOf("BALANCED", "SEAMLESS", "DETAILED")
+    }
+}
@@ -0,0 +1,112 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.api.graphql.GraphQLPathSegment
+import com.amplifyframework.api.graphql.GraphQLResponse
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.fake.FakeBackend
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Marks try-ons FAILED through [FakeBackend], with the Lambda's own write landing right
+ * before the conditional update is evaluated, and tells a rejected condition apart from
+ * the errors a status write should still fail on
+ */
+class HistoryStatusWriterTest {
+
+    @Test
+    fun markFailed_writesWhileProcessing() = runTest {
+        val backend = newBackend()
+        val writer = HistoryStatusWriter(backend.api)
+
+        val outcome = writer.markFailed(HISTORY_ID, "Processing timeout")
+
+        assertEquals(HistoryStatusWriter.WriteOutcome.Written, outcome)
+        val history = backend.history(HISTORY_ID)!!
+        assertEquals(TryOnHistoryStatus.FAILED, history.status)
+        assertEquals("Processing timeout", history.errorMessage)
+    }
+
+    @Test
+    fun markFailed_losesRaceToLambdaResult() = runTest {
+        val backend = newBackend()
+        val writer = HistoryStatusWriter(backend.api)
+        // The Lambda stores its result between the client's timeout and its write
+        backend.beforeConditionalUpdate = { historyId -> backend.completeTryOn(historyId) }
+
+        val outcome = writer.markFailed(HISTORY_ID, "Processing timeout")
+
+        assertEquals(HistoryStatusWriter.WriteOutcome.LostRace, outcome)
+        val history = backend.history(HISTORY_ID)!!
+        assertEquals(TryOnHistoryStatus.COMPLETED, history.status)
+        assertEquals(backend.resultKeyFor(HISTORY_ID), history.resultPhotoUrl)
+        assertEquals(null, history.errorMessage)
+    }
+
+    @Test
+    fun markFailed_keepsLambdaFailure() = runTest {
+        val backend = newBackend()
+        val writer = HistoryStatusWriter(backend.api)
+        backend.beforeConditionalUpdate = { historyId -> backend.failTryOn(historyId, "Model inference failed") }
+
+        val outcome = writer.markFailed(HISTORY_ID, "Processing timeout")
+
+        assertEquals(HistoryStatusWriter.WriteOutcome.LostRace, outcome)
+        assertEquals("Model inference failed", backend.history(HISTORY_ID)!!.errorMessage)
+    }
+
+    @Test
+    fun conditionalCheckFailure_isMatchedByErrorType() {
+        val error = updateError(
+            "The conditional request failed (Service: DynamoDb, Status Code: 400)",
+            "DynamoDB:ConditionalCheckFailedException"
+        )
+
+        assertTrue(HistoryStatusWriter.isConditionalCheckFailure(error))
+    }
+
+    @Test
+    fun conditionalCheckFailure_isMatchedByMessageWithoutErrorType() {
+        val error = updateError("The conditional request failed", errorType = null)
+
+        assertTrue(HistoryStatusWriter.isConditionalCheckFailure(error))
+    }
+
+    @Test
+    fun otherErrors_areNotLostRaces() {
+        val error = updateError("Not Authorized to access updateTryOnHistory on type Mutation", "Unauthorized")
+
+        assertFalse(HistoryStatusWriter.isConditionalCheckFailure(error))
+    }
+
+    private fun TestScope.newBackend(): FakeBackend {
+        val backend = FakeBackend(lambdaScope = backgroundScope, clock = { testScheduler.currentTime })
+        backend.putHistory(
+            TryOnHistory.builder()
+                .userId(backend.identityId)
+                .userPhotoId("photo-1")
+                .userPhotoUrl("user-photos/${backend.identityId}/profile-1_master.jpg")
+                .garmentPhotoUrl("garment-photos/${backend.identityId}/garment-1.jpg")
+                .id(HISTORY_ID)
+                .status(TryOnHistoryStatus.PROCESSING)
+                .build()
+        )
+        return backend
+    }
+
+    private fun updateError(message: String, errorType: String?) = GraphQLResponse.Error(
+        message,
+        null,
+        listOf(GraphQLPathSegment("updateTryOnHistory")),
+        errorType?.let { mapOf("errorType" to it) }
+    )
+
+    private companion object {
+        const val HISTORY_ID = "history-1"
+    }
+}
@@ -0,0 +1,114 @@
+package id.harissabil.wearnow.data
+
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.data.fake.FakeBackendConfig
+import id.harissabil.wearnow.data.fake.FakeNetworkException
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Uploads through [FakeBackend.multipart] with connections dropping at random offsets
+ */
+class MultipartUploaderTest {
+
+    private val fileBytes = 8L * 1024 * 1024
+    private val partBytes = 512L * 1024
+
+    @Test
+    fun disconnects_resendOnlyTheInterruptedParts() = runTest {
+        val backend = FakeBackend(
+            config = FakeBackendConfig(uploadDisconnectRate = 0.2, seed = 42),
+            lambdaScope = backgroundScope
+        )
+        val file = randomFile()
+        val sessions = InMemoryUploadSessionStore()
+        val uploader = MultipartUploader(backend.multipart, sessions, maxAttempts = 50)
+
+        uploader.upload(KEY, file, partBytes)
+
+        val disconnects = backend.uploadDisconnects.get()
+        val sent = backend.uploadedBytes.get()
+        val summary = "$disconnects disconnects, sent $sent bytes for a $fileBytes byte file"
+
+        assertTrue(summary, disconnects > 0)
+        assertTrue(backend.objectKeys().contains(KEY))
+        assertNull(sessions.get(KEY))
+        // Each drop costs at most the part in flight
+        assertTrue(summary, sent <= fileBytes + disconnects * partBytes)
+        assertTrue(summary, sent < fileBytes * 1.5)
+    }
+
+    @Test
+    fun restart_continuesSavedSession() = runTest {
+        val backend = FakeBackend(
+            config = FakeBackendConfig(uploadDisconnectRate = 0.3, seed = 7),
+            lambdaScope = backgroundScope
+        )
+        val file = randomFile()
+        // Outlives the uploaders, like the persisted store outlives the process
+        val sessions = InMemoryUploadSessionStore()
+
+        var runs = 0
+        var completed = false
+        while (!completed) {
+            runs++
+            // A new uploader per run stands in for a fresh process, each one gives up on
+            // the first failed request
+            val uploader = MultipartUploader(backend.multipart, sessions, maxAttempts = 1)
+            try {
+                uploader.upload(KEY, file, partBytes)
+                completed = true
+            } catch (e: FakeNetworkException) {
+                assertTrue(sessions.get(KEY) != null)
+            }
+            assertTrue("No progress after $runs runs", runs < 200)
+        }
+
+        val disconnects = backend.uploadDisconnects.get()
+        val sent = backend.uploadedBytes.get()
+        val summary = "$runs runs, $disconnects disconnects, sent $sent bytes for a $fileBytes byte file"
+
+        assertTrue(summary, runs > 1)
+        assertEquals(summary, 1, backend.requestCount("createMultipartUpload"))
+        assertTrue(backend.objectKeys().contains(KEY))
+        assertTrue(summary, sent <= fileBytes + disconnects * partBytes)
+    }
+
+    @Test
+    fun changedFile_startsOver() = runTest {
+        val backend = FakeBackend(lambdaScope = backgroundScope)
+        val file = randomFile()
+        val sessions = InMemoryUploadSessionStore()
+        sessions.save(
+            UploadSession(
+                key = KEY,
+                uploadId = "stale-upload",
+                filePath = file.absolutePath,
+                fileLength = file.length() - 1,
+                fileModifiedAt = file.lastModified(),
+                partSizeBytes = partBytes,
+                parts = listOf(UploadedPart(1, 0, partBytes, "\"stale\"")),
+                createdAtMs = 0
+            )
+        )
+
+        MultipartUploader(backend.multipart, sessions).upload(KEY, file, partBytes)
+
+        assertEquals(fileBytes, backend.uploadedBytes.get())
+        assertTrue(backend.objectKeys().contains(KEY))
+    }
+
+    private fun randomFile(): File = File.createTempFile("multipart_", ".jpg").apply {
+        deleteOnExit()
+        writeBytes(Random(1).nextBytes(fileBytes.toInt()))
+    }
+
+    private companion object {
+        const val KEY = "user-photos/us-east-1:identity-1/profile-1.jpg"
+    }
+}
@@ -0,0 +1,102 @@
+package id.harissabil.wearnow.data
+
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.data.fake.FakeBackendConfig
+import id.harissabil.wearnow.ui.screen.home.utils.VirtualTryOnService
+import id.harissabil.wearnow.utils.PresignedUrlResolver
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Retries FAILED try-ons against [FakeBackend] through [TryOnRetryService.retryAll], with
+ * more jobs than permits and with the caller cancelled between a reset and its trigger
+ */
+class TryOnRetryServiceTest {
+
+    @Test
+    fun retryAll_resetsOnlyJobsHoldingAPermit() = runTest {
+        val backend = newBackend("permits")
+        val histories = backend.histories()
+
+        val results = async { service(backend).retryAll(histories) }
+        advanceTimeBy(TRIGGERED_BY_MS)
+
+        val statuses = histories.map { backend.history(it.id)!!.status }
+        assertEquals(3, statuses.count { it == TryOnHistoryStatus.PROCESSING })
+        assertEquals(HISTORY_COUNT - 3, statuses.count { it == TryOnHistoryStatus.FAILED })
+
+        val outcomes = results.await()
+        assertTrue(outcomes.values.all { it.getOrThrow().virtualTryOn.success })
+        assertTrue(backend.histories().all { it.status == TryOnHistoryStatus.COMPLETED })
+    }
+
+    @Test
+    fun retryAll_cancelledBeforeTrigger_failsTheResetRecordsAgain() = runTest {
+        val backend = newBackend("cancelled")
+        val histories = backend.histories()
+
+        val results = async { service(backend).retryAll(histories) }
+        // The first resets are applied, their URLs are still being signed
+        advanceTimeBy(RESET_APPLIED_MS)
+        assertEquals(3, backend.histories().count { it.status == TryOnHistoryStatus.PROCESSING })
+        results.cancel()
+        advanceUntilIdle()
+
+        assertEquals(0, backend.requestCount("virtualTryOn"))
+        val statuses = backend.histories().map { it.status to it.errorMessage }
+        assertEquals(3, statuses.count { it == (TryOnHistoryStatus.FAILED to "Retry was cancelled") })
+        assertEquals(HISTORY_COUNT - 3, statuses.count { it == (TryOnHistoryStatus.FAILED to ERROR_MESSAGE) })
+    }
+
+    private fun service(backend: FakeBackend) = TryOnRetryService(
+        tryOnService = VirtualTryOnService(backend.api, backend.auth),
+        batchExecutor = GraphQLBatchExecutor(backend.api),
+        statusWriter = HistoryStatusWriter(backend.api),
+        urlResolver = PresignedUrlResolver(backend.storage)
+    )
+
+    // Keys are unique per test, the resolvers' shared cache outlives a test
+    private fun TestScope.newBackend(name: String): FakeBackend {
+        val backend = FakeBackend(
+            config = FakeBackendConfig(requestLatencyMs = LATENCY_MS, latencyJitterMs = 0),
+            lambdaScope = backgroundScope,
+            clock = { testScheduler.currentTime }
+        )
+        val userPhotoKey = "user-photos/${backend.identityId}/$name-profile_master.jpg"
+        backend.putObject(userPhotoKey, OBJECT_BYTES)
+        repeat(HISTORY_COUNT) { i ->
+            val garmentKey = "garment-photos/${backend.identityId}/$name-garment-$i.jpg"
+            backend.putObject(garmentKey, OBJECT_BYTES)
+            backend.putHistory(
+                TryOnHistory.builder()
+                    .userId(backend.identityId)
+                    .userPhotoId("photo-1")
+                    .userPhotoUrl(userPhotoKey)
+                    .garmentPhotoUrl(garmentKey)
+                    .id("$name-$i")
+                    .status(TryOnHistoryStatus.FAILED)
+                    .errorMessage(ERROR_MESSAGE)
+                    .build()
+            )
+        }
+        return backend
+    }
+
+    private companion object {
+        const val HISTORY_COUNT = 5
+        const val OBJECT_BYTES = 200L * 1024
+        const val LATENCY_MS = 100L
+        // One request resets, one round of signing, one request triggers
+        const val RESET_APPLIED_MS = LATENCY_MS + LATENCY_MS / 2
+        const val TRIGGERED_BY_MS = 4 * LATENCY_MS
+        const val ERROR_MESSAGE = "Model inference failed"
+    }
+}
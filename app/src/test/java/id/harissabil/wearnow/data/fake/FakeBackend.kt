@@ -0,0 +1,499 @@
+package id.harissabil.wearnow.data.fake
+
+import com.amplifyframework.api.graphql.GraphQLPathSegment
+import com.amplifyframework.api.graphql.GraphQLResponse
+import com.amplifyframework.core.model.temporal.Temporal
+import com.amplifyframework.datastore.generated.model.TryOnHistory
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import com.amplifyframework.datastore.generated.model.UserPhoto
+import com.google.gson.JsonNull
+import com.google.gson.JsonObject
+import id.harissabil.wearnow.data.ApiRepository
+import id.harissabil.wearnow.data.AuthRepository
+import id.harissabil.wearnow.data.MultipartStorage
+import id.harissabil.wearnow.data.StorageRepository
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+/**
+ * How [FakeBackend] behaves. Every wait is a delay(), so under runTest the delays only
+ * advance virtual time and a flow that takes minutes on a device runs in milliseconds.
+ */
+data class FakeBackendConfig(
+    val requestLatencyMs: Long = 80,
+    val latencyJitterMs: Long = 40,
+    val uploadBytesPerSecond: Long = 1_000_000,
+    val progressIntervalBytes: Long = 64 * 1024,
+    // Download bandwidth of the link, shared equally by the downloads in flight
+    val downloadBytesPerSecond: Long = 2_500_000,
+    // Fraction of upload requests whose connection drops at a random offset
+    val uploadDisconnectRate: Double = 0.0,
+    // Fraction of requests that fail with a network error
+    val failureRate: Double = 0.0,
+    val lambdaProcessingMs: Long = 45_000,
+    // Fraction of try-on jobs the Lambda marks FAILED
+    val lambdaFailureRate: Double = 0.0,
+    val lambdaErrorMessage: String = "Model inference failed",
+    val appSyncTimeoutMs: Long = 30_000,
+    val seed: Long = 0,
+)
+
+class FakeNetworkException(message: String) : IOException(message)
+
+/**
+ * In-process stand-in for the Amplify API, Storage and Auth categories.
+ *
+ * Records and objects live in memory. Hand-written mutations are interpreted the way
+ * AppSync would run them: aliased batches, per-item errors and condition expressions that
+ * fail with DynamoDB's ConditionalCheckFailedException. Triggering the virtualTryOn
+ * mutation starts a simulated Lambda in [lambdaScope] that writes the record after
+ * [FakeBackendConfig.lambdaProcessingMs], while the trigger request itself times out like
+ * AppSync does for long jobs. Uploads, single or [multipart], can drop their connection
+ * part way through.
+ */
+class FakeBackend(
+    config: FakeBackendConfig = FakeBackendConfig(),
+    private val lambdaScope: CoroutineScope,
+    val userId: String = "user-sub-1",
+    val identityId: String = "us-east-1:identity-1",
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    @Volatile
+    var config: FakeBackendConfig = config
+
+    @Volatile
+    var signedIn: Boolean = true
+
+    /**
+     * Runs right before a conditional update is evaluated, so a test can slip a competing
+     * write (for example [completeTryOn]) in between
+     */
+    @Volatile
+    var beforeConditionalUpdate: (suspend (historyId: String) -> Unit)? = null
+
+    /**
+     * Objects whose remove requests fail with a network error, so a test can fail part of
+     * a batch of removals
+     */
+    @Volatile
+    var failingRemovals: Set<String> = emptySet()
+
+    val api: ApiRepository = FakeApiRepository()
+    val storage: StorageRepository = FakeStorageRepository()
+    val multipart: MultipartStorage = FakeMultipartStorage()
+    val auth: AuthRepository = FakeAuthRepository()
+
+    private val random = Random(config.seed)
+    private val lock = Any()
+    private val histories = ConcurrentHashMap<String, TryOnHistory>()
+    private val userPhotos = ConcurrentHashMap<String, UserPhoto>()
+    private val objects = ConcurrentHashMap<String, Long>()
+    private val requestCounts = ConcurrentHashMap<String, AtomicInteger>()
+    private val idCounter = AtomicInteger()
+
+    private val activeDownloads = AtomicInteger()
+
+    // Bytes sent by upload requests, including those of requests that were dropped
+    val uploadedBytes = AtomicLong()
+    val uploadDisconnects = AtomicInteger()
+
+    fun history(historyId: String): TryOnHistory? = histories[historyId]
+
+    fun histories(): List<TryOnHistory> = histories.values.toList()
+
+    fun objectKeys(): Set<String> = objects.keys.toSet()
+
+    fun requestCount(operation: String): Int = requestCounts[operation]?.get() ?: 0
+
+    fun totalRequests(): Int = requestCounts.values.sumOf { it.get() }
+
+    fun putHistory(history: TryOnHistory) {
+        histories[history.id] = stamped(history, previous = histories[history.id])
+    }
+
+    fun putUserPhoto(photo: UserPhoto) {
+        userPhotos[photo.id] = stamped(photo, previous = userPhotos[photo.id])
+    }
+
+    fun putObject(key: String, sizeBytes: Long) {
+        objects[key] = sizeBytes
+    }
+
+    /**
+     * Write a successful outcome the way the Lambda does: unconditionally
+     */
+    fun completeTryOn(historyId: String, resultKey: String = resultKeyFor(historyId)) {
+        objects[resultKey] = RESULT_OBJECT_BYTES
+        update(historyId) {
+            it.status(TryOnHistoryStatus.COMPLETED)
+                .resultPhotoUrl(resultKey)
+                .errorMessage(null)
+                .completedAt(now())
+        }
+    }
+
+    /**
+     * Write a failed outcome the way the Lambda does: unconditionally
+     */
+    fun failTryOn(historyId: String, errorMessage: String = config.lambdaErrorMessage) {
+        update(historyId) {
+            it.status(TryOnHistoryStatus.FAILED).errorMessage(errorMessage)
+        }
+    }
+
+    /**
+     * Download the object at [key] the way an image loader fetches a signed URL. Downloads
+     * in flight split [FakeBackendConfig.downloadBytesPerSecond], so starting many at once
+     * delays each of them. Returns the object's size.
+     */
+    suspend fun fetchObject(key: String): Long {
+        roundTrip("getObject")
+        val totalBytes = objects[key] ?: throw FakeNetworkException("No object at $key")
+
+        activeDownloads.incrementAndGet()
+        try {
+            var receivedBytes = 0.0
+            while (receivedBytes < totalBytes) {
+                delay(DOWNLOAD_TICK_MS)
+                receivedBytes += config.downloadBytesPerSecond * DOWNLOAD_TICK_MS / 1000.0 / activeDownloads.get()
+            }
+        } finally {
+            activeDownloads.decrementAndGet()
+        }
+        return totalBytes
+    }
+
+    fun resultKeyFor(historyId: String) = "results/$identityId/result-$historyId.jpg"
+
+    private fun update(historyId: String, change: (TryOnHistory.CopyOfBuilder) -> TryOnHistory.CopyOfBuilder) {
+        synchronized(lock) {
+            val current = histories[historyId] ?: return
+            histories[historyId] = stamped(change(current.copyOfBuilder()).build(), previous = current)
+        }
+    }
+
+    private suspend fun roundTrip(operation: String) {
+        requestCounts.getOrPut(operation) { AtomicInteger() }.incrementAndGet()
+        val config = config
+        val jitter = if (config.latencyJitterMs > 0) nextLong(config.latencyJitterMs + 1) else 0
+        delay(config.requestLatencyMs + jitter)
+        if (nextDouble() < config.failureRate) {
+            throw FakeNetworkException("Injected failure in $operation")
+        }
+    }
+
+    /**
+     * Send [totalBytes] at the configured bandwidth, reporting progress every
+     * [FakeBackendConfig.progressIntervalBytes]. A dropped connection fails the request
+     * after the bytes before the drop were sent.
+     */
+    private suspend fun transfer(
+        operation: String,
+        totalBytes: Long,
+        onProgress: (currentBytes: Long, totalBytes: Long) -> Unit,
+    ) {
+        val dropAt = if (totalBytes > 0 && nextDouble() < config.uploadDisconnectRate) nextLong(totalBytes) else null
+        val endBytes = dropAt ?: totalBytes
+        var sentBytes = 0L
+
+        while (sentBytes < endBytes) {
+            val config = config
+            val chunk = minOf(config.progressIntervalBytes, endBytes - sentBytes)
+            delay(chunk * 1000 / config.uploadBytesPerSecond)
+            sentBytes += chunk
+            uploadedBytes.addAndGet(chunk)
+            onProgress(sentBytes, totalBytes)
+        }
+
+        if (dropAt != null) {
+            uploadDisconnects.incrementAndGet()
+            throw FakeNetworkException("Connection dropped in $operation at $dropAt/$totalBytes bytes")
+        }
+    }
+
+    private fun nextLong(until: Long): Long = synchronized(random) { random.nextLong(until) }
+
+    private fun nextDouble(): Double = synchronized(random) { random.nextDouble() }
+
+    private fun now(): Temporal.DateTime = Temporal.DateTime(Date(clock()), 0)
+
+    // createdAt and updatedAt are read-only on the generated models, AppSync fills them in
+    private fun <T : Any> stamped(model: T, previous: T?): T {
+        val now = now()
+        val createdAt = previous?.let { readField(it, "createdAt") } ?: now
+        writeField(model, "createdAt", createdAt)
+        writeField(model, "updatedAt", now)
+        return model
+    }
+
+    private fun readField(model: Any, name: String): Any? =
+        model.javaClass.getDeclaredField(name).apply { isAccessible = true }.get(model)
+
+    private fun writeField(model: Any, name: String, value: Any?) {
+        model.javaClass.getDeclaredField(name).apply { isAccessible = true }.set(model, value)
+    }
+
+    private fun newId(): String = "fake-${idCounter.incrementAndGet()}"
+
+    private inner class FakeApiRepository : ApiRepository {
+
+        override suspend fun getTryOnHistory(historyId: String): TryOnHistory? {
+            roundTrip("getTryOnHistory")
+            return histories[historyId]
+        }
+
+        override suspend fun listTryOnHistories(identityId: String): List<TryOnHistory> {
+            roundTrip("listTryOnHistories")
+            return histories.values
+                .filter { it.userId == identityId }
+                .sortedByDescending { it.createdAt.toDate() }
+        }
+
+        override suspend fun createTryOnHistory(history: TryOnHistory): TryOnHistory {
+            roundTrip("createTryOnHistory")
+            putHistory(history)
+            return histories.getValue(history.id)
+        }
+
+        override suspend fun listUserPhotos(userId: String): List<UserPhoto> {
+            roundTrip("listUserPhotos")
+            return userPhotos.values.filter { it.userId == userId }
+        }
+
+        override suspend fun createUserPhoto(photo: UserPhoto): UserPhoto {
+            roundTrip("createUserPhoto")
+            putUserPhoto(photo)
+            return userPhotos.getValue(photo.id)
+        }
+
+        override suspend fun mutate(
+            document: String,
+            variables: Map<String, Any>,
+        ): GraphQLResponse<String> {
+            if ("virtualTryOn(" in document) return triggerLambda(variables)
+
+            roundTrip("mutate")
+            val data = JsonObject()
+            val errors = mutableListOf<GraphQLResponse.Error>()
+
+            OPERATION_PATTERN.findAll(document).forEach { match ->
+                val (alias, field, inputName, conditionName) = match.destructured
+                val responseKey = alias.ifEmpty { field }
+                val input = variables[inputName] as Map<*, *>
+                val condition = conditionName.takeIf { it.isNotEmpty() }?.let { variables[it] as? Map<*, *> }
+
+                val error = when (field) {
+                    "updateTryOnHistory" -> applyUpdate(input, condition)
+                    "deleteTryOnHistory" -> applyDelete(input, condition)
+                    else -> Failure("Unsupported field $field")
+                }
+
+                if (error == null) {
+                    data.add(responseKey, JsonObject().apply { addProperty("id", input["id"] as String) })
+                } else {
+                    data.add(responseKey, JsonNull.INSTANCE)
+                    errors += GraphQLResponse.Error(
+                        error.message,
+                        null,
+                        listOf(GraphQLPathSegment(responseKey)),
+                        error.errorType?.let { mapOf("errorType" to it) }
+                    )
+                }
+            }
+
+            return GraphQLResponse(data.toString(), errors)
+        }
+
+        private suspend fun applyUpdate(input: Map<*, *>, condition: Map<*, *>?): Failure? {
+            val historyId = input["id"] as String
+            if (condition != null) beforeConditionalUpdate?.invoke(historyId)
+
+            synchronized(lock) {
+                val current = histories[historyId] ?: return conditionalFailure()
+                if (condition != null && !matches(current, condition)) return conditionalFailure()
+
+                val builder = current.copyOfBuilder()
+                input.forEach { (name, value) ->
+                    when (name) {
+                        "status" -> builder.status((value as String?)?.let { TryOnHistoryStatus.valueOf(it) })
+                        "errorMessage" -> builder.errorMessage(value as String?)
+                        "resultPhotoUrl" -> builder.resultPhotoUrl(value as String?)
+                        "metadata" -> builder.metadata(value as String?)
+                        "completedAt" -> builder.completedAt((value as String?)?.let { Temporal.DateTime(it) })
+                    }
+                }
+                histories[historyId] = stamped(builder.build(), previous = current)
+            }
+            return null
+        }
+
+        private fun applyDelete(input: Map<*, *>, condition: Map<*, *>?): Failure? {
+            val historyId = input["id"] as String
+            synchronized(lock) {
+                val current = histories[historyId] ?: return conditionalFailure()
+                if (condition != null && !matches(current, condition)) return conditionalFailure()
+                histories.remove(historyId)
+            }
+            return null
+        }
+
+        // Supports the eq/ne comparisons the app sends
+        private fun matches(history: TryOnHistory, condition: Map<*, *>): Boolean =
+            condition.all { (field, comparison) ->
+                val actual = when (field) {
+                    "status" -> history.status?.name
+                    "errorMessage" -> history.errorMessage
+                    "resultPhotoUrl" -> history.resultPhotoUrl
+                    else -> throw IllegalArgumentException("Unsupported condition field $field")
+                }
+                (comparison as Map<*, *>).all { (operator, expected) ->
+                    when (operator) {
+                        "eq" -> actual == expected
+                        "ne" -> actual != expected
+                        else -> throw IllegalArgumentException("Unsupported condition operator $operator")
+                    }
+                }
+            }
+
+        private fun conditionalFailure() = Failure(
+            "The conditional request failed (Service: DynamoDb, Status Code: 400)",
+            "DynamoDB:ConditionalCheckFailedException"
+        )
+
+        private suspend fun triggerLambda(variables: Map<String, Any>): GraphQLResponse<String> {
+            roundTrip("virtualTryOn")
+            val historyId = variables["historyId"] as String
+            val config = config
+
+            lambdaScope.launch {
+                delay(config.lambdaProcessingMs)
+                if (nextDouble() < config.lambdaFailureRate) {
+                    failTryOn(historyId, config.lambdaErrorMessage)
+                } else {
+                    completeTryOn(historyId)
+                }
+            }
+
+            // AppSync gives up on resolvers that run longer than its timeout
+            if (config.lambdaProcessingMs > config.appSyncTimeoutMs) {
+                delay(config.appSyncTimeoutMs)
+                throw FakeNetworkException("AppSync request timed out")
+            }
+            delay(config.lambdaProcessingMs)
+            return GraphQLResponse("""{"virtualTryOn":null}""", emptyList())
+        }
+    }
+
+    private inner class FakeStorageRepository : StorageRepository {
+
+        override suspend fun uploadFile(
+            key: String,
+            file: File,
+            onProgress: (currentBytes: Long, totalBytes: Long) -> Unit,
+        ) {
+            roundTrip("uploadFile")
+            val totalBytes = file.length()
+            transfer("uploadFile", totalBytes, onProgress)
+            objects[key] = totalBytes
+        }
+
+        override suspend fun getUrl(key: String): String {
+            roundTrip("getUrl")
+            return "$BUCKET_URL/$key?X-Amz-Expires=900&X-Amz-Signature=${newId()}"
+        }
+
+        override suspend fun remove(key: String) {
+            roundTrip("remove")
+            if (key in failingRemovals) throw FakeNetworkException("Injected failure removing $key")
+            // Like S3, removing an object that doesn't exist succeeds
+            objects.remove(key)
+        }
+    }
+
+    /**
+     * Multipart uploads the way S3 runs them, without the 5 MiB minimum part size so tests
+     * can use small files
+     */
+    private inner class FakeMultipartStorage : MultipartStorage {
+
+        // Upload ID to the sizes of its received parts by part number
+        private val uploads = ConcurrentHashMap<String, ConcurrentHashMap<Int, Long>>()
+
+        override suspend fun createUpload(key: String): String {
+            roundTrip("createMultipartUpload")
+            return newId().also { uploads[it] = ConcurrentHashMap() }
+        }
+
+        override suspend fun uploadPart(key: String, uploadId: String, partNumber: Int, bytes: ByteArray): String {
+            roundTrip("uploadPart")
+            val parts = uploads[uploadId] ?: throw IllegalStateException("NoSuchUpload: $uploadId")
+            transfer("uploadPart", bytes.size.toLong()) { _, _ -> }
+            parts[partNumber] = bytes.size.toLong()
+            return eTag(uploadId, partNumber, bytes.size.toLong())
+        }
+
+        override suspend fun completeUpload(key: String, uploadId: String, eTags: List<String>) {
+            roundTrip("completeMultipartUpload")
+            val parts = uploads[uploadId] ?: throw IllegalStateException("NoSuchUpload: $uploadId")
+            val expected = parts.keys.sorted().map { eTag(uploadId, it, parts.getValue(it)) }
+            if (eTags != expected) {
+                throw IllegalStateException("InvalidPart: $eTags does not match $expected")
+            }
+            uploads.remove(uploadId)
+            objects[key] = parts.values.sum()
+        }
+
+        override suspend fun abortUpload(key: String, uploadId: String) {
+            roundTrip("abortMultipartUpload")
+            uploads.remove(uploadId)
+        }
+
+        private fun eTag(uploadId: String, partNumber: Int, size: Long) = "\"$uploadId-$partNumber-$size\""
+    }
+
+    private inner class FakeAuthRepository : AuthRepository {
+
+        override suspend fun isSignedIn(): Boolean {
+            roundTrip("fetchAuthSession")
+            return signedIn
+        }
+
+        override suspend fun getUserId(): String {
+            roundTrip("fetchAuthSession")
+            return userId
+        }
+
+        override suspend fun getIdentityId(): String {
+            roundTrip("fetchAuthSession")
+            return identityId
+        }
+
+        override suspend fun signOut(): Boolean {
+            roundTrip("signOut")
+            signedIn = false
+            return true
+        }
+    }
+
+    private class Failure(val message: String, val errorType: String? = null)
+
+    companion object {
+        private const val BUCKET_URL = "https://fake-bucket.s3.amazonaws.com"
+        private const val RESULT_OBJECT_BYTES = 400L * 1024
+        private const val DOWNLOAD_TICK_MS = 10L
+
+        // "alias: field(input: $inputN, condition: $conditionN)", alias and condition optional
+        private val OPERATION_PATTERN = Regex(
+            """(?:(\w+):\s*)?(\w+TryOnHistory)\(input:\s*\$(\w+)(?:,\s*condition:\s*\$(\w+))?\)"""
+        )
+    }
+}
@@ -0,0 +1,233 @@
+package id.harissabil.wearnow.ui
+
+import android.content.Context
+import android.content.ContextWrapper
+import coil.Coil
+import coil.ComponentRegistry
+import coil.ImageLoader
+import coil.disk.DiskCache
+import coil.memory.MemoryCache
+import coil.request.DefaultRequestOptions
+import coil.request.Disposable
+import coil.request.ErrorResult
+import coil.request.ImageRequest
+import coil.request.ImageResult
+import com.amplifyframework.core.model.temporal.Temporal
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import com.amplifyframework.datastore.generated.model.UserPhoto
+import id.harissabil.wearnow.data.PhotoSize
+import id.harissabil.wearnow.data.UserPhotoDerivatives
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.ui.screen.history.HistoryViewModel
+import id.harissabil.wearnow.ui.screen.history.utils.PrefetchWindow
+import id.harissabil.wearnow.ui.screen.home.HomeViewModel
+import id.harissabil.wearnow.ui.screen.result.ResultViewModel
+import id.harissabil.wearnow.utils.TryOnHandoffCache
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.Date
+
+/**
+ * Runs a try-on from Home through History to Result against [FakeBackend], driving the
+ * view models the way their screens do: the user photo is picked and measured, the garment
+ * is uploaded and the Lambda completes, the history lists and signs the new record, and the
+ * result opens from the handoff or, after the app restarted, from the record alone.
+ */
+class TryOnFlowTest {
+
+    private lateinit var cacheDir: File
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        cacheDir = Files.createTempDirectory("tryon-flow").toFile()
+        context = TestContext(cacheDir)
+        // Result prefetches are answered without a network
+        Coil.setImageLoader(OfflineImageLoader(context))
+    }
+
+    @After
+    fun tearDown() {
+        Dispatchers.resetMain()
+        Coil.reset()
+        cacheDir.deleteRecursively()
+    }
+
+    @Test
+    fun tryOn_completes_andOpensFromHistoryAndResult() = runTest {
+        val backend = newBackend("us-east-1:flow-1")
+        val masterKey = putUserPhoto(backend)
+
+        // Home: the default photo is selected and its selector thumbnail signed once measured
+        val home = HomeViewModel(backend.api, backend.storage, backend.auth)
+        val selected = home.uiState.first { it.selectedUserPhoto != null }.selectedUserPhoto!!
+        assertEquals(masterKey, selected.photoUrl)
+        home.onUserPhotoMeasured(THUMBNAIL_PX, THUMBNAIL_PX)
+        val thumbnail = home.uiState.first { selected.id in it.userPhotoThumbnails }
+            .userPhotoThumbnails.getValue(selected.id)
+        assertEquals(UserPhotoDerivatives.keyFor(masterKey, PhotoSize.THUMBNAIL), thumbnail.key)
+        assertSigned(thumbnail.key, thumbnail.url)
+
+        val historyId = startTryOn(home)
+        assertNotNull("Try-on failed: ${home.uiState.value.errorMessage}", historyId)
+        historyId!!
+        assertFalse(home.uiState.value.isProcessing)
+
+        // The record keeps the master, the photo the Lambda reads
+        val stored = backend.history(historyId)!!
+        assertEquals(TryOnHistoryStatus.COMPLETED, stored.status)
+        assertEquals(masterKey, stored.userPhotoUrl)
+        assertEquals(backend.resultKeyFor(historyId), stored.resultPhotoUrl)
+        assertTrue(stored.garmentPhotoUrl in backend.objectKeys())
+        val handoffUrl = TryOnHandoffCache.get(historyId)?.resultPhotoUrl
+        assertSigned(stored.resultPhotoUrl, handoffUrl)
+
+        // History: the new record is listed and its result signed once it is on screen
+        val history = HistoryViewModel(backend.api, backend.storage, backend.auth)
+        val listed = history.uiState.first { !it.isLoading && it.historyItems.isNotEmpty() }
+        assertEquals(listOf(historyId), listed.visibleIds)
+        history.onViewportChanged(context, listed.visibleIds, PrefetchWindow.of(0, 0, 1, true), THUMBNAIL_PX)
+        val item = history.uiState.first { state -> state.historyItems.values.single().resultImageUrl != null }
+            .historyItems.values.single()
+        assertFalse(item.isLoadingImage)
+        assertSigned(stored.resultPhotoUrl, item.resultImageUrl)
+
+        // Result: restored from the handoff on its first frame, the rest signed afterwards
+        val result = ResultViewModel(backend.api, backend.storage, backend.auth)
+        assertTrue(result.restoreFromHandoff(historyId))
+        assertEquals(handoffUrl, result.uiState.value.resultPhotoUrl)
+        assertNull(result.uiState.value.userPhotoUrl)
+        result.loadResult(historyId)
+        result.onComparisonImageMeasured(COMPARISON_WIDTH_PX, COMPARISON_HEIGHT_PX)
+        val shown = result.uiState.first { it.userPhotoUrl != null && it.garmentPhotoUrl != null }
+        assertFalse(shown.isLoading)
+        assertEquals(handoffUrl, shown.resultPhotoUrl)
+        assertSigned(stored.garmentPhotoUrl, shown.garmentPhotoUrl)
+        assertSigned(UserPhotoDerivatives.keyFor(masterKey, PhotoSize.PREVIEW), shown.userPhotoUrl)
+        assertNull(shown.errorMessage)
+    }
+
+    @Test
+    fun result_withoutHandoff_loadsTheRecordAndSignsEveryImage() = runTest {
+        val backend = newBackend("us-east-1:flow-2")
+        val masterKey = putUserPhoto(backend)
+        val home = HomeViewModel(backend.api, backend.storage, backend.auth)
+        home.uiState.first { it.selectedUserPhoto != null }
+        val historyId = startTryOn(home)!!
+
+        // The app restarted, only the record is left
+        TryOnHandoffCache.remove(historyId)
+        val stored = backend.history(historyId)!!
+
+        val result = ResultViewModel(backend.api, backend.storage, backend.auth)
+        assertFalse(result.restoreFromHandoff(historyId))
+        result.onComparisonImageMeasured(COMPARISON_WIDTH_PX, COMPARISON_HEIGHT_PX)
+        result.loadResult(historyId)
+        val shown = result.uiState.first {
+            it.resultPhotoUrl != null && it.garmentPhotoUrl != null && it.userPhotoUrl != null
+        }
+
+        assertEquals(historyId, shown.tryOnHistory?.id)
+        assertFalse(shown.isLoading)
+        assertFalse(shown.isDownloading)
+        assertSigned(stored.resultPhotoUrl, shown.resultPhotoUrl)
+        assertSigned(stored.garmentPhotoUrl, shown.garmentPhotoUrl)
+        assertSigned(UserPhotoDerivatives.keyFor(masterKey, PhotoSize.PREVIEW), shown.userPhotoUrl)
+    }
+
+    private fun TestScope.newBackend(identityId: String): FakeBackend {
+        Dispatchers.setMain(StandardTestDispatcher(testScheduler))
+        return FakeBackend(
+            lambdaScope = backgroundScope,
+            identityId = identityId,
+            clock = { testScheduler.currentTime }
+        )
+    }
+
+    private fun putUserPhoto(backend: FakeBackend): String {
+        val masterKey = UserPhotoDerivatives.newMasterKey(backend.identityId, timestamp = 1L)
+        PhotoSize.entries.forEach { size ->
+            backend.putObject(UserPhotoDerivatives.keyFor(masterKey, size)!!, OBJECT_BYTES)
+        }
+        backend.putUserPhoto(
+            UserPhoto.builder()
+                .userId(backend.userId)
+                .photoUrl(masterKey)
+                .uploadedAt(Temporal.DateTime(Date(0), 0))
+                .id("photo-${backend.identityId}")
+                .isDefault(true)
+                .build()
+        )
+        return masterKey
+    }
+
+    private suspend fun startTryOn(home: HomeViewModel): String? {
+        val garment = File(cacheDir, "garment_${System.nanoTime()}.jpg").apply {
+            writeBytes(ByteArray(GARMENT_BYTES))
+        }
+        val completed = CompletableDeferred<String?>()
+        home.startVirtualTryOn(context, garment) { completed.complete(it) }
+        return completed.await()
+    }
+
+    private fun assertSigned(key: String?, url: String?) {
+        assertNotNull("No key", key)
+        assertNotNull("$key was not signed", url)
+        assertTrue("$url is not a signed URL of $key", url!!.substringBefore('?').endsWith("/$key"))
+        assertTrue("$url has no signature", "X-Amz-Signature=" in url)
+    }
+
+    private class TestContext(private val cacheDir: File) : ContextWrapper(null) {
+        override fun getCacheDir(): File = cacheDir
+        override fun getExternalCacheDir(): File? = null
+        override fun getApplicationContext(): Context = this
+    }
+
+    // Answers every request with an error, as Coil does without a network, and caches nothing
+    private class OfflineImageLoader(private val context: Context) : ImageLoader {
+        override val defaults = DefaultRequestOptions()
+        override val components = ComponentRegistry()
+        override val memoryCache: MemoryCache? = null
+        override val diskCache: DiskCache? = null
+
+        override fun enqueue(request: ImageRequest): Disposable = object : Disposable {
+            override val job: Deferred<ImageResult> = CompletableDeferred(offline(request))
+            override val isDisposed: Boolean get() = true
+            override fun dispose() = Unit
+        }
+
+        override suspend fun execute(request: ImageRequest): ImageResult = offline(request)
+
+        override fun shutdown() = Unit
+
+        override fun newBuilder(): ImageLoader.Builder = ImageLoader.Builder(context)
+
+        private fun offline(request: ImageRequest) = ErrorResult(null, request, IOException("Offline"))
+    }
+
+    private companion object {
+        const val OBJECT_BYTES = 200L * 1024
+        const val GARMENT_BYTES = 64 * 1024
+        const val THUMBNAIL_PX = 120
+        const val COMPARISON_WIDTH_PX = 480
+        const val COMPARISON_HEIGHT_PX = 640
+    }
+}
@@ -0,0 +1,152 @@
+package id.harissabil.wearnow.ui.screen.home
+
+import com.amplifyframework.core.model.temporal.Temporal
+import com.amplifyframework.datastore.generated.model.UserPhoto
+import id.harissabil.wearnow.data.PhotoSize
+import id.harissabil.wearnow.data.UserPhotoDerivatives
+import id.harissabil.wearnow.data.fake.FakeBackend
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.Date
+
+/**
+ * Drives [HomeViewModel] against [FakeBackend] from several threads at once: the screen's
+ * setters run on [Dispatchers.Default] while the user photos load and their thumbnails are
+ * signed on the main dispatcher. No action may be lost.
+ *
+ * The reducer doesn't allocate less than the copy it replaced, every dispatch also allocates
+ * its action. Measured on a 64-bit JVM that is 64 bytes per dispatch against 48 per copy.
+ */
+class HomeViewModelConcurrencyTest {
+
+    @After
+    fun tearDown() {
+        Dispatchers.resetMain()
+    }
+
+    @Test
+    fun concurrentDispatches_loseNoActions() = runTest {
+        val backend = newBackend("us-east-1:home-concurrency")
+        val photoIds = putUserPhotos(backend)
+        val home = HomeViewModel(backend.api, backend.storage, backend.auth)
+
+        // Every writer owns one field and keeps writing until the last thumbnail is signed
+        val writers = writers(home).map { write ->
+            launch(Dispatchers.Default) {
+                var i = 0
+                while (i < MIN_WRITES || (home.uiState.value.userPhotoThumbnails.size < PHOTO_COUNT && i < MAX_WRITES)) {
+                    write(i++)
+                }
+                write(LAST_WRITE)
+            }
+        }
+        // Loading and signing dispatch from the main dispatcher while the writers run
+        home.onUserPhotoMeasured(THUMBNAIL_PX, THUMBNAIL_PX)
+        writers.joinAll()
+
+        val state = home.uiState.value
+        assertEquals(photoIds, state.userPhotos.map { it.id }.toSet())
+        assertEquals(DEFAULT_PHOTO_ID, state.selectedUserPhoto?.id)
+        assertEquals(photoIds, state.userPhotoThumbnails.keys)
+        assertTrue(state.isCameraReady)
+        assertEquals(GarmentClass.FOOTWEAR, state.selectedGarmentClass)
+        assertEquals(MergeStyle.DETAILED, state.selectedMergeStyle)
+        assertTrue(state.showOptionsDialog)
+    }
+
+    @Test
+    fun dispatch_allocatesOnlyItsActionMoreThanACopy() = runTest {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+
+        val backend = newBackend("us-east-1:home-allocation")
+        val home = HomeViewModel(backend.api, backend.storage, backend.auth)
+        val plain = MutableStateFlow(HomeUiState())
+        val copy = { plain.value = plain.value.copy(isCameraReady = !plain.value.isCameraReady) }
+        val dispatch = { home.setCameraReady(!home.uiState.value.isCameraReady) }
+        fun bytesPerCall(call: () -> Unit): Long {
+            val threadId = Thread.currentThread().id
+            val before = threads.getThreadAllocatedBytes(threadId)
+            repeat(ALLOCATION_CALLS) { call() }
+            return (threads.getThreadAllocatedBytes(threadId) - before) / ALLOCATION_CALLS
+        }
+
+        repeat(WARMUP_ROUNDS) {
+            bytesPerCall(copy)
+            bytesPerCall(dispatch)
+        }
+        val perCopy = bytesPerCall(copy)
+        val perDispatch = bytesPerCall(dispatch)
+
+        assertTrue(
+            "A dispatch allocated $perDispatch bytes, a copy $perCopy",
+            perDispatch <= perCopy + MAX_ACTION_BYTES
+        )
+    }
+
+    private fun writers(home: HomeViewModel) = listOf<(Int) -> Unit>(
+        { home.setCameraReady(it % 2 == 1) },
+        { home.setGarmentClass(GarmentClass.entries[it % GarmentClass.entries.size]) },
+        { home.setMergeStyle(MergeStyle.entries[it % MergeStyle.entries.size]) },
+        { if (it % 2 == 1) home.showOptionsDialog() else home.hideOptionsDialog() },
+    )
+
+    private fun TestScope.newBackend(identityId: String): FakeBackend {
+        Dispatchers.setMain(StandardTestDispatcher(testScheduler))
+        return FakeBackend(
+            lambdaScope = backgroundScope,
+            identityId = identityId,
+            clock = { testScheduler.currentTime }
+        )
+    }
+
+    private fun putUserPhotos(backend: FakeBackend): Set<String> = List(PHOTO_COUNT) { i ->
+        val masterKey = UserPhotoDerivatives.newMasterKey(backend.identityId, timestamp = i + 1L)
+        PhotoSize.entries.forEach { size ->
+            backend.putObject(UserPhotoDerivatives.keyFor(masterKey, size)!!, OBJECT_BYTES)
+        }
+        val photoId = "photo-$i"
+        backend.putUserPhoto(
+            UserPhoto.builder()
+                .userId(backend.userId)
+                .photoUrl(masterKey)
+                .uploadedAt(Temporal.DateTime(Date(i * 1000L), 0))
+                .id(photoId)
+                .isDefault(photoId == DEFAULT_PHOTO_ID)
+                .build()
+        )
+        photoId
+    }.toSet()
+
+    private companion object {
+        const val PHOTO_COUNT = 20
+        const val DEFAULT_PHOTO_ID = "photo-0"
+        const val OBJECT_BYTES = 200L * 1024
+        const val THUMBNAIL_PX = 120
+        const val MIN_WRITES = 50_000
+        const val MAX_WRITES = 2_000_000
+
+        // Odd, and FOOTWEAR and DETAILED, so every field ends away from its default
+        const val LAST_WRITE = 11
+
+        const val ALLOCATION_CALLS = 100_000
+        const val WARMUP_ROUNDS = 5
+
+        // One small action object, boxed or not
+        const val MAX_ACTION_BYTES = 32L
+    }
+}
@@ -0,0 +1,85 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import kotlin.random.Random
+
+/**
+ * java.awt stand-ins for the Bitmap calls of the image pipeline, and the synthetic photo
+ * it is run on. Shared by the unit tests and the benchmark module, which compiles this
+ * file from the test sources.
+ */
+object JvmRaster {
+
+    /**
+     * Phone-like photo: a lit wall with a textured garment-like block and sensor noise,
+     * seeded so every call with the same arguments renders the same pixels
+     */
+    fun syntheticPhoto(width: Int, height: Int, seed: Long): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val random = Random(seed)
+        val garmentLeft = width * 3 / 10
+        val garmentRight = width * 7 / 10
+        val garmentTop = height / 5
+        val garmentBottom = height * 9 / 10
+        val row = IntArray(width)
+
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val noise = random.nextInt(-6, 7)
+                val inGarment = x in garmentLeft until garmentRight && y in garmentTop until garmentBottom
+                row[x] = if (inGarment) {
+                    // Woven texture so the garment compresses like fabric, not a flat fill
+                    val weave = if ((x / 6 + y / 6) % 2 == 0) 18 else -18
+                    rgb(40 + weave + noise, 70 + weave + noise, 150 + weave + noise)
+                } else {
+                    // Soft vertical light falloff of a wall behind the subject
+                    val light = 225 - 40 * y / height + noise
+                    rgb(light, light - 4, light - 10)
+                }
+            }
+            image.setRGB(0, y, width, 1, row, 0, width)
+        }
+        return image
+    }
+
+    /**
+     * Bilinear, like Bitmap.scale with filtering
+     */
+    fun scale(image: BufferedImage, width: Int, height: Int): BufferedImage {
+        val target = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        target.createGraphics().apply {
+            setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
+            drawImage(image, 0, 0, width, height, null)
+        }.dispose()
+        return target
+    }
+
+    /**
+     * JPEG at [quality] 0-100, like Bitmap.compress
+     */
+    fun encodeJpeg(image: BufferedImage, quality: Int): ByteArray {
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        val output = ByteArrayOutputStream()
+        try {
+            ImageIO.createImageOutputStream(output).use { stream ->
+                writer.output = stream
+                val param = writer.defaultWriteParam.apply {
+                    compressionMode = ImageWriteParam.MODE_EXPLICIT
+                    compressionQuality = quality / 100f
+                }
+                writer.write(null, IIOImage(image, null, null), param)
+            }
+        } finally {
+            writer.dispose()
+        }
+        return output.toByteArray()
+    }
+
+    private fun rgb(r: Int, g: Int, b: Int): Int =
+        (r.coerceIn(0, 255) shl 16) or (g.coerceIn(0, 255) shl 8) or b.coerceIn(0, 255)
+}
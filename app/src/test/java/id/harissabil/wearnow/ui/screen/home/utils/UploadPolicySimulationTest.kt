@@ -0,0 +1,131 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.data.fake.FakeBackendConfig
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.io.File
+
+/**
+ * Uploads the same garment photo over simulated links, once with the fixed limits and once
+ * with the limits [UploadPolicy] picks from the throughput measured during the first upload.
+ *
+ * The photo is the [JvmRaster] one the benchmarks compress, encoded through
+ * [CompressionPolicy.encodeWithinBudget], the same quality loop the app runs on Bitmap,
+ * and uploaded through [FakeBackend] in virtual time.
+ */
+class UploadPolicySimulationTest {
+
+    private enum class Profile(val bytesPerSecond: Long) {
+        WIFI(2_500_000),
+        LTE(750_000),
+        HSPA(200_000),
+        WEAK_3G(60_000),
+        EDGE(20_000),
+    }
+
+    private class Outcome(val profile: Profile, val tier: UploadPolicy.LinkTier, val fixedMs: Long, val adaptiveMs: Long) {
+        fun describe(): String = "$profile on $tier: fixed ${fixedMs}ms, adaptive ${adaptiveMs}ms"
+    }
+
+    @Test
+    fun adaptiveLimits_cutUploadTimeOnSlowLinks() = runTest {
+        val photo = JvmRaster.syntheticPhoto(PHOTO_WIDTH, PHOTO_HEIGHT, PHOTO_SEED)
+        val fixedFile = encode(photo, CompressionPolicy.Limits.DEFAULT)
+
+        val outcomes = Profile.entries.map { profile ->
+            val backend = FakeBackend(
+                config = FakeBackendConfig(uploadBytesPerSecond = profile.bytesPerSecond),
+                lambdaScope = backgroundScope
+            )
+            val estimator = BandwidthEstimator(clockMs = { testScheduler.currentTime })
+
+            val fixedMs = timedUpload(backend, estimator, fixedFile)
+            val limits = UploadPolicy.limitsFor(estimator.bytesPerSecond)
+            val adaptiveMs = timedUpload(backend, estimator, encode(photo, limits))
+
+            Outcome(profile, UploadPolicy.tierFor(estimator.bytesPerSecond), fixedMs, adaptiveMs)
+        }
+
+        val byProfile = outcomes.associateBy { it.profile }
+        // Fast links keep full quality
+        assertEquals(UploadPolicy.LinkTier.FAST, byProfile.getValue(Profile.WIFI).tier)
+        assertEquals(UploadPolicy.LinkTier.FAST, byProfile.getValue(Profile.LTE).tier)
+        outcomes.forEach { assertTrue(it.describe(), it.adaptiveMs <= it.fixedMs) }
+        // Slow links drop noticeably
+        byProfile.getValue(Profile.WEAK_3G).let { assertTrue(it.describe(), it.adaptiveMs < it.fixedMs * 0.7) }
+        byProfile.getValue(Profile.EDGE).let { assertTrue(it.describe(), it.adaptiveMs < it.fixedMs * 0.5) }
+    }
+
+    @Test
+    fun estimator_convergesAndExpires() {
+        var now = 0L
+        val estimator = BandwidthEstimator(clockMs = { now })
+        val sample = estimator.newTransfer()
+
+        var sent = 0L
+        repeat(20) {
+            now += 1000
+            sent += 100_000
+            sample(sent, 2_000_000)
+        }
+        assertEquals(100_000.0, estimator.bytesPerSecond!!, 1.0)
+
+        now += BandwidthEstimator.STALE_AFTER_MS + 1
+        assertNull(estimator.bytesPerSecond)
+    }
+
+    @Test
+    fun partSize_onlyForLargeFilesOnSlowLinks() {
+        val mib = 1024L * 1024
+
+        // Compressed uploads always fit one request
+        assertNull(UploadPolicy.partSizeFor(500 * 1024, 20_000.0))
+        // Fast enough to send 8 MiB in one go
+        assertNull(UploadPolicy.partSizeFor(8 * mib, 2_000_000.0))
+        assertEquals(UploadPolicy.MIN_PART_SIZE, UploadPolicy.partSizeFor(8 * mib, 100_000.0))
+        assertEquals(UploadPolicy.MIN_PART_SIZE, UploadPolicy.partSizeFor(8 * mib, null))
+        assertEquals(UploadPolicy.MAX_PART_SIZE, UploadPolicy.partSizeFor(400 * mib, 10_000_000.0))
+    }
+
+    private suspend fun TestScope.timedUpload(
+        backend: FakeBackend,
+        estimator: BandwidthEstimator,
+        file: File,
+    ): Long {
+        val startedAt = testScheduler.currentTime
+        val sample = estimator.newTransfer()
+        backend.storage.uploadFile("garment-photos/${file.name}", file) { currentBytes, totalBytes ->
+            sample(currentBytes, totalBytes)
+        }
+        return testScheduler.currentTime - startedAt
+    }
+
+    private fun encode(photo: BufferedImage, limits: CompressionPolicy.Limits): File {
+        val (width, height) = CompressionPolicy.scaledSize(
+            photo.width,
+            photo.height,
+            maxWidth = limits.maxDimension,
+            maxHeight = limits.maxDimension
+        ) ?: (photo.width to photo.height)
+
+        val scaled = JvmRaster.scale(photo, width, height)
+        val encoded = CompressionPolicy.encodeWithinBudget(limits) { quality -> JvmRaster.encodeJpeg(scaled, quality) }
+        return File.createTempFile("upload_policy_", ".jpg").apply {
+            deleteOnExit()
+            writeBytes(encoded.bytes)
+        }
+    }
+
+    private companion object {
+        // 12 MP portrait frame
+        const val PHOTO_WIDTH = 3000
+        const val PHOTO_HEIGHT = 4000
+        const val PHOTO_SEED = 7L
+    }
+}
@@ -0,0 +1,53 @@
+package id.harissabil.wearnow.ui.screen.home.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Feeds [UploadProgressTracker] chunk-sized progress events as fast as Amplify reports them
+ * and checks every whole percentage is published once and the last one is never dropped
+ */
+class UploadProgressTrackerTest {
+
+    @Test
+    fun burstOfChunks_publishesEveryPercentOnceAndEndsOnTheLast() {
+        val tracker = UploadProgressTracker()
+        var published = 0
+
+        // 8 KB chunks of a 3 MB upload arrive in a tight loop, stopping short of the end
+        var sent = 0L
+        while (sent < STOPPED_AT_BYTES) {
+            sent = minOf(sent + CHUNK_BYTES, STOPPED_AT_BYTES)
+            if (tracker.report(sent, TOTAL_BYTES)) published++
+        }
+
+        val lastPercent = (STOPPED_AT_BYTES * 100 / TOTAL_BYTES).toInt()
+        assertEquals(lastPercent, tracker.percent.value)
+        // 0% through the last percentage, each once
+        assertEquals(lastPercent + 1, published)
+    }
+
+    @Test
+    fun samePercent_isNotPublishedAgain() {
+        val tracker = UploadProgressTracker()
+
+        assertTrue(tracker.report(0.5))
+        assertFalse(tracker.report(0.505))
+        assertTrue(tracker.report(1.0))
+        assertEquals(100, tracker.percent.value)
+
+        tracker.reset()
+        assertNull(tracker.percent.value)
+        assertTrue(tracker.report(0.0))
+        assertEquals(0, tracker.percent.value)
+    }
+
+    private companion object {
+        const val TOTAL_BYTES = 3L * 1024 * 1024
+        const val CHUNK_BYTES = 8L * 1024
+        const val STOPPED_AT_BYTES = TOTAL_BYTES * 73 / 100 + 1
+    }
+}
@@ -0,0 +1,66 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+import android.content.Context
+import android.content.ContextWrapper
+import id.harissabil.wearnow.utils.LocalImageCache
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+/**
+ * Exports a result that is already in [LocalImageCache] twice and checks the second export
+ * reuses the first file instead of writing it again
+ */
+class ResultShareExporterTest {
+
+    private lateinit var cacheDir: File
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        cacheDir = Files.createTempDirectory("share-export").toFile()
+        context = TestContext(cacheDir)
+    }
+
+    @After
+    fun tearDown() {
+        cacheDir.deleteRecursively()
+    }
+
+    @Test
+    fun secondExport_ofTheSameSize_doesNotWrite() = runTest {
+        val source = LocalImageCache.fileFor(context, RESULT_URL).apply {
+            writeBytes(SOURCE_BYTES)
+            setLastModified(DOWNLOADED_AT_MS)
+        }
+
+        val (first, _) = ResultShareExporter.prepare(context, RESULT_URL, HISTORY_ID, ShareSize.ORIGINAL)
+        assertArrayEquals(SOURCE_BYTES, first.readBytes())
+        // Newer than the source but recognisable, a rewrite would move it to now
+        first.setLastModified(DOWNLOADED_AT_MS + 1_000)
+
+        val (second, _) = ResultShareExporter.prepare(
+            context, "$RESULT_URL?X-Amz-Signature=resigned", HISTORY_ID, ShareSize.ORIGINAL
+        )
+
+        assertEquals(first, second)
+        assertEquals(DOWNLOADED_AT_MS + 1_000, second.lastModified())
+        assertEquals(DOWNLOADED_AT_MS, source.lastModified())
+    }
+
+    private class TestContext(private val cacheDir: File) : ContextWrapper(null) {
+        override fun getCacheDir(): File = cacheDir
+    }
+
+    private companion object {
+        const val HISTORY_ID = "history-1"
+        const val RESULT_URL = "https://bucket.s3.amazonaws.com/results/us-east-1:identity-1/result-history-1.jpg"
+        const val DOWNLOADED_AT_MS = 1_700_000_000_000L
+        val SOURCE_BYTES = ByteArray(4096) { it.toByte() }
+    }
+}
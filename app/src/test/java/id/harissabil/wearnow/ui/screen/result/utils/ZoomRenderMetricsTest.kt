@@ -0,0 +1,43 @@
+package id.harissabil.wearnow.ui.screen.result.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Feeds [ZoomRenderMetrics] a scripted session and checks the percentiles over its window
+ * and the peak memory it reports
+ */
+class ZoomRenderMetricsTest {
+
+    @Test
+    fun frameTime_isTakenOverTheRecordedWindow() {
+        val metrics = ZoomRenderMetrics(capacity = 100)
+        // A slow first zoom, then steady frames of 1..100 ms
+        repeat(50) { metrics.recordFrame(500 * NANOS_PER_MS) }
+        (1..100).forEach { ms -> metrics.recordFrame(ms * NANOS_PER_MS) }
+
+        assertEquals(50.0, metrics.frameTimeMs(50), 0.0)
+        assertEquals(95.0, metrics.frameTimeMs(95), 0.0)
+        assertEquals(100.0, metrics.frameTimeMs(100), 0.0)
+    }
+
+    @Test
+    fun summary_reportsPeakMemoryAndDecodes() {
+        val metrics = ZoomRenderMetrics()
+        metrics.recordMemory(4L * 1024 * 1024)
+        metrics.recordMemory(12L * 1024 * 1024)
+        metrics.recordMemory(8L * 1024 * 1024)
+        repeat(4) { metrics.recordTileDecode(20 * NANOS_PER_MS) }
+
+        val summary = metrics.summary()
+
+        assertTrue(summary, "peak_bitmaps=12288KB" in summary)
+        assertTrue(summary, "tiles=4 " in summary)
+        assertTrue(summary, "frames=0 " in summary)
+    }
+
+    private companion object {
+        const val NANOS_PER_MS = 1_000_000L
+    }
+}
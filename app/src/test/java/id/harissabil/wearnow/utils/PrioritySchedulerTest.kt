@@ -0,0 +1,133 @@
+package id.harissabil.wearnow.utils
+
+import id.harissabil.wearnow.data.fake.FakeBackend
+import id.harissabil.wearnow.ui.screen.history.utils.PrefetchWindow
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Loads the result images of a long history list through [FakeBackend], whose downloads
+ * share the link's bandwidth, and measures in virtual time when the first screen of items
+ * is ready: once with every image requested at once, once through [PriorityScheduler]
+ * with the history screen's concurrency cap and viewport priorities.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class PrioritySchedulerTest {
+
+    @Test
+    fun scheduler_makesFirstScreenReadySooner() = runTest {
+        val unbounded = newBackend()
+        val unboundedReady = mutableMapOf<Int, Long>()
+        unbounded.keys.forEachIndexed { index, key ->
+            launch {
+                unbounded.backend.fetchObject(key)
+                unboundedReady[index] = currentTime
+            }
+        }
+        advanceUntilIdle()
+        val unboundedMs = FIRST_SCREEN.maxOf { unboundedReady.getValue(it) }
+
+        val scheduled = newBackend()
+        val scheduledReady = mutableMapOf<Int, Long>()
+        val start = currentTime
+        val scheduler = PriorityScheduler(this, MAX_CONCURRENCY, clockMs = { currentTime })
+        val window = PrefetchWindow.of(FIRST_SCREEN.first, FIRST_SCREEN.last, ITEM_COUNT, scrollingForward = true)
+        scheduled.keys.forEachIndexed { index, key ->
+            val priority = window.priorityOf(index) ?: index
+            scheduler.submit(key, priority) {
+                scheduled.backend.fetchObject(key)
+                scheduledReady[index] = currentTime - start
+            }
+        }
+        advanceUntilIdle()
+        val scheduledMs = FIRST_SCREEN.maxOf { scheduledReady.getValue(it) }
+
+        val metrics = scheduler.metrics
+        val summary = "First screen ready: unbounded ${unboundedMs}ms, scheduled ${scheduledMs}ms, " +
+            "wait p50 ${metrics.waitP50Ms}ms p95 ${metrics.waitP95Ms}ms max ${metrics.waitMaxMs}ms"
+
+        assertEquals(summary, ITEM_COUNT, scheduledReady.size)
+        assertEquals(summary, ITEM_COUNT.toLong(), metrics.started)
+        assertEquals(summary, 0, metrics.queued + metrics.running)
+        assertTrue("Expected scheduled far below unbounded. $summary", scheduledMs * 5 < unboundedMs)
+    }
+
+    @Test
+    fun reprioritize_servesNewViewportFirstAfterJump() = runTest {
+        val (backend, keys) = newBackend()
+        val ready = mutableMapOf<Int, Long>()
+        val scheduler = PriorityScheduler(this, MAX_CONCURRENCY, clockMs = { currentTime })
+        keys.forEachIndexed { index, key ->
+            scheduler.submit(key, priority = index) {
+                backend.fetchObject(key)
+                ready[index] = currentTime
+            }
+        }
+        advanceTimeBy(2_000)
+
+        // Fling to the bottom of the list, the way HistoryViewModel.onViewportChanged reacts
+        val jumpedAt = currentTime
+        val window = PrefetchWindow.of(280, 287, ITEM_COUNT, scrollingForward = true)
+        scheduler.keys.forEach { key ->
+            val priority = window.priorityOf(keys.indexOf(key))
+            if (priority == null) scheduler.cancel(key) else scheduler.reprioritize(key, priority)
+        }
+        advanceUntilIdle()
+
+        val readyMs = (280..287).maxOf { ready.getValue(it) } - jumpedAt
+        val downloads = backend.requestCount("getObject")
+        val summary = "New viewport ready ${readyMs}ms after the jump, $downloads downloads"
+
+        assertTrue("Expected the new viewport within 3s. $summary", readyMs < 3_000)
+        assertTrue(summary, window.retained.all { it in ready })
+        assertTrue(summary, scheduler.metrics.cancelled > 0)
+        assertTrue("Expected under ${ITEM_COUNT / 2} downloads. $summary", downloads < ITEM_COUNT / 2)
+    }
+
+    @Test
+    fun cancelAll_stopsQueuedAndRunningWork() = runTest {
+        val (backend, keys) = newBackend()
+        var completed = 0
+        val scheduler = PriorityScheduler(this, MAX_CONCURRENCY, clockMs = { currentTime })
+        keys.forEachIndexed { index, key ->
+            scheduler.submit(key, priority = index) {
+                backend.fetchObject(key)
+                completed++
+            }
+        }
+        advanceTimeBy(1_000)
+        val requestsBeforeLeaving = backend.requestCount("getObject")
+
+        scheduler.cancelAll()
+        advanceUntilIdle()
+
+        assertEquals(requestsBeforeLeaving, backend.requestCount("getObject"))
+        assertTrue(completed < MAX_CONCURRENCY * 2)
+        assertEquals(emptySet<String>(), scheduler.keys)
+        assertEquals(ITEM_COUNT.toLong() - completed, scheduler.metrics.cancelled)
+    }
+
+    private data class Fixture(val backend: FakeBackend, val keys: List<String>)
+
+    private fun TestScope.newBackend(): Fixture {
+        val backend = FakeBackend(lambdaScope = backgroundScope, clock = { currentTime })
+        val keys = (0 until ITEM_COUNT).map { backend.resultKeyFor("history-$it") }
+        keys.forEach { backend.putObject(it, THUMBNAIL_BYTES) }
+        return Fixture(backend, keys)
+    }
+
+    companion object {
+        private const val ITEM_COUNT = 300
+        private const val MAX_CONCURRENCY = 4
+        private const val THUMBNAIL_BYTES = 60L * 1024
+        private val FIRST_SCREEN = 0..7
+    }
+}
@@ -0,0 +1,84 @@
+package id.harissabil.wearnow.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Checks the per-stage percentiles of [Tracer.stageStats] and the window of sessions they
+ * are computed over, and that recording a span only bumps [Tracer.revision]
+ */
+class TracerTest {
+
+    @Test
+    fun stageStats_percentilesOfCompletedSpans() {
+        // 1..100ms in shuffled order, plus failures that must not count
+        val spans = (1..100).shuffled(Random(41)).map { span("trace-1", "upload", it.toDouble()) } +
+            span("trace-1", "upload", 10_000.0, FinishedSpan.STATUS_ERROR) +
+            span("trace-1", "upload", 20_000.0, FinishedSpan.STATUS_CANCELLED)
+
+        val upload = Tracer.stageStats(spans).single()
+
+        assertEquals("upload", upload.name)
+        assertEquals(100, upload.count)
+        assertEquals(50.0, upload.p50Ms, 0.0)
+        assertEquals(95.0, upload.p95Ms, 0.0)
+    }
+
+    @Test
+    fun stageStats_coversOnlyTheLatestSessions_slowestMedianFirst() {
+        // Session i compresses in i ms and uploads in 10 * i ms, finishing in that order
+        val spans = (1..SESSIONS).flatMap { i ->
+            listOf(
+                span("trace-$i", "compress", i.toDouble()),
+                span("trace-$i", "upload", 10.0 * i)
+            )
+        }
+
+        val stats = Tracer.stageStats(spans, sessions = Tracer.STATS_SESSIONS)
+
+        assertEquals(listOf("upload", "compress"), stats.map { it.name })
+        // Sessions 6..25 are kept, the median of 20 values is the 10th
+        val compress = stats.last()
+        assertEquals(Tracer.STATS_SESSIONS, compress.count)
+        assertEquals(15.0, compress.p50Ms, 0.0)
+        assertEquals(24.0, compress.p95Ms, 0.0)
+    }
+
+    @Test
+    fun stageStats_withoutSpans_isEmpty() {
+        assertTrue(Tracer.stageStats(emptyList()).isEmpty())
+    }
+
+    @Test
+    fun trace_bumpsRevisionAndKeepsTheSpan() {
+        val revision = Tracer.revision.value
+
+        Tracer.trace("tracer-test") { }
+
+        assertEquals(revision + 1, Tracer.revision.value)
+        assertEquals("tracer-test", Tracer.recentSpans().last().name)
+    }
+
+    private fun span(
+        traceId: String,
+        name: String,
+        durationMs: Double,
+        status: String = FinishedSpan.STATUS_OK,
+    ) = FinishedSpan(
+        traceId = traceId,
+        spanId = "$traceId-$name-$durationMs",
+        parentId = null,
+        name = name,
+        startEpochMs = 0L,
+        durationMs = durationMs,
+        status = status,
+        error = null,
+        attributes = emptyMap()
+    )
+
+    private companion object {
+        const val SESSIONS = 25
+    }
+}
@@ -0,0 +1,66 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+kotlin {
+    jvmToolchain(17)
+}
+
+// The Android-free parts of the image pipeline, placeholders, metadata parser, history index and logger are compiled straight from
+// the app sources, so the benchmarks always measure the rules the app ships with. JvmRaster comes from the unit tests, which run on
+// the same photos. The generated status enum is the one Amplify type the index needs, it is plain Java. The included files have to
+// stay free of Android types for this module to compile.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/amplifyframework/datastore/generated/model/TryOnHistoryStatus.java")
+        }
+        kotlin {
+            srcDir("../app/src/main/java")
+            srcDir("../app/src/test/java")
+            include(
+                "id/harissabil/wearnow/ui/screen/home/utils/CompressionPolicy.kt",
+                "id/harissabil/wearnow/ui/screen/home/utils/GarmentCropDetector.kt",
+                "id/harissabil/wearnow/ui/screen/home/utils/JvmRaster.kt",
+                "id/harissabil/wearnow/data/HistoryIndex.kt",
+                "id/harissabil/wearnow/data/TryOnMetadata.kt",
+                "id/harissabil/wearnow/utils/AppLog.kt",
+                "id/harissabil/wearnow/utils/Blurhash.kt",
+            )
+        }
+    }
+}
+
+dependencies {
+    implementation(libs.gson)
+}
+
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    // A decoded 200 MP photo alone needs ~600 MB
+    jvmArgs = listOf("-Xmx8g")
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    // Run a subset with -Pjmh.includes=<regex>
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+
+tasks.register<JavaExec>("checkBenchmarkBaseline") {
+    group = "verification"
+    description = "Compares the last JMH results with baseline.json, -PupdateBaseline rewrites it"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "id.harissabil.wearnow.benchmark.BaselineCheckKt"
+    args(
+        jmhResults.get().asFile.path,
+        file("baseline.json").path,
+        if (providers.gradleProperty("updateBaseline").isPresent) "--update" else "--check"
+    )
+    mustRunAfter("jmh")
+}
@@ -0,0 +1,158 @@
+package id.harissabil.wearnow.benchmark
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.File
+import kotlin.system.exitProcess
+
+private const val ALLOC_METRIC = "gc.alloc.rate.norm"
+private const val OUTPUT_METRIC = "outputBytes"
+
+private class Measurement(val timeMs: Double, val allocBytes: Double?, val outputBytes: Double?)
+
+private class Tolerances(val time: Double?, val alloc: Double, val output: Double)
+
+/**
+ * Compares a JMH JSON result file with the committed baseline.
+ *
+ * Usage: `BaselineCheck <results.json> <baseline.json> --check|--update`
+ *
+ * Every benchmark/parameter combination is keyed as `Class.method mp=12 orientation=6`
+ * and checked on mean time in ms, whatever unit the benchmark reports in, normalized
+ * allocation and output size, each against its own tolerance from the baseline file. A
+ * result without a baseline entry fails the check as well, a new benchmark or parameter
+ * lands together with its recorded numbers.
+ *
+ * Times only compare on the machine they were recorded on. Until the baseline is recorded on
+ * the reference runner it carries no time tolerance, and only allocation and output size are
+ * checked; the recorded times are kept for reference.
+ */
+fun main(args: Array<String>) {
+    require(args.size == 3) { "Usage: BaselineCheck <results.json> <baseline.json> --check|--update" }
+    val resultsFile = File(args[0])
+    val baselineFile = File(args[1])
+    require(resultsFile.exists()) { "No JMH results at $resultsFile, run the jmh task first" }
+
+    val results = readResults(resultsFile)
+    val baseline = JsonParser.parseString(baselineFile.readText()).asJsonObject
+
+    when (args[2]) {
+        "--update" -> {
+            updateBaseline(baseline, results)
+            baselineFile.writeText(GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(baseline) + "\n")
+            println("Baseline updated with ${results.size} entries")
+        }
+
+        "--check" -> {
+            val regressions = check(baseline, results)
+            if (regressions.isNotEmpty()) {
+                System.err.println("${regressions.size} benchmark regression(s):")
+                regressions.forEach { System.err.println("  $it") }
+                exitProcess(1)
+            }
+            println("No regressions in ${results.size} entries")
+            if (tolerances(baseline).time == null) {
+                println("Times were not compared, the baseline has no time tolerance")
+            }
+        }
+
+        else -> throw IllegalArgumentException("Unknown mode ${args[2]}")
+    }
+}
+
+private fun readResults(file: File): Map<String, Measurement> {
+    val runs = JsonParser.parseString(file.readText()).asJsonArray
+    return runs.associate { element ->
+        val run = element.asJsonObject
+        // Fully qualified name down to Class.method
+        val name = run["benchmark"].asString.split('.').takeLast(2).joinToString(".")
+        val params = run.getAsJsonObject("params")
+            ?.entrySet()
+            ?.sortedBy { it.key }
+            ?.joinToString(" ") { (key, value) -> "${paramLabel(key)}=${value.asString}" }
+            .orEmpty()
+
+        val secondary = run.getAsJsonObject("secondaryMetrics")
+            ?.entrySet()
+            // The gc profiler prefixes its metric names with a middle dot
+            ?.associate { (key, value) -> key.trimStart('·') to value.asJsonObject["score"].asDouble }
+            .orEmpty()
+
+        val primary = run.getAsJsonObject("primaryMetric")
+        val score = primary["score"].asDouble
+        "$name $params".trim() to Measurement(
+            timeMs = score * msPerUnit(primary["scoreUnit"].asString),
+            // Whole bytes, an operation that allocates nothing reads as a fraction of a byte
+            allocBytes = secondary[ALLOC_METRIC]?.let { Math.round(it).toDouble() },
+            // An operation counter is reported in the score's unit per counted byte, see OutputSize
+            outputBytes = secondary[OUTPUT_METRIC]?.takeIf { it > 0.0 }?.let { score / it }
+        )
+    }
+}
+
+// Average time units as JMH writes them, e.g. "us/op"
+private fun msPerUnit(scoreUnit: String): Double = when (scoreUnit.substringBefore('/')) {
+    "ns" -> 1e-6
+    "us" -> 1e-3
+    "ms" -> 1.0
+    "s" -> 1e3
+    "min" -> 60e3
+    else -> throw IllegalArgumentException("Unsupported score unit $scoreUnit, only average times are compared")
+}
+
+private fun paramLabel(param: String): String = if (param == "megapixels") "mp" else param
+
+private fun check(baseline: JsonObject, results: Map<String, Measurement>): List<String> {
+    val tolerances = tolerances(baseline)
+    val entries = baseline.getAsJsonObject("entries") ?: JsonObject()
+    val regressions = mutableListOf<String>()
+
+    results.forEach { (key, current) ->
+        val expected = entries.getAsJsonObject(key)
+        if (expected == null) {
+            regressions.add("$key: no baseline, record one with -PupdateBaseline")
+            return@forEach
+        }
+        tolerances.time?.let { tolerance ->
+            compare(key, "time", expected["timeMs"]?.asDouble, current.timeMs, tolerance)
+                ?.let(regressions::add)
+        }
+        compare(key, "allocation", expected["allocBytes"]?.asDouble, current.allocBytes, tolerances.alloc)
+            ?.let(regressions::add)
+        compare(key, "output size", expected["outputBytes"]?.asDouble, current.outputBytes, tolerances.output)
+            ?.let(regressions::add)
+    }
+    return regressions
+}
+
+private fun compare(key: String, metric: String, expected: Double?, current: Double?, tolerance: Double): String? {
+    if (expected == null || current == null || expected <= 0.0) return null
+    val change = (current - expected) / expected
+    if (change <= tolerance) return null
+    return "$key: $metric %.2f -> %.2f (+%.1f%%, allowed %.1f%%)"
+        .format(expected, current, change * 100, tolerance * 100)
+}
+
+private fun tolerances(baseline: JsonObject): Tolerances {
+    val json = baseline.getAsJsonObject("tolerances") ?: JsonObject()
+    return Tolerances(
+        time = json["time"]?.takeUnless { it.isJsonNull }?.asDouble,
+        alloc = json["alloc"]?.asDouble ?: 0.10,
+        output = json["output"]?.asDouble ?: 0.02
+    )
+}
+
+// Entries of benchmarks left out of a -Pjmh.includes run keep their recorded numbers
+private fun updateBaseline(baseline: JsonObject, results: Map<String, Measurement>) {
+    val recorded = baseline.getAsJsonObject("entries") ?: JsonObject()
+    val merged = recorded.entrySet().associate { (key, value) -> key to value }.toSortedMap()
+    results.forEach { (key, measurement) ->
+        merged[key] = JsonObject().apply {
+            addProperty("timeMs", measurement.timeMs)
+            measurement.allocBytes?.let { addProperty("allocBytes", it) }
+            measurement.outputBytes?.let { addProperty("outputBytes", it) }
+        }
+    }
+    baseline.add("entries", JsonObject().apply { merged.forEach { (key, value) -> add(key, value) } })
+}
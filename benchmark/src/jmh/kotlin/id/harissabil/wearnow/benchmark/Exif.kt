@@ -0,0 +1,83 @@
+package id.harissabil.wearnow.benchmark
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Just enough EXIF to tag and read the orientation of a JPEG, standing in for
+ * androidx ExifInterface which needs an Android runtime
+ */
+object Exif {
+
+    const val ORIENTATION_NORMAL = 1
+
+    private const val TAG_ORIENTATION = 0x0112
+    private const val TYPE_SHORT = 3
+    private val EXIF_HEADER = byteArrayOf('E'.code.toByte(), 'x'.code.toByte(), 'i'.code.toByte(), 'f'.code.toByte(), 0, 0)
+
+    /**
+     * Copy of [jpeg] with an APP1 segment holding only the orientation tag, placed after
+     * the JFIF header like camera output
+     */
+    fun withOrientation(jpeg: ByteArray, orientation: Int): ByteArray {
+        val segment = ByteBuffer.allocate(36).order(ByteOrder.BIG_ENDIAN).apply {
+            put(0xFF.toByte()).put(0xE1.toByte())
+            putShort(34) // Segment length, including these two bytes
+            put(EXIF_HEADER)
+            // TIFF header: big endian, magic 42, IFD0 at offset 8
+            put('M'.code.toByte()).put('M'.code.toByte()).putShort(42).putInt(8)
+            putShort(1) // One IFD entry
+            putShort(TAG_ORIENTATION.toShort()).putShort(TYPE_SHORT.toShort()).putInt(1)
+            putShort(orientation.toShort()).putShort(0)
+            putInt(0) // No next IFD
+        }.array()
+
+        var insertAt = 2
+        if (marker(jpeg, 2) == 0xE0) insertAt += 2 + segmentLength(jpeg, 2)
+        return jpeg.copyOfRange(0, insertAt) + segment + jpeg.copyOfRange(insertAt, jpeg.size)
+    }
+
+    /**
+     * EXIF orientation of [jpeg], [ORIENTATION_NORMAL] when it has none
+     */
+    fun orientation(jpeg: ByteArray): Int {
+        var offset = 2
+        while (offset + 4 <= jpeg.size) {
+            val marker = marker(jpeg, offset)
+            // Start of scan, no more metadata after this
+            if (marker == -1 || marker == 0xDA) break
+
+            val length = segmentLength(jpeg, offset)
+            if (marker == 0xE1 && hasExifHeader(jpeg, offset + 4)) {
+                return readOrientation(ByteBuffer.wrap(jpeg, offset + 10, length - 8).slice())
+                    ?: ORIENTATION_NORMAL
+            }
+            offset += 2 + length
+        }
+        return ORIENTATION_NORMAL
+    }
+
+    private fun readOrientation(tiff: ByteBuffer): Int? {
+        tiff.order(if (tiff.get(0) == 'I'.code.toByte()) ByteOrder.LITTLE_ENDIAN else ByteOrder.BIG_ENDIAN)
+        val ifdOffset = tiff.getInt(4)
+        val entries = tiff.getShort(ifdOffset).toInt() and 0xFFFF
+        for (i in 0 until entries) {
+            val entry = ifdOffset + 2 + i * 12
+            if (tiff.getShort(entry).toInt() and 0xFFFF == TAG_ORIENTATION) {
+                return tiff.getShort(entry + 8).toInt() and 0xFFFF
+            }
+        }
+        return null
+    }
+
+    private fun marker(jpeg: ByteArray, offset: Int): Int {
+        if (jpeg[offset] != 0xFF.toByte()) return -1
+        return jpeg[offset + 1].toInt() and 0xFF
+    }
+
+    private fun segmentLength(jpeg: ByteArray, offset: Int): Int =
+        ((jpeg[offset + 2].toInt() and 0xFF) shl 8) or (jpeg[offset + 3].toInt() and 0xFF)
+
+    private fun hasExifHeader(jpeg: ByteArray, offset: Int): Boolean =
+        EXIF_HEADER.indices.all { jpeg[offset + it] == EXIF_HEADER[it] }
+}
@@ -0,0 +1,124 @@
+package id.harissabil.wearnow.benchmark
+
+import com.amplifyframework.datastore.generated.model.TryOnHistoryStatus
+import id.harissabil.wearnow.data.HistoryIndex
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of the history index over [RECORDS] try-ons.
+ *
+ * [sync] indexes a freshly loaded history, [resync] is the reload that finds every record
+ * unchanged. [query] runs the filters of the history screen, which runs them on the main
+ * thread as a filter changes, so each should stay far below a 16ms frame. Records are
+ * plain [HistoryIndex.Record]s with their options already read, the metadata parse is
+ * measured by MetadataBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+open class HistoryIndexBenchmark {
+
+    private class Record(
+        override val id: String,
+        override val createdAtMs: Long?,
+        override val updatedAt: String?,
+        override val status: TryOnHistoryStatus?,
+        override val garmentClass: String,
+        override val mergeStyle: String,
+    ) : HistoryIndex.Record
+
+    @State(Scope.Benchmark)
+    open class Filter {
+
+        @Param(
+            "all", "oldestFirst", "failed", "lowerDetailed",
+            "completedUpper", "createdRange", "seamlessSince", "unknownClass"
+        )
+        @JvmField
+        var filter: String = ""
+
+        lateinit var query: HistoryIndex.Query
+
+        @Setup(Level.Trial)
+        fun buildQuery() {
+            query = when (filter) {
+                "all" -> HistoryIndex.Query()
+                "oldestFirst" -> HistoryIndex.Query(newestFirst = false)
+                "failed" -> HistoryIndex.Query(status = TryOnHistoryStatus.FAILED)
+                "lowerDetailed" -> HistoryIndex.Query(garmentClass = "LOWER_BODY", mergeStyle = "DETAILED")
+                "completedUpper" -> HistoryIndex.Query(status = TryOnHistoryStatus.COMPLETED, garmentClass = "UPPER_BODY")
+                "createdRange" -> HistoryIndex.Query(
+                    createdFromMs = START_MS + 2_000 * MINUTE_MS,
+                    createdUntilMs = START_MS + 2_500 * MINUTE_MS
+                )
+
+                "seamlessSince" -> HistoryIndex.Query(
+                    status = TryOnHistoryStatus.COMPLETED,
+                    mergeStyle = "SEAMLESS",
+                    createdFromMs = START_MS + 7 * DAY_MS,
+                    newestFirst = false
+                )
+
+                "unknownClass" -> HistoryIndex.Query(garmentClass = "NOT_A_CLASS")
+                else -> throw IllegalArgumentException("Unknown filter $filter")
+            }
+        }
+    }
+
+    private lateinit var records: List<Record>
+    private lateinit var index: HistoryIndex
+
+    @Setup(Level.Trial)
+    fun generateHistory() {
+        val random = Random(SEED)
+        records = List(RECORDS) { i ->
+            val roll = random.nextDouble()
+            val status = when {
+                roll < 0.7 -> TryOnHistoryStatus.COMPLETED
+                roll < 0.8 -> TryOnHistoryStatus.FAILED
+                else -> TryOnHistoryStatus.PROCESSING
+            }
+            // Older records were created before the options were saved, they read the defaults
+            val withOptions = random.nextDouble() >= 0.1
+            val createdAtMs = START_MS + i * MINUTE_MS
+            Record(
+                id = "history-$i",
+                createdAtMs = createdAtMs,
+                updatedAt = createdAtMs.toString(),
+                status = status,
+                garmentClass = if (withOptions) GARMENT_CLASSES.random(random) else GARMENT_CLASSES.first(),
+                mergeStyle = if (withOptions) MERGE_STYLES.random(random) else MERGE_STYLES.first()
+            )
+        }
+        index = HistoryIndex().apply { sync(records) }
+    }
+
+    @Benchmark
+    fun sync(): HistoryIndex = HistoryIndex().apply { sync(records) }
+
+    @Benchmark
+    fun resync(): Int = index.sync(records)
+
+    @Benchmark
+    fun query(filter: Filter): List<String> = index.query(filter.query)
+
+    private companion object {
+        const val RECORDS = 10_000
+        const val SEED = 49L
+        const val START_MS = 1_700_000_000_000L
+        const val MINUTE_MS = 60_000L
+        const val DAY_MS = 24 * 60 * MINUTE_MS
+        val GARMENT_CLASSES = listOf("UPPER_BODY", "LOWER_BODY", "FULL_BODY", "FOOTWEAR")
+        val MERGE_STYLES = listOf("BALANCED", "SEAMLESS", "DETAILED")
+    }
+}
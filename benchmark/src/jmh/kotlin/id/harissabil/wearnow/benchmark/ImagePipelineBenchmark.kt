@@ -0,0 +1,125 @@
+package id.harissabil.wearnow.benchmark
+
+import id.harissabil.wearnow.ui.screen.home.utils.CompressionPolicy
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.awt.image.BufferedImage
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time, allocation (with the gc profiler) and output size of each pipeline stage for
+ * every corpus resolution.
+ *
+ * Stages get their input from state prepared outside the measurement, so a regression
+ * points at one stage. Only [orient] and [fullPipeline] depend on the EXIF orientation,
+ * they alone run for every orientation in [Rotated]; the other stages work on the upright
+ * photo. [fullPipeline] is the end-to-end garment upload path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+open class ImagePipelineBenchmark {
+
+    @Param("12", "48", "200")
+    @JvmField
+    var megapixels: Int = 0
+
+    private lateinit var jpeg: ByteArray
+
+    @Setup(Level.Trial)
+    fun loadPhoto() {
+        jpeg = PhotoCorpus.photo(PhotoCorpus.Resolution.of(megapixels), UPRIGHT)
+    }
+
+    /**
+     * Intermediate images of the upright photo, only built for the stages that need them
+     */
+    @State(Scope.Benchmark)
+    open class Stages {
+        lateinit var decoded: BufferedImage
+        lateinit var resized: BufferedImage
+
+        @Setup(Level.Trial)
+        fun prepare(benchmark: ImagePipelineBenchmark) {
+            decoded = RasterPipeline.decode(benchmark.jpeg)
+            resized = RasterPipeline.resize(decoded)
+        }
+    }
+
+    /**
+     * The photo as the camera stored it in [orientation]
+     */
+    @State(Scope.Benchmark)
+    open class Rotated {
+        @Param("1", "3", "6", "8")
+        @JvmField
+        var orientation: Int = 0
+
+        lateinit var jpeg: ByteArray
+        lateinit var decoded: BufferedImage
+
+        @Setup(Level.Trial)
+        fun prepare(benchmark: ImagePipelineBenchmark) {
+            jpeg = PhotoCorpus.photo(PhotoCorpus.Resolution.of(benchmark.megapixels), orientation)
+            decoded = RasterPipeline.decode(jpeg)
+        }
+    }
+
+    /**
+     * Bytes encoded per operation. JMH normalizes operation counters like the primary
+     * result, so this reports milliseconds per output byte, and BaselineCheck divides the
+     * time per operation by it to get the output size back.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    open class OutputSize {
+        @JvmField
+        var outputBytes: Long = 0
+
+        @Setup(Level.Iteration)
+        fun reset() {
+            outputBytes = 0
+        }
+    }
+
+    @Benchmark
+    fun decode(): BufferedImage = RasterPipeline.decode(jpeg)
+
+    @Benchmark
+    fun readOrientation(): Int = Exif.orientation(jpeg)
+
+    @Benchmark
+    fun orient(rotated: Rotated): BufferedImage =
+        RasterPipeline.orient(rotated.decoded, rotated.orientation)
+
+    @Benchmark
+    fun cropToGarment(stages: Stages): BufferedImage =
+        RasterPipeline.cropToGarment(stages.decoded)
+
+    @Benchmark
+    fun resize(stages: Stages): BufferedImage = RasterPipeline.resize(stages.decoded)
+
+    @Benchmark
+    fun qualityLoop(stages: Stages, output: OutputSize): CompressionPolicy.Encoded =
+        RasterPipeline.encodeWithinBudget(stages.resized).also {
+            output.outputBytes += it.bytes.size
+        }
+
+    @Benchmark
+    fun fullPipeline(rotated: Rotated, output: OutputSize): RasterPipeline.Output =
+        RasterPipeline.compress(rotated.jpeg, autoCrop = true).also {
+            output.outputBytes += it.bytes.size
+        }
+
+    private companion object {
+        const val UPRIGHT = 1
+    }
+}
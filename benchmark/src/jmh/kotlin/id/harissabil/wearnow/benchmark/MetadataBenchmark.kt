@@ -0,0 +1,77 @@
+package id.harissabil.wearnow.benchmark
+
+import com.google.gson.JsonParser
+import id.harissabil.wearnow.data.TryOnMetadata
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Cost of parsing the metadata of [RECORDS] try-ons, one op per batch.
+ *
+ * [parse] is the streaming parser behind TryOnMetadata, which indexing a freshly synced
+ * history runs once per record. [parseTree] builds the Gson tree first and reads the same
+ * fields from it, as the app did before. "options" metadata holds the options a try-on
+ * was started with, "stats" adds the Lambda's processing time and other values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+open class MetadataBenchmark {
+
+    @Param("options", "stats")
+    @JvmField
+    var shape: String = ""
+
+    private lateinit var metadata: List<String>
+
+    @Setup(Level.Trial)
+    fun generateMetadata() {
+        val random = Random(SEED)
+        metadata = List(RECORDS) {
+            buildString {
+                append("""{"garmentClass":"${GARMENT_CLASSES.random(random)}",""")
+                append(""""mergeStyle":"${MERGE_STYLES.random(random)}"""")
+                if (shape == "stats") {
+                    append(""","processingTime":${random.nextInt(20_000, 60_000)}""")
+                    append(""","inferenceMs":${random.nextInt(10_000, 40_000)}""")
+                    append(""","queueMs":${random.nextInt(0, 5_000)}""")
+                    append(""","confidence":${random.nextDouble()}""")
+                    append(""","model":{"name":"tryon","version":"${random.nextInt(1, 9)}.0"}""")
+                }
+                append("}")
+            }
+        }
+    }
+
+    @Benchmark
+    fun parse(blackhole: Blackhole) {
+        metadata.forEach { blackhole.consume(TryOnMetadata.parse(it)) }
+    }
+
+    @Benchmark
+    fun parseTree(blackhole: Blackhole) {
+        metadata.forEach { json ->
+            val tree = JsonParser.parseString(json).asJsonObject
+            blackhole.consume(tree.get("garmentClass")?.asString)
+            blackhole.consume(tree.get("mergeStyle")?.asString)
+            blackhole.consume(tree.get("processingTime")?.asLong)
+        }
+    }
+
+    private companion object {
+        const val RECORDS = 1_000
+        const val SEED = 50L
+        val GARMENT_CLASSES = listOf("UPPER_BODY", "LOWER_BODY", "FULL_BODY", "FOOTWEAR")
+        val MERGE_STYLES = listOf("BALANCED", "SEAMLESS", "DETAILED")
+    }
+}
@@ -0,0 +1,54 @@
+package id.harissabil.wearnow.benchmark
+
+import id.harissabil.wearnow.ui.screen.home.utils.JvmRaster
+import java.io.File
+
+/**
+ * Fixed set of synthetic phone photos.
+ *
+ * Each photo is a 4:3 landscape frame of [JvmRaster.syntheticPhoto], seeded so every run
+ * encodes the same bytes. The EXIF orientation is written into an APP1 segment just like a
+ * camera does, without touching the pixels. Files are generated once and kept in the temp
+ * directory since the 200 MP ones take a while.
+ */
+object PhotoCorpus {
+
+    enum class Resolution(val megapixels: Int, val width: Int, val height: Int) {
+        MP_12(12, 4000, 3000),
+        MP_48(48, 8000, 6000),
+        MP_200(200, 16320, 12240);
+
+        companion object {
+            fun of(megapixels: Int): Resolution = entries.first { it.megapixels == megapixels }
+        }
+    }
+
+    private const val SOURCE_JPEG_QUALITY = 92
+    private const val SEED = 20240501L
+    private val corpusDir = File(System.getProperty("java.io.tmpdir"), "wearnow-benchmark-corpus")
+
+    /**
+     * JPEG bytes of the photo at [resolution] tagged with EXIF [orientation]
+     */
+    fun photo(resolution: Resolution, orientation: Int): ByteArray {
+        val file = File(corpusDir, "photo_${resolution.megapixels}mp_o$orientation.jpg")
+        if (!file.exists()) {
+            corpusDir.mkdirs()
+            val tagged = Exif.withOrientation(untagged(resolution), orientation)
+            val partial = File(corpusDir, "${file.name}.part")
+            partial.writeBytes(tagged)
+            partial.renameTo(file)
+        }
+        return file.readBytes()
+    }
+
+    private fun untagged(resolution: Resolution): ByteArray {
+        val file = File(corpusDir, "photo_${resolution.megapixels}mp.jpg")
+        if (file.exists()) return file.readBytes()
+
+        val photo = JvmRaster.syntheticPhoto(resolution.width, resolution.height, SEED)
+        val bytes = JvmRaster.encodeJpeg(photo, SOURCE_JPEG_QUALITY)
+        file.writeBytes(bytes)
+        return bytes
+    }
+}
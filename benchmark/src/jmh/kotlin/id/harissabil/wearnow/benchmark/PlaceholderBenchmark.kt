@@ -0,0 +1,74 @@
+package id.harissabil.wearnow.benchmark
+
+import id.harissabil.wearnow.utils.Blurhash
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of the history card placeholders.
+ *
+ * [decode] runs on the main thread the first time a card is composed, a screen of about
+ * eight cards has to fit well inside one 16ms frame, so one decode should stay under
+ * 0.5ms at the app's size of 16px. [encode] runs off the main thread once per garment
+ * upload and result fetch, on the 32px image HistoryPlaceholders downscales to.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+open class PlaceholderBenchmark {
+
+    @Param("16", "32")
+    @JvmField
+    var decodeSize: Int = 0
+
+    @Param("4x3", "6x5")
+    @JvmField
+    var components: String = ""
+
+    private lateinit var pixels: IntArray
+    private var width = 0
+    private var height = 0
+    private lateinit var hash: String
+
+    @Setup(Level.Trial)
+    fun encodePhoto() {
+        val photo = RasterPipeline.decode(PhotoCorpus.photo(PhotoCorpus.Resolution.of(12), 1))
+        val scale = ENCODE_SIZE.toFloat() / maxOf(photo.width, photo.height)
+        width = maxOf(1, (photo.width * scale).toInt())
+        height = maxOf(1, (photo.height * scale).toInt())
+
+        val small = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        small.createGraphics().apply {
+            setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
+            drawImage(photo, 0, 0, width, height, null)
+            dispose()
+        }
+        pixels = small.getRGB(0, 0, width, height, null, 0, width)
+
+        val (componentsX, componentsY) = components.split("x").map(String::toInt)
+        hash = Blurhash.encode(pixels, width, height, componentsX, componentsY)
+    }
+
+    @Benchmark
+    fun decode(): IntArray = Blurhash.decode(hash, decodeSize, decodeSize)
+
+    @Benchmark
+    fun encode(): String {
+        val (componentsX, componentsY) = components.split("x").map(String::toInt)
+        return Blurhash.encode(pixels, width, height, componentsX, componentsY)
+    }
+
+    private companion object {
+        const val ENCODE_SIZE = 32
+    }
+}
@@ -0,0 +1,97 @@
+package id.harissabil.wearnow.benchmark
+
+import id.harissabil.wearnow.ui.screen.home.utils.CompressionPolicy
+import id.harissabil.wearnow.ui.screen.home.utils.GarmentCropDetector
+import id.harissabil.wearnow.ui.screen.home.utils.JvmRaster
+import java.awt.RenderingHints
+import java.awt.geom.AffineTransform
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import javax.imageio.ImageIO
+
+/**
+ * ImageCompressionUtils.compressImageFile rebuilt on java.awt rasters.
+ *
+ * Every step mirrors its Android counterpart one to one (BitmapFactory decode, EXIF
+ * matrix, garment crop on a thumbnail, bilinear scale, JPEG quality loop) and sizing and
+ * quality come from the shared [CompressionPolicy], so changes in the work the pipeline
+ * does show up here even though absolute times differ from a device.
+ */
+object RasterPipeline {
+
+    class Output(val bytes: ByteArray, val width: Int, val height: Int, val quality: Int)
+
+    fun compress(jpeg: ByteArray, autoCrop: Boolean): Output {
+        val decoded = decode(jpeg)
+        val oriented = orient(decoded, Exif.orientation(jpeg))
+        val cropped = if (autoCrop) cropToGarment(oriented) else oriented
+        val resized = resize(cropped)
+        val encoded = encodeWithinBudget(resized)
+        return Output(encoded.bytes, resized.width, resized.height, encoded.quality)
+    }
+
+    fun decode(jpeg: ByteArray): BufferedImage =
+        ImageIO.read(ByteArrayInputStream(jpeg))
+            ?: throw IllegalArgumentException("Failed to decode image")
+
+    /**
+     * Apply EXIF [orientation], the same transforms ImageCompressionUtils builds its Matrix from
+     */
+    fun orient(image: BufferedImage, orientation: Int): BufferedImage {
+        val w = image.width.toDouble()
+        val h = image.height.toDouble()
+        val transform = when (orientation) {
+            2 -> AffineTransform(-1.0, 0.0, 0.0, 1.0, w, 0.0) // Flip horizontal
+            3 -> AffineTransform(-1.0, 0.0, 0.0, -1.0, w, h) // Rotate 180
+            4 -> AffineTransform(1.0, 0.0, 0.0, -1.0, 0.0, h) // Flip vertical
+            5 -> AffineTransform(0.0, 1.0, 1.0, 0.0, 0.0, 0.0) // Transpose
+            6 -> AffineTransform(0.0, 1.0, -1.0, 0.0, h, 0.0) // Rotate 90
+            7 -> AffineTransform(0.0, -1.0, -1.0, 0.0, h, w) // Transverse
+            8 -> AffineTransform(0.0, -1.0, 1.0, 0.0, 0.0, w) // Rotate 270
+            else -> return image
+        }
+        val swapsAxes = orientation >= 5
+        val target = BufferedImage(
+            if (swapsAxes) image.height else image.width,
+            if (swapsAxes) image.width else image.height,
+            BufferedImage.TYPE_INT_RGB
+        )
+        // Drawn like Bitmap.createBitmap with a Matrix; AffineTransformOp rejects the
+        // decoder's 3-byte BGR rasters. Right angles map pixels exactly, so no interpolation.
+        target.createGraphics().apply {
+            setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR)
+            drawImage(image, transform, null)
+        }.dispose()
+        return target
+    }
+
+    fun cropToGarment(image: BufferedImage): BufferedImage {
+        val scaleFactor = minOf(
+            GarmentCropDetector.ANALYSIS_SIZE.toFloat() / image.width,
+            GarmentCropDetector.ANALYSIS_SIZE.toFloat() / image.height,
+            1f
+        )
+        val thumbWidth = maxOf(1, (image.width * scaleFactor).toInt())
+        val thumbHeight = maxOf(1, (image.height * scaleFactor).toInt())
+        val thumbnail = JvmRaster.scale(image, thumbWidth, thumbHeight)
+
+        val pixels = thumbnail.getRGB(0, 0, thumbWidth, thumbHeight, null, 0, thumbWidth)
+        val bounds = GarmentCropDetector.detect(pixels, thumbWidth, thumbHeight)
+            ?.scaleTo(thumbWidth, thumbHeight, image.width, image.height)
+            ?: return image
+
+        // Bitmap.createBitmap copies the region, so does this
+        val region = image.getSubimage(bounds.left, bounds.top, bounds.width, bounds.height)
+        return BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB).also {
+            it.createGraphics().apply { drawImage(region, 0, 0, null) }.dispose()
+        }
+    }
+
+    fun resize(image: BufferedImage): BufferedImage {
+        val (width, height) = CompressionPolicy.scaledSize(image.width, image.height) ?: return image
+        return JvmRaster.scale(image, width, height)
+    }
+
+    fun encodeWithinBudget(image: BufferedImage): CompressionPolicy.Encoded =
+        CompressionPolicy.encodeWithinBudget { quality -> JvmRaster.encodeJpeg(image, quality) }
+}
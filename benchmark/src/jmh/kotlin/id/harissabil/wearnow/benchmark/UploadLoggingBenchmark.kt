@@ -0,0 +1,68 @@
+package id.harissabil.wearnow.benchmark
+
+import id.harissabil.wearnow.utils.AppLog
+import id.harissabil.wearnow.utils.LogSink
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Logging cost of one upload's progress callbacks, a 5 MB file reported every 8 KB.
+ *
+ * [eagerTemplate] is the string template the upload loop used to hand to Log.d, built
+ * whether or not anything is written; [structuredEvent] is the AppLog event that replaced
+ * it. Run with the gc profiler and compare gc.alloc.rate.norm per [build].
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+open class UploadLoggingBenchmark {
+
+    @Param("release", "debug")
+    @JvmField
+    var build: String = ""
+
+    private var written = 0L
+
+    @Setup(Level.Trial)
+    fun installSink() {
+        val minLevel = if (build == "debug") AppLog.DEBUG else AppLog.WARN
+        AppLog.install(LogSink { _, _, message, _ -> written += message.length }, minLevel)
+    }
+
+    @Benchmark
+    fun eagerTemplate(blackhole: Blackhole): Long {
+        for (currentBytes in PROGRESS_STEP..TOTAL_BYTES step PROGRESS_STEP) {
+            val message = "Upload progress: ${currentBytes.toDouble() / TOTAL_BYTES}"
+            // Consumed so the JIT can't drop the template when nothing is written
+            blackhole.consume(message)
+            if (AppLog.isLoggable(AppLog.DEBUG)) written += message.length
+        }
+        return written
+    }
+
+    @Benchmark
+    fun structuredEvent(): Long {
+        for (currentBytes in PROGRESS_STEP..TOTAL_BYTES step PROGRESS_STEP) {
+            AppLog.event(TAG, "upload_progress") {
+                field("bytes", currentBytes)
+                field("total", TOTAL_BYTES)
+            }
+        }
+        return written
+    }
+
+    private companion object {
+        const val TAG = "UploadLoggingBenchmark"
+        const val TOTAL_BYTES = 5L * 1024 * 1024
+        const val PROGRESS_STEP = 8L * 1024
+    }
+}
@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "wearnow-android"
 include(":app")
+include(":benchmark")